@@ -29,7 +29,6 @@
 package org.mastodon.mamut.io.csv;
 
 import java.io.BufferedReader;
-import java.io.FileReader;
 import java.io.IOException;
 import java.io.Reader;
 
@@ -55,7 +54,7 @@ public class AutoDetectCSVSeparator
 
 	public static char autoDetect( final String filePath ) throws IOException
 	{
-		return autoDetect( new FileReader( filePath ) );
+		return autoDetect( CompressedInput.openReader( filePath ) );
 	}
 
 	public static char autoDetect( final Reader in ) throws IOException
@@ -0,0 +1,163 @@
+/*-
+ * #%L
+ * mastodon-pasteur
+ * %%
+ * Copyright (C) 2019 - 2025 Tobias Pietzsch, Jean-Yves Tinevez
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package org.mastodon.mamut.io.csv;
+
+import java.util.Arrays;
+
+/**
+ * The resolved layout of a CSV file: the index of each column to import, and
+ * the constants applied to the imported values.
+ * <p>
+ * Optional columns that are not imported have an index of <code>-1</code>.
+ */
+final class CSVColumns
+{
+
+	final int xcol;
+
+	final int ycol;
+
+	final int zcol;
+
+	final int framecol;
+
+	final int qualitycol;
+
+	final int radiuscol;
+
+	final int idcol;
+
+	final int parentIdcol;
+
+	final int labelcol;
+
+	final int tagcol;
+
+	/**
+	 * The track id column, only used to link the spots when there is no
+	 * parent id column.
+	 */
+	final int trackcol;
+
+	final CSVImporter.IdType idType;
+
+	/**
+	 * The decimal mark of the numbers, '.' or ','.
+	 */
+	final char decimalMark;
+
+	/**
+	 * The header of each column of the file, to report errors.
+	 */
+	final String[] headers;
+
+	/**
+	 * The extra columns imported in the {@link ImportedColumnsFeature}, and
+	 * their headers.
+	 */
+	final int[] extracols;
+
+	final String[] extraNames;
+
+	final double radius;
+
+	final double xOrigin;
+
+	final double yOrigin;
+
+	final double zOrigin;
+
+	/**
+	 * Selects the rows to import. Other rows are skipped.
+	 */
+	final SpotFilter filter;
+
+	CSVColumns(
+			final int xcol,
+			final int ycol,
+			final int zcol,
+			final int framecol,
+			final int qualitycol,
+			final int radiuscol,
+			final int idcol,
+			final int parentIdcol,
+			final int labelcol,
+			final int tagcol,
+			final int trackcol,
+			final CSVImporter.IdType idType,
+			final char decimalMark,
+			final String[] headers,
+			final int[] extracols,
+			final String[] extraNames,
+			final double radius,
+			final double xOrigin,
+			final double yOrigin,
+			final double zOrigin,
+			final SpotFilter filter )
+	{
+		this.xcol = xcol;
+		this.ycol = ycol;
+		this.zcol = zcol;
+		this.framecol = framecol;
+		this.qualitycol = qualitycol;
+		this.radiuscol = radiuscol;
+		this.idcol = idcol;
+		// Links can only be resolved if we have ids.
+		this.parentIdcol = idcol < 0 ? -1 : parentIdcol;
+		this.labelcol = labelcol;
+		this.tagcol = tagcol;
+		this.trackcol = this.parentIdcol < 0 ? trackcol : -1;
+		this.idType = idType;
+		this.decimalMark = decimalMark;
+		this.headers = headers;
+		this.extracols = extracols;
+		this.extraNames = extraNames;
+		this.radius = radius;
+		this.xOrigin = xOrigin;
+		this.yOrigin = yOrigin;
+		this.zOrigin = zOrigin;
+		this.filter = filter;
+	}
+
+	/**
+	 * Returns whether the same optional columns are imported with this layout
+	 * and the specified one, possibly at different positions.
+	 */
+	boolean hasSameOptionalColumns( final CSVColumns other )
+	{
+		return ( qualitycol < 0 ) == ( other.qualitycol < 0 )
+				&& ( radiuscol < 0 ) == ( other.radiuscol < 0 )
+				&& ( idcol < 0 ) == ( other.idcol < 0 )
+				&& ( parentIdcol < 0 ) == ( other.parentIdcol < 0 )
+				&& ( labelcol < 0 ) == ( other.labelcol < 0 )
+				&& ( tagcol < 0 ) == ( other.tagcol < 0 )
+				&& ( trackcol < 0 ) == ( other.trackcol < 0 )
+				&& Arrays.equals( extraNames, other.extraNames );
+	}
+}
@@ -0,0 +1,349 @@
+/*-
+ * #%L
+ * mastodon-pasteur
+ * %%
+ * Copyright (C) 2019 - 2025 Tobias Pietzsch, Jean-Yves Tinevez
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package org.mastodon.mamut.io.csv;
+
+import static java.nio.file.StandardWatchEventKinds.ENTRY_CREATE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_MODIFY;
+import static java.nio.file.StandardWatchEventKinds.OVERFLOW;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+
+import org.scijava.log.Logger;
+
+/**
+ * Watches a directory and imports the CSV files that appear in it, for
+ * instance the files written for each time-point by a segmentation running
+ * during the acquisition.
+ * <p>
+ * New files are imported on a background thread, with the column mapping and
+ * options of the specified {@link CSVImporter.Builder}, once no change was
+ * detected on them for {@value #SETTLE_DELAY_MS} ms. Files that settle
+ * together are imported in the order of their names. Each file is imported in
+ * a single short batch under the graph write lock, so the views are updated
+ * after each file. The files present in the directory when the watch starts
+ * are not imported, nor are the changes of a file after it was imported.
+ * <p>
+ * All the files are imported in a single {@link CSVImportSession}, so that
+ * the parent ids of a file are resolved against the spots of the files
+ * imported before, and the tags of all files are added to one tag set.
+ * <p>
+ * The time taken to import each file, and the latency between its
+ * appearance and the end of its import, are logged.
+ */
+public class CSVDirectoryWatcher implements Closeable
+{
+
+	/**
+	 * Delay without change after which a file is considered complete.
+	 */
+	public static final long SETTLE_DELAY_MS = 500;
+
+	private final Path directory;
+
+	private final PathMatcher matcher;
+
+	private final CSVImporter.Builder builder;
+
+	private final Logger logger;
+
+	private final CSVImportSession session = new CSVImportSession();
+
+	/**
+	 * Files not imported yet, sorted by name.
+	 */
+	private final Map< Path, Pending > pending = new TreeMap<>();
+
+	private final Set< Path > imported = new HashSet<>();
+
+	private WatchService watchService;
+
+	private Thread thread;
+
+	private volatile boolean running;
+
+	/**
+	 * The importer currently running, if any.
+	 */
+	private volatile CSVImporter runningImporter;
+
+	private int nFiles = 0;
+
+	/**
+	 * Creates a watcher. It does not watch the directory until
+	 * {@link #start()} is called.
+	 *
+	 * @param directory
+	 *            the directory to watch.
+	 * @param glob
+	 *            a glob pattern the names of the files to import must match,
+	 *            for instance <code>"*.csv"</code>.
+	 * @param builder
+	 *            the builder used to create an importer for each file, with
+	 *            the file path and the session of the watcher set. It should
+	 *            not be modified while the watcher runs.
+	 * @param logger
+	 *            the logger to report imports and errors to.
+	 */
+	public CSVDirectoryWatcher( final Path directory, final String glob, final CSVImporter.Builder builder, final Logger logger )
+	{
+		this.directory = directory;
+		this.matcher = FileSystems.getDefault().getPathMatcher( "glob:" + glob );
+		this.builder = builder;
+		this.logger = logger;
+	}
+
+	/**
+	 * Starts watching the directory.
+	 *
+	 * @throws IOException
+	 *             if the directory cannot be watched.
+	 */
+	public synchronized void start() throws IOException
+	{
+		if ( thread != null )
+			return;
+
+		watchService = FileSystems.getDefault().newWatchService();
+		try
+		{
+			directory.register( watchService, ENTRY_CREATE, ENTRY_MODIFY );
+			// Ignore the files already there.
+			try (final DirectoryStream< Path > files = Files.newDirectoryStream( directory ))
+			{
+				for ( final Path file : files )
+					imported.add( file );
+			}
+		}
+		catch ( final IOException e )
+		{
+			watchService.close();
+			throw e;
+		}
+
+		running = true;
+		thread = new Thread( this::watch, "Mastodon CSV directory watcher" );
+		thread.setDaemon( true );
+		thread.start();
+		logger.info( "Watching " + directory + " for new files.\n" );
+	}
+
+	/**
+	 * Stops watching the directory. The import running, if any, is canceled.
+	 */
+	@Override
+	public synchronized void close()
+	{
+		if ( thread == null )
+			return;
+
+		// Closing the watch service wakes up the watching thread.
+		running = false;
+		thread = null;
+		final CSVImporter importer = runningImporter;
+		if ( importer != null )
+			importer.cancel( "The directory watcher was stopped." );
+		try
+		{
+			watchService.close();
+		}
+		catch ( final IOException e )
+		{
+			e.printStackTrace();
+		}
+		logger.info( "Stopped watching " + directory + ". " + nFiles + " files imported.\n" );
+	}
+
+	/**
+	 * Returns whether the directory is watched.
+	 *
+	 * @return <code>true</code> if the directory is watched.
+	 */
+	public boolean isRunning()
+	{
+		return running;
+	}
+
+	/**
+	 * Returns the watched directory.
+	 *
+	 * @return the directory.
+	 */
+	public Path getDirectory()
+	{
+		return directory;
+	}
+
+	private void watch()
+	{
+		try
+		{
+			while ( running )
+			{
+				final WatchKey key = watchService.poll( SETTLE_DELAY_MS, TimeUnit.MILLISECONDS );
+				final long now = System.nanoTime();
+				if ( key != null )
+				{
+					for ( final WatchEvent< ? > event : key.pollEvents() )
+					{
+						if ( event.kind() == OVERFLOW )
+							rescan( now );
+						else
+							changed( directory.resolve( ( Path ) event.context() ), now );
+					}
+					if ( !key.reset() )
+					{
+						logger.error( "Cannot watch " + directory + " anymore.\n" );
+						break;
+					}
+				}
+				importSettled( System.nanoTime() );
+			}
+		}
+		catch ( final InterruptedException e )
+		{
+			Thread.currentThread().interrupt();
+		}
+		catch ( final ClosedWatchServiceException e )
+		{
+			// Stopped while polling.
+		}
+		finally
+		{
+			running = false;
+		}
+	}
+
+	private void changed( final Path file, final long now )
+	{
+		if ( imported.contains( file ) || !matcher.matches( file.getFileName() ) )
+			return;
+		final Pending p = pending.get( file );
+		if ( p == null )
+			pending.put( file, new Pending( now ) );
+		else
+			p.lastChange = now;
+	}
+
+	/**
+	 * Looks for the files created while events were lost.
+	 */
+	private void rescan( final long now )
+	{
+		try (final DirectoryStream< Path > files = Files.newDirectoryStream( directory ))
+		{
+			for ( final Path file : files )
+				changed( file, now );
+		}
+		catch ( final IOException e )
+		{
+			logger.error( "Cannot list the content of " + directory + ": " + e.getMessage() + '\n' );
+		}
+	}
+
+	private void importSettled( final long now )
+	{
+		final Iterator< Map.Entry< Path, Pending > > it = pending.entrySet().iterator();
+		while ( it.hasNext() && running )
+		{
+			final Map.Entry< Path, Pending > entry = it.next();
+			if ( now - entry.getValue().lastChange < TimeUnit.MILLISECONDS.toNanos( SETTLE_DELAY_MS ) )
+				continue;
+
+			it.remove();
+			imported.add( entry.getKey() );
+			importFile( entry.getKey(), entry.getValue().firstSeen );
+		}
+	}
+
+	private void importFile( final Path file, final long firstSeen )
+	{
+		if ( !Files.isRegularFile( file ) )
+			return;
+
+		final long t0 = System.nanoTime();
+		final CSVImporter importer = builder.csvFilePath( file.toString() ).session( session ).get();
+		runningImporter = importer;
+		try
+		{
+			if ( !importer.checkInput() || !importer.process() )
+			{
+				logger.error( "Error importing " + file + ":\n" + importer.getErrorMessage() + '\n' );
+				return;
+			}
+		}
+		catch ( final RuntimeException e )
+		{
+			// Keep watching for the next files.
+			logger.error( "Error importing " + file + ":\n" + e + '\n' );
+			e.printStackTrace();
+			return;
+		}
+		finally
+		{
+			runningImporter = null;
+		}
+		final long t1 = System.nanoTime();
+		nFiles++;
+		logger.info( String.format( Locale.ROOT, "Imported %s: %d spots in %.0f ms, %.0f ms after the file appeared.\n",
+				file.getFileName(), importer.getStatistics().getRowsInserted(), ( t1 - t0 ) / 1e6, ( t1 - firstSeen ) / 1e6 ) );
+		if ( !importer.getErrors().isEmpty() )
+			logger.warn( "Errors in " + file.getFileName() + ":\n" + importer.getErrors() );
+	}
+
+	private static final class Pending
+	{
+
+		private final long firstSeen;
+
+		private long lastChange;
+
+		private Pending( final long now )
+		{
+			this.firstSeen = now;
+			this.lastChange = now;
+		}
+	}
+}
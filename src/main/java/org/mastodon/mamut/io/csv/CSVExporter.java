@@ -0,0 +1,634 @@
+/*-
+ * #%L
+ * mastodon-pasteur
+ * %%
+ * Copyright (C) 2019 - 2025 Tobias Pietzsch, Jean-Yves Tinevez
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package org.mastodon.mamut.io.csv;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.locks.Lock;
+
+import org.mastodon.feature.FeatureProjection;
+import org.mastodon.mamut.io.csv.CSVImporter.OriginalIdFeature;
+import org.mastodon.mamut.io.csv.CSVImporter.OriginalLongIdFeature;
+import org.mastodon.mamut.model.Link;
+import org.mastodon.mamut.model.Model;
+import org.mastodon.mamut.model.ModelGraph;
+import org.mastodon.mamut.model.Spot;
+import org.mastodon.model.tag.ObjTagMap;
+import org.mastodon.model.tag.TagSetStructure;
+import org.mastodon.tracking.mamut.detection.DetectionQualityFeature;
+
+import net.imglib2.algorithm.Algorithm;
+import net.imglib2.algorithm.MultiThreaded;
+
+/**
+ * Exports the spots and links of a model to a CSV file, in the column layout
+ * read by the {@link CSVImporter}.
+ * <p>
+ * Each spot is written on one line, with its position, frame, radius,
+ * quality, id, the id of its parent spot, its label and its tag in a chosen
+ * tag set, followed by the values of selected feature projections. Links are
+ * stored in the parent id column. A spot with several incoming links is
+ * written with the first one only.
+ * <p>
+ * The ids are the values of the {@link OriginalIdFeature}, or else of the
+ * {@link OriginalLongIdFeature}, if all spots have
+ * one, for instance after an import, and the internal pool indices of the
+ * spots otherwise.
+ * <p>
+ * The graph read lock is held during the whole export. The frames are
+ * formatted in parallel and written in order to the file, so that only the
+ * text of a few frames is held in memory at once. The CSV importer does not
+ * support escaping, so separators and line breaks in labels and tags are
+ * replaced by spaces. The spots imported without label are written with
+ * their original id as label, see {@link ImportedLabels}.
+ */
+public class CSVExporter implements Algorithm, MultiThreaded
+{
+
+	/**
+	 * How many formatted frames per thread can wait to be written.
+	 */
+	private static final int MAX_QUEUED_FRAMES_PER_THREAD = 2;
+
+	private final Model model;
+
+	private final String filePath;
+
+	private final char separator;
+
+	private final String xColumnName;
+
+	private final String yColumnName;
+
+	private final String zColumnName;
+
+	private final String frameColumnName;
+
+	private final String radiusColumnName;
+
+	private final String qualityColumnName;
+
+	private final String idColumnName;
+
+	private final String parentIdColumnName;
+
+	private final String labelColumnName;
+
+	private final String tagColumnName;
+
+	private final TagSetStructure.TagSet tagSet;
+
+	private final Map< String, FeatureProjection< Spot > > featureProjections;
+
+	private String errorMessage;
+
+	private int numThreads;
+
+	private CSVExporter(
+			final Model model,
+			final String filePath,
+			final char separator,
+			final String xColumnName,
+			final String yColumnName,
+			final String zColumnName,
+			final String frameColumnName,
+			final String radiusColumnName,
+			final String qualityColumnName,
+			final String idColumnName,
+			final String parentIdColumnName,
+			final String labelColumnName,
+			final String tagColumnName,
+			final TagSetStructure.TagSet tagSet,
+			final Map< String, FeatureProjection< Spot > > featureProjections )
+	{
+		this.model = model;
+		this.filePath = filePath;
+		this.separator = separator;
+		this.xColumnName = xColumnName;
+		this.yColumnName = yColumnName;
+		this.zColumnName = zColumnName;
+		this.frameColumnName = frameColumnName;
+		this.radiusColumnName = radiusColumnName;
+		this.qualityColumnName = qualityColumnName;
+		this.idColumnName = idColumnName;
+		this.parentIdColumnName = parentIdColumnName;
+		this.labelColumnName = labelColumnName;
+		this.tagColumnName = tagColumnName;
+		this.tagSet = tagSet;
+		this.featureProjections = featureProjections;
+		setNumThreads();
+	}
+
+	public static Builder create()
+	{
+		return new Builder();
+	}
+
+	@Override
+	public boolean checkInput()
+	{
+		final Path parent = Paths.get( filePath ).toAbsolutePath().getParent();
+		if ( parent != null && !parent.toFile().isDirectory() )
+		{
+			errorMessage = "The folder " + parent + " does not exist.";
+			return false;
+		}
+		return true;
+	}
+
+	@Override
+	public boolean process()
+	{
+		final ModelGraph graph = model.getGraph();
+		final Lock lock = graph.getLock().readLock();
+		lock.lock();
+		try (final FileChannel channel = FileChannel.open( Paths.get( filePath ),
+				StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE ))
+		{
+			final SpotFormat format = new SpotFormat();
+			write( channel, format.header() );
+			if ( graph.vertices().isEmpty() )
+				return true;
+
+			final int nFrames = format.maxFrame - format.minFrame + 1;
+			final int capacity = MAX_QUEUED_FRAMES_PER_THREAD * numThreads;
+			final ArrayDeque< ForkJoinTask< byte[] > > queue = new ArrayDeque<>( capacity );
+			final ForkJoinPool pool = new ForkJoinPool( numThreads );
+			try
+			{
+				int next = 0;
+				while ( next < nFrames || !queue.isEmpty() )
+				{
+					while ( next < nFrames && queue.size() < capacity )
+					{
+						final int frame = format.minFrame + next;
+						queue.add( pool.submit( () -> format.frame( frame ) ) );
+						next++;
+					}
+					write( channel, queue.poll().get() );
+				}
+			}
+			finally
+			{
+				pool.shutdownNow();
+			}
+		}
+		catch ( final IOException e )
+		{
+			errorMessage = "Error writing file " + filePath + ":\n" + e.getMessage();
+			e.printStackTrace();
+			return false;
+		}
+		catch ( final InterruptedException e )
+		{
+			Thread.currentThread().interrupt();
+			errorMessage = "Interrupted while writing file " + filePath;
+			return false;
+		}
+		catch ( final ExecutionException e )
+		{
+			errorMessage = "Error formatting the spots:\n" + e.getCause().getMessage();
+			e.getCause().printStackTrace();
+			return false;
+		}
+		finally
+		{
+			lock.unlock();
+		}
+		return true;
+	}
+
+	private static void write( final FileChannel channel, final byte[] bytes ) throws IOException
+	{
+		final ByteBuffer buffer = ByteBuffer.wrap( bytes );
+		while ( buffer.hasRemaining() )
+			channel.write( buffer );
+	}
+
+	/**
+	 * Formats the header and the spots of a frame. The columns to write and
+	 * the id source are determined once, when it is created.
+	 */
+	private final class SpotFormat
+	{
+
+		private final DetectionQualityFeature qualityFeature;
+
+		private final OriginalIdFeature originalIdFeature;
+
+		private final OriginalLongIdFeature originalLongIdFeature;
+
+		private final ImportedLabels labels;
+
+		private final ObjTagMap< Spot, TagSetStructure.Tag > tagMap;
+
+		private final List< String > featureColumnNames;
+
+		private final List< FeatureProjection< Spot > > projections;
+
+		private int minFrame = Integer.MAX_VALUE;
+
+		private int maxFrame = Integer.MIN_VALUE;
+
+		private SpotFormat()
+		{
+			this.qualityFeature = qualityColumnName == null
+					? null
+					: ( DetectionQualityFeature ) model.getFeatureModel().getFeature( DetectionQualityFeature.SPEC );
+			this.labels = labelColumnName == null
+					? null
+					: new ImportedLabels( model.getFeatureModel() );
+			this.tagMap = tagColumnName == null || tagSet == null
+					? null
+					: model.getTagSetModel().getVertexTags().tags( tagSet );
+			this.featureColumnNames = new ArrayList<>( featureProjections.keySet() );
+			this.projections = new ArrayList<>( featureProjections.values() );
+
+			/*
+			 * Use the original ids if they are all set, and find the frame
+			 * range.
+			 */
+			final OriginalIdFeature ids = ( OriginalIdFeature ) model.getFeatureModel().getFeature( OriginalIdFeature.SPEC );
+			final OriginalLongIdFeature longIds = ( OriginalLongIdFeature ) model.getFeatureModel().getFeature( OriginalLongIdFeature.SPEC );
+			boolean allIds = ids != null;
+			boolean allLongIds = longIds != null;
+			for ( final Spot spot : model.getGraph().vertices() )
+			{
+				allIds = allIds && ids.isSet( spot );
+				allLongIds = allLongIds && longIds.isSet( spot );
+				minFrame = Math.min( minFrame, spot.getTimepoint() );
+				maxFrame = Math.max( maxFrame, spot.getTimepoint() );
+			}
+			this.originalIdFeature = allIds ? ids : null;
+			this.originalLongIdFeature = !allIds && allLongIds ? longIds : null;
+		}
+
+		private byte[] header()
+		{
+			final StringBuilder str = new StringBuilder();
+			str.append( xColumnName );
+			str.append( separator ).append( yColumnName );
+			str.append( separator ).append( zColumnName );
+			str.append( separator ).append( frameColumnName );
+			if ( radiusColumnName != null )
+				str.append( separator ).append( radiusColumnName );
+			if ( qualityFeature != null )
+				str.append( separator ).append( qualityColumnName );
+			if ( idColumnName != null )
+				str.append( separator ).append( idColumnName );
+			if ( idColumnName != null && parentIdColumnName != null )
+				str.append( separator ).append( parentIdColumnName );
+			if ( labelColumnName != null )
+				str.append( separator ).append( labelColumnName );
+			if ( tagMap != null )
+				str.append( separator ).append( tagColumnName );
+			for ( final String name : featureColumnNames )
+				str.append( separator ).append( name );
+			str.append( '\n' );
+			return str.toString().getBytes( StandardCharsets.UTF_8 );
+		}
+
+		/**
+		 * Formats all the spots of the specified frame. Can be called
+		 * concurrently for different frames.
+		 */
+		private byte[] frame( final int frame )
+		{
+			final ModelGraph graph = model.getGraph();
+			final Spot parentRef = graph.vertexRef();
+			final StringBuilder str = new StringBuilder();
+			try
+			{
+				for ( final Spot spot : model.getSpatioTemporalIndex().getSpatialIndex( frame ) )
+				{
+					str.append( spot.getDoublePosition( 0 ) );
+					str.append( separator ).append( spot.getDoublePosition( 1 ) );
+					str.append( separator ).append( spot.getDoublePosition( 2 ) );
+					str.append( separator ).append( spot.getTimepoint() );
+					if ( radiusColumnName != null )
+						str.append( separator ).append( Math.sqrt( spot.getBoundingSphereRadiusSquared() ) );
+					if ( qualityFeature != null )
+						// The importer cannot read an empty quality value.
+						str.append( separator ).append( qualityFeature.isSet( spot ) ? qualityFeature.value( spot ) : Double.NaN );
+					if ( idColumnName != null )
+					{
+						str.append( separator ).append( id( spot ) );
+						if ( parentIdColumnName != null )
+						{
+							final Iterator< Link > it = spot.incomingEdges().iterator();
+							final long parentId = it.hasNext() ? id( it.next().getSource( parentRef ) ) : -1;
+							str.append( separator ).append( parentId );
+						}
+					}
+					if ( labelColumnName != null )
+						str.append( separator ).append( clean( labels.get( spot ) ) );
+					if ( tagMap != null )
+					{
+						str.append( separator );
+						final TagSetStructure.Tag tag = tagMap.get( spot );
+						if ( tag != null )
+							str.append( clean( tag.label() ) );
+					}
+					for ( final FeatureProjection< Spot > projection : projections )
+					{
+						str.append( separator );
+						if ( projection.isSet( spot ) )
+							str.append( projection.value( spot ) );
+					}
+					str.append( '\n' );
+				}
+			}
+			finally
+			{
+				graph.releaseRef( parentRef );
+			}
+			return str.toString().getBytes( StandardCharsets.UTF_8 );
+		}
+
+		private long id( final Spot spot )
+		{
+			if ( originalIdFeature != null )
+				return originalIdFeature.value( spot );
+			if ( originalLongIdFeature != null )
+				return originalLongIdFeature.value( spot );
+			return spot.getInternalPoolIndex();
+		}
+
+		/**
+		 * Replaces the characters the importer cannot read in a field.
+		 */
+		private String clean( final String field )
+		{
+			return field.replace( separator, ' ' ).replace( '\n', ' ' ).replace( '\r', ' ' );
+		}
+	}
+
+	@Override
+	public String getErrorMessage()
+	{
+		return errorMessage;
+	}
+
+	@Override
+	public void setNumThreads()
+	{
+		this.numThreads = Runtime.getRuntime().availableProcessors();
+	}
+
+	@Override
+	public void setNumThreads( final int numThreads )
+	{
+		this.numThreads = Math.max( 1, numThreads );
+	}
+
+	@Override
+	public int getNumThreads()
+	{
+		return numThreads;
+	}
+
+	/**
+	 * Builder for CSV exporters. The column names default to the ones of the
+	 * TrackMate spot tables. Optional columns set to <code>null</code> are
+	 * not written.
+	 */
+	public static class Builder
+	{
+
+		private Model model;
+
+		private String csvFilePath;
+
+		private char separator = ',';
+
+		private String xColumnName = "POSITION_X";
+
+		private String yColumnName = "POSITION_Y";
+
+		private String zColumnName = "POSITION_Z";
+
+		private String frameColumnName = "FRAME";
+
+		private String radiusColumnName = "RADIUS";
+
+		private String qualityColumnName = "QUALITY";
+
+		private String idColumnName = "ID";
+
+		private String parentIdColumnName = "PARENT_ID";
+
+		private String labelColumnName = "LABEL";
+
+		private String tagColumnName = "TAG";
+
+		private TagSetStructure.TagSet tagSet;
+
+		private final Map< String, FeatureProjection< Spot > > featureProjections = new LinkedHashMap<>();
+
+		public Builder model( final Model model )
+		{
+			this.model = model;
+			return this;
+		}
+
+		public Builder csvFilePath( final String csvFilePath )
+		{
+			this.csvFilePath = csvFilePath;
+			return this;
+		}
+
+		public Builder separator( final char separator )
+		{
+			this.separator = separator;
+			return this;
+		}
+
+		public Builder xColumnName( final String xColumnName )
+		{
+			this.xColumnName = xColumnName;
+			return this;
+		}
+
+		public Builder yColumnName( final String yColumnName )
+		{
+			this.yColumnName = yColumnName;
+			return this;
+		}
+
+		public Builder zColumnName( final String zColumnName )
+		{
+			this.zColumnName = zColumnName;
+			return this;
+		}
+
+		public Builder frameColumnName( final String frameColumnName )
+		{
+			this.frameColumnName = frameColumnName;
+			return this;
+		}
+
+		public Builder radiusColumnName( final String radiusColumnName )
+		{
+			this.radiusColumnName = radiusColumnName;
+			return this;
+		}
+
+		/**
+		 * Specifies the name of the quality column. It is only written if the
+		 * model has a detection quality feature.
+		 *
+		 * @param qualityColumnName
+		 *            the column name, or <code>null</code> to skip it.
+		 * @return this builder.
+		 */
+		public Builder qualityColumnName( final String qualityColumnName )
+		{
+			this.qualityColumnName = qualityColumnName;
+			return this;
+		}
+
+		/**
+		 * Specifies the name of the id column. Without it, the parent id
+		 * column is not written either, and links are not exported.
+		 *
+		 * @param idColumnName
+		 *            the column name, or <code>null</code> to skip it.
+		 * @return this builder.
+		 */
+		public Builder idColumnName( final String idColumnName )
+		{
+			this.idColumnName = idColumnName;
+			return this;
+		}
+
+		public Builder parentIdColumnName( final String parentIdColumnName )
+		{
+			this.parentIdColumnName = parentIdColumnName;
+			return this;
+		}
+
+		public Builder labelColumnName( final String labelColumnName )
+		{
+			this.labelColumnName = labelColumnName;
+			return this;
+		}
+
+		public Builder tagColumnName( final String tagColumnName )
+		{
+			this.tagColumnName = tagColumnName;
+			return this;
+		}
+
+		/**
+		 * Specifies the tag set whose tags are written in the tag column. If
+		 * it is not set, the tag column is not written.
+		 *
+		 * @param tagSet
+		 *            the tag set to export.
+		 * @return this builder.
+		 */
+		public Builder tagSet( final TagSetStructure.TagSet tagSet )
+		{
+			this.tagSet = tagSet;
+			return this;
+		}
+
+		/**
+		 * Adds a column with the values of the specified feature projection.
+		 * Spots for which the projection is not set have an empty value.
+		 *
+		 * @param columnName
+		 *            the column name.
+		 * @param projection
+		 *            the feature projection to export.
+		 * @return this builder.
+		 */
+		public Builder featureProjection( final String columnName, final FeatureProjection< Spot > projection )
+		{
+			this.featureProjections.put( columnName, projection );
+			return this;
+		}
+
+		public CSVExporter get()
+		{
+			final StringBuilder errorMessage = new StringBuilder( "Invalid CSV exporter definition:\n" );
+			boolean valid = true;
+
+			if ( model == null )
+			{
+				errorMessage.append( " - Missing model.\n" );
+				valid = false;
+			}
+			if ( csvFilePath == null )
+			{
+				errorMessage.append( " - Missing CSV file path.\n" );
+				valid = false;
+			}
+			if ( xColumnName == null || yColumnName == null || zColumnName == null || frameColumnName == null )
+			{
+				errorMessage.append( " - The X, Y, Z and frame columns are mandatory.\n" );
+				valid = false;
+			}
+
+			if ( !valid )
+				throw new IllegalArgumentException( errorMessage.toString() );
+
+			return new CSVExporter(
+					model,
+					csvFilePath,
+					separator,
+					xColumnName,
+					yColumnName,
+					zColumnName,
+					frameColumnName,
+					radiusColumnName,
+					qualityColumnName,
+					idColumnName,
+					parentIdColumnName,
+					labelColumnName,
+					tagColumnName,
+					tagSet,
+					new LinkedHashMap<>( featureProjections ) );
+		}
+	}
+}
@@ -0,0 +1,437 @@
+/*-
+ * #%L
+ * mastodon-pasteur
+ * %%
+ * Copyright (C) 2019 - 2025 Tobias Pietzsch, Jean-Yves Tinevez
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package org.mastodon.mamut.io.csv;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+import org.mastodon.mamut.io.csv.CompressedInput.Compression;
+
+/**
+ * What is known of a CSV file before importing it, from a single read of its
+ * first bytes.
+ * <p>
+ * At most {@value #SAMPLE_SIZE} bytes are read from the file, once. From them
+ * are inferred its compression format, separator, decimal mark, header, the
+ * type of each column, and an estimate of the number of rows from the average
+ * length of the sampled lines. The UI and the importer share this result, so
+ * that a file on a slow or network storage is touched once before the
+ * import.
+ */
+public final class CSVFileInfo
+{
+
+	/**
+	 * Maximal number of bytes read from the file.
+	 */
+	public static final int SAMPLE_SIZE = 256 * 1024;
+
+	/**
+	 * Maximal number of bytes decompressed from the sample of a compressed
+	 * file.
+	 */
+	private static final int MAX_DECOMPRESSED_SIZE = 16 * SAMPLE_SIZE;
+
+	/**
+	 * Maximal number of rows inspected to infer the column types.
+	 */
+	private static final int MAX_TYPED_ROWS = 1000;
+
+	/**
+	 * The type of the values of a column, inferred from the sampled rows.
+	 * Ordered from the most to the least specific.
+	 */
+	public enum ColumnType
+	{
+		/**
+		 * All the sampled values are empty.
+		 */
+		EMPTY,
+		/**
+		 * All the sampled values are integers or empty.
+		 */
+		INTEGER,
+		/**
+		 * All the sampled values are numbers or empty.
+		 */
+		DECIMAL,
+		/**
+		 * Some sampled values are not numbers.
+		 */
+		TEXT;
+	}
+
+	private final String filePath;
+
+	private final long fileSize;
+
+	private final Compression compression;
+
+	private final char separator;
+
+	private final char decimalMark;
+
+	private final String[] headers;
+
+	private final ColumnType[] columnTypes;
+
+	private final long estimatedRowCount;
+
+	private final boolean exactRowCount;
+
+	private CSVFileInfo(
+			final String filePath,
+			final long fileSize,
+			final Compression compression,
+			final char separator,
+			final char decimalMark,
+			final String[] headers,
+			final ColumnType[] columnTypes,
+			final long estimatedRowCount,
+			final boolean exactRowCount )
+	{
+		this.filePath = filePath;
+		this.fileSize = fileSize;
+		this.compression = compression;
+		this.separator = separator;
+		this.decimalMark = decimalMark;
+		this.headers = headers;
+		this.columnTypes = columnTypes;
+		this.estimatedRowCount = estimatedRowCount;
+		this.exactRowCount = exactRowCount;
+	}
+
+	/**
+	 * Inspects the specified file, detecting its separator.
+	 *
+	 * @param filePath
+	 *            the path to the file.
+	 * @return the information on the file.
+	 * @throws IOException
+	 *             if the file cannot be read.
+	 */
+	public static CSVFileInfo sniff( final String filePath ) throws IOException
+	{
+		return sniff( filePath, '\0' );
+	}
+
+	/**
+	 * Inspects the specified file.
+	 *
+	 * @param filePath
+	 *            the path to the file.
+	 * @param separator
+	 *            the separator of the file, or '\0' to detect it with
+	 *            {@link AutoDetectCSVSeparator}.
+	 * @return the information on the file.
+	 * @throws IOException
+	 *             if the file cannot be read.
+	 */
+	public static CSVFileInfo sniff( final String filePath, final char separator ) throws IOException
+	{
+		/*
+		 * Read the first bytes of the file, once.
+		 */
+
+		final long fileSize;
+		final ByteBuffer raw;
+		try (final FileChannel channel = FileChannel.open( Paths.get( filePath ), StandardOpenOption.READ ))
+		{
+			fileSize = channel.size();
+			raw = ByteBuffer.allocate( ( int ) Math.min( fileSize, SAMPLE_SIZE ) );
+			while ( raw.hasRemaining() && channel.read( raw ) > 0 )
+			{}
+			raw.flip();
+		}
+		final boolean wholeFile = raw.limit() >= fileSize;
+
+		/*
+		 * Decompress them if needed. The sample of a compressed file is
+		 * usually truncated in the middle of a block: what could be
+		 * decompressed before is kept.
+		 */
+
+		final Compression compression = CompressedInput.detect( raw );
+		final byte[] bytes;
+		int length;
+		final double expansion;
+		boolean complete = wholeFile;
+		if ( compression == Compression.NONE )
+		{
+			bytes = raw.array();
+			length = raw.limit();
+			expansion = 1.;
+		}
+		else
+		{
+			final ByteArrayInputStream compressed = new ByteArrayInputStream( raw.array(), 0, raw.limit() );
+			final ByteArrayOutputStream out = new ByteArrayOutputStream( 4 * SAMPLE_SIZE );
+			try (final InputStream in = CompressedInput.decompress( compressed, compression ))
+			{
+				final byte[] buf = new byte[ 1 << 16 ];
+				int n;
+				while ( ( n = in.read( buf ) ) > 0 )
+				{
+					out.write( buf, 0, n );
+					if ( out.size() >= MAX_DECOMPRESSED_SIZE )
+					{
+						complete = false;
+						break;
+					}
+				}
+			}
+			catch ( final IOException e )
+			{
+				// Truncated stream.
+				if ( wholeFile )
+					throw e;
+				complete = false;
+			}
+			bytes = out.toByteArray();
+			length = bytes.length;
+			final int consumed = raw.limit() - compressed.available();
+			expansion = consumed > 0 ? ( double ) length / consumed : 1.;
+		}
+		final long totalLength = complete ? length : ( long ) ( fileSize * expansion );
+
+		// Ignore the last line if it is truncated.
+		if ( !complete )
+		{
+			int end = length;
+			while ( end > 0 && bytes[ end - 1 ] != '\n' )
+				end--;
+			if ( end > 0 )
+				length = end;
+		}
+
+		/*
+		 * Separator and header.
+		 */
+
+		final char sep = separator != '\0'
+				? separator
+				: AutoDetectCSVSeparator.autoDetect( new InputStreamReader( new ByteArrayInputStream( bytes, 0, length ), StandardCharsets.UTF_8 ) );
+		try (final CSVTokenizer tokenizer = CSVTokenizer.open( new ByteArrayInputStream( bytes, 0, length ), sep ))
+		{
+			if ( !tokenizer.next() )
+				return new CSVFileInfo( filePath, fileSize, compression, sep, '.', new String[ 0 ], new ColumnType[ 0 ], 0, complete );
+
+			final int nColumns = tokenizer.size();
+			final String[] headers = new String[ nColumns ];
+			for ( int i = 0; i < nColumns; i++ )
+				headers[ i ] = tokenizer.getString( i ).trim().replaceAll( "\\p{C}", "" );
+			final long headerEnd = tokenizer.getPosition();
+
+			/*
+			 * Column types, from the first rows.
+			 */
+
+			// Accept ',' as decimal mark, to find out whether it is used.
+			if ( sep != ',' )
+				tokenizer.setDecimalMark( ',' );
+			final ColumnType[] types = new ColumnType[ nColumns ];
+			Arrays.fill( types, ColumnType.EMPTY );
+			boolean commaDecimals = false;
+			boolean dotDecimals = false;
+			long nRows = 0;
+			while ( tokenizer.next() )
+			{
+				nRows++;
+				if ( nRows > MAX_TYPED_ROWS )
+					continue;
+				for ( int col = 0; col < nColumns; col++ )
+				{
+					if ( types[ col ] == ColumnType.TEXT || tokenizer.isEmpty( col ) )
+						continue;
+					final ColumnType type;
+					tokenizer.readLong( col );
+					if ( !tokenizer.hasError() )
+					{
+						type = ColumnType.INTEGER;
+					}
+					else
+					{
+						tokenizer.clearError();
+						tokenizer.readDouble( col );
+						type = tokenizer.hasError() ? ColumnType.TEXT : ColumnType.DECIMAL;
+						if ( type == ColumnType.DECIMAL && sep != ',' )
+						{
+							if ( tokenizer.getString( col ).indexOf( ',' ) >= 0 )
+								commaDecimals = true;
+							else
+								dotDecimals = true;
+						}
+					}
+					tokenizer.clearError();
+					if ( type.compareTo( types[ col ] ) > 0 )
+						types[ col ] = type;
+				}
+			}
+
+			/*
+			 * Row count, exact if the whole file was read, otherwise
+			 * extrapolated from the average line length.
+			 */
+
+			final long estimatedRows;
+			if ( complete || nRows == 0 )
+			{
+				estimatedRows = nRows;
+			}
+			else
+			{
+				final double lineLength = ( double ) ( tokenizer.getPosition() - headerEnd ) / nRows;
+				estimatedRows = Math.max( nRows, Math.round( ( totalLength - headerEnd ) / lineLength ) );
+			}
+
+			return new CSVFileInfo( filePath, fileSize, compression, sep, commaDecimals && !dotDecimals ? ',' : '.', headers, types, estimatedRows, complete );
+		}
+	}
+
+	/**
+	 * Returns the path of the file.
+	 *
+	 * @return the path.
+	 */
+	public String getFilePath()
+	{
+		return filePath;
+	}
+
+	/**
+	 * Returns the size of the file, compressed if it is.
+	 *
+	 * @return the size in bytes.
+	 */
+	public long getFileSize()
+	{
+		return fileSize;
+	}
+
+	/**
+	 * Returns the compression format of the file.
+	 *
+	 * @return the compression, {@link Compression#NONE} if the file is not
+	 *         compressed.
+	 */
+	public Compression getCompression()
+	{
+		return compression;
+	}
+
+	/**
+	 * Returns the separator of the file, specified or detected.
+	 *
+	 * @return the separator.
+	 */
+	public char getSeparator()
+	{
+		return separator;
+	}
+
+	/**
+	 * Returns the decimal mark used by the numbers of the sampled rows.
+	 * Numbers like "1,234" in a file where other numbers use '.' are not
+	 * taken as using ',' as decimal mark.
+	 *
+	 * @return ',' if the decimal numbers use a comma as decimal mark and
+	 *         none uses '.', '.' otherwise.
+	 */
+	public char getDecimalMark()
+	{
+		return decimalMark;
+	}
+
+	/**
+	 * Returns the headers of the columns, in the order of the file, trimmed
+	 * and without control characters.
+	 *
+	 * @return a copy of the headers, empty if the file is empty.
+	 */
+	public String[] getHeaders()
+	{
+		return headers.clone();
+	}
+
+	/**
+	 * Returns the type of each column, inferred from the first rows.
+	 *
+	 * @return a copy of the column types, in the order of the headers.
+	 */
+	public ColumnType[] getColumnTypes()
+	{
+		return columnTypes.clone();
+	}
+
+	/**
+	 * Returns the number of rows of the file, header excluded. It is exact if
+	 * the whole file was sampled, see {@link #isRowCountExact()}, and
+	 * extrapolated from the average length of the sampled lines otherwise.
+	 *
+	 * @return the number of rows.
+	 */
+	public long getEstimatedRowCount()
+	{
+		return estimatedRowCount;
+	}
+
+	/**
+	 * Returns whether the whole file was sampled, so that the row count is
+	 * exact.
+	 *
+	 * @return <code>true</code> if the row count is exact.
+	 */
+	public boolean isRowCountExact()
+	{
+		return exactRowCount;
+	}
+
+	@Override
+	public String toString()
+	{
+		final StringBuilder str = new StringBuilder();
+		str.append( filePath ).append( ": " );
+		if ( compression != Compression.NONE )
+			str.append( compression ).append( " compressed, " );
+		str.append( "separator '" ).append( separator == '\t' ? "\\t" : String.valueOf( separator ) ).append( "', " );
+		str.append( "decimal mark '" ).append( decimalMark ).append( "', " );
+		str.append( headers.length ).append( " columns, " );
+		str.append( exactRowCount ? "" : "about " ).append( estimatedRowCount ).append( " rows." );
+		return str.toString();
+	}
+}
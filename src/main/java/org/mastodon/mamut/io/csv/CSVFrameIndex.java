@@ -0,0 +1,309 @@
+/*-
+ * #%L
+ * mastodon-pasteur
+ * %%
+ * Copyright (C) 2019 - 2025 Tobias Pietzsch, Jean-Yves Tinevez
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package org.mastodon.mamut.io.csv;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+
+import gnu.trove.list.array.TIntArrayList;
+
+/**
+ * Index of the frames of a CSV file, saved next to it, to import a range of
+ * frames without reading the whole file.
+ * <p>
+ * The rows after the header are split in blocks of consecutive lines, the
+ * regions that the importer parses in parallel. For each block, the index
+ * stores its byte range, the number of lines before it, and the smallest and
+ * largest frame of its rows. It is built while the whole file is imported,
+ * and written in a sidecar file with the extension {@value #EXTENSION}
+ * appended to the name of the CSV file.
+ * <p>
+ * The index is only valid for the file as it was when it was built: it is
+ * ignored if the size or the modification time of the file changed, or if
+ * the file is read with another separator or frame column.
+ */
+final class CSVFrameIndex
+{
+
+	/**
+	 * Extension appended to the name of the CSV file to name its index.
+	 */
+	static final String EXTENSION = ".frames";
+
+	private static final int MAGIC = 0x4D465849;
+
+	private static final int VERSION = 1;
+
+	private final long fileSize;
+
+	private final long lastModified;
+
+	private final char separator;
+
+	private final String frameHeader;
+
+	/**
+	 * Byte offsets of the blocks, block <code>i</code> spanning from
+	 * <code>bounds[i]</code> to <code>bounds[i + 1]</code>.
+	 */
+	private final long[] bounds;
+
+	/**
+	 * Number of lines of each block, then number of lines before each block
+	 * once the index is complete.
+	 */
+	private final long[] lines;
+
+	private final int[] minFrames;
+
+	private final int[] maxFrames;
+
+	private CSVFrameIndex( final long fileSize, final long lastModified, final char separator, final String frameHeader, final long[] bounds )
+	{
+		this.fileSize = fileSize;
+		this.lastModified = lastModified;
+		this.separator = separator;
+		this.frameHeader = frameHeader;
+		this.bounds = bounds;
+		final int nBlocks = bounds.length - 1;
+		this.lines = new long[ nBlocks ];
+		this.minFrames = new int[ nBlocks ];
+		this.maxFrames = new int[ nBlocks ];
+		Arrays.fill( minFrames, Integer.MAX_VALUE );
+		Arrays.fill( maxFrames, Integer.MIN_VALUE );
+	}
+
+	/**
+	 * Creates an empty index of the specified file, to be filled with
+	 * {@link #set(int, long, int, int)} while the blocks are parsed.
+	 *
+	 * @param filePath
+	 *            the CSV file.
+	 * @param separator
+	 *            the separator the file is read with.
+	 * @param frameHeader
+	 *            the header of the frame column.
+	 * @param bounds
+	 *            the byte offsets of the blocks.
+	 * @return a new index.
+	 * @throws IOException
+	 *             if the attributes of the file cannot be read.
+	 */
+	static CSVFrameIndex create( final String filePath, final char separator, final String frameHeader, final long[] bounds ) throws IOException
+	{
+		final Path path = Paths.get( filePath );
+		return new CSVFrameIndex( Files.size( path ), Files.getLastModifiedTime( path ).toMillis(), separator, frameHeader, bounds );
+	}
+
+	/**
+	 * Records what was found in a block. Blocks can be recorded concurrently.
+	 *
+	 * @param block
+	 *            the index of the block.
+	 * @param nLines
+	 *            the number of lines of the block.
+	 * @param minFrame
+	 *            the smallest frame of the rows of the block.
+	 * @param maxFrame
+	 *            the largest frame of the rows of the block.
+	 */
+	void set( final int block, final long nLines, final int minFrame, final int maxFrame )
+	{
+		lines[ block ] = nLines;
+		minFrames[ block ] = minFrame;
+		maxFrames[ block ] = maxFrame;
+	}
+
+	/**
+	 * Writes the index next to the CSV file, once all the blocks are
+	 * recorded.
+	 *
+	 * @param filePath
+	 *            the CSV file.
+	 * @param headerLines
+	 *            the number of lines before the first block.
+	 * @throws IOException
+	 *             if the index cannot be written.
+	 */
+	void write( final String filePath, final long headerLines ) throws IOException
+	{
+		long lineNumber = headerLines;
+		for ( int i = 0; i < lines.length; i++ )
+		{
+			final long n = lines[ i ];
+			lines[ i ] = lineNumber;
+			lineNumber += n;
+		}
+
+		/*
+		 * Write to a temporary file first, so that a reader never sees half an
+		 * index. Its name is unique, as several processes may import the same
+		 * file at once.
+		 */
+		final Path path = indexPath( filePath ).toAbsolutePath();
+		final Path tmp = Files.createTempFile( path.getParent(), path.getFileName().toString(), ".tmp" );
+		try (final DataOutputStream out = new DataOutputStream( new BufferedOutputStream( Files.newOutputStream( tmp ) ) ))
+		{
+			out.writeInt( MAGIC );
+			out.writeInt( VERSION );
+			out.writeLong( fileSize );
+			out.writeLong( lastModified );
+			out.writeChar( separator );
+			out.writeUTF( frameHeader );
+			out.writeInt( lines.length );
+			for ( int i = 0; i < lines.length; i++ )
+			{
+				out.writeLong( bounds[ i ] );
+				out.writeLong( lines[ i ] );
+				out.writeInt( minFrames[ i ] );
+				out.writeInt( maxFrames[ i ] );
+			}
+			out.writeLong( bounds[ lines.length ] );
+		}
+		catch ( final IOException e )
+		{
+			Files.deleteIfExists( tmp );
+			throw e;
+		}
+		Files.move( tmp, path, StandardCopyOption.REPLACE_EXISTING );
+	}
+
+	/**
+	 * Reads the index of the specified file, if it exists and is still
+	 * valid.
+	 *
+	 * @param filePath
+	 *            the CSV file.
+	 * @param separator
+	 *            the separator the file is read with.
+	 * @param frameHeader
+	 *            the header of the frame column.
+	 * @return the index, or <code>null</code> if there is none, or if it
+	 *         does not match the file anymore.
+	 * @throws IOException
+	 *             if the index cannot be read.
+	 */
+	static CSVFrameIndex read( final String filePath, final char separator, final String frameHeader ) throws IOException
+	{
+		final Path csvPath = Paths.get( filePath );
+		try (final DataInputStream in = new DataInputStream( new BufferedInputStream( Files.newInputStream( indexPath( filePath ) ) ) ))
+		{
+			if ( in.readInt() != MAGIC || in.readInt() != VERSION )
+				return null;
+			final long fileSize = in.readLong();
+			final long lastModified = in.readLong();
+			if ( fileSize != Files.size( csvPath )
+					|| lastModified != Files.getLastModifiedTime( csvPath ).toMillis()
+					|| in.readChar() != separator
+					|| !in.readUTF().equals( frameHeader ) )
+				return null;
+
+			final int nBlocks = in.readInt();
+			final long[] bounds = new long[ nBlocks + 1 ];
+			final CSVFrameIndex index = new CSVFrameIndex( fileSize, lastModified, separator, frameHeader, bounds );
+			for ( int i = 0; i < nBlocks; i++ )
+			{
+				bounds[ i ] = in.readLong();
+				index.lines[ i ] = in.readLong();
+				index.minFrames[ i ] = in.readInt();
+				index.maxFrames[ i ] = in.readInt();
+			}
+			bounds[ nBlocks ] = in.readLong();
+			return index;
+		}
+		catch ( final NoSuchFileException e )
+		{
+			return null;
+		}
+	}
+
+	/**
+	 * Returns the blocks that have rows in the specified frame range.
+	 *
+	 * @param minFrame
+	 *            the first frame, included.
+	 * @param maxFrame
+	 *            the last frame, included.
+	 * @return the indices of the blocks, in file order.
+	 */
+	int[] blocks( final int minFrame, final int maxFrame )
+	{
+		final TIntArrayList blocks = new TIntArrayList();
+		for ( int i = 0; i < minFrames.length; i++ )
+			if ( minFrames[ i ] <= maxFrame && maxFrames[ i ] >= minFrame )
+				blocks.add( i );
+		return blocks.toArray();
+	}
+
+	/**
+	 * Returns the offset of the first byte of the specified block.
+	 */
+	long start( final int block )
+	{
+		return bounds[ block ];
+	}
+
+	/**
+	 * Returns the offset after the last byte of the specified block.
+	 */
+	long end( final int block )
+	{
+		return bounds[ block + 1 ];
+	}
+
+	/**
+	 * Returns the number of lines of the file before the specified block,
+	 * header included.
+	 */
+	long lineNumber( final int block )
+	{
+		return lines[ block ];
+	}
+
+	/**
+	 * Returns the path of the index of the specified CSV file.
+	 *
+	 * @param filePath
+	 *            the CSV file.
+	 * @return the path of the index.
+	 */
+	static Path indexPath( final String filePath )
+	{
+		return Paths.get( filePath + EXTENSION );
+	}
+}
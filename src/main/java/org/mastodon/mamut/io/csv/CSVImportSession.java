@@ -0,0 +1,123 @@
+/*-
+ * #%L
+ * mastodon-pasteur
+ * %%
+ * Copyright (C) 2019 - 2025 Tobias Pietzsch, Jean-Yves Tinevez
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package org.mastodon.mamut.io.csv;
+
+import org.mastodon.RefPool;
+import org.mastodon.mamut.model.Model;
+import org.mastodon.mamut.model.Spot;
+import org.mastodon.model.tag.TagSetStructure;
+
+/**
+ * State shared by successive imports into the same model, so that they
+ * behave as a single import of all their rows.
+ * <p>
+ * The spots imported so far are indexed by their id, so that the parent ids
+ * of the rows of an import are resolved against the spots of the previous
+ * ones, for instance when each time-point of a tracking result is written to
+ * its own file. The spots of a track id column are linked to the last spots
+ * of their track in the previous imports. The tags are added to the tag set
+ * created by the first import. The session is bound to the model of its
+ * first import.
+ *
+ * @see CSVImporter.Builder#session(CSVImportSession)
+ * @see CSVDirectoryWatcher
+ */
+public class CSVImportSession
+{
+
+	private Model model;
+
+	/**
+	 * The tag set created by the previous imports, reused if it has all the
+	 * tags of the new rows.
+	 */
+	TagSetStructure.TagSet tagSet;
+
+	private SpotIdIndex idIndex;
+
+	private TrackLinker trackLinker;
+
+	/**
+	 * Creates a session, bound to the model of its first import.
+	 */
+	public CSVImportSession()
+	{}
+
+	/**
+	 * Binds this session to the specified model on first use.
+	 *
+	 * @return <code>false</code> if this session was used with another model.
+	 */
+	boolean bind( final Model model )
+	{
+		if ( this.model == null )
+		{
+			this.model = model;
+			return true;
+		}
+		return this.model == model;
+	}
+
+	/**
+	 * Returns the model this session is bound to, or <code>null</code>.
+	 */
+	Model model()
+	{
+		return model;
+	}
+
+	/**
+	 * Returns the index of the imported spots by id, created on first use.
+	 */
+	SpotIdIndex idIndex()
+	{
+		if ( idIndex == null )
+			idIndex = createIdIndex();
+		return idIndex;
+	}
+
+	/**
+	 * Returns the linker of the spots by track id, created on first use. It
+	 * keeps the last spots of each track across the imports.
+	 */
+	TrackLinker trackLinker( final RefPool< Spot > spotPool, final int initialCapacity )
+	{
+		if ( trackLinker == null )
+			trackLinker = new TrackLinker( initialCapacity, spotPool );
+		return trackLinker;
+	}
+
+	/**
+	 * Creates the index of the imported spots by id, empty by default.
+	 */
+	SpotIdIndex createIdIndex()
+	{
+		return new SpotIdIndex();
+	}
+}
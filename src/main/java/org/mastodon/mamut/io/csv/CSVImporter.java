@@ -28,27 +28,42 @@
  */
 package org.mastodon.mamut.io.csv;
 
-import java.io.FileNotFoundException;
-import java.io.FileReader;
+import java.io.File;
 import java.io.IOException;
 import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.math.BigInteger;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.InvalidPathException;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
-import java.util.concurrent.locks.ReentrantReadWriteLock.WriteLock;
-import java.util.stream.Collectors;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
 
-import org.apache.commons.lang3.tuple.Pair;
 import org.mastodon.RefPool;
-import org.mastodon.collection.IntRefMap;
 import org.mastodon.collection.RefCollection;
-import org.mastodon.collection.ref.IntRefHashMap;
 import org.mastodon.feature.Dimension;
 import org.mastodon.feature.Feature;
 import org.mastodon.feature.FeatureModel;
+import org.mastodon.feature.FeatureProjection;
+import org.mastodon.feature.FeatureProjectionKey;
 import org.mastodon.feature.FeatureProjectionSpec;
 import org.mastodon.feature.FeatureSpec;
 import org.mastodon.feature.IntScalarFeature;
@@ -56,31 +71,40 @@ import org.mastodon.feature.IntScalarFeatureSerializer;
 import org.mastodon.feature.Multiplicity;
 import org.mastodon.feature.io.FeatureSerializer;
 import org.mastodon.io.FileIdToObjectMap;
+import org.mastodon.io.ObjectToFileIdMap;
 import org.mastodon.mamut.io.importer.ModelImporter;
-import org.mastodon.mamut.model.Link;
 import org.mastodon.mamut.model.Model;
-import org.mastodon.mamut.model.ModelGraph;
 import org.mastodon.mamut.model.Spot;
-import org.mastodon.model.tag.TagSetStructure;
 import org.mastodon.properties.IntPropertyMap;
-import org.mastodon.tracking.mamut.detection.DetectionQualityFeature;
-import org.mastodon.ui.coloring.GlasbeyLut;
-import org.mastodon.util.TagSetUtils;
+import org.mastodon.tracking.linking.ProgressListeners;
+import org.mastodon.ui.ProgressListener;
+import org.scijava.Cancelable;
 import org.scijava.plugin.Plugin;
 import org.scijava.util.VersionUtils;
 
-import com.opencsv.CSVParser;
-import com.opencsv.CSVParserBuilder;
-import com.opencsv.CSVReader;
-import com.opencsv.CSVReaderBuilder;
-
 import net.imglib2.algorithm.Algorithm;
+import net.imglib2.algorithm.MultiThreaded;
 
-public class CSVImporter extends ModelImporter implements Algorithm
+public class CSVImporter extends ModelImporter implements Algorithm, MultiThreaded, Cancelable
 {
 
 	public static final String PLUGIN_VERSION = VersionUtils.getVersion( CSVImporter.class );
 
+	/**
+	 * Default size of the file regions parsed in a single batch.
+	 */
+	static final long REGION_SIZE = 4L << 20;
+
+	/**
+	 * How many batches per parsing thread can wait for insertion.
+	 */
+	private static final int MAX_QUEUED_BATCHES_PER_THREAD = 2;
+
+	/**
+	 * Number of lines per batch when parsing a compressed file.
+	 */
+	private static final int STREAM_BATCH_LINES = 1 << 16;
+
 	private final String filePath;
 
 	private String errorMessage;
@@ -105,6 +129,8 @@ public class CSVImporter extends ModelImporter implements Algorithm
 
 	private final String tagColumnName;
 
+	private final String trackColumnName;
+
 	private final double radius;
 
 	private final double xOrigin;
@@ -113,10 +139,57 @@ public class CSVImporter extends ModelImporter implements Algorithm
 
 	private final double zOrigin;
 
+	private final IdType idType;
+
+	private final List< String > extraColumnNames;
+
+	private final boolean importAllExtraColumns;
+
+	private final int commitBatchSize;
+
+	private final ProgressListener progressListener;
+
+	private final CSVTailState tail;
+
+	/**
+	 * The session shared with other imports: the tail state if any,
+	 * otherwise the session specified, or <code>null</code>.
+	 */
+	private final CSVImportSession session;
+
+	private final SpotFilter filter;
+
+	private final boolean useFrameIndex;
+
+	private final MergeMode mergeMode;
+
+	private final boolean materializeLabels;
+
 	private final Model model;
 
 	private char separator;
 
+	/**
+	 * What is known of the file before the import, read once.
+	 */
+	private CSVFileInfo fileInfo;
+
+	private int numThreads;
+
+	private ImportStatistics statistics = new ImportStatistics();
+
+	private ImportErrors errors = new ImportErrors();
+
+	/**
+	 * Size of the file regions parsed in a single batch. Package-private so
+	 * that tests can split small files in several regions.
+	 */
+	long regionSize = REGION_SIZE;
+
+	private volatile boolean isCanceled;
+
+	private String cancelReason;
+
 	private CSVImporter(
 			final Model model,
 			final String filePath,
@@ -132,9 +205,22 @@ public class CSVImporter extends ModelImporter implements Algorithm
 			final String parentIdColumnName,
 			final String labelColumnName,
 			final String tagColumnName,
+			final String trackColumnName,
 			final double xOrigin,
 			final double yOrigin,
-			final double zOrigin )
+			final double zOrigin,
+			final IdType idType,
+			final List< String > extraColumnNames,
+			final boolean importAllExtraColumns,
+			final int commitBatchSize,
+			final ProgressListener progressListener,
+			final CSVTailState tail,
+			final CSVImportSession session,
+			final CSVFileInfo fileInfo,
+			final SpotFilter filter,
+			final boolean useFrameIndex,
+			final MergeMode mergeMode,
+			final boolean materializeLabels )
 	{
 		super( model );
 		this.model = model;
@@ -151,9 +237,23 @@ public class CSVImporter extends ModelImporter implements Algorithm
 		this.parentIdColumnName = parentIdColumnName;
 		this.labelColumnName = labelColumnName;
 		this.tagColumnName = tagColumnName;
+		this.trackColumnName = trackColumnName;
 		this.xOrigin = xOrigin;
 		this.yOrigin = yOrigin;
 		this.zOrigin = zOrigin;
+		this.idType = idType;
+		this.extraColumnNames = extraColumnNames;
+		this.importAllExtraColumns = importAllExtraColumns;
+		this.commitBatchSize = commitBatchSize;
+		this.progressListener = progressListener;
+		this.tail = tail;
+		this.session = null != tail ? tail : session;
+		this.fileInfo = fileInfo;
+		this.filter = filter;
+		this.useFrameIndex = useFrameIndex;
+		this.mergeMode = mergeMode;
+		this.materializeLabels = materializeLabels;
+		setNumThreads();
 	}
 
 	public static Builder create()
@@ -164,33 +264,40 @@ public class CSVImporter extends ModelImporter implements Algorithm
 	@Override
 	public boolean checkInput()
 	{
-		if ( separator == '\0' )
+		if ( isGlob( filePath ) )
 		{
 			try
 			{
-				separator = AutoDetectCSVSeparator.autoDetect( filePath );
+				if ( resolveGlob( filePath ).isEmpty() )
+				{
+					errorMessage = "No file matches " + filePath;
+					return false;
+				}
 			}
-			catch ( final IOException e1 )
+			catch ( final IOException e )
 			{
-				separator = ',';
+				errorMessage = "Cannot list the files matching " + filePath + ": " + e.getMessage();
+				return false;
 			}
+			return true;
 		}
 
-		final CSVParser parser =
-				new CSVParserBuilder()
-						.withSeparator( separator )
-						.withIgnoreQuotations( true )
-						.build();
 		try
 		{
-			new CSVReaderBuilder( new FileReader( filePath ) )
-					.withCSVParser( parser )
-					.build();
+			if ( sniff( filePath ).getHeaders().length == 0 )
+			{
+				errorMessage = "CSV file " + filePath + " is empty.";
+				return false;
+			}
 		}
-		catch ( final FileNotFoundException e )
+		catch ( final NoSuchFileException e )
 		{
 			errorMessage = "Could not find file: " + filePath;
-			e.printStackTrace();
+			return false;
+		}
+		catch ( final IOException e )
+		{
+			errorMessage = "Error reading file " + filePath + ": " + e.getMessage();
 			return false;
 		}
 
@@ -200,296 +307,806 @@ public class CSVImporter extends ModelImporter implements Algorithm
 	@Override
 	public boolean process()
 	{
+		if ( null != session && !session.bind( model ) )
+		{
+			errorMessage = "The import session was used with another model.";
+			return false;
+		}
+		if ( isGlob( filePath ) )
+			return processFiles();
+
 		/*
 		 * Open and parse file.
 		 */
 
-		if ( separator == '\0' )
+		try
 		{
-			try
+			final boolean compressed = sniff( filePath ).getCompression() != CompressedInput.Compression.NONE;
+			if ( null != tail )
 			{
-				separator = AutoDetectCSVSeparator.autoDetect( filePath );
+				if ( compressed )
+				{
+					errorMessage = "Cannot import the rows appended to a compressed file: " + filePath;
+					return false;
+				}
+				if ( !tail.bind( model, filePath ) )
+				{
+					errorMessage = "The tail state was used to import another file.";
+					return false;
+				}
+				if ( Files.size( Paths.get( filePath ) ) < tail.offset )
+				{
+					errorMessage = "The file " + filePath + " is smaller than when it was last imported.";
+					return false;
+				}
 			}
-			catch ( final IOException e1 )
+			final AtomicLong compressedBytesRead = new AtomicLong();
+			try (final CSVTokenizer tokenizer = compressed
+					? CSVTokenizer.open( CompressedInput.openWithReadAhead( filePath, compressedBytesRead ), separator )
+					: CSVTokenizer.open( filePath, separator ))
 			{
-				separator = ',';
+				/*
+				 * Parse first line and reads it as the header of the file.
+				 */
+
+				final CSVColumns columns = readColumns( tokenizer, filePath );
+
+				/*
+				 * Parse the rest of the file and create the spots, links and
+				 * tags. Uncompressed files are parsed in parallel, compressed
+				 * ones sequentially.
+				 */
+
+				long start = tokenizer.getPosition();
+				long lineOffset = tokenizer.getLineNumber();
+				long end = Long.MAX_VALUE;
+				if ( null != tail )
+				{
+					// Only read the complete lines appended since the last import.
+					if ( tail.offset > 0 )
+					{
+						start = tail.offset;
+						lineOffset = tail.lineNumber;
+					}
+					end = CSVTokenizer.lastLineEnd( filePath, start );
+					if ( end <= start )
+						return true;
+					tail.offset = start;
+					tail.lineNumber = lineOffset;
+				}
+
+				statistics = new ImportStatistics();
+				errors = new ImportErrors();
+				try
+				{
+					if ( compressed )
+						parseAndInsert( columns, tokenizer, compressedBytesRead );
+					else
+						parseAndInsert( columns, start, end, lineOffset );
+				}
+				finally
+				{
+					statistics.stop();
+				}
+			}
+			if ( isCanceled )
+			{
+				errorMessage = "Import canceled after " + statistics.getRowsInserted() + " spots. Reason: " + cancelReason;
+				return false;
 			}
 		}
-
-		final CSVParser parser =
-				new CSVParserBuilder()
-						.withSeparator( separator )
-						.withIgnoreQuotations( true )
-						.build();
-		try (final CSVReader reader = new CSVReaderBuilder( new FileReader( filePath ) )
-				.withCSVParser( parser )
-				.build())
+		catch ( final CSVHeaderException e )
+		{
+			errorMessage = e.getMessage();
+			return false;
+		}
+		catch ( final NoSuchFileException e )
 		{
-			final Iterator< String[] > it = reader.iterator();
+			errorMessage = "Cannot find file " + filePath;
+			e.printStackTrace();
+			return false;
+		}
+		catch ( final IOException e )
+		{
+			errorMessage = "Error reading file " + filePath;
+			e.printStackTrace();
+			return false;
+		}
 
-			/*
-			 * Parse first line and reads it as the header of the file.
-			 */
+		/*
+		 * Return, with the summary of the errors if any.
+		 */
 
-			if ( !it.hasNext() )
+		errorMessage = errors.isEmpty() ? null : errors.toString();
+		return true;
+	}
+
+	/**
+	 * Imports all the files matching the glob pattern of the file path.
+	 * <p>
+	 * Each file is parsed in its own batch, concurrently, and the batches are
+	 * inserted in the order of the file names, during a single session under
+	 * the write lock. The ids are resolved through the same index for all the
+	 * files, so that the parent of a spot can be in another file. The ids
+	 * must therefore be unique across files.
+	 */
+	private boolean processFiles()
+	{
+		if ( null != tail )
+		{
+			errorMessage = "Cannot import the rows appended to several files: " + filePath;
+			return false;
+		}
+
+		try
+		{
+			final List< Path > files = resolveGlob( filePath );
+			if ( files.isEmpty() )
 			{
-				errorMessage = "CSV file is empty.";
+				errorMessage = "No file matches " + filePath;
 				return false;
 			}
 
-			final String[] firstLine = it.next();
-			final Map< String, Integer > headerMap = new HashMap<>( firstLine.length );
-			for ( int i = 0; i < firstLine.length; i++ )
+			// The separator and the columns to import are set by the first file.
+			final String first = files.get( 0 ).toString();
+			sniff( first );
+			final CSVColumns columns;
+			try (final CSVTokenizer tokenizer = openTokenizer( first ))
 			{
-				final String cleanKey = firstLine[ i ].trim().replaceAll( "\\p{C}", "" );
-				headerMap.put( cleanKey, Integer.valueOf( i ) );
+				columns = readColumns( tokenizer, first );
 			}
 
-			/*
-			 * Parse mandatory headers.
-			 */
+			long totalBytes = 0;
+			for ( final Path file : files )
+				totalBytes += Files.size( file );
 
-			final Integer xcol = headerMap.get( xColumnName );
-			if ( null == xcol )
+			final Iterator< Callable< SpotBatch > > tasks = files.stream()
+					.map( file -> fileTask( file.toString(), columns ) )
+					.iterator();
+			statistics = new ImportStatistics();
+			errors = new ImportErrors();
+			try
 			{
-				errorMessage = "Could not find X column in " + filePath + ". Was looking for " + xColumnName + ".";
-				return false;
+				newInserter( columns, 0, totalBytes ).insertAll( new ForkJoinPool( numThreads ), MAX_QUEUED_BATCHES_PER_THREAD * numThreads, tasks );
 			}
-
-			final Integer ycol = headerMap.get( yColumnName );
-			if ( null == ycol )
+			finally
 			{
-				errorMessage = "Could not find Y column in " + filePath + ". Was looking for " + yColumnName + ".";
-				return false;
+				statistics.stop();
 			}
-
-			final Integer zcol = headerMap.get( zColumnName );
-			if ( null == zcol )
+			if ( isCanceled )
 			{
-				errorMessage = "Could not find Z column in " + filePath + ". Was looking for " + zColumnName + ".";
+				errorMessage = "Import canceled after " + statistics.getRowsInserted() + " spots. Reason: " + cancelReason;
 				return false;
 			}
+		}
+		catch ( final CSVHeaderException e )
+		{
+			errorMessage = e.getMessage();
+			return false;
+		}
+		catch ( final IOException e )
+		{
+			errorMessage = "Error reading files " + filePath + ": " + e.getMessage();
+			e.printStackTrace();
+			return false;
+		}
+		errorMessage = errors.isEmpty() ? null : errors.toString();
+		return true;
+	}
 
-			final Integer framecol = headerMap.get( frameColumnName );
-			if ( null == framecol )
+	/**
+	 * Returns a task that parses the whole specified file, after checking
+	 * that it has the same optional columns as the first file.
+	 */
+	private Callable< SpotBatch > fileTask( final String path, final CSVColumns expected )
+	{
+		return () -> {
+			final long t0 = System.nanoTime();
+			try (final CSVTokenizer tokenizer = openTokenizer( path ))
 			{
-				errorMessage = "Could not find frame column in " + filePath + ". Was looking for " + frameColumnName + ".";
-				return false;
+				final CSVColumns columns = readColumns( tokenizer, path );
+				if ( !columns.hasSameOptionalColumns( expected ) )
+					throw new CSVHeaderException( "The file " + path + " does not have the same optional columns as the first file." );
+
+				final long headerLines = tokenizer.getLineNumber();
+				final long from = tokenizer.getPosition();
+				final SpotBatch batch = SpotBatch.parse( tokenizer, columns );
+				batch.source = Paths.get( path ).getFileName().toString();
+				batch.sourceLine = headerLines;
+				batch.nBytes = Files.size( Paths.get( path ) );
+				statistics.addParsed( tokenizer.getPosition() - from, batch.size(), batch.nFiltered, System.nanoTime() - t0 );
+				return batch;
 			}
+		};
+	}
 
-			/*
-			 * Parse optional headers.
-			 */
+	private CSVTokenizer openTokenizer( final String path ) throws IOException
+	{
+		if ( CompressedInput.detect( path ) != CompressedInput.Compression.NONE )
+			return CSVTokenizer.open( CompressedInput.open( path ), separator );
+		return CSVTokenizer.open( path, separator );
+	}
 
-			final ModelGraph graph = model.getGraph();
+	/**
+	 * Returns what is known of the specified file before the import, and sets
+	 * the separator from it if it was not specified. The file is only read
+	 * if it was not sniffed before, by the UI, a previous call, or a previous
+	 * import with the same tail state.
+	 */
+	private CSVFileInfo sniff( final String path ) throws IOException
+	{
+		if ( null == fileInfo && null != tail && null != tail.fileInfo )
+			fileInfo = tail.fileInfo;
+		if ( null == fileInfo
+				|| !fileInfo.getFilePath().equals( path )
+				|| ( separator != '\0' && separator != fileInfo.getSeparator() ) )
+			fileInfo = CSVFileInfo.sniff( path, separator );
+		separator = fileInfo.getSeparator();
+		if ( null != tail )
+			tail.fileInfo = fileInfo;
+		return fileInfo;
+	}
 
-			Integer qualitycol = null;
-			if ( null != qualityColumnName && !qualityColumnName.isEmpty() )
-				qualitycol = headerMap.get( qualityColumnName );
+	/**
+	 * Returns whether the specified path is a glob pattern on file names
+	 * rather than the path of an existing file.
+	 */
+	private static boolean isGlob( final String path )
+	{
+		final String fileName = path.substring( Math.max( path.lastIndexOf( '/' ), path.lastIndexOf( File.separatorChar ) ) + 1 );
+		if ( fileName.chars().noneMatch( c -> c == '*' || c == '?' || c == '[' || c == '{' ) )
+			return false;
+		try
+		{
+			return !Files.exists( Paths.get( path ) );
+		}
+		catch ( final InvalidPathException e )
+		{
+			return true;
+		}
+	}
 
-			final DetectionQualityFeature qualityFeature = null == qualitycol
-					? null
-					: DetectionQualityFeature.getOrRegister( model.getFeatureModel(), graph.vertices().getRefPool() );
+	/**
+	 * Returns the files matching the specified glob pattern, sorted by name.
+	 * Only the file name can contain wildcards. Numbers in the file names are
+	 * compared by value, so that <code>t2.csv</code> comes before
+	 * <code>t10.csv</code>.
+	 */
+	static List< Path > resolveGlob( final String pattern ) throws IOException
+	{
+		final int sep = Math.max( pattern.lastIndexOf( '/' ), pattern.lastIndexOf( File.separatorChar ) );
+		final Path directory = Paths.get( sep < 0 ? "." : pattern.substring( 0, sep + 1 ) );
+		final PathMatcher matcher = FileSystems.getDefault().getPathMatcher( "glob:" + pattern.substring( sep + 1 ) );
+		final List< Path > files = new ArrayList<>();
+		try (final DirectoryStream< Path > stream = Files.newDirectoryStream( directory ))
+		{
+			for ( final Path file : stream )
+				if ( matcher.matches( file.getFileName() ) && Files.isRegularFile( file ) )
+					files.add( file );
+		}
+		files.sort( ( a, b ) -> compareNatural( a.getFileName().toString(), b.getFileName().toString() ) );
+		return files;
+	}
 
-			Integer radiuscol = null;
-			if ( null != radiusColumnName && !radiusColumnName.isEmpty() )
-				radiuscol = headerMap.get( radiusColumnName );
+	/**
+	 * Compares two strings, comparing the sequences of digits they contain by
+	 * numerical value.
+	 */
+	private static int compareNatural( final String a, final String b )
+	{
+		int i = 0;
+		int j = 0;
+		while ( i < a.length() && j < b.length() )
+		{
+			final char ca = a.charAt( i );
+			final char cb = b.charAt( j );
+			if ( Character.isDigit( ca ) && Character.isDigit( cb ) )
+			{
+				final int si = i;
+				final int sj = j;
+				while ( i < a.length() && Character.isDigit( a.charAt( i ) ) )
+					i++;
+				while ( j < b.length() && Character.isDigit( b.charAt( j ) ) )
+					j++;
+				final int c = new BigInteger( a.substring( si, i ) ).compareTo( new BigInteger( b.substring( sj, j ) ) );
+				if ( c != 0 )
+					return c;
+			}
+			else
+			{
+				if ( ca != cb )
+					return Character.compare( ca, cb );
+				i++;
+				j++;
+			}
+		}
+		final int c = Integer.compare( a.length() - i, b.length() - j );
+		return c != 0 ? c : a.compareTo( b );
+	}
 
-			Integer idcol = null;
-			if ( null != idColumnName && !idColumnName.isEmpty() )
-				idcol = headerMap.get( idColumnName );
+	/**
+	 * Reads the header line of the specified tokenizer and resolves the
+	 * columns to import from it.
+	 */
+	private CSVColumns readColumns( final CSVTokenizer tokenizer, final String path ) throws IOException
+	{
+		if ( !tokenizer.next() )
+			throw new CSVHeaderException( "CSV file " + path + " is empty." );
 
-			final OriginalIdFeature originalIdFeature = null == idcol
-					? null
-					: OriginalIdFeature.getOrRegister( model.getFeatureModel(), graph.vertices().getRefPool() );
+		final Map< String, Integer > headerMap = new HashMap<>( tokenizer.size() );
+		final String[] headers = new String[ tokenizer.size() ];
+		for ( int i = 0; i < tokenizer.size(); i++ )
+		{
+			final String cleanKey = tokenizer.getString( i ).trim().replaceAll( "\\p{C}", "" );
+			headerMap.put( cleanKey, Integer.valueOf( i ) );
+			headers[ i ] = cleanKey;
+		}
+		return parseHeaders( headerMap, headers, path );
+	}
 
-			Integer parentIdcol = null;
-			if ( null != parentIdColumnName && !parentIdColumnName.isEmpty() )
-				parentIdcol = headerMap.get( parentIdColumnName );
+	/**
+	 * Resolves the index of the columns to import from the header of the file.
+	 *
+	 * @return the column layout.
+	 * @throws CSVHeaderException
+	 *             if a mandatory column is missing.
+	 */
+	private CSVColumns parseHeaders( final Map< String, Integer > headerMap, final String[] headers, final String filePath ) throws CSVHeaderException
+	{
+		/*
+		 * Parse mandatory headers.
+		 */
 
-			Integer labelcol = null;
-			if ( null != labelColumnName && !labelColumnName.isEmpty() )
-				labelcol = headerMap.get( labelColumnName );
+		final Integer xcol = headerMap.get( xColumnName );
+		if ( null == xcol )
+			throw new CSVHeaderException( "Could not find X column in " + filePath + ". Was looking for " + xColumnName + "." );
 
-			Integer tagcol = null;
-			if ( null != tagColumnName && !tagColumnName.isEmpty() )
-				tagcol = headerMap.get( tagColumnName );
+		final Integer ycol = headerMap.get( yColumnName );
+		if ( null == ycol )
+			throw new CSVHeaderException( "Could not find Y column in " + filePath + ". Was looking for " + yColumnName + "." );
 
-			TagSetStructure.TagSet importedTagSet = null;
-			if ( null != tagcol )
-				importedTagSet = parseTagsFromFile( parser, tagcol );
+		final Integer zcol = headerMap.get( zColumnName );
+		if ( null == zcol )
+			throw new CSVHeaderException( "Could not find Z column in " + filePath + ". Was looking for " + zColumnName + "." );
 
-			IntRefMap< Spot > spotMap = new IntRefHashMap<>( model.getGraph().vertices().getRefPool(), -1 );
+		final Integer framecol = headerMap.get( frameColumnName );
+		if ( null == framecol )
+			throw new CSVHeaderException( "Could not find frame column in " + filePath + ". Was looking for " + frameColumnName + "." );
 
-			/*
-			 * Iterate over the rest of lines.
-			 */
+		/*
+		 * Parse optional headers.
+		 */
 
-			final WriteLock lock = graph.getLock().writeLock();
-			lock.lock();
-			final Spot vref = graph.vertexRef();
-			final Spot parentVertexRef = graph.vertexRef();
-			final Link edgeRef = graph.edgeRef();
-			final double[] pos = new double[ 3 ];
-			startImport();
-			if ( null != tagcol )
-				model.getTagSetModel().pauseListeners();
+		final int qualitycol = optionalColumn( headerMap, qualityColumnName );
+		final int radiuscol = optionalColumn( headerMap, radiusColumnName );
+		final int idcol = optionalColumn( headerMap, idColumnName );
+		if ( idcol < 0 && mergeMode != MergeMode.APPEND )
+			throw new CSVHeaderException( "Could not find the id column needed to merge in " + filePath + ". Was looking for " + idColumnName + "." );
+		final int parentIdcol = optionalColumn( headerMap, parentIdColumnName );
+		final int labelcol = optionalColumn( headerMap, labelColumnName );
+		final int tagcol = optionalColumn( headerMap, tagColumnName );
+		final int trackcol = optionalColumn( headerMap, trackColumnName );
 
-			try
-			{
-				int lineNumber = 1;
-				while ( it.hasNext() )
-				{
-					final String[] record = it.next();
-					lineNumber++;
+		/*
+		 * Extra columns, in the order of the file.
+		 */
 
-					try
-					{
-						pos[ 0 ] = Double.parseDouble( record[ xcol ].trim() ) + xOrigin;
-						pos[ 1 ] = Double.parseDouble( record[ ycol ].trim() ) + yOrigin;
-						pos[ 2 ] = Double.parseDouble( record[ zcol ].trim() ) + zOrigin;
-						final int t = Integer.parseInt( record[ framecol ].trim() );
-
-						double r = radius;
-						if ( null != radiuscol )
-							r = Double.parseDouble( record[ radiuscol ].trim() );
-
-						final Spot spot = graph.addVertex( vref ).init( t, pos, r );
-						if ( null != idcol )
-						{
-							final int id = Integer.parseInt( record[ idcol ].trim() );
-							originalIdFeature.set( spot, id );
-							if ( null != parentIdcol )
-								spotMap.put( id, spot );
-							if ( null == labelcol )
-								spot.setLabel( "" + id );
-						}
-
-						if ( null != labelcol )
-						{
-							String label = record[ labelcol ].trim();
-							spot.setLabel( label );
-						}
-
-						double q = 1.;
-						if ( null != qualitycol )
-						{
-							q = Double.parseDouble( record[ qualitycol ].trim() );
-							qualityFeature.set( spot, q );
-						}
-
-						if ( null != tagcol )
-						{
-							String label = record[ tagcol ].trim();
-							TagSetStructure.Tag tag = TagSetUtils.findTag( importedTagSet, label );
-							TagSetUtils.tagSpot( model, importedTagSet, tag, spot );
-							TagSetUtils.tagLinks( model, importedTagSet, tag, spot.incomingEdges() );
-						}
-					}
-					catch ( final NumberFormatException nfe )
-					{
-						nfe.printStackTrace();
-						System.out.println( "Could not parse line " + lineNumber + ". Malformed number, skipping.\n" + nfe.getMessage() );
-						continue;
-					}
-				}
-				if ( null != parentIdcol )
-					parseLinksFromFile( parser, spotMap, idcol, vref, parentIdcol, parentVertexRef, edgeRef );
-			}
-			finally
-			{
-				lock.unlock();
-				graph.releaseRef( vref );
-				graph.releaseRef( parentVertexRef );
-				graph.releaseRef( edgeRef );
-				if ( null != tagcol )
-					model.getTagSetModel().resumeListeners();
-				finishImport();
-			}
+		final Map< Integer, String > extras = new TreeMap<>();
+		if ( importAllExtraColumns )
+		{
+			final Set< Integer > mapped = new HashSet<>( Arrays.asList( xcol, ycol, zcol, framecol,
+					qualitycol, radiuscol, idcol, parentIdcol, labelcol, tagcol, trackcol ) );
+			for ( final Map.Entry< String, Integer > entry : headerMap.entrySet() )
+				if ( !mapped.contains( entry.getValue() ) && !entry.getKey().isEmpty() )
+					extras.put( entry.getValue(), entry.getKey() );
 		}
-		catch ( final FileNotFoundException e )
+		else if ( null != extraColumnNames )
 		{
-			errorMessage = "Cannot find file " + filePath;
-			e.printStackTrace();
-			return false;
+			for ( final String name : extraColumnNames )
+			{
+				final int col = optionalColumn( headerMap, name );
+				if ( col >= 0 )
+					extras.put( col, name );
+			}
 		}
-		catch ( final IOException e )
+		final int[] extracols = new int[ extras.size() ];
+		final String[] extraNames = new String[ extras.size() ];
+		int i = 0;
+		for ( final Map.Entry< Integer, String > entry : extras.entrySet() )
 		{
-			errorMessage = "Error reading file " + filePath;
-			e.printStackTrace();
-			return false;
+			extracols[ i ] = entry.getKey();
+			extraNames[ i ] = entry.getValue();
+			i++;
 		}
 
-		/*
-		 * Return.
-		 */
+		return new CSVColumns(
+				xcol,
+				ycol,
+				zcol,
+				framecol,
+				qualitycol,
+				radiuscol,
+				idcol,
+				parentIdcol,
+				labelcol,
+				tagcol,
+				trackcol,
+				idType,
+				fileInfo.getDecimalMark(),
+				headers,
+				extracols,
+				extraNames,
+				radius,
+				xOrigin,
+				yOrigin,
+				zOrigin,
+				filter );
+	}
 
-		return true;
+	private static int optionalColumn( final Map< String, Integer > headerMap, final String columnName )
+	{
+		if ( null == columnName || columnName.isEmpty() )
+			return -1;
+		final Integer col = headerMap.get( columnName );
+		return null == col ? -1 : col.intValue();
 	}
 
-	private void parseLinksFromFile( final CSVParser parser, final IntRefMap< Spot > spotMap, final int idCol, final Spot spotRef,
-			final int parentIdcol, final Spot parentSpotRef, final Link edgeRef )
+	/**
+	 * Parses the rows of a part of the file and inserts them in the model.
+	 * <p>
+	 * The file is split in regions aligned on line boundaries, that are parsed
+	 * concurrently into batches. The calling thread is the single consumer of
+	 * these batches: it inserts them in the graph in file order. At most
+	 * {@link #MAX_QUEUED_BATCHES_PER_THREAD} batches per thread are parsed
+	 * ahead of insertion, so that memory use does not depend on the size of
+	 * the file.
+	 */
+	private void parseAndInsert( final CSVColumns columns, final long start, final long end, final long lineOffset ) throws IOException
 	{
-		try (final CSVReader readerTags = new CSVReaderBuilder( new FileReader( filePath ) )
-				.withCSVParser( parser )
-				.build())
+		final CSVFrameIndex index = useFrameIndex && null == tail ? readFrameIndex( columns ) : null;
+		if ( null != index && filter.hasFrameRange() )
+		{
+			parseAndInsert( columns, index );
+			return;
+		}
+
+		final long size = Math.min( end, Files.size( Paths.get( filePath ) ) ) - start;
+		final int nRegions = ( int ) Math.max( 1, size / regionSize );
+		final long[] bounds = CSVTokenizer.split( filePath, start, start + size, nRegions );
+
+		// Index the frames while the whole file is parsed, if not done yet.
+		final CSVFrameIndex newIndex = useFrameIndex && null == tail && null == index
+				? CSVFrameIndex.create( filePath, separator, columns.headers[ columns.framecol ], bounds )
+				: null;
+
+		final Iterator< Callable< SpotBatch > > tasks = new Iterator< Callable< SpotBatch > >()
 		{
-			Iterator< String[] > csvIterator = readerTags.iterator();
-			csvIterator.next();
-			while ( csvIterator.hasNext() )
+			private int next = 0;
+
+			@Override
+			public boolean hasNext()
 			{
-				final String[] line = csvIterator.next();
-				final int spotId = Integer.parseInt( line[ idCol ].trim() );
-				final Spot spot = spotMap.get( spotId, spotRef );
-				final int parentId = Integer.parseInt( line[ parentIdcol ].trim() );
-				final Spot parent = spotMap.get( parentId, parentSpotRef );
-				if ( parent != null && spot != null )
-					model.getGraph().addEdge( parent, spot, edgeRef ).init();
+				return next < nRegions;
 			}
+
+			@Override
+			public Callable< SpotBatch > next()
+			{
+				final Callable< SpotBatch > task = parseTask( columns, bounds[ next ], bounds[ next + 1 ], newIndex, next );
+				next++;
+				return task;
+			}
+		};
+		newInserter( columns, lineOffset, size ).insertAll( new ForkJoinPool( numThreads ), MAX_QUEUED_BATCHES_PER_THREAD * numThreads, tasks );
+
+		if ( null != newIndex && !isCanceled )
+		{
+			try
+			{
+				newIndex.write( filePath, lineOffset );
+			}
+			catch ( final IOException e )
+			{
+				// The index only speeds up later imports, for instance from a read-only folder.
+			}
+		}
+	}
+
+	/**
+	 * Parses and inserts only the blocks of the file that have rows in the
+	 * frame range, as found in the frame index of the file.
+	 */
+	private void parseAndInsert( final CSVColumns columns, final CSVFrameIndex index ) throws IOException
+	{
+		final int[] blocks = index.blocks( filter.minFrame, filter.maxFrame );
+		long size = 0;
+		for ( final int block : blocks )
+			size += index.end( block ) - index.start( block );
+
+		// Blocks are not contiguous, so each one gives the number of its first line.
+		final String source = Paths.get( filePath ).getFileName().toString();
+		final Iterator< Callable< SpotBatch > > tasks = Arrays.stream( blocks )
+				.mapToObj( block -> {
+					final Callable< SpotBatch > task = parseTask( columns, index.start( block ), index.end( block ), null, block );
+					return ( Callable< SpotBatch > ) () -> {
+						final SpotBatch batch = task.call();
+						batch.source = source;
+						batch.sourceLine = index.lineNumber( block );
+						return batch;
+					};
+				} )
+				.iterator();
+		newInserter( columns, 0, size ).insertAll( new ForkJoinPool( numThreads ), MAX_QUEUED_BATCHES_PER_THREAD * numThreads, tasks );
+	}
+
+	/**
+	 * Returns the frame index of the file if it is still valid, or
+	 * <code>null</code>.
+	 */
+	private CSVFrameIndex readFrameIndex( final CSVColumns columns )
+	{
+		try
+		{
+			return CSVFrameIndex.read( filePath, separator, columns.headers[ columns.framecol ] );
 		}
 		catch ( final IOException e )
 		{
-			errorMessage = "Error reading file " + filePath;
-			e.printStackTrace();
+			// A corrupted index is rebuilt.
+			return null;
 		}
 	}
 
-	private TagSetStructure.TagSet parseTagsFromFile( final CSVParser parser, int labelcol )
+	/**
+	 * Parses the rows of a compressed file after the header and inserts them
+	 * in the model.
+	 * <p>
+	 * A decompressed stream can only be read sequentially, so a single thread
+	 * parses it in batches of {@value #STREAM_BATCH_LINES} lines, while the
+	 * decompression runs in another thread and the calling thread inserts the
+	 * batches. Progress is measured on the compressed bytes read from the
+	 * file.
+	 */
+	private void parseAndInsert( final CSVColumns columns, final CSVTokenizer tokenizer, final AtomicLong compressedBytesRead ) throws IOException
 	{
-		try (final CSVReader readerTags = new CSVReaderBuilder( new FileReader( filePath ) )
-				.withCSVParser( parser )
-				.build())
+		final long headerLines = tokenizer.getLineNumber();
+		final long size = Files.size( Paths.get( filePath ) ) - compressedBytesRead.get();
+		final AtomicBoolean endOfInput = new AtomicBoolean( false );
+		final Iterator< Callable< SpotBatch > > tasks = new Iterator< Callable< SpotBatch > >()
 		{
-			Iterator< String[] > csvIterator = readerTags.iterator();
+			@Override
+			public boolean hasNext()
+			{
+				return !endOfInput.get();
+			}
+
+			@Override
+			public Callable< SpotBatch > next()
+			{
+				return () -> {
+					final long t0 = System.nanoTime();
+					final long from = tokenizer.getPosition();
+					final long compressedFrom = compressedBytesRead.get();
+					final SpotBatch batch = SpotBatch.parse( tokenizer, columns, STREAM_BATCH_LINES );
+					batch.nBytes = compressedBytesRead.get() - compressedFrom;
+					if ( batch.endOfInput )
+						endOfInput.set( true );
+					statistics.addParsed( tokenizer.getPosition() - from, batch.size(), batch.nFiltered, System.nanoTime() - t0 );
+					return batch;
+				};
+			}
+		};
+		newInserter( columns, headerLines, size ).insertAll( Executors.newSingleThreadExecutor(), MAX_QUEUED_BATCHES_PER_THREAD, tasks );
+	}
 
-			Set< String > tags = new HashSet<>();
-			csvIterator.next();
-			while ( csvIterator.hasNext() )
+	/**
+	 * Creates an inserter for the batches parsed with the specified columns.
+	 */
+	private SpotBatchInserter newInserter( final CSVColumns columns, final long headerLines, final long totalBytes )
+	{
+		return new SpotBatchInserter(
+				model,
+				radius,
+				columns.qualitycol >= 0,
+				columns.idcol >= 0 ? columns.idType : null,
+				columns.tagcol >= 0,
+				columns.extraNames,
+				commitBatchSize,
+				statistics,
+				errors,
+				!filter.isSelective(),
+				headerLines,
+				this::startImport,
+				this::finishImport,
+				progressListener,
+				totalBytes,
+				estimateRows( totalBytes ),
+				this,
+				tail,
+				session,
+				mergeMode,
+				materializeLabels );
+	}
+
+	/**
+	 * Returns the number of rows expected in the specified number of input
+	 * bytes, extrapolated from the row count estimated when the file was
+	 * sniffed, or 0 if it is unknown. The rows appended to a growing file
+	 * are not estimated.
+	 */
+	private long estimateRows( final long bytes )
+	{
+		if ( null == fileInfo || null != tail || fileInfo.getFileSize() <= 0 )
+			return 0;
+		final double fraction = ( double ) bytes / fileInfo.getFileSize();
+		return Math.round( fileInfo.getEstimatedRowCount() * fraction * filter.sampleFraction() );
+	}
+
+	/**
+	 * Returns a task that parses the specified region of the file. If a frame
+	 * index is specified, the frames found in the region are recorded in it,
+	 * as the specified block.
+	 */
+	private Callable< SpotBatch > parseTask( final CSVColumns columns, final long from, final long to, final CSVFrameIndex index, final int block )
+	{
+		return () -> {
+			final long t0 = System.nanoTime();
+			try (final CSVTokenizer tokenizer = CSVTokenizer.open( filePath, separator, from, to ))
 			{
-				final String[] line = csvIterator.next();
-				String tag = line[ labelcol ].trim();
-				tags.add( tag );
+				final SpotBatch batch = SpotBatch.parse( tokenizer, columns );
+				if ( null != index )
+					index.set( block, batch.nLines, batch.minFrame, batch.maxFrame );
+				batch.nBytes = to - from;
+				statistics.addParsed( to - from, batch.size(), batch.nFiltered, System.nanoTime() - t0 );
+				return batch;
 			}
-			GlasbeyLut glasbeyLut = new GlasbeyLut();
-			List< Pair< String, Integer > > tagsAndColors =
-					tags.stream().map( tag -> Pair.of( tag, glasbeyLut.next() ) ).collect( Collectors.toList() );
+		};
+	}
 
-			return TagSetUtils.addNewTagSetToModel( model, "Imported Tags", tagsAndColors );
-		}
-		catch ( final IOException e )
+	/**
+	 * Thrown when the header of a file does not have the columns to import.
+	 */
+	private static final class CSVHeaderException extends IOException
+	{
+
+		private static final long serialVersionUID = 1L;
+
+		private CSVHeaderException( final String message )
 		{
-			errorMessage = "Error reading file " + filePath;
-			e.printStackTrace();
-			return null;
+			super( message );
 		}
 	}
 
+	/**
+	 * Returns the reason why the import failed or, after a successful import,
+	 * the summary of the errors found in its rows, see {@link #getErrors()}.
+	 *
+	 * @return the error message, or <code>null</code>.
+	 */
 	@Override
 	public String getErrorMessage()
 	{
 		return errorMessage;
 	}
 
+	/**
+	 * Returns the errors found in the rows of the last import. The spots of
+	 * the rows with an error are not imported, or imported without link if
+	 * the error is on their parent.
+	 *
+	 * @return the import errors.
+	 */
+	public ImportErrors getErrors()
+	{
+		return errors;
+	}
+
+	/**
+	 * Returns the throughput counters of the last import.
+	 *
+	 * @return the import statistics.
+	 */
+	public ImportStatistics getStatistics()
+	{
+		return statistics;
+	}
+
+	/**
+	 * Cancels the import. The spots imported so far are kept, with their
+	 * links and tags, and {@link #process()} returns <code>false</code>.
+	 *
+	 * @param reason
+	 *            the reason why the import is canceled.
+	 */
+	@Override
+	public void cancel( final String reason )
+	{
+		cancelReason = reason;
+		isCanceled = true;
+	}
+
+	@Override
+	public boolean isCanceled()
+	{
+		return isCanceled;
+	}
+
+	@Override
+	public String getCancelReason()
+	{
+		return cancelReason;
+	}
+
+	@Override
+	public void setNumThreads()
+	{
+		this.numThreads = Runtime.getRuntime().availableProcessors();
+	}
+
+	@Override
+	public void setNumThreads( final int numThreads )
+	{
+		this.numThreads = Math.max( 1, numThreads );
+	}
+
+	@Override
+	public int getNumThreads()
+	{
+		return numThreads;
+	}
+
+	/**
+	 * How the values of the id and parent id columns are read.
+	 */
+	public enum IdType
+	{
+		/**
+		 * 32-bit integers, stored in the {@link OriginalIdFeature}.
+		 */
+		INT,
+
+		/**
+		 * 64-bit integers, stored in the {@link OriginalLongIdFeature}.
+		 */
+		LONG,
+
+		/**
+		 * Arbitrary strings, such as UUIDs. They are used as spot labels if
+		 * there is no label column, and their 64-bit hash is stored in the
+		 * {@link OriginalLongIdFeature}. An empty parent id means no parent.
+		 */
+		STRING;
+	}
+
+	/**
+	 * How the imported rows are combined with the spots already in the
+	 * model.
+	 */
+	public enum MergeMode
+	{
+		/**
+		 * Each row creates a new spot.
+		 */
+		APPEND,
+
+		/**
+		 * The rows whose id is the original id of a spot of the model update
+		 * this spot in place: its position, radius, quality, label, tag and
+		 * parent. The other rows create new spots. The annotations of the
+		 * updated spots are kept, and the computed features of the spots and
+		 * of their links are only invalidated if they moved or changed size.
+		 * A spot whose frame changed is replaced by a new spot, that takes its
+		 * label, tags and links. The tags are added to the tag set of the
+		 * previous imports, with the same name, instead of a new one.
+		 */
+		MERGE,
+
+		/**
+		 * Like {@link #MERGE}, and the spots with an original id that is not
+		 * in the file are removed.
+		 */
+		MERGE_AND_REMOVE;
+	}
+
 	public static class OriginalIdFeature extends IntScalarFeature< Spot >
 	{
 
@@ -498,66 +1115,290 @@ public class CSVImporter extends ModelImporter implements Algorithm
 		{
 			public Spec()
 			{
-				super(
-						KEY,
-						HELP_STRING,
-						OriginalIdFeature.class,
-						Spot.class,
-						Multiplicity.SINGLE,
-						new FeatureProjectionSpec( KEY, Dimension.NONE ) );
+				super(
+						KEY,
+						HELP_STRING,
+						OriginalIdFeature.class,
+						Spot.class,
+						Multiplicity.SINGLE,
+						new FeatureProjectionSpec( KEY, Dimension.NONE ) );
+			}
+		}
+
+		public static final Spec SPEC = new Spec();
+
+		public static final String KEY = "Original id";
+
+		private static final String HELP_STRING = "Store the id specified in the file that was imported.";
+
+		private OriginalIdFeature( final RefPool< Spot > pool )
+		{
+			super( KEY, Dimension.NONE, Dimension.NONE_UNITS, pool );
+		}
+
+		private OriginalIdFeature( final IntPropertyMap< Spot > map )
+		{
+			super( KEY, Dimension.NONE, Dimension.NONE_UNITS, map );
+		}
+
+		public static final OriginalIdFeature getOrRegister( final FeatureModel featureModel, final RefPool< Spot > pool )
+		{
+			final OriginalIdFeature feature = new OriginalIdFeature( pool );
+			final OriginalIdFeature retrieved = ( OriginalIdFeature ) featureModel.getFeature( feature.getSpec() );
+			if ( null == retrieved )
+			{
+				featureModel.declareFeature( feature );
+				return feature;
+			}
+			return retrieved;
+		}
+
+		/**
+		 * Like {@link #getOrRegister(FeatureModel, RefPool)}, but a new
+		 * feature is sized to store the ids of the specified number of spots
+		 * without growing.
+		 *
+		 * @param featureModel
+		 *            the feature model.
+		 * @param pool
+		 *            the pool of the spots.
+		 * @param initialCapacity
+		 *            the number of spots expected, existing ones included.
+		 * @return the feature.
+		 */
+		public static final OriginalIdFeature getOrRegister( final FeatureModel featureModel, final RefPool< Spot > pool, final int initialCapacity )
+		{
+			final OriginalIdFeature retrieved = ( OriginalIdFeature ) featureModel.getFeature( SPEC );
+			if ( null == retrieved )
+			{
+				final OriginalIdFeature feature = new OriginalIdFeature( new IntPropertyMap<>( pool, Integer.MIN_VALUE, initialCapacity ) );
+				featureModel.declareFeature( feature );
+				return feature;
+			}
+			return retrieved;
+		}
+
+		@Override
+		public FeatureSpec< ? extends Feature< Spot >, Spot > getSpec()
+		{
+			return SPEC;
+		}
+	}
+
+	@Plugin( type = FeatureSerializer.class )
+	public static class OriginalIdFeatureSerializer extends IntScalarFeatureSerializer< OriginalIdFeature, Spot >
+	{
+
+		@Override
+		public OriginalIdFeature deserialize( final FileIdToObjectMap< Spot > idmap, final RefCollection< Spot > pool, final ObjectInputStream ois ) throws IOException, ClassNotFoundException
+		{
+			final DeserializedStruct struct = read( idmap, pool, ois );
+			return new OriginalIdFeature( struct.map );
+		}
+
+		@Override
+		public FeatureSpec< OriginalIdFeature, Spot > getFeatureSpec()
+		{
+			return OriginalIdFeature.SPEC;
+		}
+	}
+
+	/**
+	 * Stores the 64-bit ids specified in the imported file, or the hash of the
+	 * string ids. The values are stored as two 32-bit halves, and projected
+	 * as doubles, which is exact up to 2<sup>53</sup>.
+	 */
+	public static class OriginalLongIdFeature implements Feature< Spot >
+	{
+
+		@Plugin( type = FeatureSpec.class )
+		public static class Spec extends FeatureSpec< OriginalLongIdFeature, Spot >
+		{
+			public Spec()
+			{
+				super(
+						KEY,
+						HELP_STRING,
+						OriginalLongIdFeature.class,
+						Spot.class,
+						Multiplicity.SINGLE,
+						new FeatureProjectionSpec( KEY, Dimension.NONE ) );
+			}
+		}
+
+		public static final Spec SPEC = new Spec();
+
+		public static final String KEY = "Original long id";
+
+		private static final String HELP_STRING = "Store the 64-bit id, or the hash of the string id, specified in the file that was imported.";
+
+		private final RefCollection< Spot > vertices;
+
+		private final IntPropertyMap< Spot > high;
+
+		private final IntPropertyMap< Spot > low;
+
+		private final FeatureProjection< Spot > projection;
+
+		private OriginalLongIdFeature( final RefCollection< Spot > vertices )
+		{
+			this( vertices, vertices.size() );
+		}
+
+		private OriginalLongIdFeature( final RefCollection< Spot > vertices, final int initialCapacity )
+		{
+			this.vertices = vertices;
+			this.high = new IntPropertyMap<>( vertices, 0, initialCapacity );
+			this.low = new IntPropertyMap<>( vertices, 0, initialCapacity );
+			final FeatureProjectionKey key = FeatureProjectionKey.key( SPEC.getProjectionSpecs().iterator().next() );
+			this.projection = new FeatureProjection< Spot >()
+			{
+
+				@Override
+				public FeatureProjectionKey getKey()
+				{
+					return key;
+				}
+
+				@Override
+				public boolean isSet( final Spot spot )
+				{
+					return OriginalLongIdFeature.this.isSet( spot );
+				}
+
+				@Override
+				public double value( final Spot spot )
+				{
+					return OriginalLongIdFeature.this.value( spot );
+				}
+
+				@Override
+				public String units()
+				{
+					return Dimension.NONE_UNITS;
+				}
+			};
+		}
+
+		public static final OriginalLongIdFeature getOrRegister( final FeatureModel featureModel, final RefCollection< Spot > vertices )
+		{
+			return getOrRegister( featureModel, vertices, vertices.size() );
+		}
+
+		/**
+		 * Like {@link #getOrRegister(FeatureModel, RefCollection)}, but a new
+		 * feature is sized to store the ids of the specified number of spots
+		 * without growing.
+		 *
+		 * @param featureModel
+		 *            the feature model.
+		 * @param vertices
+		 *            the spots.
+		 * @param initialCapacity
+		 *            the number of spots expected, existing ones included.
+		 * @return the feature.
+		 */
+		public static final OriginalLongIdFeature getOrRegister( final FeatureModel featureModel, final RefCollection< Spot > vertices, final int initialCapacity )
+		{
+			final OriginalLongIdFeature retrieved = ( OriginalLongIdFeature ) featureModel.getFeature( SPEC );
+			if ( null == retrieved )
+			{
+				final OriginalLongIdFeature feature = new OriginalLongIdFeature( vertices, initialCapacity );
+				featureModel.declareFeature( feature );
+				return feature;
 			}
+			return retrieved;
 		}
 
-		public static final Spec SPEC = new Spec();
+		public boolean isSet( final Spot spot )
+		{
+			return low.isSet( spot );
+		}
 
-		public static final String KEY = "Original id";
+		public long value( final Spot spot )
+		{
+			return ( ( long ) high.getInt( spot ) << 32 ) | ( low.getInt( spot ) & 0xffffffffL );
+		}
 
-		private static final String HELP_STRING = "Store the id specified in the file that was imported.";
+		public void set( final Spot spot, final long value )
+		{
+			high.set( spot, ( int ) ( value >>> 32 ) );
+			low.set( spot, ( int ) value );
+		}
 
-		private OriginalIdFeature( final RefPool< Spot > pool )
+		@Override
+		public FeatureProjection< Spot > project( final FeatureProjectionKey key )
 		{
-			super( KEY, Dimension.NONE, Dimension.NONE_UNITS, pool );
+			return projection.getKey().equals( key ) ? projection : null;
 		}
 
-		private OriginalIdFeature( final IntPropertyMap< Spot > map )
+		@Override
+		public Set< FeatureProjection< Spot > > projections()
 		{
-			super( KEY, Dimension.NONE, Dimension.NONE_UNITS, map );
+			return Collections.singleton( projection );
 		}
 
-		public static final OriginalIdFeature getOrRegister( final FeatureModel featureModel, final RefPool< Spot > pool )
+		@Override
+		public void invalidate( final Spot spot )
 		{
-			final OriginalIdFeature feature = new OriginalIdFeature( pool );
-			final OriginalIdFeature retrieved = ( OriginalIdFeature ) featureModel.getFeature( feature.getSpec() );
-			if ( null == retrieved )
-			{
-				featureModel.declareFeature( feature );
-				return feature;
-			}
-			return retrieved;
+			high.remove( spot );
+			low.remove( spot );
 		}
 
 		@Override
-		public FeatureSpec< ? extends Feature< Spot >, Spot > getSpec()
+		public FeatureSpec< OriginalLongIdFeature, Spot > getSpec()
 		{
 			return SPEC;
 		}
 	}
 
 	@Plugin( type = FeatureSerializer.class )
-	public static class OriginalIdFeatureSerializer extends IntScalarFeatureSerializer< OriginalIdFeature, Spot >
+	public static class OriginalLongIdFeatureSerializer implements FeatureSerializer< OriginalLongIdFeature, Spot >
 	{
 
 		@Override
-		public OriginalIdFeature deserialize( final FileIdToObjectMap< Spot > idmap, final RefCollection< Spot > pool, final ObjectInputStream ois ) throws IOException, ClassNotFoundException
+		public FeatureSpec< OriginalLongIdFeature, Spot > getFeatureSpec()
 		{
-			final DeserializedStruct struct = read( idmap, pool, ois );
-			return new OriginalIdFeature( struct.map );
+			return OriginalLongIdFeature.SPEC;
 		}
 
 		@Override
-		public FeatureSpec< OriginalIdFeature, Spot > getFeatureSpec()
+		public void serialize( final OriginalLongIdFeature feature, final ObjectToFileIdMap< Spot > idmap, final ObjectOutputStream oos ) throws IOException
 		{
-			return OriginalIdFeature.SPEC;
+			int n = 0;
+			for ( final Spot spot : feature.vertices )
+				if ( feature.isSet( spot ) )
+					n++;
+			oos.writeInt( n );
+			for ( final Spot spot : feature.vertices )
+			{
+				if ( feature.isSet( spot ) )
+				{
+					oos.writeInt( idmap.getId( spot ) );
+					oos.writeLong( feature.value( spot ) );
+				}
+			}
+		}
+
+		@Override
+		public OriginalLongIdFeature deserialize( final FileIdToObjectMap< Spot > idmap, final RefCollection< Spot > pool, final ObjectInputStream ois ) throws IOException, ClassNotFoundException
+		{
+			final OriginalLongIdFeature feature = new OriginalLongIdFeature( pool );
+			final Spot ref = pool.createRef();
+			try
+			{
+				final int n = ois.readInt();
+				for ( int i = 0; i < n; i++ )
+				{
+					final Spot spot = idmap.getObject( ois.readInt(), ref );
+					feature.set( spot, ois.readLong() );
+				}
+			}
+			finally
+			{
+				pool.releaseRef( ref );
+			}
+			return feature;
 		}
 	}
 
@@ -590,6 +1431,8 @@ public class CSVImporter extends ModelImporter implements Algorithm
 
 		private String tagColumnName;
 
+		private String trackColumnName;
+
 		private double xOrigin = 0.;
 
 		private double yOrigin = 0.;
@@ -598,12 +1441,61 @@ public class CSVImporter extends ModelImporter implements Algorithm
 
 		private char separator = '\0';
 
+		private IdType idType = IdType.INT;
+
+		private List< String > extraColumnNames;
+
+		private boolean importAllExtraColumns = false;
+
+		private int commitBatchSize = 0;
+
+		private ProgressListener progressListener = ProgressListeners.voidLogger();
+
+		private CSVTailState tail;
+
+		private CSVImportSession session;
+
+		private CSVFileInfo fileInfo;
+
+		private int minFrame = Integer.MIN_VALUE;
+
+		private int maxFrame = Integer.MAX_VALUE;
+
+		private int frameStride = 1;
+
+		private double minQuality = Double.NEGATIVE_INFINITY;
+
+		private double[] boxMin;
+
+		private double[] boxMax;
+
+		private double sampleFraction = 1.;
+
+		private long sampleSeed;
+
+		private boolean frameIndex = false;
+
+		private MergeMode mergeMode = MergeMode.APPEND;
+
+		private boolean materializeLabels = true;
+
 		public Builder model( final Model model )
 		{
 			this.model = model;
 			return this;
 		}
 
+		/**
+		 * Specifies the path of the CSV file to import. To import several
+		 * files, such as one file per frame, the file name can be a glob
+		 * pattern, like <code>/path/to/t*.csv</code>. The files are then
+		 * imported in the order of their names, with numbers compared by
+		 * value, and the ids must be unique across files.
+		 *
+		 * @param csvFilePath
+		 *            the path to the file, or a glob pattern on file names.
+		 * @return this builder.
+		 */
 		public Builder csvFilePath( final String csvFilePath )
 		{
 			this.csvFilePath = csvFilePath;
@@ -676,6 +1568,32 @@ public class CSVImporter extends ModelImporter implements Algorithm
 			return this;
 		}
 
+		/**
+		 * Specifies the column with the id of the track of each spot, to link
+		 * the spots of a track in frame order, as in TrackMate spot tables.
+		 * When a track has several spots in a frame, each spot of the next
+		 * frame of the track is linked to the nearest of them. Cells that are
+		 * empty or not integers leave their spot out of any track. Ignored
+		 * if the spots are linked with a parent id column.
+		 * <p>
+		 * With a tail state or an import session, the first spots of a track
+		 * are linked to the last spots of the track in the previous imports,
+		 * if they are in an earlier frame. The track ends are kept in memory
+		 * only, so a tail state resumed from its offset links the spots of
+		 * the new rows among themselves. Track ids cannot be used with a
+		 * merge mode other than {@link MergeMode#APPEND}, as the updated
+		 * spots would be linked again.
+		 *
+		 * @param trackColumnName
+		 *            the header of the track id column.
+		 * @return this builder.
+		 */
+		public Builder trackColumnName( final String trackColumnName )
+		{
+			this.trackColumnName = trackColumnName;
+			return this;
+		}
+
 		public Builder xOrigin( final double xOrigin )
 		{
 			this.xOrigin = xOrigin;
@@ -698,7 +1616,10 @@ public class CSVImporter extends ModelImporter implements Algorithm
 		 * Specifies the separator character to use to read the CSV file. If it
 		 * is left unset, or set to the character '\0', then the separator is
 		 * automatically determined by inspecting the first few lines of the CSV
-		 * file.
+		 * file. If the separator is not ',', numbers can use ',' as decimal
+		 * mark, as in the files written with a French locale, if it was found
+		 * as decimal mark when sniffing the file, see
+		 * {@link CSVFileInfo#getDecimalMark()}.
 		 *
 		 * @param separator
 		 *            the separator to use.
@@ -710,6 +1631,312 @@ public class CSVImporter extends ModelImporter implements Algorithm
 			return this;
 		}
 
+		/**
+		 * Specifies how the values of the id and parent id columns are read.
+		 * The default is {@link IdType#INT}.
+		 *
+		 * @param idType
+		 *            the type of the ids.
+		 * @return this builder.
+		 */
+		public Builder idType( final IdType idType )
+		{
+			this.idType = idType;
+			return this;
+		}
+
+		/**
+		 * Specifies extra columns to import as spot features. Their values are
+		 * parsed as numbers in the same pass as the spots, and stored in the
+		 * {@link ImportedColumnsFeature}, in a projection named after the
+		 * column. The feature is saved with the project. Cells that are empty
+		 * or not numbers are left unset. Columns missing from the file are
+		 * ignored.
+		 *
+		 * @param extraColumnNames
+		 *            the names of the columns to import as features, or
+		 *            <code>null</code> to import none.
+		 * @return this builder.
+		 */
+		public Builder extraColumnNames( final List< String > extraColumnNames )
+		{
+			this.extraColumnNames = extraColumnNames;
+			return this;
+		}
+
+		/**
+		 * Specifies whether all the columns of the file that are not mapped to
+		 * a spot property are imported as spot features, as with
+		 * {@link #extraColumnNames(List)}. The columns without any number,
+		 * such as text columns, do not create a feature projection. If
+		 * <code>true</code>, the list of extra column names is ignored.
+		 *
+		 * @param importAllExtraColumns
+		 *            whether to import all remaining columns.
+		 * @return this builder.
+		 */
+		public Builder importAllExtraColumns( final boolean importAllExtraColumns )
+		{
+			this.importAllExtraColumns = importAllExtraColumns;
+			return this;
+		}
+
+		/**
+		 * Specifies whether the spots are committed to the model in several
+		 * batches. If the specified size is strictly positive, the graph write
+		 * lock is released every <code>commitBatchSize</code> spots and the
+		 * graph listeners are notified, so that the views stay responsive and
+		 * display the spots imported so far. Links are created as soon as
+		 * their parent spot is imported, and tags at the end of the import.
+		 * <p>
+		 * If it is 0, the default, the lock is held for the whole import and
+		 * the model listeners are only notified at the end.
+		 *
+		 * @param commitBatchSize
+		 *            the number of spots to add between each release of the
+		 *            lock, or 0 to hold it during the whole import.
+		 * @return this builder.
+		 */
+		public Builder commitBatchSize( final int commitBatchSize )
+		{
+			this.commitBatchSize = commitBatchSize;
+			return this;
+		}
+
+		/**
+		 * Specifies a listener to report the progress of the import to. The
+		 * progress is computed from the fraction of the file imported, and
+		 * the status reports the row and byte throughput.
+		 *
+		 * @param progressListener
+		 *            the progress listener.
+		 * @return this builder.
+		 */
+		public Builder progressListener( final ProgressListener progressListener )
+		{
+			this.progressListener = progressListener;
+			return this;
+		}
+
+		/**
+		 * Specifies that only the rows appended to the file since the last
+		 * import with the same state are imported. The file is read from the
+		 * byte offset where the last import stopped, up to its last complete
+		 * line, and the parent ids of the new rows are resolved against the
+		 * spots imported before. The state is advanced by each import.
+		 * <p>
+		 * Compressed files cannot be imported this way.
+		 *
+		 * @param tail
+		 *            the state of the imports of the file, or
+		 *            <code>null</code> to import the whole file.
+		 * @return this builder.
+		 */
+		public Builder tail( final CSVTailState tail )
+		{
+			this.tail = tail;
+			return this;
+		}
+
+		/**
+		 * Specifies a session shared with other imports into the same model.
+		 * The parent ids of the rows are then also resolved against the spots
+		 * imported before in the session, for instance in the file of the
+		 * previous time-point, and the tags are added to the same tag set.
+		 * The ids must be unique across the imports of the session.
+		 * <p>
+		 * A tail state is already a session for the imports of its file, so
+		 * both cannot be specified.
+		 *
+		 * @param session
+		 *            the session, or <code>null</code> for an independent
+		 *            import.
+		 * @return this builder.
+		 */
+		public Builder session( final CSVImportSession session )
+		{
+			this.session = session;
+			return this;
+		}
+
+		/**
+		 * Specifies what is known of the file to import, for instance from
+		 * the UI, so that the importer does not read it again before the
+		 * import. It is ignored if it is about another file, or if its
+		 * separator is not the one specified.
+		 *
+		 * @param fileInfo
+		 *            the result of {@link CSVFileInfo#sniff(String)} on the
+		 *            file, or <code>null</code> to sniff it again.
+		 * @return this builder.
+		 */
+		public Builder fileInfo( final CSVFileInfo fileInfo )
+		{
+			this.fileInfo = fileInfo;
+			return this;
+		}
+
+		/**
+		 * Specifies the range of frames to import. The rows outside of this
+		 * range are skipped, and the links to their spots are not created.
+		 * By default, all the frames are imported.
+		 * <p>
+		 * The whole file is read, unless it has a frame index, see
+		 * {@link #frameIndex(boolean)}.
+		 *
+		 * @param minFrame
+		 *            the first frame to import.
+		 * @param maxFrame
+		 *            the last frame to import, included.
+		 * @return this builder.
+		 */
+		public Builder frameRange( final int minFrame, final int maxFrame )
+		{
+			this.minFrame = minFrame;
+			this.maxFrame = maxFrame;
+			return this;
+		}
+
+		/**
+		 * Specifies to import one frame every <code>frameStride</code>
+		 * frames, starting from the first frame of the frame range, or from
+		 * frame 0 if there is no frame range. The links to the spots of the
+		 * skipped frames are not created. By default, all the frames are
+		 * imported.
+		 *
+		 * @param frameStride
+		 *            the number of frames between two imported frames.
+		 * @return this builder.
+		 */
+		public Builder frameStride( final int frameStride )
+		{
+			this.frameStride = frameStride;
+			return this;
+		}
+
+		/**
+		 * Specifies the minimal quality of the spots to import. The rows with
+		 * a lower quality are skipped, and the links to their spots are not
+		 * created. Ignored if there is no quality column.
+		 *
+		 * @param minQuality
+		 *            the minimal quality.
+		 * @return this builder.
+		 */
+		public Builder minQuality( final double minQuality )
+		{
+			this.minQuality = minQuality;
+			return this;
+		}
+
+		/**
+		 * Specifies a box the spots to import must be in. The positions are
+		 * compared to the box after the origin is added to them. The rows
+		 * outside of the box are skipped, and the links to their spots are
+		 * not created. By default, spots are imported wherever they are.
+		 *
+		 * @param min
+		 *            the X, Y and Z lower bounds of the box.
+		 * @param max
+		 *            the X, Y and Z upper bounds of the box, included.
+		 * @return this builder.
+		 */
+		public Builder boundingBox( final double[] min, final double[] max )
+		{
+			this.boxMin = min;
+			this.boxMax = max;
+			return this;
+		}
+
+		/**
+		 * Specifies to import a random subset of the rows. Whether a row is
+		 * imported only depends on the seed and on the id of the row, or on
+		 * its position and frame if there is no id column: importing the
+		 * same file with the same seed imports the same rows. The links to
+		 * the spots of the skipped rows are not created.
+		 *
+		 * @param fraction
+		 *            the fraction of the rows to import, from 0 to 1.
+		 * @param seed
+		 *            the seed of the random selection.
+		 * @return this builder.
+		 */
+		public Builder subsample( final double fraction, final long seed )
+		{
+			this.sampleFraction = fraction;
+			this.sampleSeed = seed;
+			return this;
+		}
+
+		/**
+		 * Specifies whether a frame index is used for the file. The index is
+		 * a small file saved next to the CSV file, with the extension
+		 * <code>.frames</code> appended to its name. It is built when the
+		 * whole file is read, and lets later imports of a frame range only
+		 * read the parts of the file with these frames, in a time
+		 * proportional to the size of the range. It is rebuilt if the file
+		 * changes.
+		 * <p>
+		 * The index is not used for compressed files, several files, or when
+		 * importing the rows appended to a file.
+		 *
+		 * @param frameIndex
+		 *            whether to use and build the frame index.
+		 * @return this builder.
+		 */
+		public Builder frameIndex( final boolean frameIndex )
+		{
+			this.frameIndex = frameIndex;
+			return this;
+		}
+
+		/**
+		 * Specifies how the rows are combined with the spots already in the
+		 * model. By default, each row creates a new spot. To re-import a
+		 * corrected file, the spots can instead be matched by id with the
+		 * spots imported before, and updated in place, see
+		 * {@link MergeMode}. Existing spots are then matched through the
+		 * feature where the ids of the specified type are stored.
+		 * <p>
+		 * Merging requires an id column. It cannot be used to import the
+		 * rows appended to a file, and spots cannot be removed when a filter
+		 * skips some rows.
+		 *
+		 * @param mergeMode
+		 *            how to combine the rows with the existing spots.
+		 * @return this builder.
+		 */
+		public Builder mergeMode( final MergeMode mergeMode )
+		{
+			this.mergeMode = mergeMode;
+			return this;
+		}
+
+		/**
+		 * Specifies whether the spots of a file without label column are
+		 * labeled with their id. By default, the label of each spot is set to
+		 * its id, which stores a string per spot. Otherwise, the spots are
+		 * left without label, and {@link ImportedLabels} gives their id as
+		 * label, for instance to the {@link CSVExporter}. This saves memory
+		 * and time on large files, but the Mastodon views then show the pool
+		 * index of the spots until their labels are stored with
+		 * {@link ImportedLabels#materialize(org.mastodon.mamut.model.ModelGraph)}
+		 * or edited.
+		 * <p>
+		 * Only possible with {@link IdType#INT} and {@link IdType#LONG} ids:
+		 * string ids are stored hashed, so the label is the only place where
+		 * they are kept.
+		 *
+		 * @param materializeLabels
+		 *            whether to store the id of each spot as its label.
+		 * @return this builder.
+		 */
+		public Builder materializeLabels( final boolean materializeLabels )
+		{
+			this.materializeLabels = materializeLabels;
+			return this;
+		}
+
 		public CSVImporter get()
 		{
 			final StringBuilder errorMessage = new StringBuilder( "Invalid CSV importer definition:\n" );
@@ -751,6 +1978,78 @@ public class CSVImporter extends ModelImporter implements Algorithm
 				errorMessage.append( " - Missing frame column name.\n" );
 				valid = false;
 			}
+			if ( minFrame > maxFrame )
+			{
+				errorMessage.append( " - Invalid frame range: " + minFrame + " to " + maxFrame + ".\n" );
+				valid = false;
+			}
+			if ( !materializeLabels && idType == IdType.STRING )
+			{
+				errorMessage.append( " - String ids are stored hashed, so their spots must be labeled.\n" );
+				valid = false;
+			}
+			if ( frameStride < 1 )
+			{
+				errorMessage.append( " - Invalid frame stride: " + frameStride + ".\n" );
+				valid = false;
+			}
+			if ( Double.isNaN( minQuality ) )
+			{
+				errorMessage.append( " - Invalid minimal quality.\n" );
+				valid = false;
+			}
+			if ( ( boxMin == null ) != ( boxMax == null )
+					|| ( boxMin != null && ( boxMin.length != 3 || boxMax.length != 3 ) ) )
+			{
+				errorMessage.append( " - The bounding box must have 3 lower and 3 upper bounds.\n" );
+				valid = false;
+			}
+			if ( !( sampleFraction > 0. && sampleFraction <= 1. ) )
+			{
+				errorMessage.append( " - Invalid subsampling fraction: " + sampleFraction + ".\n" );
+				valid = false;
+			}
+
+			if ( tail != null && session != null )
+			{
+				errorMessage.append( " - Cannot specify both a tail state and an import session.\n" );
+				valid = false;
+			}
+
+			final SpotFilter filter = new SpotFilter( minFrame, maxFrame, frameStride, minQuality, boxMin, boxMax, sampleFraction, sampleSeed );
+			if ( mergeMode == null )
+			{
+				errorMessage.append( " - Missing merge mode.\n" );
+				valid = false;
+			}
+			else if ( mergeMode != MergeMode.APPEND )
+			{
+				if ( idColumnName == null || idColumnName.isEmpty() )
+				{
+					errorMessage.append( " - Merging requires an id column.\n" );
+					valid = false;
+				}
+				if ( tail != null )
+				{
+					errorMessage.append( " - Cannot merge the rows appended to a file.\n" );
+					valid = false;
+				}
+				if ( session != null )
+				{
+					errorMessage.append( " - Cannot merge within an import session.\n" );
+					valid = false;
+				}
+				if ( trackColumnName != null && !trackColumnName.isEmpty() )
+				{
+					errorMessage.append( " - Cannot link the spots by track id when merging.\n" );
+					valid = false;
+				}
+				if ( mergeMode == MergeMode.MERGE_AND_REMOVE && filter.isSelective() )
+				{
+					errorMessage.append( " - Cannot remove the spots missing from the file when filtering rows.\n" );
+					valid = false;
+				}
+			}
 
 			if ( !valid )
 				throw new IllegalArgumentException( errorMessage.toString() );
@@ -770,9 +2069,22 @@ public class CSVImporter extends ModelImporter implements Algorithm
 					parentIdColumnName,
 					labelColumnName,
 					tagColumnName,
+					trackColumnName,
 					xOrigin,
 					yOrigin,
-					zOrigin );
+					zOrigin,
+					idType,
+					extraColumnNames,
+					importAllExtraColumns,
+					commitBatchSize,
+					progressListener,
+					tail,
+					session,
+					fileInfo,
+					filter,
+					frameIndex,
+					mergeMode,
+					materializeLabels );
 		}
 	}
 }
@@ -0,0 +1,203 @@
+/*-
+ * #%L
+ * mastodon-pasteur
+ * %%
+ * Copyright (C) 2019 - 2025 Tobias Pietzsch, Jean-Yves Tinevez
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package org.mastodon.mamut.io.csv;
+
+import java.util.concurrent.locks.Lock;
+
+import org.mastodon.mamut.io.csv.CSVImporter.OriginalIdFeature;
+import org.mastodon.mamut.io.csv.CSVImporter.OriginalLongIdFeature;
+import org.mastodon.mamut.model.Model;
+import org.mastodon.mamut.model.Spot;
+
+/**
+ * Remembers how far a CSV file was imported, so that the rows appended to it
+ * afterwards can be imported without reading it again.
+ * <p>
+ * The same instance is passed to successive imports of a file that keeps
+ * growing, for instance while a detector writes its results. Each import
+ * starts at the byte offset where the previous one stopped, and stops after
+ * the last complete line of the file. The spots imported so far are indexed
+ * by their id, so that the parent links of new rows are resolved without
+ * scanning the model, as in any {@link CSVImportSession}. The state is bound
+ * to the model and the file of its first import.
+ * <p>
+ * After the project is reloaded, the import can be resumed with
+ * {@link #CSVTailState(long, long, long)}: the id index is then rebuilt once
+ * from the {@link OriginalIdFeature} or {@link OriginalLongIdFeature} of the
+ * model. A new state only indexes the spots it imports, so that the rows of
+ * the file are never linked to spots imported from elsewhere.
+ */
+public final class CSVTailState extends CSVImportSession
+{
+
+	private String filePath;
+
+	/**
+	 * Offset of the first byte not imported yet, 0 if nothing was imported.
+	 */
+	long offset;
+
+	/**
+	 * Number of lines before {@link #offset}, header included.
+	 */
+	long lineNumber;
+
+	/**
+	 * Id of the last spot imported, -1 if none.
+	 */
+	long lastId;
+
+	/**
+	 * What is known of the file from its first import, so that it is not
+	 * sniffed again by the following ones.
+	 */
+	CSVFileInfo fileInfo;
+
+	/**
+	 * Whether this state resumes the import of a file whose spots are
+	 * already in the model, so that the id index is rebuilt from the model.
+	 */
+	private final boolean resumed;
+
+	/**
+	 * Creates a state for a file that was not imported yet.
+	 */
+	public CSVTailState()
+	{
+		this.offset = 0;
+		this.lineNumber = 0;
+		this.lastId = -1;
+		this.resumed = false;
+	}
+
+	/**
+	 * Creates a state to resume importing a file that was partly imported in
+	 * a model.
+	 *
+	 * @param offset
+	 *            the offset of the first byte not imported yet, as returned
+	 *            by {@link #getOffset()}.
+	 * @param lineNumber
+	 *            the number of lines before this offset, as returned by
+	 *            {@link #getLineNumber()}.
+	 * @param lastId
+	 *            the id of the last spot imported, as returned by
+	 *            {@link #getLastId()}.
+	 */
+	public CSVTailState( final long offset, final long lineNumber, final long lastId )
+	{
+		this.offset = offset;
+		this.lineNumber = lineNumber;
+		this.lastId = lastId;
+		this.resumed = true;
+	}
+
+	/**
+	 * Returns the offset of the first byte of the file not imported yet.
+	 *
+	 * @return the offset, or 0 if nothing was imported.
+	 */
+	public long getOffset()
+	{
+		return offset;
+	}
+
+	/**
+	 * Returns the number of lines of the file imported so far, including the
+	 * header.
+	 *
+	 * @return the number of lines.
+	 */
+	public long getLineNumber()
+	{
+		return lineNumber;
+	}
+
+	/**
+	 * Returns the id of the last spot imported.
+	 *
+	 * @return the id, or -1 if no spot was imported or the file has no id
+	 *         column.
+	 */
+	public long getLastId()
+	{
+		return lastId;
+	}
+
+	/**
+	 * Binds this state to the specified model and file on first use.
+	 *
+	 * @return <code>false</code> if this state was used with another model or
+	 *         file.
+	 */
+	boolean bind( final Model model, final String filePath )
+	{
+		if ( !bind( model ) )
+			return false;
+		if ( this.filePath == null )
+		{
+			this.filePath = filePath;
+			return true;
+		}
+		return this.filePath.equals( filePath );
+	}
+
+	/**
+	 * Creates the index of the imported spots by id. For a resumed import,
+	 * it is rebuilt from the id features of the model.
+	 */
+	@Override
+	SpotIdIndex createIdIndex()
+	{
+		final SpotIdIndex idIndex = new SpotIdIndex();
+		if ( resumed )
+		{
+			final Model model = model();
+			final Lock lock = model.getGraph().getLock().readLock();
+			lock.lock();
+			try
+			{
+				final OriginalIdFeature ids = ( OriginalIdFeature ) model.getFeatureModel().getFeature( OriginalIdFeature.SPEC );
+				final OriginalLongIdFeature longIds = ( OriginalLongIdFeature ) model.getFeatureModel().getFeature( OriginalLongIdFeature.SPEC );
+				for ( final Spot spot : model.getGraph().vertices() )
+				{
+					if ( ids != null && ids.isSet( spot ) )
+						idIndex.put( ids.value( spot ), spot.getInternalPoolIndex() );
+					else if ( longIds != null && longIds.isSet( spot ) )
+						idIndex.put( longIds.value( spot ), spot.getInternalPoolIndex() );
+				}
+			}
+			finally
+			{
+				lock.unlock();
+			}
+		}
+		return idIndex;
+	}
+}
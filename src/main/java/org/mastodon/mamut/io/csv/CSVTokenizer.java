@@ -0,0 +1,856 @@
+/*-
+ * #%L
+ * mastodon-pasteur
+ * %%
+ * Copyright (C) 2019 - 2025 Tobias Pietzsch, Jean-Yves Tinevez
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package org.mastodon.mamut.io.csv;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * A CSV tokenizer that works directly on the bytes of a memory-mapped file.
+ * <p>
+ * The file is mapped in windows of at most {@value #MAX_WINDOW_SIZE} bytes.
+ * Each call to {@link #next()} scans the next line and records the byte range
+ * of each field, without creating any object. Numerical values are then parsed
+ * directly from these byte ranges. Strings are only created when they are
+ * explicitly requested with {@link #getString(int)}.
+ * <p>
+ * A tokenizer can also read from an {@link InputStream}, for instance a
+ * decompressed stream, see {@link #open(InputStream, char)}. In that case the
+ * bytes are read in a heap buffer that grows up to the same maximal size.
+ * <p>
+ * Like the opencsv parser it replaces in the importer, quotation marks do not
+ * have a special meaning and separators cannot be escaped. Leading and
+ * trailing white spaces of each field are ignored, as well as a pair of
+ * quotation marks surrounding the field. Empty lines are skipped. The file is
+ * expected to be encoded in an ASCII-compatible encoding such as UTF-8.
+ */
+public class CSVTokenizer implements Closeable
+{
+
+	/**
+	 * Maximal size of the file region mapped at once. Lines cannot be larger
+	 * than this.
+	 */
+	private static final int MAX_WINDOW_SIZE = 1 << 28;
+
+	/**
+	 * Initial size of the buffer used when reading from a stream.
+	 */
+	private static final int STREAM_BUFFER_SIZE = 1 << 20;
+
+	/**
+	 * The mapped file, or <code>null</code> when reading from a stream.
+	 */
+	private final FileChannel channel;
+
+	/**
+	 * The stream to read from, or <code>null</code> when reading a mapped file.
+	 */
+	private final InputStream in;
+
+	/**
+	 * Offset of the byte after the region to read. Unknown when reading from a
+	 * stream.
+	 */
+	private final long end;
+
+	/**
+	 * Whether the stream has been read until its end.
+	 */
+	private boolean eof;
+
+	private final byte separator;
+
+	/**
+	 * The currently mapped window, or the buffer of bytes read from the stream.
+	 */
+	private ByteBuffer buffer;
+
+	/**
+	 * Offset in the file (or stream) of the first byte of the current window.
+	 */
+	private long bufferOffset;
+
+	/**
+	 * Position in the window of the first byte of the next line.
+	 */
+	private int pos;
+
+	private int[] starts = new int[ 16 ];
+
+	private int[] ends = new int[ 16 ];
+
+	private int nFields;
+
+	private long lineNumber;
+
+	/**
+	 * Scratch array used to copy bytes out of the window.
+	 */
+	private byte[] scratch = new byte[ 64 ];
+
+	private NumberParser numbers = new NumberParser( false );
+
+	private char decimalMark = '.';
+
+	/**
+	 * The error of the last number parsed, <code>null</code> if it was valid.
+	 */
+	private ImportErrors.Kind parseError;
+
+	/**
+	 * The first error of the current line found by the lenient getters, and
+	 * its column.
+	 */
+	private ImportErrors.Kind lineError;
+
+	private int lineErrorCol = -1;
+
+	private CSVTokenizer( final FileChannel channel, final long start, final long end, final char separator ) throws IOException
+	{
+		if ( separator > 127 )
+			throw new IllegalArgumentException( "The separator must be an ASCII character. Got: " + separator );
+		this.channel = channel;
+		this.in = null;
+		this.end = end;
+		this.separator = ( byte ) separator;
+		map( start );
+	}
+
+	private CSVTokenizer( final InputStream in, final char separator )
+	{
+		if ( separator > 127 )
+			throw new IllegalArgumentException( "The separator must be an ASCII character. Got: " + separator );
+		this.channel = null;
+		this.in = in;
+		this.end = Long.MAX_VALUE;
+		this.separator = ( byte ) separator;
+		this.buffer = ByteBuffer.wrap( new byte[ STREAM_BUFFER_SIZE ] );
+		buffer.limit( 0 );
+	}
+
+	/**
+	 * Opens a tokenizer on the specified file.
+	 *
+	 * @param filePath
+	 *            the path to the CSV file.
+	 * @param separator
+	 *            the separator character. Must be an ASCII character.
+	 * @return a new tokenizer, positioned before the first line.
+	 * @throws IOException
+	 *             if the file cannot be opened or mapped.
+	 */
+	public static CSVTokenizer open( final String filePath, final char separator ) throws IOException
+	{
+		final FileChannel channel = FileChannel.open( Paths.get( filePath ), StandardOpenOption.READ );
+		try
+		{
+			return new CSVTokenizer( channel, 0, channel.size(), separator );
+		}
+		catch ( final IOException | RuntimeException e )
+		{
+			channel.close();
+			throw e;
+		}
+	}
+
+	/**
+	 * Opens a tokenizer on a region of the specified file. The region should
+	 * start at the beginning of a line and end after a line separator, or at
+	 * the end of the file. See {@link #split(String, long, int)}.
+	 *
+	 * @param filePath
+	 *            the path to the CSV file.
+	 * @param separator
+	 *            the separator character. Must be an ASCII character.
+	 * @param start
+	 *            the offset of the first byte of the region.
+	 * @param end
+	 *            the offset of the byte after the region.
+	 * @return a new tokenizer, positioned before the first line of the
+	 *         region.
+	 * @throws IOException
+	 *             if the file cannot be opened or mapped.
+	 */
+	public static CSVTokenizer open( final String filePath, final char separator, final long start, final long end ) throws IOException
+	{
+		final FileChannel channel = FileChannel.open( Paths.get( filePath ), StandardOpenOption.READ );
+		try
+		{
+			return new CSVTokenizer( channel, start, Math.min( end, channel.size() ), separator );
+		}
+		catch ( final IOException | RuntimeException e )
+		{
+			channel.close();
+			throw e;
+		}
+	}
+
+	/**
+	 * Opens a tokenizer on the specified stream. The stream is read
+	 * sequentially and closed with the tokenizer.
+	 *
+	 * @param in
+	 *            the stream to read.
+	 * @param separator
+	 *            the separator character. Must be an ASCII character.
+	 * @return a new tokenizer, positioned before the first line.
+	 */
+	public static CSVTokenizer open( final InputStream in, final char separator )
+	{
+		return new CSVTokenizer( in, separator );
+	}
+
+	/**
+	 * Splits the specified file in regions of roughly equal sizes, aligned on
+	 * line boundaries, that can be read independently.
+	 *
+	 * @param filePath
+	 *            the path to the CSV file.
+	 * @param start
+	 *            the offset where to start splitting, typically the first
+	 *            byte after the header line.
+	 * @param nRegions
+	 *            the desired number of regions.
+	 * @return the region boundaries, as an array of <code>nRegions+1</code>
+	 *         offsets. Region <code>i</code> spans from
+	 *         <code>bounds[i]</code> (inclusive) to <code>bounds[i+1]</code>
+	 *         (exclusive). Some regions might be empty.
+	 * @throws IOException
+	 *             if the file cannot be read.
+	 */
+	public static long[] split( final String filePath, final long start, final int nRegions ) throws IOException
+	{
+		return split( filePath, start, Long.MAX_VALUE, nRegions );
+	}
+
+	/**
+	 * Splits a part of the specified file in regions of roughly equal sizes,
+	 * aligned on line boundaries, that can be read independently.
+	 *
+	 * @param filePath
+	 *            the path to the CSV file.
+	 * @param start
+	 *            the offset where to start splitting.
+	 * @param end
+	 *            the offset where to stop splitting. Clamped to the size of
+	 *            the file.
+	 * @param nRegions
+	 *            the desired number of regions.
+	 * @return the region boundaries, as an array of <code>nRegions+1</code>
+	 *         offsets.
+	 * @throws IOException
+	 *             if the file cannot be read.
+	 * @see #split(String, long, int)
+	 */
+	public static long[] split( final String filePath, final long start, final long end, final int nRegions ) throws IOException
+	{
+		try (final FileChannel channel = FileChannel.open( Paths.get( filePath ), StandardOpenOption.READ ))
+		{
+			final long stop = Math.min( end, channel.size() );
+			final long[] bounds = new long[ nRegions + 1 ];
+			bounds[ 0 ] = start;
+			bounds[ nRegions ] = stop;
+			final ByteBuffer buf = ByteBuffer.allocate( 8192 );
+			for ( int i = 1; i < nRegions; i++ )
+			{
+				final long target = start + ( stop - start ) * i / nRegions;
+				bounds[ i ] = nextLineStart( channel, Math.max( target, bounds[ i - 1 ] ), stop, buf );
+			}
+			return bounds;
+		}
+	}
+
+	/**
+	 * Returns the offset after the last line separator of the specified file,
+	 * that is the end of its last complete line. Lines after this offset are
+	 * still being written, if the file is written while it is imported.
+	 *
+	 * @param filePath
+	 *            the path to the CSV file.
+	 * @param start
+	 *            the offset where to stop looking.
+	 * @return the offset after the last line separator, or
+	 *         <code>start</code> if there is no line separator after it.
+	 * @throws IOException
+	 *             if the file cannot be read.
+	 */
+	public static long lastLineEnd( final String filePath, final long start ) throws IOException
+	{
+		try (final FileChannel channel = FileChannel.open( Paths.get( filePath ), StandardOpenOption.READ ))
+		{
+			final ByteBuffer buf = ByteBuffer.allocate( 8192 );
+			long pos = channel.size();
+			while ( pos > start )
+			{
+				final long from = Math.max( start, pos - buf.capacity() );
+				buf.clear();
+				buf.limit( ( int ) ( pos - from ) );
+				while ( buf.hasRemaining() )
+				{
+					if ( channel.read( buf, from + buf.position() ) <= 0 )
+						break;
+				}
+				for ( int i = buf.position() - 1; i >= 0; i-- )
+				{
+					if ( buf.get( i ) == '\n' )
+						return from + i + 1;
+				}
+				pos = from;
+			}
+			return start;
+		}
+	}
+
+	/**
+	 * Returns the offset of the first line start at or after the specified
+	 * position.
+	 */
+	private static long nextLineStart( final FileChannel channel, final long from, final long end, final ByteBuffer buf ) throws IOException
+	{
+		// Start one byte before to detect if we are already at a line start.
+		long pos = Math.max( 0, from - 1 );
+		while ( pos < end )
+		{
+			buf.clear();
+			final int n = channel.read( buf, pos );
+			if ( n <= 0 )
+				break;
+			for ( int i = 0; i < n; i++ )
+			{
+				if ( buf.get( i ) == '\n' )
+					return Math.max( from, pos + i + 1 );
+			}
+			pos += n;
+		}
+		return end;
+	}
+
+	/**
+	 * Maps a new window of the file, starting at the specified offset.
+	 */
+	private void map( final long offset ) throws IOException
+	{
+		final long size = Math.min( MAX_WINDOW_SIZE, end - offset );
+		buffer = channel.map( FileChannel.MapMode.READ_ONLY, offset, size );
+		bufferOffset = offset;
+		pos = 0;
+	}
+
+	/**
+	 * Returns <code>true</code> if there is no more data to read after the
+	 * current window.
+	 */
+	private boolean isLastWindow()
+	{
+		return in == null ? bufferOffset + buffer.limit() >= end : eof;
+	}
+
+	/**
+	 * Reads more data, keeping the bytes of the current window from
+	 * {@link #pos}, which is moved to the start of the window.
+	 */
+	private void refill() throws IOException
+	{
+		final int remaining = buffer.limit() - pos;
+		if ( pos == 0 && remaining >= MAX_WINDOW_SIZE )
+			throw new IOException( "Line " + ( lineNumber + 1 ) + " is larger than " + MAX_WINDOW_SIZE + " bytes." );
+
+		if ( in == null )
+		{
+			map( bufferOffset + pos );
+			return;
+		}
+
+		// Move the unread bytes to the start of the buffer.
+		byte[] array = buffer.array();
+		if ( pos == 0 && remaining == array.length )
+			array = Arrays.copyOf( array, Math.min( MAX_WINDOW_SIZE, 2 * array.length ) );
+		else
+			System.arraycopy( array, pos, array, 0, remaining );
+		bufferOffset += pos;
+		pos = 0;
+
+		// Fill the rest of the buffer.
+		int filled = remaining;
+		while ( filled < array.length )
+		{
+			final int n = in.read( array, filled, array.length - filled );
+			if ( n < 0 )
+			{
+				eof = true;
+				break;
+			}
+			filled += n;
+		}
+		buffer = ByteBuffer.wrap( array, 0, filled );
+	}
+
+	/**
+	 * Advances to the next non-empty line and splits it in fields.
+	 *
+	 * @return <code>true</code> if a new line was read, <code>false</code> if
+	 *         the end of the file was reached.
+	 * @throws IOException
+	 *             if the file cannot be read, or if a line is too long.
+	 */
+	public boolean next() throws IOException
+	{
+		while ( true )
+		{
+			final int limit = buffer.limit();
+			if ( pos >= limit )
+			{
+				if ( isLastWindow() )
+				{
+					nFields = 0;
+					return false;
+				}
+				refill();
+				continue;
+			}
+
+			// Find the end of the line.
+			int eol = pos;
+			while ( eol < limit && buffer.get( eol ) != '\n' )
+				eol++;
+
+			if ( eol == limit && !isLastWindow() )
+			{
+				// The line continues beyond the current window.
+				refill();
+				continue;
+			}
+
+			final int lineStart = pos;
+			int lineEnd = eol;
+			pos = eol + 1;
+			lineNumber++;
+			if ( lineEnd > lineStart && buffer.get( lineEnd - 1 ) == '\r' )
+				lineEnd--;
+			if ( lineEnd == lineStart )
+				continue;
+
+			split( lineStart, lineEnd );
+			return true;
+		}
+	}
+
+	private void split( final int lineStart, final int lineEnd )
+	{
+		clearError();
+		nFields = 0;
+		int fieldStart = lineStart;
+		for ( int i = lineStart; i < lineEnd; i++ )
+		{
+			if ( buffer.get( i ) == separator )
+			{
+				addField( fieldStart, i );
+				fieldStart = i + 1;
+			}
+		}
+		addField( fieldStart, lineEnd );
+	}
+
+	private void addField( int start, int end )
+	{
+		while ( start < end && ( buffer.get( start ) & 0xff ) <= ' ' )
+			start++;
+		while ( end > start && ( buffer.get( end - 1 ) & 0xff ) <= ' ' )
+			end--;
+		if ( end - start >= 2 && buffer.get( start ) == '"' && buffer.get( end - 1 ) == '"' )
+		{
+			start++;
+			end--;
+		}
+
+		if ( nFields == starts.length )
+		{
+			starts = Arrays.copyOf( starts, 2 * nFields );
+			ends = Arrays.copyOf( ends, 2 * nFields );
+		}
+		starts[ nFields ] = start;
+		ends[ nFields ] = end;
+		nFields++;
+	}
+
+	/**
+	 * Returns the number of fields in the current line.
+	 *
+	 * @return the number of fields.
+	 */
+	public int size()
+	{
+		return nFields;
+	}
+
+	/**
+	 * Returns the number of the current line, starting from 1 for the first
+	 * line of the file. Skipped empty lines are counted.
+	 *
+	 * @return the current line number.
+	 */
+	public long getLineNumber()
+	{
+		return lineNumber;
+	}
+
+	/**
+	 * Returns the offset in the file of the first byte after the current line.
+	 * When reading from a stream, this is the offset in the stream.
+	 *
+	 * @return the position in bytes.
+	 */
+	public long getPosition()
+	{
+		return bufferOffset + pos;
+	}
+
+	/**
+	 * Returns <code>true</code> if the specified field is missing or empty in
+	 * the current line.
+	 *
+	 * @param col
+	 *            the field index.
+	 * @return whether the field is empty.
+	 */
+	public boolean isEmpty( final int col )
+	{
+		return col >= nFields || starts[ col ] == ends[ col ];
+	}
+
+	/**
+	 * Returns the content of the specified field in the current line as a
+	 * string. This creates a new string, so should be avoided for numerical
+	 * fields.
+	 *
+	 * @param col
+	 *            the field index.
+	 * @return the field content, or an empty string if the field is missing.
+	 */
+	public String getString( final int col )
+	{
+		if ( col >= nFields )
+			return "";
+		final int len = copy( col );
+		return new String( scratch, 0, len, StandardCharsets.UTF_8 );
+	}
+
+	/**
+	 * Returns a 64-bit hash of the content of the specified field in the
+	 * current line, computed from its bytes without creating a string. Used to
+	 * key string identifiers: with 64 bits, the probability that two of 100
+	 * million distinct strings have the same hash is about 1 in 3,000.
+	 *
+	 * @param col
+	 *            the field index.
+	 * @return the hash of the field content. Missing fields hash like empty
+	 *         fields.
+	 */
+	public long getHash( final int col )
+	{
+		// FNV-1a, followed by the finalizer of MurmurHash3.
+		long h = 0xcbf29ce484222325L;
+		if ( col < nFields )
+		{
+			final int e = ends[ col ];
+			for ( int i = starts[ col ]; i < e; i++ )
+				h = ( h ^ ( buffer.get( i ) & 0xff ) ) * 0x100000001b3L;
+		}
+		h ^= h >>> 33;
+		h *= 0xff51afd7ed558ccdL;
+		h ^= h >>> 33;
+		h *= 0xc4ceb9fe1a85ec53L;
+		h ^= h >>> 33;
+		return h;
+	}
+
+	/**
+	 * Parses the specified field in the current line as an integer.
+	 *
+	 * @param col
+	 *            the field index.
+	 * @return the integer value.
+	 * @throws NumberFormatException
+	 *             if the field is missing or is not a valid integer.
+	 */
+	public int getInt( final int col )
+	{
+		final int val = parseInt( col );
+		if ( null != parseError )
+			throw numberFormatException( col );
+		return val;
+	}
+
+	/**
+	 * Parses the specified field in the current line as a long integer.
+	 *
+	 * @param col
+	 *            the field index.
+	 * @return the long value.
+	 * @throws NumberFormatException
+	 *             if the field is missing or is not a valid integer.
+	 */
+	public long getLong( final int col )
+	{
+		final long val = parseLong( col );
+		if ( null != parseError )
+			throw numberFormatException( col );
+		return val;
+	}
+
+	/**
+	 * Sets the decimal mark of the numbers. With ',', both ',' and '.' are
+	 * accepted, which is only possible if ',' is not the separator. The
+	 * default is '.'.
+	 *
+	 * @param decimalMark
+	 *            '.' or ','.
+	 */
+	void setDecimalMark( final char decimalMark )
+	{
+		if ( decimalMark == this.decimalMark )
+			return;
+		if ( decimalMark != '.' && ( decimalMark != ',' || separator == ',' ) )
+			throw new IllegalArgumentException( "Unsupported decimal mark with the separator '" + ( char ) separator + "': " + decimalMark );
+		this.decimalMark = decimalMark;
+		this.numbers = new NumberParser( decimalMark == ',' );
+	}
+
+	/**
+	 * Parses the specified field in the current line as a double.
+	 * <p>
+	 * The number is parsed directly from the bytes by a {@link NumberParser},
+	 * with the same result as {@link Double#parseDouble(String)}. ',' is also
+	 * accepted as decimal mark if it was set with {@link #setDecimalMark(char)}.
+	 *
+	 * @param col
+	 *            the field index.
+	 * @return the double value.
+	 * @throws NumberFormatException
+	 *             if the field is missing or is not a valid number.
+	 */
+	public double getDouble( final int col )
+	{
+		final double val = parseDouble( col );
+		if ( null != parseError )
+			throw numberFormatException( col );
+		return val;
+	}
+
+	/**
+	 * Parses the specified field in the current line as an integer, without
+	 * throwing an exception if it is not valid. The first error of the line
+	 * is recorded instead, see {@link #hasError()}.
+	 *
+	 * @param col
+	 *            the field index.
+	 * @return the integer value, or 0 if the field is not valid.
+	 */
+	public int readInt( final int col )
+	{
+		final int val = parseInt( col );
+		record( col );
+		return val;
+	}
+
+	/**
+	 * Parses the specified field in the current line as a long integer,
+	 * without throwing an exception if it is not valid. The first error of
+	 * the line is recorded instead, see {@link #hasError()}.
+	 *
+	 * @param col
+	 *            the field index.
+	 * @return the long value, or 0 if the field is not valid.
+	 */
+	public long readLong( final int col )
+	{
+		final long val = parseLong( col );
+		record( col );
+		return val;
+	}
+
+	/**
+	 * Parses the specified field in the current line as a double, without
+	 * throwing an exception if it is not valid. The first error of the line
+	 * is recorded instead, see {@link #hasError()}.
+	 *
+	 * @param col
+	 *            the field index.
+	 * @return the double value, or NaN if the field is not valid.
+	 */
+	public double readDouble( final int col )
+	{
+		final double val = parseDouble( col );
+		record( col );
+		return val;
+	}
+
+	/**
+	 * Parses the specified field in the current line as a double, without
+	 * recording an error if it is not a number. Meant for columns that may
+	 * hold text.
+	 *
+	 * @param col
+	 *            the field index.
+	 * @return the double value, or {@link Double#NaN} if the field is
+	 *         missing, empty or not a valid number.
+	 */
+	public double getDoubleOrNaN( final int col )
+	{
+		final double val = parseDouble( col );
+		return null == parseError ? val : Double.NaN;
+	}
+
+	/**
+	 * Returns whether one of the lenient getters failed on the current line.
+	 *
+	 * @return <code>true</code> if an error was recorded.
+	 */
+	public boolean hasError()
+	{
+		return null != lineError;
+	}
+
+	/**
+	 * Returns the first error recorded on the current line.
+	 *
+	 * @return the kind of error, or <code>null</code> if there is none.
+	 */
+	public ImportErrors.Kind getErrorKind()
+	{
+		return lineError;
+	}
+
+	/**
+	 * Returns the column of the first error recorded on the current line.
+	 *
+	 * @return the column, or -1 if there is no error.
+	 */
+	public int getErrorColumn()
+	{
+		return lineErrorCol;
+	}
+
+	/**
+	 * Forgets the error recorded on the current line. This is done
+	 * automatically when moving to the next line.
+	 */
+	public void clearError()
+	{
+		lineError = null;
+		lineErrorCol = -1;
+	}
+
+	private void record( final int col )
+	{
+		if ( null != parseError && null == lineError )
+		{
+			lineError = parseError;
+			lineErrorCol = col;
+		}
+	}
+
+	private int parseInt( final int col )
+	{
+		final long val = parseLong( col );
+		if ( null != parseError )
+			return 0;
+		if ( val < Integer.MIN_VALUE || val > Integer.MAX_VALUE )
+		{
+			parseError = ImportErrors.Kind.NUMBER_OUT_OF_RANGE;
+			return 0;
+		}
+		return ( int ) val;
+	}
+
+	private long parseLong( final int col )
+	{
+		if ( col >= nFields )
+		{
+			parseError = ImportErrors.Kind.MISSING_VALUE;
+			return 0;
+		}
+		final long val = numbers.parseLong( buffer, starts[ col ], ends[ col ] );
+		parseError = numbers.getError();
+		return val;
+	}
+
+	private double parseDouble( final int col )
+	{
+		if ( col >= nFields )
+		{
+			parseError = ImportErrors.Kind.MISSING_VALUE;
+			return 0.;
+		}
+		final double val = numbers.parseDouble( buffer, starts[ col ], ends[ col ] );
+		parseError = numbers.getError();
+		return val;
+	}
+
+	/**
+	 * Copies the bytes of the specified field in the scratch array.
+	 *
+	 * @return the number of bytes copied.
+	 */
+	private int copy( final int col )
+	{
+		final int start = starts[ col ];
+		final int len = ends[ col ] - start;
+		if ( scratch.length < len )
+			scratch = new byte[ Math.max( len, 2 * scratch.length ) ];
+		for ( int i = 0; i < len; i++ )
+			scratch[ i ] = buffer.get( start + i );
+		return len;
+	}
+
+	private NumberFormatException numberFormatException( final int col )
+	{
+		if ( col >= nFields )
+			return new NumberFormatException( "Missing value in column " + col + "." );
+		return new NumberFormatException( "For input string: \"" + getString( col ) + "\"" );
+	}
+
+	@Override
+	public void close() throws IOException
+	{
+		buffer = null;
+		if ( channel != null )
+			channel.close();
+		else
+			in.close();
+	}
+}
@@ -0,0 +1,277 @@
+/*-
+ * #%L
+ * mastodon-pasteur
+ * %%
+ * Copyright (C) 2019 - 2025 Tobias Pietzsch, Jean-Yves Tinevez
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package org.mastodon.mamut.io.csv;
+
+import java.io.BufferedInputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.GZIPInputStream;
+
+import org.tukaani.xz.XZInputStream;
+
+import com.github.luben.zstd.ZstdInputStream;
+
+/**
+ * Utilities to read CSV files that might be compressed.
+ * <p>
+ * The compression format is detected from the first bytes of the file, not
+ * from its extension. Files compressed with gzip, Zstandard and xz are
+ * supported. Compressed files can only be read sequentially.
+ */
+public final class CompressedInput
+{
+
+	/**
+	 * The compression formats that can be read.
+	 */
+	public enum Compression
+	{
+		NONE( new byte[ 0 ] ),
+		GZIP( new byte[] { ( byte ) 0x1F, ( byte ) 0x8B } ),
+		ZSTD( new byte[] { ( byte ) 0x28, ( byte ) 0xB5, ( byte ) 0x2F, ( byte ) 0xFD } ),
+		XZ( new byte[] { ( byte ) 0xFD, ( byte ) 0x37, ( byte ) 0x7A, ( byte ) 0x58, ( byte ) 0x5A, ( byte ) 0x00 } );
+
+		private final byte[] magic;
+
+		private Compression( final byte[] magic )
+		{
+			this.magic = magic;
+		}
+
+		private boolean matches( final ByteBuffer header )
+		{
+			if ( magic.length == 0 || header.limit() < magic.length )
+				return false;
+			for ( int i = 0; i < magic.length; i++ )
+				if ( header.get( i ) != magic[ i ] )
+					return false;
+			return true;
+		}
+	}
+
+	/**
+	 * Size of the blocks decompressed ahead of the reader.
+	 */
+	private static final int READ_AHEAD_BLOCK_SIZE = 1 << 20;
+
+	/**
+	 * Number of blocks decompressed ahead of the reader.
+	 */
+	private static final int READ_AHEAD_BLOCKS = 4;
+
+	private CompressedInput()
+	{}
+
+	/**
+	 * Detects the compression format of the specified file from its first
+	 * bytes.
+	 *
+	 * @param filePath
+	 *            the path to the file.
+	 * @return the compression format, {@link Compression#NONE} if the file is
+	 *         not compressed.
+	 * @throws IOException
+	 *             if the file cannot be read.
+	 */
+	public static Compression detect( final String filePath ) throws IOException
+	{
+		try (final FileChannel channel = FileChannel.open( Paths.get( filePath ), StandardOpenOption.READ ))
+		{
+			final ByteBuffer header = ByteBuffer.allocate( 6 );
+			while ( header.hasRemaining() && channel.read( header ) > 0 )
+			{}
+			header.flip();
+			return detect( header );
+		}
+	}
+
+	/**
+	 * Detects the compression format from the first bytes of a file.
+	 *
+	 * @param header
+	 *            the first bytes of the file, from index 0 to its limit.
+	 * @return the compression format, {@link Compression#NONE} if the bytes
+	 *         do not start with a known signature.
+	 */
+	static Compression detect( final ByteBuffer header )
+	{
+		for ( final Compression compression : Compression.values() )
+			if ( compression.matches( header ) )
+				return compression;
+		return Compression.NONE;
+	}
+
+	/**
+	 * Opens a stream on the decompressed content of the specified file. If
+	 * the file is not compressed, its content is returned as is.
+	 *
+	 * @param filePath
+	 *            the path to the file.
+	 * @return a new buffered stream.
+	 * @throws IOException
+	 *             if the file cannot be opened.
+	 */
+	public static InputStream open( final String filePath ) throws IOException
+	{
+		return open( filePath, detect( filePath ), new AtomicLong() );
+	}
+
+	/**
+	 * Opens a stream on the decompressed content of the specified file, and
+	 * decompresses it in a separate thread, ahead of the reader. This way
+	 * decompression and parsing can run concurrently.
+	 *
+	 * @param filePath
+	 *            the path to the file.
+	 * @return a new stream. It must be closed to stop the decompression
+	 *         thread.
+	 * @throws IOException
+	 *             if the file cannot be opened.
+	 */
+	public static InputStream openWithReadAhead( final String filePath ) throws IOException
+	{
+		return openWithReadAhead( filePath, new AtomicLong() );
+	}
+
+	/**
+	 * Same as {@link #openWithReadAhead(String)}, and counts the bytes read
+	 * from the file, before decompression.
+	 */
+	static InputStream openWithReadAhead( final String filePath, final AtomicLong bytesRead ) throws IOException
+	{
+		final InputStream in = open( filePath, detect( filePath ), bytesRead );
+		return new ReadAheadInputStream( in, READ_AHEAD_BLOCK_SIZE, READ_AHEAD_BLOCKS,
+				"Decompressing " + Paths.get( filePath ).getFileName() );
+	}
+
+	/**
+	 * Opens a reader on the decompressed content of the specified file,
+	 * decoded as UTF-8.
+	 *
+	 * @param filePath
+	 *            the path to the file.
+	 * @return a new reader.
+	 * @throws IOException
+	 *             if the file cannot be opened.
+	 */
+	public static Reader openReader( final String filePath ) throws IOException
+	{
+		return new InputStreamReader( open( filePath ), StandardCharsets.UTF_8 );
+	}
+
+	private static InputStream open( final String filePath, final Compression compression, final AtomicLong bytesRead ) throws IOException
+	{
+		final InputStream file = new CountingInputStream( Files.newInputStream( Paths.get( filePath ) ), bytesRead );
+		try
+		{
+			return decompress( file, compression );
+		}
+		catch ( final IOException | RuntimeException e )
+		{
+			file.close();
+			throw e;
+		}
+	}
+
+	/**
+	 * Wraps the specified stream of compressed bytes in a buffered stream of
+	 * decompressed bytes.
+	 *
+	 * @param in
+	 *            the compressed stream.
+	 * @param compression
+	 *            its compression format.
+	 * @return a new buffered stream.
+	 * @throws IOException
+	 *             if the header of the compressed stream cannot be read.
+	 */
+	static InputStream decompress( final InputStream in, final Compression compression ) throws IOException
+	{
+		switch ( compression )
+		{
+		case GZIP:
+			return new BufferedInputStream( new GZIPInputStream( in, 1 << 16 ), 1 << 16 );
+		case ZSTD:
+			return new BufferedInputStream( new ZstdInputStream( new BufferedInputStream( in, 1 << 16 ) ), 1 << 16 );
+		case XZ:
+			return new BufferedInputStream( new XZInputStream( new BufferedInputStream( in, 1 << 16 ) ), 1 << 16 );
+		case NONE:
+		default:
+			return new BufferedInputStream( in, 1 << 16 );
+		}
+	}
+
+	private static final class CountingInputStream extends FilterInputStream
+	{
+
+		private final AtomicLong count;
+
+		private CountingInputStream( final InputStream in, final AtomicLong count )
+		{
+			super( in );
+			this.count = count;
+		}
+
+		@Override
+		public int read() throws IOException
+		{
+			final int b = super.read();
+			if ( b >= 0 )
+				count.incrementAndGet();
+			return b;
+		}
+
+		@Override
+		public int read( final byte[] b, final int off, final int len ) throws IOException
+		{
+			final int n = super.read( b, off, len );
+			if ( n > 0 )
+				count.addAndGet( n );
+			return n;
+		}
+
+		@Override
+		public long skip( final long n ) throws IOException
+		{
+			final long skipped = super.skip( n );
+			count.addAndGet( skipped );
+			return skipped;
+		}
+	}
+}
@@ -0,0 +1,236 @@
+/*-
+ * #%L
+ * mastodon-pasteur
+ * %%
+ * Copyright (C) 2019 - 2025 Tobias Pietzsch, Jean-Yves Tinevez
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package org.mastodon.mamut.io.csv;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Collects the errors found in the rows of an import.
+ * <p>
+ * Errors are counted by column and by kind. Only the first
+ * {@link #MAX_EXAMPLES} are kept in full, with their line number and the
+ * offending value, so that a file with millions of bad rows costs a counter
+ * increment per row. The parsers report errors through return values, never
+ * through exceptions, and the summary is formatted once, at the end of the
+ * import.
+ */
+public class ImportErrors
+{
+
+	/**
+	 * Maximal number of errors kept with their details.
+	 */
+	public static final int MAX_EXAMPLES = 20;
+
+	/**
+	 * The kinds of errors.
+	 */
+	public enum Kind
+	{
+		MISSING_VALUE( "missing value", true ),
+		MALFORMED_NUMBER( "malformed number", true ),
+		NUMBER_OUT_OF_RANGE( "number out of range", true ),
+		INVALID_PARENT_ID( "invalid parent id", false ),
+		PARENT_NOT_FOUND( "unknown parent id", false );
+
+		private final String description;
+
+		private final boolean skipsRow;
+
+		private Kind( final String description, final boolean skipsRow )
+		{
+			this.description = description;
+			this.skipsRow = skipsRow;
+		}
+
+		/**
+		 * Returns whether the rows with this error are not imported. Rows
+		 * with a parent id error are imported, without link to their parent.
+		 *
+		 * @return <code>true</code> if the row is skipped.
+		 */
+		public boolean skipsRow()
+		{
+			return skipsRow;
+		}
+
+		@Override
+		public String toString()
+		{
+			return description;
+		}
+	}
+
+	/**
+	 * Count of each kind of error, per column.
+	 */
+	private final Map< String, long[] > counts = new LinkedHashMap<>();
+
+	private final List< String > examples = new ArrayList<>();
+
+	private long nErrors;
+
+	private long nSkipped;
+
+	/**
+	 * Records an error.
+	 *
+	 * @param kind
+	 *            the kind of error.
+	 * @param column
+	 *            the header of the column of the error.
+	 * @param source
+	 *            the file of the error, or <code>null</code> if there is a
+	 *            single file.
+	 * @param line
+	 *            the line number of the error, or -1 if unknown.
+	 * @param value
+	 *            the offending value, or <code>null</code> if it is not
+	 *            known.
+	 */
+	synchronized void add( final Kind kind, final String column, final String source, final long line, final String value )
+	{
+		long[] c = counts.get( column );
+		if ( null == c )
+		{
+			c = new long[ Kind.values().length ];
+			counts.put( column, c );
+		}
+		c[ kind.ordinal() ]++;
+		nErrors++;
+		if ( kind.skipsRow )
+			nSkipped++;
+
+		if ( examples.size() < MAX_EXAMPLES )
+		{
+			final StringBuilder str = new StringBuilder();
+			if ( line >= 0 )
+				str.append( "line " ).append( line );
+			if ( null != source )
+				str.append( line >= 0 ? " of " : "" ).append( source );
+			if ( str.length() > 0 )
+				str.append( ", " );
+			str.append( "column " ).append( column ).append( ": " ).append( kind );
+			if ( null != value )
+				str.append( " \"" ).append( value ).append( '"' );
+			examples.add( str.toString() );
+		}
+	}
+
+	/**
+	 * Returns whether no error was recorded.
+	 *
+	 * @return <code>true</code> if there is no error.
+	 */
+	public synchronized boolean isEmpty()
+	{
+		return nErrors == 0;
+	}
+
+	/**
+	 * Returns the number of errors recorded.
+	 *
+	 * @return the number of errors.
+	 */
+	public synchronized long getCount()
+	{
+		return nErrors;
+	}
+
+	/**
+	 * Returns the number of errors of the specified kind.
+	 *
+	 * @param kind
+	 *            the kind of error.
+	 * @return the number of errors.
+	 */
+	public synchronized long getCount( final Kind kind )
+	{
+		long n = 0;
+		for ( final long[] c : counts.values() )
+			n += c[ kind.ordinal() ];
+		return n;
+	}
+
+	/**
+	 * Returns the number of rows that were not imported because of an
+	 * error.
+	 *
+	 * @return the number of rows skipped.
+	 */
+	public synchronized long getRowsSkipped()
+	{
+		return nSkipped;
+	}
+
+	/**
+	 * Returns the description of the first errors, at most
+	 * {@link #MAX_EXAMPLES}.
+	 *
+	 * @return the descriptions of the errors.
+	 */
+	public synchronized List< String > getExamples()
+	{
+		return Collections.unmodifiableList( new ArrayList<>( examples ) );
+	}
+
+	/**
+	 * Returns a summary of the errors: their counts by column and kind, and
+	 * the first ones in detail.
+	 *
+	 * @return the summary, or an empty string if there is no error.
+	 */
+	@Override
+	public synchronized String toString()
+	{
+		if ( nErrors == 0 )
+			return "";
+		final StringBuilder str = new StringBuilder();
+		str.append( nErrors ).append( " errors, " ).append( nSkipped ).append( " rows skipped." );
+		if ( nSkipped < nErrors )
+			str.append( " Spots with a parent id error are imported without link." );
+		str.append( '\n' );
+		for ( final Map.Entry< String, long[] > entry : counts.entrySet() )
+		{
+			final long[] c = entry.getValue();
+			for ( final Kind kind : Kind.values() )
+				if ( c[ kind.ordinal() ] > 0 )
+					str.append( " - column " ).append( entry.getKey() ).append( ", " )
+							.append( kind ).append( ": " ).append( c[ kind.ordinal() ] ).append( '\n' );
+		}
+		str.append( nErrors > examples.size() ? "First errors:\n" : "Errors:\n" );
+		for ( final String example : examples )
+			str.append( " - " ).append( example ).append( '\n' );
+		return str.toString();
+	}
+}
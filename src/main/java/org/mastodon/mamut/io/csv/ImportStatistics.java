@@ -0,0 +1,308 @@
+/*-
+ * #%L
+ * mastodon-pasteur
+ * %%
+ * Copyright (C) 2019 - 2025 Tobias Pietzsch, Jean-Yves Tinevez
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package org.mastodon.mamut.io.csv;
+
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Throughput counters for the stages of an import.
+ * <p>
+ * Parsing runs concurrently on several threads, so its time is the sum of the
+ * time spent by all parsing threads. Insertion runs on a single thread. The
+ * time this thread spends waiting for parsed batches tells which stage is the
+ * bottleneck: if it is large, parsing cannot keep up with insertion;
+ * otherwise insertion is limiting.
+ */
+public class ImportStatistics
+{
+
+	private final AtomicLong bytesParsed = new AtomicLong();
+
+	private final AtomicLong rowsParsed = new AtomicLong();
+
+	private final AtomicLong rowsFiltered = new AtomicLong();
+
+	private final AtomicLong parseNanos = new AtomicLong();
+
+	private volatile long rowsInserted;
+
+	private volatile long bytesInserted;
+
+	private long batchesInserted;
+
+	private long insertNanos;
+
+	private long waitNanos;
+
+	private long linkNanos;
+
+	private long spotsUpdated;
+
+	private long spotsRemoved;
+
+	private long rowsEstimated;
+
+	private final long startTime = System.nanoTime();
+
+	private long totalNanos;
+
+	void stop()
+	{
+		totalNanos = System.nanoTime() - startTime;
+	}
+
+	void addParsed( final long bytes, final long rows, final long filtered, final long nanos )
+	{
+		bytesParsed.addAndGet( bytes );
+		rowsParsed.addAndGet( rows );
+		rowsFiltered.addAndGet( filtered );
+		parseNanos.addAndGet( nanos );
+	}
+
+	void addInserted( final long rows, final long bytes, final long nanos )
+	{
+		rowsInserted += rows;
+		bytesInserted += bytes;
+		batchesInserted++;
+		insertNanos += nanos;
+	}
+
+	void addWait( final long nanos )
+	{
+		waitNanos += nanos;
+	}
+
+	void addLinking( final long nanos )
+	{
+		linkNanos += nanos;
+	}
+
+	void setRowsEstimated( final long rows )
+	{
+		rowsEstimated = rows;
+	}
+
+	void addMerged( final long updated, final long removed )
+	{
+		spotsUpdated += updated;
+		spotsRemoved += removed;
+	}
+
+	/**
+	 * Returns the number of bytes parsed so far.
+	 *
+	 * @return the number of bytes.
+	 */
+	public long getBytesParsed()
+	{
+		return bytesParsed.get();
+	}
+
+	/**
+	 * Returns the number of rows successfully parsed so far.
+	 *
+	 * @return the number of rows.
+	 */
+	public long getRowsParsed()
+	{
+		return rowsParsed.get();
+	}
+
+	/**
+	 * Returns the number of rows parsed so far but not imported, because the
+	 * import filters rejected them.
+	 *
+	 * @return the number of rows.
+	 */
+	public long getRowsFiltered()
+	{
+		return rowsFiltered.get();
+	}
+
+	/**
+	 * Returns the number of existing spots that were changed by a merge: moved,
+	 * resized, or replaced because their frame changed.
+	 *
+	 * @return the number of spots.
+	 */
+	public long getSpotsUpdated()
+	{
+		return spotsUpdated;
+	}
+
+	/**
+	 * Returns the number of existing spots removed by a merge because their
+	 * id was not in the file.
+	 *
+	 * @return the number of spots.
+	 */
+	public long getSpotsRemoved()
+	{
+		return spotsRemoved;
+	}
+
+	/**
+	 * Returns the number of rows the import expected to insert, that the
+	 * structures storing the spots were sized for. It is estimated from the
+	 * average length of the rows sampled before the import, and 0 if it was
+	 * not estimated.
+	 *
+	 * @return the number of rows.
+	 */
+	public long getRowsEstimated()
+	{
+		return rowsEstimated;
+	}
+
+	/**
+	 * Returns the number of rows inserted in the model so far.
+	 *
+	 * @return the number of rows.
+	 */
+	public long getRowsInserted()
+	{
+		return rowsInserted;
+	}
+
+	/**
+	 * Returns the number of input bytes whose rows were inserted in the model
+	 * so far. For compressed files, this counts compressed bytes.
+	 *
+	 * @return the number of bytes.
+	 */
+	public long getBytesInserted()
+	{
+		return bytesInserted;
+	}
+
+	/**
+	 * Returns the number of rows inserted per second since the start of the
+	 * import.
+	 *
+	 * @return the overall row throughput.
+	 */
+	public double getRowsPerSecond()
+	{
+		return rate( rowsInserted, getTotalTime() );
+	}
+
+	/**
+	 * Returns the number of input bytes inserted per second since the start
+	 * of the import.
+	 *
+	 * @return the overall byte throughput.
+	 */
+	public double getBytesPerSecond()
+	{
+		return rate( bytesInserted, getTotalTime() );
+	}
+
+	/**
+	 * Returns the cumulated time spent parsing, summed over all parsing
+	 * threads, in seconds.
+	 *
+	 * @return the parsing time.
+	 */
+	public double getParseTime()
+	{
+		return parseNanos.get() / 1e9;
+	}
+
+	/**
+	 * Returns the time spent inserting spots in the model, in seconds.
+	 *
+	 * @return the insertion time.
+	 */
+	public double getInsertTime()
+	{
+		return insertNanos / 1e9;
+	}
+
+	/**
+	 * Returns the time the insertion thread spent waiting for parsed batches,
+	 * in seconds.
+	 *
+	 * @return the waiting time.
+	 */
+	public double getWaitTime()
+	{
+		return waitNanos / 1e9;
+	}
+
+	/**
+	 * Returns the time spent creating links and tags once all spots were
+	 * inserted, in seconds.
+	 *
+	 * @return the linking time.
+	 */
+	public double getLinkTime()
+	{
+		return linkNanos / 1e9;
+	}
+
+	/**
+	 * Returns the wall-clock duration of the import, in seconds.
+	 *
+	 * @return the total time.
+	 */
+	public double getTotalTime()
+	{
+		return ( totalNanos > 0 ? totalNanos : System.nanoTime() - startTime ) / 1e9;
+	}
+
+	@Override
+	public String toString()
+	{
+		final double parseTime = getParseTime();
+		final double insertTime = getInsertTime();
+		final StringBuilder str = new StringBuilder();
+		str.append( String.format( Locale.ROOT, "Imported %d rows (%.1f MB) in %.1f s.\n",
+				rowsInserted, bytesParsed.get() / 1e6, getTotalTime() ) );
+		if ( rowsEstimated > 0 )
+			str.append( String.format( Locale.ROOT, " - estimated: %d rows reserved ahead, %+.1f%% off.\n",
+					rowsEstimated, 100. * ( rowsEstimated - rowsInserted ) / Math.max( 1, rowsInserted ) ) );
+		if ( rowsFiltered.get() > 0 )
+			str.append( String.format( Locale.ROOT, " - filtered out: %d rows.\n", rowsFiltered.get() ) );
+		if ( spotsUpdated > 0 || spotsRemoved > 0 )
+			str.append( String.format( Locale.ROOT, " - merged: %d spots updated, %d removed.\n", spotsUpdated, spotsRemoved ) );
+		str.append( String.format( Locale.ROOT, " - parsing:   %.1f s cumulated over threads, %.0f rows/s, %.1f MB/s per thread.\n",
+				parseTime, rate( rowsParsed.get(), parseTime ), rate( bytesParsed.get() / 1e6, parseTime ) ) );
+		str.append( String.format( Locale.ROOT, " - insertion: %.1f s for %d batches, %.0f rows/s.\n",
+				insertTime, batchesInserted, rate( rowsInserted, insertTime ) ) );
+		str.append( String.format( Locale.ROOT, " - waiting for parsed batches: %.1f s.\n", getWaitTime() ) );
+		str.append( String.format( Locale.ROOT, " - links and tags: %.1f s.\n", getLinkTime() ) );
+		return str.toString();
+	}
+
+	private static double rate( final double amount, final double seconds )
+	{
+		return seconds > 0 ? amount / seconds : 0.;
+	}
+}
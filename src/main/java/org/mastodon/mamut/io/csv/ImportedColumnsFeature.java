@@ -0,0 +1,289 @@
+/*-
+ * #%L
+ * mastodon-pasteur
+ * %%
+ * Copyright (C) 2019 - 2025 Tobias Pietzsch, Jean-Yves Tinevez
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package org.mastodon.mamut.io.csv;
+
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+
+import org.mastodon.collection.RefCollection;
+import org.mastodon.feature.Dimension;
+import org.mastodon.feature.Feature;
+import org.mastodon.feature.FeatureModel;
+import org.mastodon.feature.FeatureProjection;
+import org.mastodon.feature.FeatureProjectionKey;
+import org.mastodon.feature.FeatureProjectionSpec;
+import org.mastodon.feature.FeatureSpec;
+import org.mastodon.feature.Multiplicity;
+import org.mastodon.feature.io.FeatureSerializer;
+import org.mastodon.io.FileIdToObjectMap;
+import org.mastodon.io.ObjectToFileIdMap;
+import org.mastodon.mamut.model.Spot;
+import org.mastodon.properties.DoublePropertyMap;
+import org.scijava.plugin.Plugin;
+
+/**
+ * Stores the values of the extra numeric columns of the imported CSV files,
+ * with one projection per column, named after the column header.
+ * <p>
+ * The projections are not known in advance: they are added when a column is
+ * first imported, and kept across imports. Cells that are empty or not
+ * numbers are not set.
+ */
+public class ImportedColumnsFeature implements Feature< Spot >
+{
+
+	@Plugin( type = FeatureSpec.class )
+	public static class Spec extends FeatureSpec< ImportedColumnsFeature, Spot >
+	{
+		public Spec()
+		{
+			super(
+					KEY,
+					HELP_STRING,
+					ImportedColumnsFeature.class,
+					Spot.class,
+					Multiplicity.SINGLE );
+		}
+	}
+
+	public static final Spec SPEC = new Spec();
+
+	public static final String KEY = "Imported columns";
+
+	private static final String HELP_STRING = "Store the values of the extra numeric columns of the CSV file that was imported.";
+
+	private final RefCollection< Spot > vertices;
+
+	private final Map< String, ColumnProjection > columns = new LinkedHashMap<>();
+
+	private ImportedColumnsFeature( final RefCollection< Spot > vertices )
+	{
+		this.vertices = vertices;
+	}
+
+	public static final ImportedColumnsFeature getOrRegister( final FeatureModel featureModel, final RefCollection< Spot > vertices )
+	{
+		final ImportedColumnsFeature retrieved = ( ImportedColumnsFeature ) featureModel.getFeature( SPEC );
+		if ( null == retrieved )
+		{
+			final ImportedColumnsFeature feature = new ImportedColumnsFeature( vertices );
+			featureModel.declareFeature( feature );
+			return feature;
+		}
+		return retrieved;
+	}
+
+	/**
+	 * Returns the projection storing the values of the specified column,
+	 * creating it if needed.
+	 *
+	 * @param columnName
+	 *            the column header.
+	 * @return the projection.
+	 */
+	public synchronized ColumnProjection getOrAdd( final String columnName )
+	{
+		return getOrAdd( columnName, vertices.size() );
+	}
+
+	/**
+	 * Returns the projection storing the values of the specified column,
+	 * creating it if needed, sized to store the values of the specified
+	 * number of spots without growing.
+	 *
+	 * @param columnName
+	 *            the column header.
+	 * @param initialCapacity
+	 *            the number of spots expected, existing ones included.
+	 * @return the projection.
+	 */
+	public synchronized ColumnProjection getOrAdd( final String columnName, final int initialCapacity )
+	{
+		ColumnProjection projection = columns.get( columnName );
+		if ( null == projection )
+		{
+			projection = new ColumnProjection( columnName, new DoublePropertyMap<>( vertices, Double.NaN, initialCapacity ) );
+			columns.put( columnName, projection );
+		}
+		return projection;
+	}
+
+	/**
+	 * Returns the projection storing the values of the specified column.
+	 *
+	 * @param columnName
+	 *            the column header.
+	 * @return the projection, or <code>null</code> if the column was not
+	 *         imported.
+	 */
+	public synchronized ColumnProjection get( final String columnName )
+	{
+		return columns.get( columnName );
+	}
+
+	@Override
+	public synchronized FeatureProjection< Spot > project( final FeatureProjectionKey key )
+	{
+		for ( final ColumnProjection projection : columns.values() )
+			if ( projection.getKey().equals( key ) )
+				return projection;
+		return null;
+	}
+
+	@Override
+	public synchronized Set< FeatureProjection< Spot > > projections()
+	{
+		return new LinkedHashSet<>( columns.values() );
+	}
+
+	@Override
+	public synchronized void invalidate( final Spot spot )
+	{
+		for ( final ColumnProjection projection : columns.values() )
+			projection.map.remove( spot );
+	}
+
+	@Override
+	public FeatureSpec< ImportedColumnsFeature, Spot > getSpec()
+	{
+		return SPEC;
+	}
+
+	public static final class ColumnProjection implements FeatureProjection< Spot >
+	{
+
+		private final FeatureProjectionKey key;
+
+		private final DoublePropertyMap< Spot > map;
+
+		private ColumnProjection( final String columnName, final DoublePropertyMap< Spot > map )
+		{
+			this.key = FeatureProjectionKey.key( new FeatureProjectionSpec( columnName, Dimension.NONE ) );
+			this.map = map;
+		}
+
+		@Override
+		public FeatureProjectionKey getKey()
+		{
+			return key;
+		}
+
+		@Override
+		public boolean isSet( final Spot spot )
+		{
+			return map.isSet( spot );
+		}
+
+		@Override
+		public double value( final Spot spot )
+		{
+			return map.getDouble( spot );
+		}
+
+		@Override
+		public String units()
+		{
+			return Dimension.NONE_UNITS;
+		}
+
+		public void set( final Spot spot, final double value )
+		{
+			map.set( spot, value );
+		}
+	}
+
+	@Plugin( type = FeatureSerializer.class )
+	public static class Serializer implements FeatureSerializer< ImportedColumnsFeature, Spot >
+	{
+
+		@Override
+		public FeatureSpec< ImportedColumnsFeature, Spot > getFeatureSpec()
+		{
+			return SPEC;
+		}
+
+		@Override
+		public void serialize( final ImportedColumnsFeature feature, final ObjectToFileIdMap< Spot > idmap, final ObjectOutputStream oos ) throws IOException
+		{
+			synchronized ( feature )
+			{
+				oos.writeInt( feature.columns.size() );
+				for ( final Map.Entry< String, ColumnProjection > entry : feature.columns.entrySet() )
+				{
+					final ColumnProjection projection = entry.getValue();
+					int n = 0;
+					for ( final Spot spot : feature.vertices )
+						if ( projection.isSet( spot ) )
+							n++;
+					oos.writeUTF( entry.getKey() );
+					oos.writeInt( n );
+					for ( final Spot spot : feature.vertices )
+					{
+						if ( projection.isSet( spot ) )
+						{
+							oos.writeInt( idmap.getId( spot ) );
+							oos.writeDouble( projection.value( spot ) );
+						}
+					}
+				}
+			}
+		}
+
+		@Override
+		public ImportedColumnsFeature deserialize( final FileIdToObjectMap< Spot > idmap, final RefCollection< Spot > pool, final ObjectInputStream ois ) throws IOException, ClassNotFoundException
+		{
+			final ImportedColumnsFeature feature = new ImportedColumnsFeature( pool );
+			final Spot ref = pool.createRef();
+			try
+			{
+				final int nColumns = ois.readInt();
+				for ( int c = 0; c < nColumns; c++ )
+				{
+					final ColumnProjection projection = feature.getOrAdd( ois.readUTF() );
+					final int n = ois.readInt();
+					for ( int i = 0; i < n; i++ )
+					{
+						final Spot spot = idmap.getObject( ois.readInt(), ref );
+						projection.set( spot, ois.readDouble() );
+					}
+				}
+			}
+			finally
+			{
+				pool.releaseRef( ref );
+			}
+			return feature;
+		}
+	}
+}
@@ -0,0 +1,286 @@
+/*-
+ * #%L
+ * mastodon-pasteur
+ * %%
+ * Copyright (C) 2019 - 2025 Tobias Pietzsch, Jean-Yves Tinevez
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package org.mastodon.mamut.io.csv;
+
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.Collections;
+import java.util.Set;
+
+import org.mastodon.collection.RefCollection;
+import org.mastodon.feature.Feature;
+import org.mastodon.feature.FeatureModel;
+import org.mastodon.feature.FeatureProjection;
+import org.mastodon.feature.FeatureProjectionKey;
+import org.mastodon.feature.FeatureSpec;
+import org.mastodon.feature.Multiplicity;
+import org.mastodon.feature.io.FeatureSerializer;
+import org.mastodon.io.FileIdToObjectMap;
+import org.mastodon.io.ObjectToFileIdMap;
+import org.mastodon.mamut.io.csv.CSVImporter.OriginalIdFeature;
+import org.mastodon.mamut.io.csv.CSVImporter.OriginalLongIdFeature;
+import org.mastodon.mamut.model.ModelGraph;
+import org.mastodon.mamut.model.Spot;
+import org.mastodon.properties.IntPropertyMap;
+import org.scijava.plugin.Plugin;
+
+/**
+ * Gives the labels of the spots imported without storing them, see
+ * {@link CSVImporter.Builder#materializeLabels(boolean)}.
+ * <p>
+ * Such spots have no label of their own, and Mastodon labels them with their
+ * pool index. The importer marks them in an {@link UnstoredLabels} feature,
+ * and their label is then the original id they were imported with, read
+ * from the {@link OriginalIdFeature} or the {@link OriginalLongIdFeature}.
+ * The mark is removed when a label is stored by an import or by
+ * {@link #materialize(ModelGraph)}. A label edited by the user is not seen
+ * by the importer: a marked spot whose label is no longer its pool index
+ * is taken as edited, and its label is returned as is.
+ * <p>
+ * String ids are stored hashed, so their spots are always labeled when
+ * imported.
+ */
+public final class ImportedLabels
+{
+
+	private final OriginalIdFeature ids;
+
+	private final OriginalLongIdFeature longIds;
+
+	private final UnstoredLabels unstored;
+
+	/**
+	 * Creates the labels of the spots of the specified feature model.
+	 *
+	 * @param featureModel
+	 *            the feature model, where the original ids are stored.
+	 */
+	public ImportedLabels( final FeatureModel featureModel )
+	{
+		this.ids = ( OriginalIdFeature ) featureModel.getFeature( OriginalIdFeature.SPEC );
+		this.longIds = ( OriginalLongIdFeature ) featureModel.getFeature( OriginalLongIdFeature.SPEC );
+		this.unstored = ( UnstoredLabels ) featureModel.getFeature( UnstoredLabels.SPEC );
+	}
+
+	/**
+	 * Returns the label of the specified spot: its original id if it was
+	 * imported without label and the label was not edited since, otherwise
+	 * its own label.
+	 *
+	 * @param spot
+	 *            the spot.
+	 * @return the label.
+	 */
+	public String get( final Spot spot )
+	{
+		final String label = spot.getLabel();
+		if ( null == unstored || !unstored.isUnstored( spot, label ) )
+			return label;
+		if ( null != ids && ids.isSet( spot ) )
+			return Integer.toString( ids.value( spot ) );
+		if ( null != longIds && longIds.isSet( spot ) )
+			return Long.toString( longIds.value( spot ) );
+		return label;
+	}
+
+	/**
+	 * Stores the label of the spots that have none, for the views that read
+	 * labels from the spots. The graph write lock must be held.
+	 *
+	 * @param graph
+	 *            the graph of the spots.
+	 * @return the number of labels stored.
+	 */
+	public int materialize( final ModelGraph graph )
+	{
+		if ( null == unstored )
+			return 0;
+		int n = 0;
+		for ( final Spot spot : graph.vertices() )
+		{
+			if ( !unstored.isMarked( spot ) )
+				continue;
+			final String label = spot.getLabel();
+			final String derived = get( spot );
+			unstored.unmark( spot );
+			if ( !derived.equals( label ) )
+			{
+				spot.setLabel( derived );
+				n++;
+			}
+		}
+		return n;
+	}
+
+	/**
+	 * Marks the spots imported without storing their label, until a label is
+	 * stored by an import or by {@link ImportedLabels#materialize(ModelGraph)}.
+	 * The mark of a spot is removed when it is deleted. It has no projection,
+	 * so it does not show in the feature tables, and it is saved with the
+	 * project by the {@link UnstoredLabelsSerializer}.
+	 */
+	public static final class UnstoredLabels implements Feature< Spot >
+	{
+
+		@Plugin( type = FeatureSpec.class )
+		public static class Spec extends FeatureSpec< UnstoredLabels, Spot >
+		{
+			public Spec()
+			{
+				super(
+						KEY,
+						HELP_STRING,
+						UnstoredLabels.class,
+						Spot.class,
+						Multiplicity.SINGLE );
+			}
+		}
+
+		public static final Spec SPEC = new Spec();
+
+		public static final String KEY = "Unstored labels";
+
+		private static final String HELP_STRING = "Mark the spots imported without storing their label.";
+
+		private final RefCollection< Spot > vertices;
+
+		private final IntPropertyMap< Spot > marks;
+
+		private UnstoredLabels( final RefCollection< Spot > vertices, final int initialCapacity )
+		{
+			this.vertices = vertices;
+			this.marks = new IntPropertyMap<>( vertices, 0, initialCapacity );
+		}
+
+		/**
+		 * Returns the feature of the specified feature model, or registers a
+		 * new one sized for the specified number of spots.
+		 */
+		static UnstoredLabels getOrRegister( final FeatureModel featureModel, final RefCollection< Spot > vertices, final int initialCapacity )
+		{
+			final UnstoredLabels retrieved = ( UnstoredLabels ) featureModel.getFeature( SPEC );
+			if ( null != retrieved )
+				return retrieved;
+			final UnstoredLabels feature = new UnstoredLabels( vertices, initialCapacity );
+			featureModel.declareFeature( feature );
+			return feature;
+		}
+
+		void mark( final Spot spot )
+		{
+			marks.set( spot, 1 );
+		}
+
+		void unmark( final Spot spot )
+		{
+			marks.remove( spot );
+		}
+
+		boolean isMarked( final Spot spot )
+		{
+			return marks.isSet( spot );
+		}
+
+		/**
+		 * Returns whether the specified spot, with the specified label, was
+		 * imported without label and was not labeled since.
+		 */
+		boolean isUnstored( final Spot spot, final String label )
+		{
+			return marks.isSet( spot ) && label.equals( Integer.toString( spot.getInternalPoolIndex() ) );
+		}
+
+		@Override
+		public FeatureProjection< Spot > project( final FeatureProjectionKey key )
+		{
+			return null;
+		}
+
+		@Override
+		public Set< FeatureProjection< Spot > > projections()
+		{
+			return Collections.emptySet();
+		}
+
+		@Override
+		public FeatureSpec< UnstoredLabels, Spot > getSpec()
+		{
+			return SPEC;
+		}
+
+		@Override
+		public void invalidate( final Spot spot )
+		{
+			// The mark does not depend on the position of the spot.
+		}
+	}
+
+	@Plugin( type = FeatureSerializer.class )
+	public static class UnstoredLabelsSerializer implements FeatureSerializer< UnstoredLabels, Spot >
+	{
+
+		@Override
+		public FeatureSpec< UnstoredLabels, Spot > getFeatureSpec()
+		{
+			return UnstoredLabels.SPEC;
+		}
+
+		@Override
+		public void serialize( final UnstoredLabels feature, final ObjectToFileIdMap< Spot > idmap, final ObjectOutputStream oos ) throws IOException
+		{
+			int n = 0;
+			for ( final Spot spot : feature.vertices )
+				if ( feature.isMarked( spot ) )
+					n++;
+			oos.writeInt( n );
+			for ( final Spot spot : feature.vertices )
+				if ( feature.isMarked( spot ) )
+					oos.writeInt( idmap.getId( spot ) );
+		}
+
+		@Override
+		public UnstoredLabels deserialize( final FileIdToObjectMap< Spot > idmap, final RefCollection< Spot > pool, final ObjectInputStream ois ) throws IOException, ClassNotFoundException
+		{
+			final UnstoredLabels feature = new UnstoredLabels( pool, pool.size() );
+			final Spot ref = pool.createRef();
+			try
+			{
+				final int n = ois.readInt();
+				for ( int i = 0; i < n; i++ )
+					feature.mark( idmap.getObject( ois.readInt(), ref ) );
+			}
+			finally
+			{
+				pool.releaseRef( ref );
+			}
+			return feature;
+		}
+	}
+}
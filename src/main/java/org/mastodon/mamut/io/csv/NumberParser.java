@@ -0,0 +1,380 @@
+/*-
+ * #%L
+ * mastodon-pasteur
+ * %%
+ * Copyright (C) 2019 - 2025 Tobias Pietzsch, Jean-Yves Tinevez
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package org.mastodon.mamut.io.csv;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Parses numbers directly from the bytes of a CSV field, without creating
+ * strings nor throwing exceptions.
+ * <p>
+ * Both '.' and ',' can be accepted as decimal mark, for the files written
+ * with a French locale, that use ';' as separator and ',' as decimal mark.
+ * Thousands separators are not supported.
+ * <p>
+ * Decimal numbers and numbers in scientific notation whose significand is
+ * below 2<sup>53</sup> and whose exponent is at most 22 are converted exactly,
+ * with a single floating-point operation. Other values (many significant digits,
+ * large exponents, 'NaN', 'Infinity', hexadecimal, ...) are delegated to
+ * {@link Double#parseDouble(String)}, so that the result is always identical
+ * to it. Fields that cannot be Java floating-point literals are rejected
+ * before, so that text does not cost an exception.
+ * <p>
+ * Instances are not thread-safe: each tokenizer has its own. The error of
+ * the last number parsed is returned by {@link #getError()}.
+ */
+final class NumberParser
+{
+
+	/**
+	 * Exact powers of 10 as doubles.
+	 */
+	private static final double[] POW10 = new double[ 23 ];
+	static
+	{
+		POW10[ 0 ] = 1.;
+		for ( int i = 1; i < POW10.length; i++ )
+			POW10[ i ] = POW10[ i - 1 ] * 10.;
+	}
+
+	/**
+	 * Integers below this value can be converted exactly to double.
+	 */
+	private static final long MAX_EXACT_MANTISSA = 1L << 53;
+
+	private final boolean commaDecimalMark;
+
+	/**
+	 * The error of the last number parsed, <code>null</code> if it was valid.
+	 */
+	private ImportErrors.Kind error;
+
+	/**
+	 * Scratch array the characters to parse are copied to.
+	 */
+	private byte[] scratch = new byte[ 64 ];
+
+	private ByteBuffer scratchBuffer = ByteBuffer.wrap( scratch );
+
+	/**
+	 * Creates a parser.
+	 *
+	 * @param commaDecimalMark
+	 *            whether ',' is accepted as a decimal mark, as well as '.'.
+	 *            It should be <code>false</code> when ',' is the separator.
+	 */
+	NumberParser( final boolean commaDecimalMark )
+	{
+		this.commaDecimalMark = commaDecimalMark;
+	}
+
+	/**
+	 * Returns the error of the last number parsed.
+	 *
+	 * @return the kind of error, or <code>null</code> if the last number was
+	 *         valid.
+	 */
+	ImportErrors.Kind getError()
+	{
+		return error;
+	}
+
+	/**
+	 * Parses a long integer from the specified bytes.
+	 *
+	 * @param buffer
+	 *            the buffer holding the bytes.
+	 * @param start
+	 *            the index of the first byte.
+	 * @param end
+	 *            the index after the last byte.
+	 * @return the value, or 0 if it is not valid, see {@link #getError()}.
+	 */
+	long parseLong( final ByteBuffer buffer, final int start, final int end )
+	{
+		error = null;
+		if ( start >= end )
+			return ( long ) fail( ImportErrors.Kind.MISSING_VALUE );
+
+		int i = start;
+		final byte first = buffer.get( i );
+		final boolean negative = first == '-';
+		if ( negative || first == '+' )
+			i++;
+		if ( i == end )
+			return ( long ) fail( ImportErrors.Kind.MALFORMED_NUMBER );
+
+		long val = 0;
+		for ( ; i < end; i++ )
+		{
+			final int digit = buffer.get( i ) - '0';
+			if ( digit < 0 || digit > 9 )
+				return ( long ) fail( ImportErrors.Kind.MALFORMED_NUMBER );
+			// Accumulate negatively to be able to reach Long.MIN_VALUE.
+			if ( val < ( Long.MIN_VALUE + digit ) / 10 )
+				return ( long ) fail( ImportErrors.Kind.NUMBER_OUT_OF_RANGE );
+			val = val * 10 - digit;
+		}
+		if ( negative )
+			return val;
+		if ( val == Long.MIN_VALUE )
+			return ( long ) fail( ImportErrors.Kind.NUMBER_OUT_OF_RANGE );
+		return -val;
+	}
+
+	/**
+	 * Parses a double from the specified bytes.
+	 *
+	 * @param buffer
+	 *            the buffer holding the bytes.
+	 * @param start
+	 *            the index of the first byte.
+	 * @param end
+	 *            the index after the last byte.
+	 * @return the value, or 0 if it is not valid, see {@link #getError()}.
+	 */
+	double parseDouble( final ByteBuffer buffer, final int start, final int end )
+	{
+		error = null;
+		if ( start >= end )
+			return fail( ImportErrors.Kind.MISSING_VALUE );
+
+		int i = start;
+		final byte first = buffer.get( i );
+		final boolean negative = first == '-';
+		if ( negative || first == '+' )
+			i++;
+
+		long mantissa = 0;
+		int nDigits = 0;
+		int exponent = 0;
+		boolean anyDigit = false;
+		boolean truncated = false;
+
+		// Integer part.
+		for ( ; i < end; i++ )
+		{
+			final int digit = buffer.get( i ) - '0';
+			if ( digit < 0 || digit > 9 )
+				break;
+			anyDigit = true;
+			if ( nDigits < 18 )
+			{
+				mantissa = mantissa * 10 + digit;
+				if ( mantissa != 0 )
+					nDigits++;
+			}
+			else
+			{
+				exponent++;
+				truncated = true;
+			}
+		}
+
+		// Fractional part.
+		if ( i < end && isDecimalMark( buffer.get( i ) ) )
+		{
+			i++;
+			for ( ; i < end; i++ )
+			{
+				final int digit = buffer.get( i ) - '0';
+				if ( digit < 0 || digit > 9 )
+					break;
+				anyDigit = true;
+				if ( nDigits < 18 )
+				{
+					mantissa = mantissa * 10 + digit;
+					if ( mantissa != 0 )
+						nDigits++;
+					exponent--;
+				}
+				else
+				{
+					truncated = true;
+				}
+			}
+		}
+
+		// Exponent.
+		if ( anyDigit && i < end && ( buffer.get( i ) == 'e' || buffer.get( i ) == 'E' ) )
+		{
+			i++;
+			boolean negativeExp = false;
+			if ( i < end && ( buffer.get( i ) == '-' || buffer.get( i ) == '+' ) )
+			{
+				negativeExp = buffer.get( i ) == '-';
+				i++;
+			}
+			if ( i == end )
+				return fail( ImportErrors.Kind.MALFORMED_NUMBER );
+			int exp = 0;
+			for ( ; i < end; i++ )
+			{
+				final int digit = buffer.get( i ) - '0';
+				if ( digit < 0 || digit > 9 )
+					break;
+				if ( exp < 100_000 )
+					exp = exp * 10 + digit;
+			}
+			exponent += negativeExp ? -exp : exp;
+		}
+
+		if ( i != end || !anyDigit || truncated || mantissa >= MAX_EXACT_MANTISSA )
+			return slowParseDouble( buffer, start, end );
+
+		if ( mantissa == 0 )
+			return negative ? -0. : 0.;
+
+		final double val;
+		if ( exponent == 0 )
+			val = mantissa;
+		else if ( exponent > 0 && exponent < POW10.length )
+			val = mantissa * POW10[ exponent ];
+		else if ( exponent < 0 && -exponent < POW10.length )
+			val = mantissa / POW10[ -exponent ];
+		else
+			return slowParseDouble( buffer, start, end );
+		return negative ? -val : val;
+	}
+
+	/**
+	 * Parses a double from the specified characters. They are copied as
+	 * bytes in a scratch buffer, non-ASCII characters making the number
+	 * invalid.
+	 *
+	 * @param chars
+	 *            the characters.
+	 * @param start
+	 *            the index of the first character.
+	 * @param end
+	 *            the index after the last character.
+	 * @return the value, or 0 if it is not valid, see {@link #getError()}.
+	 */
+	double parseDouble( final CharSequence chars, final int start, final int end )
+	{
+		final int len = end - start;
+		ensureScratch( len );
+		for ( int i = 0; i < len; i++ )
+		{
+			final char c = chars.charAt( start + i );
+			scratch[ i ] = c < 128 ? ( byte ) c : ( byte ) '?';
+		}
+		return parseDouble( scratchBuffer, 0, len );
+	}
+
+	/**
+	 * Parses a double from the specified string.
+	 *
+	 * @param str
+	 *            the string.
+	 * @return the value, or 0 if it is not valid, see {@link #getError()}.
+	 */
+	double parseDouble( final CharSequence str )
+	{
+		return parseDouble( str, 0, str.length() );
+	}
+
+	private boolean isDecimalMark( final byte b )
+	{
+		return b == '.' || ( commaDecimalMark && b == ',' );
+	}
+
+	/**
+	 * Parses the values the fast path does not handle.
+	 */
+	private double slowParseDouble( final ByteBuffer buffer, final int start, final int end )
+	{
+		final int len = end - start;
+		final byte[] bytes = new byte[ len ];
+		for ( int i = 0; i < len; i++ )
+		{
+			final byte b = buffer.get( start + i );
+			if ( !isFloatLiteralChar( b ) )
+				return fail( ImportErrors.Kind.MALFORMED_NUMBER );
+			bytes[ i ] = b == ',' ? ( byte ) '.' : b;
+		}
+		try
+		{
+			return Double.parseDouble( new String( bytes, StandardCharsets.US_ASCII ) );
+		}
+		catch ( final NumberFormatException e )
+		{
+			return fail( ImportErrors.Kind.MALFORMED_NUMBER );
+		}
+	}
+
+	private boolean isFloatLiteralChar( final byte b )
+	{
+		if ( ( b >= '0' && b <= '9' ) || ( b >= 'a' && b <= 'f' ) || ( b >= 'A' && b <= 'F' ) )
+			return true;
+		switch ( b )
+		{
+		case '+':
+		case '-':
+		case '.':
+		case 'x':
+		case 'X':
+		case 'p':
+		case 'P':
+		// NaN and Infinity.
+		case 'N':
+		case 'I':
+		case 'n':
+		case 'i':
+		case 't':
+		case 'y':
+			return true;
+		case ',':
+			return commaDecimalMark;
+		default:
+			return false;
+		}
+	}
+
+	private void ensureScratch( final int len )
+	{
+		if ( scratch.length < len )
+		{
+			scratch = new byte[ Math.max( len, 2 * scratch.length ) ];
+			scratchBuffer = ByteBuffer.wrap( scratch );
+		}
+	}
+
+	/**
+	 * Records a parse error.
+	 *
+	 * @return 0.
+	 */
+	private double fail( final ImportErrors.Kind kind )
+	{
+		error = kind;
+		return 0.;
+	}
+}
@@ -0,0 +1,193 @@
+/*-
+ * #%L
+ * mastodon-pasteur
+ * %%
+ * Copyright (C) 2019 - 2025 Tobias Pietzsch, Jean-Yves Tinevez
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package org.mastodon.mamut.io.csv;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.Arrays;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * An input stream that reads another stream in a separate thread, ahead of
+ * its consumer. The source stream is read in blocks, and a bounded number of
+ * blocks are kept in memory until consumed.
+ * <p>
+ * The source stream is closed when it has been read completely, or when this
+ * stream is closed.
+ */
+class ReadAheadInputStream extends InputStream
+{
+
+	/**
+	 * Marks the end of the source stream in the queue.
+	 */
+	private static final byte[] END = new byte[ 0 ];
+
+	private final BlockingQueue< byte[] > queue;
+
+	private final Thread thread;
+
+	/**
+	 * The exception thrown while reading the source stream, if any.
+	 */
+	private volatile IOException error;
+
+	private byte[] block = new byte[ 0 ];
+
+	private int blockPos;
+
+	private boolean closed;
+
+	ReadAheadInputStream( final InputStream in, final int blockSize, final int nBlocks, final String name )
+	{
+		this.queue = new ArrayBlockingQueue<>( nBlocks );
+		this.thread = new Thread( () -> readAhead( in, blockSize ), name );
+		thread.setDaemon( true );
+		thread.start();
+	}
+
+	private void readAhead( final InputStream in, final int blockSize )
+	{
+		try
+		{
+			try
+			{
+				while ( true )
+				{
+					byte[] b = new byte[ blockSize ];
+					int n = 0;
+					while ( n < blockSize )
+					{
+						final int r = in.read( b, n, blockSize - n );
+						if ( r < 0 )
+							break;
+						n += r;
+					}
+					if ( n == 0 )
+						break;
+					if ( n < blockSize )
+						b = Arrays.copyOf( b, n );
+					queue.put( b );
+				}
+			}
+			catch ( final IOException e )
+			{
+				error = e;
+			}
+			finally
+			{
+				try
+				{
+					in.close();
+				}
+				catch ( final IOException e )
+				{
+					if ( error == null )
+						error = e;
+				}
+			}
+			queue.put( END );
+		}
+		catch ( final InterruptedException e )
+		{
+			// Closed by the consumer.
+		}
+	}
+
+	/**
+	 * Makes sure the current block has bytes left to read.
+	 *
+	 * @return <code>false</code> if the end of the stream was reached.
+	 */
+	private boolean nextBlock() throws IOException
+	{
+		if ( closed )
+			throw new IOException( "Stream closed." );
+		if ( block == END )
+			return false;
+		if ( blockPos < block.length )
+			return true;
+		try
+		{
+			block = queue.take();
+			blockPos = 0;
+		}
+		catch ( final InterruptedException e )
+		{
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException( "Interrupted while waiting for data." );
+		}
+		if ( block == END )
+		{
+			if ( error != null )
+				throw error;
+			return false;
+		}
+		return true;
+	}
+
+	@Override
+	public int read() throws IOException
+	{
+		if ( !nextBlock() )
+			return -1;
+		return block[ blockPos++ ] & 0xff;
+	}
+
+	@Override
+	public int read( final byte[] b, final int off, final int len ) throws IOException
+	{
+		if ( len == 0 )
+			return 0;
+		if ( !nextBlock() )
+			return -1;
+		final int n = Math.min( len, block.length - blockPos );
+		System.arraycopy( block, blockPos, b, off, n );
+		blockPos += n;
+		return n;
+	}
+
+	@Override
+	public int available()
+	{
+		return closed ? 0 : block.length - blockPos;
+	}
+
+	@Override
+	public void close()
+	{
+		if ( closed )
+			return;
+		closed = true;
+		thread.interrupt();
+		queue.clear();
+	}
+}
@@ -0,0 +1,411 @@
+/*-
+ * #%L
+ * mastodon-pasteur
+ * %%
+ * Copyright (C) 2019 - 2025 Tobias Pietzsch, Jean-Yves Tinevez
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package org.mastodon.mamut.io.csv;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import gnu.trove.list.array.TDoubleArrayList;
+import gnu.trove.list.array.TIntArrayList;
+import gnu.trove.list.array.TLongArrayList;
+import gnu.trove.map.hash.TObjectIntHashMap;
+
+/**
+ * Spot data parsed from a part of a CSV file, stored in primitive column
+ * buffers.
+ * <p>
+ * Batches are filled by parsing threads without touching the model, so that
+ * only the creation of the spots from these buffers needs to happen under the
+ * graph write lock. Rows that cannot be parsed are not stored, and their line
+ * numbers are recorded instead, with the column and the kind of the error.
+ * The offending value is only kept for the first
+ * {@link ImportErrors#MAX_EXAMPLES} errors of a batch.
+ */
+final class SpotBatch
+{
+
+	/**
+	 * Parent id of the rows without a parent, given by an empty parent id
+	 * cell, or by -1 for numeric ids.
+	 */
+	static final long NO_ID = -1;
+
+	final TDoubleArrayList x;
+
+	final TDoubleArrayList y;
+
+	final TDoubleArrayList z;
+
+	final TIntArrayList frame;
+
+	final TDoubleArrayList radius;
+
+	final TDoubleArrayList quality;
+
+	/**
+	 * The ids, as read for integer and long ids, or as hashed for string ids.
+	 */
+	final TLongArrayList id;
+
+	/**
+	 * The parent ids, {@link #NO_ID} for rows without a parent.
+	 */
+	final TLongArrayList parentId;
+
+	/**
+	 * The track ids, {@link #NO_ID} for rows that are not in a track.
+	 */
+	final TLongArrayList trackId;
+
+	/**
+	 * The labels, read from the label column, or the ids themselves for
+	 * string ids when there is no label column.
+	 */
+	final List< String > labels;
+
+	/**
+	 * The values of the extra columns, one list per column, NaN for the cells
+	 * that are not numbers.
+	 */
+	final TDoubleArrayList[] extra;
+
+	/**
+	 * For each row, the index of its tag label in {@link #tagLabels}.
+	 */
+	final TIntArrayList tag;
+
+	/**
+	 * The tag labels found in this batch, in order of appearance.
+	 */
+	final List< String > tagLabels;
+
+	private final TObjectIntHashMap< String > tagLabelIndices;
+
+	/**
+	 * Line numbers, relative to the start of the batch, of the rows with an
+	 * error, and the header of the column, the kind and the value of the
+	 * error. The values past the first {@link ImportErrors#MAX_EXAMPLES} are
+	 * <code>null</code>.
+	 */
+	final TLongArrayList errorLines;
+
+	final List< String > errorColumns;
+
+	final List< ImportErrors.Kind > errorKinds;
+
+	final List< String > errorValues;
+
+	/**
+	 * Header of the parent id column, <code>null</code> if unknown.
+	 */
+	final String parentIdHeader;
+
+	/**
+	 * Number of lines in the batch, including the ones that could not be
+	 * parsed.
+	 */
+	long nLines;
+
+	/**
+	 * Number of rows parsed but not imported because of the filter.
+	 */
+	int nFiltered;
+
+	/**
+	 * Number of input bytes this batch was read from, used to report
+	 * progress.
+	 */
+	long nBytes;
+
+	/**
+	 * Smallest and largest frame of the rows parsed, including the ones
+	 * rejected by the filter.
+	 */
+	int minFrame = Integer.MAX_VALUE;
+
+	int maxFrame = Integer.MIN_VALUE;
+
+	/**
+	 * Whether the end of the input was reached while parsing this batch.
+	 */
+	boolean endOfInput;
+
+	/**
+	 * Name of the file this batch was read from when importing several files,
+	 * <code>null</code> otherwise.
+	 */
+	String source;
+
+	/**
+	 * Number of lines before this batch in its source file.
+	 */
+	long sourceLine;
+
+	private SpotBatch( final CSVColumns columns )
+	{
+		this.x = new TDoubleArrayList();
+		this.y = new TDoubleArrayList();
+		this.z = new TDoubleArrayList();
+		this.frame = new TIntArrayList();
+		this.radius = columns.radiuscol < 0 ? null : new TDoubleArrayList();
+		this.quality = columns.qualitycol < 0 ? null : new TDoubleArrayList();
+		this.id = columns.idcol < 0 ? null : new TLongArrayList();
+		this.parentId = columns.parentIdcol < 0 ? null : new TLongArrayList();
+		this.trackId = columns.trackcol < 0 ? null : new TLongArrayList();
+		this.labels = columns.labelcol < 0 && !( columns.idcol >= 0 && columns.idType == CSVImporter.IdType.STRING )
+				? null
+				: new ArrayList<>();
+		this.extra = new TDoubleArrayList[ columns.extracols.length ];
+		for ( int i = 0; i < extra.length; i++ )
+			extra[ i ] = new TDoubleArrayList();
+		this.tag = columns.tagcol < 0 ? null : new TIntArrayList();
+		this.tagLabels = new ArrayList<>();
+		this.tagLabelIndices = new TObjectIntHashMap<>( 16, 0.5f, -1 );
+		this.errorLines = new TLongArrayList();
+		this.errorColumns = new ArrayList<>();
+		this.errorKinds = new ArrayList<>();
+		this.errorValues = new ArrayList<>();
+		this.parentIdHeader = columns.parentIdcol < 0 ? null : columns.headers[ columns.parentIdcol ];
+	}
+
+	/**
+	 * Creates a batch from already decoded columns. Optional columns are
+	 * <code>null</code> when absent. Tags are given as indices in the
+	 * specified list of labels, negative for untagged rows.
+	 */
+	SpotBatch(
+			final TDoubleArrayList x,
+			final TDoubleArrayList y,
+			final TDoubleArrayList z,
+			final TIntArrayList frame,
+			final TDoubleArrayList radius,
+			final TDoubleArrayList quality,
+			final TLongArrayList id,
+			final TLongArrayList parentId,
+			final TIntArrayList tag,
+			final List< String > tagLabels )
+	{
+		this.x = x;
+		this.y = y;
+		this.z = z;
+		this.frame = frame;
+		this.radius = radius;
+		this.quality = quality;
+		this.id = id;
+		this.parentId = parentId;
+		this.trackId = null;
+		this.labels = null;
+		this.extra = new TDoubleArrayList[ 0 ];
+		this.tag = tag;
+		this.tagLabels = tagLabels;
+		this.tagLabelIndices = new TObjectIntHashMap<>( 16, 0.5f, -1 );
+		this.errorLines = new TLongArrayList();
+		this.errorColumns = new ArrayList<>();
+		this.errorKinds = new ArrayList<>();
+		this.errorValues = new ArrayList<>();
+		this.parentIdHeader = null;
+		this.nLines = x.size();
+	}
+
+	/**
+	 * Returns the number of rows in this batch.
+	 *
+	 * @return the number of rows.
+	 */
+	int size()
+	{
+		return x.size();
+	}
+
+	/**
+	 * Parses all the remaining lines of the specified tokenizer into a new
+	 * batch.
+	 *
+	 * @param tokenizer
+	 *            the tokenizer to read from.
+	 * @param columns
+	 *            the columns to import.
+	 * @return a new batch.
+	 * @throws IOException
+	 *             if the file cannot be read.
+	 */
+	static SpotBatch parse( final CSVTokenizer tokenizer, final CSVColumns columns ) throws IOException
+	{
+		return parse( tokenizer, columns, Integer.MAX_VALUE );
+	}
+
+	/**
+	 * Parses at most the specified number of non-empty lines of the specified
+	 * tokenizer into a new batch.
+	 *
+	 * @param tokenizer
+	 *            the tokenizer to read from.
+	 * @param columns
+	 *            the columns to import.
+	 * @param maxLines
+	 *            the maximal number of lines to parse, including the ones
+	 *            that cannot be parsed.
+	 * @return a new batch.
+	 * @throws IOException
+	 *             if the file cannot be read.
+	 */
+	static SpotBatch parse( final CSVTokenizer tokenizer, final CSVColumns columns, final int maxLines ) throws IOException
+	{
+		final SpotBatch batch = new SpotBatch( columns );
+		tokenizer.setDecimalMark( columns.decimalMark );
+		final long firstLine = tokenizer.getLineNumber();
+		for ( int n = 0; n < maxLines; n++ )
+		{
+			if ( !tokenizer.next() )
+			{
+				batch.endOfInput = true;
+				break;
+			}
+
+			/*
+			 * Parse everything before storing anything, so that malformed rows
+			 * are skipped entirely. The lenient getters record the first error
+			 * of the line instead of throwing.
+			 */
+			final double xv = tokenizer.readDouble( columns.xcol ) + columns.xOrigin;
+			final double yv = tokenizer.readDouble( columns.ycol ) + columns.yOrigin;
+			final double zv = tokenizer.readDouble( columns.zcol ) + columns.zOrigin;
+			final int t = tokenizer.readInt( columns.framecol );
+			final double r = columns.radiuscol < 0 ? columns.radius : tokenizer.readDouble( columns.radiuscol );
+			final double q = columns.qualitycol < 0 ? 1. : tokenizer.readDouble( columns.qualitycol );
+			final long idv = columns.idcol < 0 ? NO_ID : readId( tokenizer, columns.idcol, columns.idType );
+			if ( tokenizer.hasError() )
+			{
+				batch.addError( tokenizer, columns, firstLine, tokenizer.getErrorColumn(), tokenizer.getErrorKind() );
+				continue;
+			}
+			if ( t < batch.minFrame )
+				batch.minFrame = t;
+			if ( t > batch.maxFrame )
+				batch.maxFrame = t;
+			if ( !columns.filter.accept( xv, yv, zv, t, columns.qualitycol < 0 ? Double.NaN : q, idv ) )
+			{
+				batch.nFiltered++;
+				continue;
+			}
+
+			// An invalid parent id does not prevent importing the spot.
+			long pid = NO_ID;
+			if ( columns.parentIdcol >= 0 )
+			{
+				pid = readParentId( tokenizer, columns.parentIdcol, columns.idType );
+				if ( tokenizer.hasError() )
+				{
+					batch.addError( tokenizer, columns, firstLine, columns.parentIdcol, ImportErrors.Kind.INVALID_PARENT_ID );
+					pid = NO_ID;
+				}
+			}
+
+			// Rows without a numeric track id, such as "None", are not in a track.
+			long tid = NO_ID;
+			if ( columns.trackcol >= 0 && !tokenizer.isEmpty( columns.trackcol ) )
+			{
+				tid = tokenizer.readLong( columns.trackcol );
+				if ( tokenizer.hasError() )
+				{
+					tokenizer.clearError();
+					tid = NO_ID;
+				}
+			}
+
+			batch.x.add( xv );
+			batch.y.add( yv );
+			batch.z.add( zv );
+			batch.frame.add( t );
+			if ( batch.radius != null )
+				batch.radius.add( r );
+			if ( batch.quality != null )
+				batch.quality.add( q );
+			if ( batch.id != null )
+				batch.id.add( idv );
+			if ( batch.parentId != null )
+				batch.parentId.add( pid );
+			if ( batch.trackId != null )
+				batch.trackId.add( tid );
+			if ( batch.labels != null )
+				batch.labels.add( tokenizer.getString( columns.labelcol >= 0 ? columns.labelcol : columns.idcol ) );
+			if ( batch.tag != null )
+				batch.tag.add( batch.tagIndex( tokenizer.getString( columns.tagcol ) ) );
+			for ( int c = 0; c < batch.extra.length; c++ )
+				batch.extra[ c ].add( tokenizer.getDoubleOrNaN( columns.extracols[ c ] ) );
+		}
+		batch.nLines = tokenizer.getLineNumber() - firstLine;
+		return batch;
+	}
+
+	private static long readId( final CSVTokenizer tokenizer, final int col, final CSVImporter.IdType idType )
+	{
+		switch ( idType )
+		{
+		case INT:
+			return tokenizer.readInt( col );
+		case LONG:
+			return tokenizer.readLong( col );
+		case STRING:
+			return tokenizer.getHash( col );
+		default:
+			throw new IllegalArgumentException( "Unknown id type: " + idType );
+		}
+	}
+
+	private static long readParentId( final CSVTokenizer tokenizer, final int col, final CSVImporter.IdType idType )
+	{
+		if ( tokenizer.isEmpty( col ) )
+			return NO_ID;
+		return readId( tokenizer, col, idType );
+	}
+
+	private void addError( final CSVTokenizer tokenizer, final CSVColumns columns, final long firstLine, final int col, final ImportErrors.Kind kind )
+	{
+		errorLines.add( tokenizer.getLineNumber() - firstLine );
+		errorColumns.add( columns.headers[ col ] );
+		errorKinds.add( kind );
+		errorValues.add( errorLines.size() <= ImportErrors.MAX_EXAMPLES && !tokenizer.isEmpty( col )
+				? tokenizer.getString( col )
+				: null );
+	}
+
+	private int tagIndex( final String label )
+	{
+		int index = tagLabelIndices.get( label );
+		if ( index < 0 )
+		{
+			index = tagLabels.size();
+			tagLabels.add( label );
+			tagLabelIndices.put( label, index );
+		}
+		return index;
+	}
+}
@@ -0,0 +1,1067 @@
+/*-
+ * #%L
+ * mastodon-pasteur
+ * %%
+ * Copyright (C) 2019 - 2025 Tobias Pietzsch, Jean-Yves Tinevez
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package org.mastodon.mamut.io.csv;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.locks.ReentrantReadWriteLock.WriteLock;
+import java.util.stream.Collectors;
+
+import org.apache.commons.lang3.tuple.Pair;
+import org.mastodon.RefPool;
+import org.mastodon.feature.Feature;
+import org.mastodon.feature.FeatureSpec;
+import org.mastodon.mamut.io.csv.CSVImporter.IdType;
+import org.mastodon.mamut.io.csv.CSVImporter.MergeMode;
+import org.mastodon.mamut.io.csv.CSVImporter.OriginalIdFeature;
+import org.mastodon.mamut.io.csv.CSVImporter.OriginalLongIdFeature;
+import org.mastodon.mamut.model.Link;
+import org.mastodon.mamut.model.Model;
+import org.mastodon.mamut.model.ModelGraph;
+import org.mastodon.mamut.model.Spot;
+import org.mastodon.model.tag.ObjTagMap;
+import org.mastodon.model.tag.ObjTags;
+import org.mastodon.model.tag.TagSetStructure;
+import org.mastodon.tracking.mamut.detection.DetectionQualityFeature;
+import org.mastodon.ui.ProgressListener;
+import org.mastodon.ui.coloring.GlasbeyLut;
+import org.mastodon.util.TagSetUtils;
+import org.scijava.Cancelable;
+
+import gnu.trove.list.array.TIntArrayList;
+import gnu.trove.list.array.TLongArrayList;
+import gnu.trove.map.hash.TObjectIntHashMap;
+
+/**
+ * Creates the spots from parsed batches, and the links and tags.
+ * <p>
+ * By default, the graph write lock is acquired when the first batch is
+ * inserted and held until {@link #release()} is called, with the graph
+ * listeners paused. In incremental mode, the lock is released every
+ * <code>commitBatchSize</code> spots. The graph listeners are then not
+ * paused, so that the views and the spatial index follow the import, and the
+ * links whose parent spot already exists are created before each release.
+ * <p>
+ * Progress is reported after each batch, from the number of input bytes
+ * inserted so far. The import can be canceled between two batches. The spots
+ * inserted so far are then kept, and their links and tags are created, so
+ * that the model stays consistent.
+ * <p>
+ * When a {@link CSVTailState} is specified, the spots are indexed by id in
+ * the index of this state, so that the links of the rows appended to the file
+ * later can be resolved against them. The state is advanced past the inserted
+ * batches on return.
+ * <p>
+ * When merging, the spots of the model with an original id are indexed once
+ * when the lock is first acquired, and the rows with the same id update them
+ * instead of creating new spots, so that merging takes a time proportional to
+ * the number of rows and spots. The graph listeners are then not paused, so
+ * that only the spots that moved are notified, and only their computed
+ * features are invalidated.
+ * <p>
+ * This class is shared by the importers of this package, so that the spots,
+ * their features and tags are created the same way whatever the file format.
+ */
+final class SpotBatchInserter
+{
+
+	/**
+	 * Resolution of the progress reported to the listener.
+	 */
+	private static final int PROGRESS_STEPS = 1000;
+
+	/**
+	 * Name of the tag set created for the imported tags.
+	 */
+	static final String TAG_SET_NAME = "Imported Tags";
+
+	private final Model model;
+
+	private final ModelGraph graph;
+
+	private final RefPool< Spot > spotPool;
+
+	private final double radius;
+
+	private final boolean importTags;
+
+	private final int commitBatchSize;
+
+	private final ImportStatistics statistics;
+
+	private final ImportErrors errors;
+
+	private final boolean reportMissingParents;
+
+	private final IdType idType;
+
+	/**
+	 * Header of the parent id column, to report the unknown parents.
+	 */
+	private String parentIdHeader = "parent id";
+
+	private final Runnable startImport;
+
+	private final Runnable finishImport;
+
+	private final ProgressListener progressListener;
+
+	private final long totalBytes;
+
+	/**
+	 * Number of rows expected, and of spots the model is expected to hold
+	 * once they are inserted, to size the structures storing them.
+	 */
+	private final long expectedRows;
+
+	private final int expectedSpots;
+
+	/**
+	 * Whether the id index was sized for the expected rows.
+	 */
+	private boolean idIndexReserved = false;
+
+	private final Cancelable cancelable;
+
+	private final CSVTailState tail;
+
+	private final CSVImportSession session;
+
+	private final MergeMode mergeMode;
+
+	/**
+	 * Whether the spots without label are labeled with their id.
+	 */
+	private final boolean materializeLabels;
+
+	/**
+	 * Marks the spots left without label, <code>null</code> if labels are
+	 * stored and no previous import left spots without label.
+	 */
+	private final ImportedLabels.UnstoredLabels unstoredLabels;
+
+	/**
+	 * Whether the graph listeners are paused during the import, the graph
+	 * being rebuilt at the end.
+	 */
+	private final boolean pauseListeners;
+
+	/**
+	 * The pool index and id of the spots that had an original id when
+	 * merging started, and the ones matched by a row so far.
+	 */
+	private final TIntArrayList existingSpots = new TIntArrayList();
+
+	private final TLongArrayList existingIds = new TLongArrayList();
+
+	private final BitSet matchedSpots = new BitSet();
+
+	/**
+	 * The features of the spots that are not set by the import, invalidated
+	 * on the spots that change when merging, and the features of the links,
+	 * invalidated on the links of these spots.
+	 */
+	private final List< Feature< Spot > > computedFeatures = new ArrayList<>();
+
+	private final List< Feature< Link > > computedLinkFeatures = new ArrayList<>();
+
+	private final double[][] cov = new double[ 3 ][ 3 ];
+
+	private long spotsUpdated = 0;
+
+	private long spotsRemoved = 0;
+
+	/**
+	 * Number of input bytes inserted so far.
+	 */
+	private long bytesDone = 0;
+
+	/**
+	 * Id of the last spot inserted, -1 if none.
+	 */
+	private long lastId = -1;
+
+	private final DetectionQualityFeature qualityFeature;
+
+	/**
+	 * Where the ids are stored: the first one for 32-bit ids, the second one
+	 * otherwise. Both are <code>null</code> if there are no ids.
+	 */
+	private final OriginalIdFeature originalIdFeature;
+
+	private final OriginalLongIdFeature originalLongIdFeature;
+
+	private final SpotIdIndex idIndex;
+
+	/**
+	 * Headers of the extra columns, and the projections storing them, created
+	 * on the first number found in each column.
+	 */
+	private final String[] extraNames;
+
+	private final ImportedColumnsFeature.ColumnProjection[] extraProjections;
+
+	/**
+	 * Tag labels of all batches, in the order they appear in the file.
+	 */
+	private final List< String > tagLabels = new ArrayList<>();
+
+	private final TObjectIntHashMap< String > tagLabelIndices = new TObjectIntHashMap<>( 16, 0.5f, -1 );
+
+	/**
+	 * Pool index of tagged spots, and index of their tag label.
+	 */
+	private final TIntArrayList taggedSpots = new TIntArrayList();
+
+	private final TIntArrayList spotTagIndices = new TIntArrayList();
+
+	/**
+	 * Pool index of spots with a parent not linked yet, and the id of their
+	 * parent.
+	 */
+	private final TIntArrayList childSpots = new TIntArrayList();
+
+	private final TLongArrayList parentIds = new TLongArrayList();
+
+	/**
+	 * Links the spots by track id, created on the first batch with track ids.
+	 */
+	private TrackLinker trackLinker;
+
+	private final WriteLock lock;
+
+	private final boolean incremental;
+
+	private final Spot vref;
+
+	private final Spot parentVertexRef;
+
+	/**
+	 * The spot replacing a merged spot whose frame changed.
+	 */
+	private final Spot replacementRef;
+
+	private final Link edgeRef;
+
+	private final double[] pos = new double[ 3 ];
+
+	/**
+	 * Number of lines before the current batch, used to report the line
+	 * number of malformed rows.
+	 */
+	private long lineOffset;
+
+	private boolean locked = false;
+
+	private boolean started = false;
+
+	private int rowsSinceCommit = 0;
+
+	/**
+	 * Creates a new inserter.
+	 *
+	 * @param model
+	 *            the model to import into.
+	 * @param radius
+	 *            the radius of spots for which it is not specified.
+	 * @param importQuality
+	 *            whether the batches contain a quality value.
+	 * @param idType
+	 *            the type of the ids of the batches, or <code>null</code> if
+	 *            they do not contain ids. 32-bit ids are stored in the
+	 *            {@link OriginalIdFeature}, the others in the
+	 *            {@link OriginalLongIdFeature}.
+	 * @param importTags
+	 *            whether the batches contain a tag.
+	 * @param extraNames
+	 *            the headers of the extra columns of the batches, stored in
+	 *            the {@link ImportedColumnsFeature}.
+	 * @param commitBatchSize
+	 *            the number of spots to add between each release of the
+	 *            write lock, or 0 to hold it during the whole import.
+	 * @param statistics
+	 *            the statistics to record the insertion times in.
+	 * @param errors
+	 *            the collector to report the errors of the rows to.
+	 * @param reportMissingParents
+	 *            whether the parent ids that match no spot are reported as
+	 *            errors. They are expected when only some rows of the file
+	 *            are imported.
+	 * @param lineOffset
+	 *            the number of lines before the first batch.
+	 * @param startImport
+	 *            called when the lock is first acquired, if not in
+	 *            incremental mode.
+	 * @param finishImport
+	 *            called on release, if not in incremental mode.
+	 * @param progressListener
+	 *            the listener to report progress to.
+	 * @param totalBytes
+	 *            the number of input bytes to import, used to compute the
+	 *            progress.
+	 * @param expectedRows
+	 *            the number of rows expected, to size the structures storing
+	 *            the spots before the first one is inserted, or 0 if it is
+	 *            unknown.
+	 * @param cancelable
+	 *            checked between batches to stop the import.
+	 * @param tail
+	 *            the state of the imports of a growing file, or
+	 *            <code>null</code>.
+	 * @param session
+	 *            the state shared with the previous imports, the tail state
+	 *            if any, or <code>null</code>.
+	 * @param mergeMode
+	 *            how the batches are combined with the spots of the model.
+	 *            Merging requires ids, and no session.
+	 * @param materializeLabels
+	 *            whether the spots of the batches without labels are labeled
+	 *            with their id, or left without label, see
+	 *            {@link ImportedLabels}.
+	 */
+	SpotBatchInserter(
+			final Model model,
+			final double radius,
+			final boolean importQuality,
+			final IdType idType,
+			final boolean importTags,
+			final String[] extraNames,
+			final int commitBatchSize,
+			final ImportStatistics statistics,
+			final ImportErrors errors,
+			final boolean reportMissingParents,
+			final long lineOffset,
+			final Runnable startImport,
+			final Runnable finishImport,
+			final ProgressListener progressListener,
+			final long totalBytes,
+			final long expectedRows,
+			final Cancelable cancelable,
+			final CSVTailState tail,
+			final CSVImportSession session,
+			final MergeMode mergeMode,
+			final boolean materializeLabels )
+	{
+		this.model = model;
+		this.radius = radius;
+		this.importTags = importTags;
+		this.extraNames = extraNames;
+		this.extraProjections = new ImportedColumnsFeature.ColumnProjection[ extraNames.length ];
+		this.commitBatchSize = commitBatchSize;
+		this.statistics = statistics;
+		this.errors = errors;
+		this.reportMissingParents = reportMissingParents;
+		this.idType = idType;
+		this.lineOffset = lineOffset;
+		this.startImport = startImport;
+		this.finishImport = finishImport;
+		this.progressListener = progressListener;
+		this.totalBytes = totalBytes;
+		this.expectedRows = expectedRows;
+		this.cancelable = cancelable;
+		this.tail = tail;
+		this.session = session;
+		this.mergeMode = mergeMode;
+		this.materializeLabels = materializeLabels;
+		this.graph = model.getGraph();
+		this.spotPool = graph.vertices().getRefPool();
+		this.expectedSpots = ( int ) Math.min( Integer.MAX_VALUE - 8, graph.vertices().size() + expectedRows );
+		this.unstoredLabels = materializeLabels
+				? ( ImportedLabels.UnstoredLabels ) model.getFeatureModel().getFeature( ImportedLabels.UnstoredLabels.SPEC )
+				: ImportedLabels.UnstoredLabels.getOrRegister( model.getFeatureModel(), graph.vertices(), expectedSpots );
+		statistics.setRowsEstimated( expectedRows );
+		this.qualityFeature = importQuality
+				? DetectionQualityFeature.getOrRegister( model.getFeatureModel(), spotPool )
+				: null;
+		this.originalIdFeature = idType == IdType.INT
+				? OriginalIdFeature.getOrRegister( model.getFeatureModel(), spotPool, expectedSpots )
+				: null;
+		this.originalLongIdFeature = idType == IdType.LONG || idType == IdType.STRING
+				? OriginalLongIdFeature.getOrRegister( model.getFeatureModel(), graph.vertices(), expectedSpots )
+				: null;
+		this.idIndex = null == session
+				? new SpotIdIndex()
+				: session.idIndex();
+		this.lock = graph.getLock().writeLock();
+		this.incremental = commitBatchSize > 0;
+		this.pauseListeners = !incremental && mergeMode == MergeMode.APPEND;
+		this.vref = graph.vertexRef();
+		this.parentVertexRef = graph.vertexRef();
+		this.replacementRef = graph.vertexRef();
+		this.edgeRef = graph.edgeRef();
+	}
+
+	/**
+	 * Runs the specified parsing tasks on the specified executor, and inserts
+	 * the batches they return, in the order of the tasks. Then creates the
+	 * links and tags, and releases this inserter. At most
+	 * <code>capacity</code> batches are parsed ahead of insertion. Batches
+	 * returned by tasks submitted after the end of the input are expected to
+	 * be empty. The executor is shut down on return.
+	 * <p>
+	 * If the import is canceled, the remaining tasks are abandoned, and the
+	 * links and tags of the spots inserted so far are created.
+	 *
+	 * @param executor
+	 *            the executor to run the tasks on.
+	 * @param capacity
+	 *            the maximal number of batches waiting for insertion.
+	 * @param tasks
+	 *            the parsing tasks, in insertion order.
+	 * @throws IOException
+	 *             if a task fails.
+	 */
+	void insertAll( final ExecutorService executor, final int capacity, final Iterator< Callable< SpotBatch > > tasks ) throws IOException
+	{
+		final ArrayDeque< Future< SpotBatch > > queue = new ArrayDeque<>( capacity );
+		try
+		{
+			while ( ( tasks.hasNext() || !queue.isEmpty() ) && !cancelable.isCanceled() )
+			{
+				// Keep the parsing threads busy, up to the queue capacity.
+				while ( tasks.hasNext() && queue.size() < capacity )
+					queue.add( executor.submit( tasks.next() ) );
+
+				final long t0 = System.nanoTime();
+				final SpotBatch batch = queue.poll().get();
+				statistics.addWait( System.nanoTime() - t0 );
+
+				insert( batch );
+				reportProgress( batch );
+			}
+			progressListener.showStatus( "Creating links and tags." );
+			resolveLinksAndTags();
+		}
+		catch ( final InterruptedException e )
+		{
+			Thread.currentThread().interrupt();
+			throw new IOException( "Interrupted while importing.", e );
+		}
+		catch ( final ExecutionException e )
+		{
+			final Throwable cause = e.getCause();
+			if ( cause instanceof IOException )
+				throw ( IOException ) cause;
+			throw new IOException( cause );
+		}
+		finally
+		{
+			if ( null != tail )
+			{
+				tail.offset += bytesDone;
+				tail.lineNumber = lineOffset;
+				if ( lastId >= 0 )
+					tail.lastId = lastId;
+			}
+			release();
+			executor.shutdownNow();
+			progressListener.clearStatus();
+		}
+	}
+
+	private void reportProgress( final SpotBatch batch )
+	{
+		bytesDone += batch.nBytes;
+		final double fraction = totalBytes > 0 ? Math.min( 1., ( double ) bytesDone / totalBytes ) : 0.;
+		progressListener.showProgress( ( int ) ( PROGRESS_STEPS * fraction ), PROGRESS_STEPS );
+		progressListener.showStatus( String.format( Locale.ROOT, "Imported %d spots: %.0f rows/s, %.1f MB/s.",
+				statistics.getRowsInserted(), statistics.getRowsPerSecond(), statistics.getBytesPerSecond() / 1e6 ) );
+	}
+
+	private void lock()
+	{
+		if ( locked )
+			return;
+		lock.lock();
+		locked = true;
+		if ( !started )
+		{
+			if ( pauseListeners )
+				startImport.run();
+			if ( mergeMode != MergeMode.APPEND )
+				indexExistingSpots();
+		}
+		started = true;
+	}
+
+	/**
+	 * Indexes the spots of the model by their original id, and lists the
+	 * features to invalidate on the spots that change.
+	 */
+	private void indexExistingSpots()
+	{
+		reserveIdIndex( graph.vertices().size() );
+		for ( final Spot spot : graph.vertices() )
+		{
+			final long id;
+			if ( null != originalIdFeature )
+			{
+				if ( !originalIdFeature.isSet( spot ) )
+					continue;
+				id = originalIdFeature.value( spot );
+			}
+			else
+			{
+				if ( !originalLongIdFeature.isSet( spot ) )
+					continue;
+				id = originalLongIdFeature.value( spot );
+			}
+			idIndex.put( id, spot.getInternalPoolIndex() );
+			existingSpots.add( spot.getInternalPoolIndex() );
+			existingIds.add( id );
+		}
+
+		for ( final FeatureSpec< ?, ? > spec : model.getFeatureModel().getFeatureSpecs() )
+		{
+			if ( Link.class.equals( spec.getTargetClass() ) )
+			{
+				@SuppressWarnings( "unchecked" )
+				final Feature< Link > feature = ( Feature< Link > ) model.getFeatureModel().getFeature( spec );
+				if ( null != feature )
+					computedLinkFeatures.add( feature );
+				continue;
+			}
+			if ( !Spot.class.equals( spec.getTargetClass() )
+					|| spec == DetectionQualityFeature.SPEC
+					|| spec == OriginalIdFeature.SPEC
+					|| spec == OriginalLongIdFeature.SPEC
+					|| spec == ImportedColumnsFeature.SPEC )
+				continue;
+			@SuppressWarnings( "unchecked" )
+			final Feature< Spot > feature = ( Feature< Spot > ) model.getFeatureModel().getFeature( spec );
+			if ( null != feature )
+				computedFeatures.add( feature );
+		}
+	}
+
+	/**
+	 * Updates the spot with the specified id, if there is one in the same
+	 * frame, with the position in {@link #pos} and the specified radius.
+	 *
+	 * @return the spot, or <code>null</code> if a new spot must be created.
+	 */
+	private Spot update( final long id, final int frame, final double r )
+	{
+		final int index = idIndex.get( id );
+		if ( index < 0 )
+			return null;
+		final Spot spot = spotPool.getObject( index, vref );
+		if ( !isIndexed( spot, id ) )
+			return null;
+		matchedSpots.set( index );
+
+		if ( spot.getTimepoint() != frame )
+		{
+			spotsUpdated++;
+			return replace( spot, frame, r );
+		}
+
+		boolean changed = false;
+		if ( spot.getDoublePosition( 0 ) != pos[ 0 ] || spot.getDoublePosition( 1 ) != pos[ 1 ] || spot.getDoublePosition( 2 ) != pos[ 2 ] )
+		{
+			spot.setPosition( pos );
+			graph.notifyVertexPositionChanged( spot );
+			changed = true;
+		}
+		if ( spot.getBoundingSphereRadiusSquared() != r * r )
+		{
+			for ( int d = 0; d < 3; d++ )
+				cov[ d ][ d ] = r * r;
+			spot.setCovariance( cov );
+			changed = true;
+		}
+		if ( changed )
+		{
+			for ( final Feature< Spot > feature : computedFeatures )
+				feature.invalidate( spot );
+			for ( final Link link : spot.edges() )
+				for ( final Feature< Link > feature : computedLinkFeatures )
+					feature.invalidate( link );
+			spotsUpdated++;
+		}
+		return spot;
+	}
+
+	/**
+	 * Replaces the specified spot by a new spot in the specified frame, with
+	 * the position in {@link #pos} and the specified radius, as the frame of
+	 * a spot cannot change. The label, the tags and the links of the spot are
+	 * moved to the new spot, the links keeping their tags.
+	 *
+	 * @return the new spot.
+	 */
+	private Spot replace( final Spot spot, final int frame, final double r )
+	{
+		final Spot replacement = graph.addVertex( replacementRef ).init( frame, pos, r );
+		final String label = spot.getLabel();
+		if ( null != unstoredLabels && unstoredLabels.isUnstored( spot, label ) )
+			unstoredLabels.mark( replacement );
+		else
+			replacement.setLabel( label );
+		final ObjTags< Spot > vertexTags = model.getTagSetModel().getVertexTags();
+		final ObjTags< Link > edgeTags = model.getTagSetModel().getEdgeTags();
+		final List< TagSetStructure.TagSet > tagSets = model.getTagSetModel().getTagSetStructure().getTagSets();
+		for ( final TagSetStructure.TagSet tagSet : tagSets )
+		{
+			final TagSetStructure.Tag tag = vertexTags.tags( tagSet ).get( spot );
+			if ( null != tag )
+				vertexTags.tags( tagSet ).set( replacement, tag );
+		}
+
+		for ( final Link link : spot.incomingEdges() )
+			copyTags( edgeTags, tagSets, link, graph.addEdge( link.getSource( parentVertexRef ), replacement, edgeRef ).init() );
+		for ( final Link link : spot.outgoingEdges() )
+			copyTags( edgeTags, tagSets, link, graph.addEdge( replacement, link.getTarget( parentVertexRef ), edgeRef ).init() );
+		graph.remove( spot );
+		return replacement;
+	}
+
+	private static void copyTags( final ObjTags< Link > edgeTags, final List< TagSetStructure.TagSet > tagSets, final Link from, final Link to )
+	{
+		for ( final TagSetStructure.TagSet tagSet : tagSets )
+		{
+			final TagSetStructure.Tag tag = edgeTags.tags( tagSet ).get( from );
+			if ( null != tag )
+				edgeTags.tags( tagSet ).set( to, tag );
+		}
+	}
+
+	/**
+	 * Links what can be linked, releases the write lock and notifies the
+	 * listeners that the graph changed.
+	 */
+	private void commit()
+	{
+		linkPending();
+		rowsSinceCommit = 0;
+		lock.unlock();
+		locked = false;
+		graph.notifyGraphChanged();
+	}
+
+	private void insert( final SpotBatch batch )
+	{
+		final long t0 = System.nanoTime();
+		lock();
+
+		final long firstLine = null == batch.source ? lineOffset : batch.sourceLine;
+		for ( int i = 0; i < batch.errorLines.size(); i++ )
+			errors.add( batch.errorKinds.get( i ), batch.errorColumns.get( i ), batch.source,
+					firstLine + batch.errorLines.getQuick( i ), batch.errorValues.get( i ) );
+		if ( null == batch.source )
+			lineOffset += batch.nLines;
+		if ( null != batch.parentIdHeader )
+			parentIdHeader = batch.parentIdHeader;
+
+		// Map the tag labels of this batch to the global ones.
+		final int[] tagMap = new int[ batch.tagLabels.size() ];
+		for ( int i = 0; i < tagMap.length; i++ )
+		{
+			final String label = batch.tagLabels.get( i );
+			int tagIndex = tagLabelIndices.get( label );
+			if ( tagIndex < 0 )
+			{
+				tagIndex = tagLabels.size();
+				tagLabels.add( label );
+				tagLabelIndices.put( label, tagIndex );
+			}
+			tagMap[ i ] = tagIndex;
+		}
+
+		if ( null != batch.id && null != batch.parentId )
+			reserveIdIndex( idIndex.size() );
+
+		for ( int i = 0; i < batch.size(); i++ )
+		{
+			if ( incremental && rowsSinceCommit >= commitBatchSize )
+			{
+				commit();
+				lock();
+			}
+
+			pos[ 0 ] = batch.x.getQuick( i );
+			pos[ 1 ] = batch.y.getQuick( i );
+			pos[ 2 ] = batch.z.getQuick( i );
+			final double r = null == batch.radius ? radius : batch.radius.getQuick( i );
+			Spot spot = mergeMode == MergeMode.APPEND || null == batch.id ? null : update( batch.id.getQuick( i ), batch.frame.getQuick( i ), r );
+			if ( null == spot )
+				spot = graph.addVertex( vref ).init( batch.frame.getQuick( i ), pos, r );
+			rowsSinceCommit++;
+
+			if ( null != batch.id )
+			{
+				final long id = batch.id.getQuick( i );
+				if ( null != originalIdFeature )
+					originalIdFeature.set( spot, ( int ) id );
+				else
+					originalLongIdFeature.set( spot, id );
+				lastId = id;
+				if ( null != batch.parentId || mergeMode != MergeMode.APPEND )
+					idIndex.put( id, spot.getInternalPoolIndex() );
+				if ( null != batch.parentId )
+				{
+					final long parentId = batch.parentId.getQuick( i );
+					if ( parentId != SpotBatch.NO_ID )
+					{
+						childSpots.add( spot.getInternalPoolIndex() );
+						parentIds.add( parentId );
+					}
+				}
+				if ( null == batch.labels )
+				{
+					if ( materializeLabels )
+						setLabel( spot, "" + id );
+					else
+						unstoredLabels.mark( spot );
+				}
+			}
+
+			if ( null != batch.trackId )
+			{
+				final long trackId = batch.trackId.getQuick( i );
+				if ( trackId != SpotBatch.NO_ID )
+				{
+					if ( null == trackLinker )
+					{
+						final int capacity = ( int ) Math.min( Integer.MAX_VALUE - 8, expectedRows );
+						trackLinker = null == session
+								? new TrackLinker( capacity )
+								: session.trackLinker( spotPool, capacity );
+					}
+					trackLinker.add( trackId, batch.frame.getQuick( i ), spot.getInternalPoolIndex() );
+				}
+			}
+
+			if ( null != batch.labels )
+				setLabel( spot, batch.labels.get( i ) );
+
+			if ( null != batch.quality )
+				qualityFeature.set( spot, batch.quality.getQuick( i ) );
+
+			for ( int c = 0; c < batch.extra.length; c++ )
+			{
+				final double v = batch.extra[ c ].getQuick( i );
+				if ( !Double.isNaN( v ) )
+					extraProjection( c ).set( spot, v );
+			}
+
+			if ( null != batch.tag && batch.tag.getQuick( i ) >= 0 )
+			{
+				taggedSpots.add( spot.getInternalPoolIndex() );
+				spotTagIndices.add( tagMap[ batch.tag.getQuick( i ) ] );
+			}
+		}
+		statistics.addInserted( batch.size(), batch.nBytes, System.nanoTime() - t0 );
+	}
+
+	private void setLabel( final Spot spot, final String label )
+	{
+		if ( null != unstoredLabels )
+			unstoredLabels.unmark( spot );
+		if ( !label.equals( spot.getLabel() ) )
+			spot.setLabel( label );
+	}
+
+	private ImportedColumnsFeature.ColumnProjection extraProjection( final int c )
+	{
+		if ( null == extraProjections[ c ] )
+			extraProjections[ c ] = ImportedColumnsFeature
+					.getOrRegister( model.getFeatureModel(), graph.vertices() )
+					.getOrAdd( extraNames[ c ], expectedSpots );
+		return extraProjections[ c ];
+	}
+
+	/**
+	 * Sizes the id index, once, to hold the ids of the expected rows on top
+	 * of the specified number of ids, so that it does not grow during the
+	 * import.
+	 */
+	private void reserveIdIndex( final long nIds )
+	{
+		if ( idIndexReserved )
+			return;
+		idIndex.reserve( nIds + expectedRows );
+		idIndexReserved = true;
+	}
+
+	/**
+	 * Creates the links whose parent spot exists, and keeps the others
+	 * for later.
+	 */
+	private void linkPending()
+	{
+		int kept = 0;
+		for ( int i = 0; i < childSpots.size(); i++ )
+		{
+			final int childIndex = childSpots.getQuick( i );
+			final long parentId = parentIds.getQuick( i );
+			final int parentIndex = idIndex.get( parentId );
+			final Spot parent = parentIndex < 0 ? null : spotPool.getObject( parentIndex, parentVertexRef );
+			if ( parent != null && isIndexed( parent, parentId ) )
+			{
+				final Spot spot = spotPool.getObject( childIndex, vref );
+				if ( mergeMode == MergeMode.APPEND )
+					graph.addEdge( parent, spot, edgeRef ).init();
+				else
+					relink( parent, spot );
+			}
+			else
+			{
+				childSpots.setQuick( kept, childIndex );
+				parentIds.setQuick( kept, parentId );
+				kept++;
+			}
+		}
+		childSpots.remove( kept, childSpots.size() - kept );
+		parentIds.remove( kept, parentIds.size() - kept );
+	}
+
+	/**
+	 * Links a merged spot to its parent, if not linked yet, replacing its
+	 * other incoming links.
+	 */
+	private void relink( final Spot parent, final Spot spot )
+	{
+		if ( null != graph.getEdge( parent, spot, edgeRef ) )
+			return;
+		while ( !spot.incomingEdges().isEmpty() )
+			graph.remove( spot.incomingEdges().iterator().next() );
+		graph.addEdge( parent, spot, edgeRef ).init();
+	}
+
+	/**
+	 * Returns whether the specified spot, found in the id index, still has the
+	 * specified id. The spots indexed by a previous import of the session, or
+	 * before merging, may have been deleted since, and their pool index
+	 * reused.
+	 */
+	private boolean isIndexed( final Spot spot, final long id )
+	{
+		if ( null == session && mergeMode == MergeMode.APPEND )
+			return true;
+		if ( null != originalIdFeature )
+			return originalIdFeature.isSet( spot ) && originalIdFeature.value( spot ) == id;
+		return originalLongIdFeature.isSet( spot ) && originalLongIdFeature.value( spot ) == id;
+	}
+
+	/**
+	 * Creates the remaining links and the tags, now that all spots exist.
+	 * Spots whose parent cannot be found are left unlinked, and reported if
+	 * the whole file is imported. Spots with a track id are linked to the
+	 * spots of the same track inserted by this inserter.
+	 */
+	private void resolveLinksAndTags()
+	{
+		final long t0 = System.nanoTime();
+		lock();
+
+		linkPending();
+		for ( int i = 0; reportMissingParents && i < parentIds.size(); i++ )
+		{
+			// Only format the first ones, that are kept.
+			final String value = idType != IdType.STRING && errors.getCount() < ImportErrors.MAX_EXAMPLES
+					? Long.toString( parentIds.getQuick( i ) )
+					: null;
+			errors.add( ImportErrors.Kind.PARENT_NOT_FOUND, parentIdHeader, null, -1, value );
+		}
+		childSpots.clear();
+		parentIds.clear();
+
+		if ( null != trackLinker )
+			trackLinker.link( graph, spotPool );
+
+		if ( mergeMode == MergeMode.MERGE_AND_REMOVE && !cancelable.isCanceled() )
+			removeMissingSpots();
+		statistics.addMerged( spotsUpdated, spotsRemoved );
+
+		if ( importTags && !( null != session && taggedSpots.isEmpty() ) )
+		{
+			model.getTagSetModel().pauseListeners();
+			try
+			{
+				tagSpotsAndLinks();
+			}
+			finally
+			{
+				model.getTagSetModel().resumeListeners();
+			}
+		}
+		statistics.addLinking( System.nanoTime() - t0 );
+	}
+
+	/**
+	 * Removes the spots that had an original id before merging and were not
+	 * matched by any row.
+	 */
+	private void removeMissingSpots()
+	{
+		for ( int i = 0; i < existingSpots.size(); i++ )
+		{
+			final int index = existingSpots.getQuick( i );
+			if ( matchedSpots.get( index ) )
+				continue;
+			final Spot spot = spotPool.getObject( index, vref );
+			if ( !isIndexed( spot, existingIds.getQuick( i ) ) )
+				continue;
+			graph.remove( spot );
+			spotsRemoved++;
+		}
+	}
+
+	/**
+	 * Creates the tag set and tags the spots and their incoming links. The
+	 * tags are resolved once from their labels in a table indexed like
+	 * {@link #tagLabels}, and written directly in the tag maps.
+	 * <p>
+	 * Within a session, the tag set of the previous imports is reused if it
+	 * still exists. When merging, the last tag set of the model named
+	 * {@value #TAG_SET_NAME} is reused, so that merging the same file again
+	 * does not duplicate it. The tags missing from a reused tag set are added
+	 * to it.
+	 */
+	private void tagSpotsAndLinks()
+	{
+		final TagSetStructure.Tag[] tags = new TagSetStructure.Tag[ tagLabels.size() ];
+		final List< TagSetStructure.TagSet > tagSets = model.getTagSetModel().getTagSetStructure().getTagSets();
+		TagSetStructure.TagSet importedTagSet = null;
+		if ( null != session && tagSets.contains( session.tagSet ) )
+			importedTagSet = session.tagSet;
+		else if ( mergeMode != MergeMode.APPEND )
+			for ( final TagSetStructure.TagSet tagSet : tagSets )
+				if ( TAG_SET_NAME.equals( tagSet.getName() ) )
+					importedTagSet = tagSet;
+
+		if ( null == importedTagSet )
+			importedTagSet = createTagSet( tagLabels );
+		else if ( !findTags( importedTagSet, tags ) )
+			importedTagSet = addMissingTags( tagSets.indexOf( importedTagSet ) );
+		findTags( importedTagSet, tags );
+		if ( null != session )
+			session.tagSet = importedTagSet;
+
+		final ObjTagMap< Spot, TagSetStructure.Tag > spotTags = model.getTagSetModel().getVertexTags().tags( importedTagSet );
+		for ( int i = 0; i < taggedSpots.size(); i++ )
+		{
+			final Spot spot = spotPool.getObject( taggedSpots.getQuick( i ), vref );
+			spotTags.set( spot, tags[ spotTagIndices.getQuick( i ) ] );
+		}
+
+		// Links take the tag of their target spot.
+		final ObjTagMap< Link, TagSetStructure.Tag > linkTags = model.getTagSetModel().getEdgeTags().tags( importedTagSet );
+		for ( int i = 0; i < taggedSpots.size(); i++ )
+		{
+			final Spot spot = spotPool.getObject( taggedSpots.getQuick( i ), vref );
+			final TagSetStructure.Tag tag = tags[ spotTagIndices.getQuick( i ) ];
+			for ( final Link link : spot.incomingEdges() )
+				linkTags.set( link, tag );
+		}
+	}
+
+	/**
+	 * Resolves the tags of {@link #tagLabels} in the specified tag set.
+	 *
+	 * @return <code>false</code> if a tag is missing.
+	 */
+	private boolean findTags( final TagSetStructure.TagSet tagSet, final TagSetStructure.Tag[] tags )
+	{
+		for ( int i = 0; i < tags.length; i++ )
+		{
+			tags[ i ] = TagSetUtils.findTag( tagSet, tagLabels.get( i ) );
+			if ( null == tags[ i ] )
+				return false;
+		}
+		return true;
+	}
+
+	private void release()
+	{
+		graph.releaseRef( vref );
+		graph.releaseRef( parentVertexRef );
+		graph.releaseRef( replacementRef );
+		graph.releaseRef( edgeRef );
+		if ( locked )
+		{
+			lock.unlock();
+			locked = false;
+		}
+		if ( !started )
+			return;
+		if ( pauseListeners )
+			finishImport.run();
+		else
+			graph.notifyGraphChanged();
+	}
+
+	/**
+	 * Adds the tags of {@link #tagLabels} missing from the tag set at the
+	 * specified index of the model, with the next colors of the Glasbey LUT.
+	 *
+	 * @return the updated tag set.
+	 */
+	private TagSetStructure.TagSet addMissingTags( final int index )
+	{
+		final TagSetStructure structure = new TagSetStructure();
+		structure.set( model.getTagSetModel().getTagSetStructure() );
+		final TagSetStructure.TagSet tagSet = structure.getTagSets().get( index );
+		final GlasbeyLut glasbeyLut = new GlasbeyLut();
+		for ( int i = 0; i < tagSet.getTags().size(); i++ )
+			glasbeyLut.next();
+		for ( final String label : tagLabels )
+			if ( null == TagSetUtils.findTag( tagSet, label ) )
+				tagSet.createTag( label, glasbeyLut.next() );
+		model.getTagSetModel().setTagSetStructure( structure );
+		return model.getTagSetModel().getTagSetStructure().getTagSets().get( index );
+	}
+
+	/**
+	 * Creates a new tag set in the model with the specified tag labels, each
+	 * tag receiving a color from the Glasbey LUT.
+	 *
+	 * @param labels
+	 *            the tag labels, in the order they should appear in the tag
+	 *            set.
+	 * @return the new tag set.
+	 */
+	private TagSetStructure.TagSet createTagSet( final List< String > labels )
+	{
+		final GlasbeyLut glasbeyLut = new GlasbeyLut();
+		final List< Pair< String, Integer > > tagsAndColors =
+				labels.stream().map( tag -> Pair.of( tag, glasbeyLut.next() ) ).collect( Collectors.toList() );
+		return TagSetUtils.addNewTagSetToModel( model, TAG_SET_NAME, tagsAndColors );
+	}
+}
@@ -0,0 +1,203 @@
+/*-
+ * #%L
+ * mastodon-pasteur
+ * %%
+ * Copyright (C) 2019 - 2025 Tobias Pietzsch, Jean-Yves Tinevez
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package org.mastodon.mamut.io.csv;
+
+import java.util.Arrays;
+
+/**
+ * Selects the rows to import from their parsed values, before any spot is
+ * created.
+ * <p>
+ * Rows can be selected by frame range and stride, by minimal quality, by an
+ * axis-aligned bounding box, and randomly. The random subsampling does not
+ * depend on the order rows are parsed in: each row is kept or not depending
+ * on a hash of the seed and of its id, or of its position and frame if it has
+ * no id, so the same rows are kept by all the imports with the same seed.
+ */
+final class SpotFilter
+{
+
+	/**
+	 * A filter that accepts all rows.
+	 */
+	static final SpotFilter ALL = new SpotFilter( Integer.MIN_VALUE, Integer.MAX_VALUE, 1, Double.NEGATIVE_INFINITY, null, null, 1., 0 );
+
+	final int minFrame;
+
+	final int maxFrame;
+
+	private final int frameStride;
+
+	private final double minQuality;
+
+	private final double[] min;
+
+	private final double[] max;
+
+	/**
+	 * The fraction of rows to keep, as a threshold on a 53-bit hash.
+	 */
+	private final long sampleThreshold;
+
+	private final long seed;
+
+	/**
+	 * Creates a filter.
+	 *
+	 * @param minFrame
+	 *            the first frame to import.
+	 * @param maxFrame
+	 *            the last frame to import, included.
+	 * @param frameStride
+	 *            import one frame every <code>frameStride</code> frames,
+	 *            starting from <code>minFrame</code>, or from frame 0 if
+	 *            there is no minimal frame.
+	 * @param minQuality
+	 *            the minimal quality of the spots to import.
+	 * @param min
+	 *            the lower bounds of the box the spots must be in, or
+	 *            <code>null</code> for no box.
+	 * @param max
+	 *            the upper bounds of the box, included.
+	 * @param fraction
+	 *            the fraction of the rows to import.
+	 * @param seed
+	 *            the seed of the random subsampling.
+	 */
+	SpotFilter(
+			final int minFrame,
+			final int maxFrame,
+			final int frameStride,
+			final double minQuality,
+			final double[] min,
+			final double[] max,
+			final double fraction,
+			final long seed )
+	{
+		this.minFrame = minFrame;
+		this.maxFrame = maxFrame;
+		this.frameStride = frameStride;
+		this.minQuality = minQuality;
+		this.min = min == null ? null : Arrays.copyOf( min, 3 );
+		this.max = max == null ? null : Arrays.copyOf( max, 3 );
+		this.sampleThreshold = fraction >= 1. ? Long.MAX_VALUE : ( long ) ( fraction * ( 1L << 53 ) );
+		this.seed = seed;
+	}
+
+	/**
+	 * Returns whether this filter keeps a subset of the frames, so that the
+	 * frame index can be used.
+	 */
+	boolean hasFrameRange()
+	{
+		return minFrame > Integer.MIN_VALUE || maxFrame < Integer.MAX_VALUE;
+	}
+
+	/**
+	 * Returns whether this filter can reject rows. Links to the parents of
+	 * the accepted rows may then be missing.
+	 */
+	boolean isSelective()
+	{
+		return hasFrameRange()
+				|| frameStride > 1
+				|| minQuality > Double.NEGATIVE_INFINITY
+				|| min != null
+				|| sampleThreshold != Long.MAX_VALUE;
+	}
+
+	/**
+	 * Returns the fraction of the rows expected to be kept by the random
+	 * subsampling.
+	 */
+	double sampleFraction()
+	{
+		return sampleThreshold == Long.MAX_VALUE ? 1. : ( double ) sampleThreshold / ( 1L << 53 );
+	}
+
+	/**
+	 * Returns whether a row is imported.
+	 *
+	 * @param x
+	 *            the X position, origin included.
+	 * @param y
+	 *            the Y position, origin included.
+	 * @param z
+	 *            the Z position, origin included.
+	 * @param t
+	 *            the frame.
+	 * @param quality
+	 *            the quality, NaN if the file has no quality column.
+	 * @param id
+	 *            the id, or {@link SpotBatch#NO_ID} if the file has no id
+	 *            column.
+	 * @return <code>true</code> if the row is imported.
+	 */
+	boolean accept( final double x, final double y, final double z, final int t, final double quality, final long id )
+	{
+		if ( t < minFrame || t > maxFrame )
+			return false;
+		if ( frameStride > 1 && Math.floorMod( ( long ) t - ( minFrame == Integer.MIN_VALUE ? 0 : minFrame ), frameStride ) != 0 )
+			return false;
+		if ( quality < minQuality )
+			return false;
+		if ( min != null && ( x < min[ 0 ] || x > max[ 0 ] || y < min[ 1 ] || y > max[ 1 ] || z < min[ 2 ] || z > max[ 2 ] ) )
+			return false;
+		if ( sampleThreshold != Long.MAX_VALUE )
+		{
+			long h = seed;
+			if ( id != SpotBatch.NO_ID )
+			{
+				h = mix( h ^ id );
+			}
+			else
+			{
+				h = mix( h ^ Double.doubleToLongBits( x ) );
+				h = mix( h ^ Double.doubleToLongBits( y ) );
+				h = mix( h ^ Double.doubleToLongBits( z ) );
+				h = mix( h ^ t );
+			}
+			return ( h >>> 11 ) < sampleThreshold;
+		}
+		return true;
+	}
+
+	/**
+	 * Finalizer of MurmurHash3.
+	 */
+	private static long mix( long h )
+	{
+		h ^= h >>> 33;
+		h *= 0xff51afd7ed558ccdL;
+		h ^= h >>> 33;
+		h *= 0xc4ceb9fe1a85ec53L;
+		h ^= h >>> 33;
+		return h;
+	}
+}
@@ -0,0 +1,237 @@
+/*-
+ * #%L
+ * mastodon-pasteur
+ * %%
+ * Copyright (C) 2019 - 2025 Tobias Pietzsch, Jean-Yves Tinevez
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package org.mastodon.mamut.io.csv;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Maps the 64-bit ids of imported spots to their pool index, to resolve the
+ * parent ids of the following rows.
+ * <p>
+ * This is an open-addressing hash map with linear probing, stored off-heap in
+ * direct buffers, so that it does not weigh on the garbage collector. Each
+ * entry takes 12 bytes: the key, and the pool index plus one, 0 marking an
+ * empty slot. With a maximal load factor of 3/4, the index takes between 16
+ * and 32 bytes per spot. String ids are indexed by their 64-bit hash, see
+ * {@link CSVTokenizer#getHash(int)}.
+ * <p>
+ * The table is split in segments of {@value #SEGMENT_SIZE} entries, so that
+ * it can grow beyond the 2 GB limit of a single buffer. The memory is freed
+ * when the index is garbage-collected.
+ */
+final class SpotIdIndex
+{
+
+	private static final int ENTRY_BYTES = 12;
+
+	private static final int SEGMENT_BITS = 24;
+
+	private static final int SEGMENT_SIZE = 1 << SEGMENT_BITS;
+
+	private static final int SEGMENT_MASK = SEGMENT_SIZE - 1;
+
+	private static final int MAX_CAPACITY = 1 << 30;
+
+	private ByteBuffer[] segments;
+
+	private int mask;
+
+	private int size;
+
+	private int threshold;
+
+	/**
+	 * Creates an empty index.
+	 */
+	SpotIdIndex()
+	{
+		this( 1 << 10 );
+	}
+
+	/**
+	 * Creates an empty index sized to hold the specified number of ids
+	 * without growing.
+	 *
+	 * @param expectedSize
+	 *            the expected number of ids.
+	 */
+	SpotIdIndex( final long expectedSize )
+	{
+		allocate( capacityFor( expectedSize ) );
+	}
+
+	private static int capacityFor( final long expectedSize )
+	{
+		long capacity = 16;
+		while ( capacity * 3 / 4 < expectedSize && capacity < MAX_CAPACITY )
+			capacity *= 2;
+		return ( int ) capacity;
+	}
+
+	private void allocate( final int capacity )
+	{
+		final int nSegments = Math.max( 1, capacity >>> SEGMENT_BITS );
+		final int segmentSize = Math.min( capacity, SEGMENT_SIZE );
+		segments = new ByteBuffer[ nSegments ];
+		for ( int i = 0; i < nSegments; i++ )
+			segments[ i ] = ByteBuffer.allocateDirect( segmentSize * ENTRY_BYTES ).order( ByteOrder.nativeOrder() );
+		mask = capacity - 1;
+		threshold = capacity / 4 * 3;
+		size = 0;
+	}
+
+	/**
+	 * Returns the pool index of the spot with the specified id.
+	 *
+	 * @param id
+	 *            the id.
+	 * @return the pool index, or -1 if the id is not in the index.
+	 */
+	int get( final long id )
+	{
+		int slot = slot( id );
+		while ( true )
+		{
+			final ByteBuffer segment = segments[ slot >>> SEGMENT_BITS ];
+			final int offset = ( slot & SEGMENT_MASK ) * ENTRY_BYTES;
+			final int value = segment.getInt( offset + 8 );
+			if ( value == 0 )
+				return -1;
+			if ( segment.getLong( offset ) == id )
+				return value - 1;
+			slot = ( slot + 1 ) & mask;
+		}
+	}
+
+	/**
+	 * Stores the pool index of the spot with the specified id, replacing the
+	 * previous one if any.
+	 *
+	 * @param id
+	 *            the id.
+	 * @param poolIndex
+	 *            the pool index of the spot.
+	 */
+	void put( final long id, final int poolIndex )
+	{
+		if ( size >= threshold )
+			grow();
+		if ( insert( id, poolIndex + 1 ) )
+			size++;
+	}
+
+	/**
+	 * Grows the index, if needed, so that it holds the specified number of
+	 * ids without growing again.
+	 *
+	 * @param expectedSize
+	 *            the expected number of ids, the ones already in the index
+	 *            included.
+	 */
+	void reserve( final long expectedSize )
+	{
+		final int capacity = capacityFor( expectedSize );
+		if ( capacity > mask + 1 )
+			rehash( capacity );
+	}
+
+	/**
+	 * Returns the number of ids in the index.
+	 *
+	 * @return the number of ids.
+	 */
+	int size()
+	{
+		return size;
+	}
+
+	/**
+	 * Inserts an entry, with the value already incremented.
+	 *
+	 * @return <code>true</code> if the id was not in the index.
+	 */
+	private boolean insert( final long id, final int value )
+	{
+		int slot = slot( id );
+		while ( true )
+		{
+			final ByteBuffer segment = segments[ slot >>> SEGMENT_BITS ];
+			final int offset = ( slot & SEGMENT_MASK ) * ENTRY_BYTES;
+			if ( segment.getInt( offset + 8 ) == 0 )
+			{
+				segment.putLong( offset, id );
+				segment.putInt( offset + 8, value );
+				return true;
+			}
+			if ( segment.getLong( offset ) == id )
+			{
+				segment.putInt( offset + 8, value );
+				return false;
+			}
+			slot = ( slot + 1 ) & mask;
+		}
+	}
+
+	private void grow()
+	{
+		if ( mask + 1 == MAX_CAPACITY )
+			throw new IllegalStateException( "Cannot index more than " + threshold + " ids." );
+		rehash( 2 * ( mask + 1 ) );
+	}
+
+	private void rehash( final int capacity )
+	{
+		final ByteBuffer[] old = segments;
+		final int oldSize = size;
+		allocate( capacity );
+		for ( final ByteBuffer segment : old )
+		{
+			for ( int offset = 0; offset < segment.capacity(); offset += ENTRY_BYTES )
+			{
+				final int value = segment.getInt( offset + 8 );
+				if ( value != 0 )
+					insert( segment.getLong( offset ), value );
+			}
+		}
+		size = oldSize;
+	}
+
+	private int slot( final long id )
+	{
+		// Finalizer of MurmurHash3, to spread consecutive ids.
+		long h = id;
+		h ^= h >>> 33;
+		h *= 0xff51afd7ed558ccdL;
+		h ^= h >>> 33;
+		h *= 0xc4ceb9fe1a85ec53L;
+		h ^= h >>> 33;
+		return ( int ) h & mask;
+	}
+}
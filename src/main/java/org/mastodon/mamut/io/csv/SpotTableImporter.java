@@ -0,0 +1,663 @@
+/*-
+ * #%L
+ * mastodon-pasteur
+ * %%
+ * Copyright (C) 2019 - 2025 Tobias Pietzsch, Jean-Yves Tinevez
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package org.mastodon.mamut.io.csv;
+
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ForkJoinPool;
+
+import org.mastodon.mamut.io.importer.ModelImporter;
+import org.mastodon.mamut.model.Model;
+import org.mastodon.tracking.linking.ProgressListeners;
+import org.mastodon.ui.ProgressListener;
+import org.scijava.Cancelable;
+
+import gnu.trove.list.array.TDoubleArrayList;
+import gnu.trove.list.array.TIntArrayList;
+import gnu.trove.list.array.TLongArrayList;
+import net.imglib2.algorithm.Algorithm;
+import net.imglib2.algorithm.MultiThreaded;
+
+/**
+ * Imports spots from a binary, column-oriented spot table.
+ * <p>
+ * This format is meant to be written by other tools when parsing a CSV file
+ * is too slow. The columns are memory-mapped and copied in bulk, and the
+ * spots, links, features and tags are created the same way as in the
+ * {@link CSVImporter}.
+ * <p>
+ * All values are little-endian. The file starts with a header:
+ * <ol>
+ * <li>the 8 ASCII bytes {@value #MAGIC};</li>
+ * <li>the format version, an <code>int32</code> equal to
+ * {@value #VERSION};</li>
+ * <li>the optional columns present in the file, an <code>int32</code>
+ * combining the flags {@link #RADIUS}, {@link #QUALITY}, {@link #ID},
+ * {@link #PARENT_ID} and {@link #TAG};</li>
+ * <li>the number of spots <code>N</code>, an <code>int64</code>;</li>
+ * <li>the number of tag labels, an <code>int32</code>, followed by each label
+ * as an <code>int32</code> byte length and its UTF-8 bytes.</li>
+ * </ol>
+ * The columns follow, each starting at an offset that is a multiple of 8, in
+ * this order:
+ * <ul>
+ * <li>X, Y and Z: <code>N</code> <code>float64</code> each;</li>
+ * <li>frame: <code>N</code> <code>int32</code>;</li>
+ * <li>radius and quality, if present: <code>N</code> <code>float64</code>
+ * each;</li>
+ * <li>id and parent id, if present: <code>N</code> <code>int32</code> each.
+ * Spots whose parent id is not found are not linked;</li>
+ * <li>tag, if present: <code>N</code> <code>int32</code>, the index of the
+ * tag label in the header, or -1 for untagged spots.</li>
+ * </ul>
+ */
+public class SpotTableImporter extends ModelImporter implements Algorithm, MultiThreaded, Cancelable
+{
+
+	/**
+	 * The first bytes of a spot table file.
+	 */
+	public static final String MAGIC = "MSPOTTBL";
+
+	/**
+	 * The version of the format read by this importer.
+	 */
+	public static final int VERSION = 1;
+
+	/**
+	 * Flag set when the file contains a radius column.
+	 */
+	public static final int RADIUS = 1;
+
+	/**
+	 * Flag set when the file contains a quality column.
+	 */
+	public static final int QUALITY = 1 << 1;
+
+	/**
+	 * Flag set when the file contains an id column.
+	 */
+	public static final int ID = 1 << 2;
+
+	/**
+	 * Flag set when the file contains a parent id column. Requires the id
+	 * column.
+	 */
+	public static final int PARENT_ID = 1 << 3;
+
+	/**
+	 * Flag set when the file contains a tag column.
+	 */
+	public static final int TAG = 1 << 4;
+
+	/**
+	 * Number of spots copied in a single batch.
+	 */
+	private static final int BATCH_SIZE = 1 << 20;
+
+	/**
+	 * How many batches per thread can wait for insertion.
+	 */
+	private static final int MAX_QUEUED_BATCHES_PER_THREAD = 2;
+
+	/*
+	 * Column indices, in file order.
+	 */
+
+	private static final int COL_X = 0;
+
+	private static final int COL_Y = 1;
+
+	private static final int COL_Z = 2;
+
+	private static final int COL_FRAME = 3;
+
+	private static final int COL_RADIUS = 4;
+
+	private static final int COL_QUALITY = 5;
+
+	private static final int COL_ID = 6;
+
+	private static final int COL_PARENT_ID = 7;
+
+	private static final int COL_TAG = 8;
+
+	/**
+	 * Byte size of the values of each column.
+	 */
+	private static final int[] COLUMN_BYTES = new int[] { 8, 8, 8, 4, 8, 8, 4, 4, 4 };
+
+	/**
+	 * Flag required for each column, 0 for mandatory columns.
+	 */
+	private static final int[] COLUMN_FLAGS = new int[] { 0, 0, 0, 0, RADIUS, QUALITY, ID, PARENT_ID, TAG };
+
+	private final Model model;
+
+	private final String filePath;
+
+	private final double radius;
+
+	private final int commitBatchSize;
+
+	private final ProgressListener progressListener;
+
+	private String errorMessage;
+
+	private int numThreads;
+
+	private ImportStatistics statistics = new ImportStatistics();
+
+	private ImportErrors errors = new ImportErrors();
+
+	private volatile boolean isCanceled;
+
+	private String cancelReason;
+
+	private SpotTableImporter(
+			final Model model,
+			final String filePath,
+			final double radius,
+			final int commitBatchSize,
+			final ProgressListener progressListener )
+	{
+		super( model );
+		this.model = model;
+		this.filePath = filePath;
+		this.radius = radius;
+		this.commitBatchSize = commitBatchSize;
+		this.progressListener = progressListener;
+		setNumThreads();
+	}
+
+	public static Builder create()
+	{
+		return new Builder();
+	}
+
+	@Override
+	public boolean checkInput()
+	{
+		try (final FileChannel channel = FileChannel.open( Paths.get( filePath ), StandardOpenOption.READ ))
+		{
+			final Header header = Header.read( channel );
+			if ( !header.has( RADIUS ) && Double.isNaN( radius ) )
+			{
+				errorMessage = "The file " + filePath + " has no radius column, and no spot radius was specified.";
+				return false;
+			}
+		}
+		catch ( final NoSuchFileException e )
+		{
+			errorMessage = "Could not find file: " + filePath;
+			e.printStackTrace();
+			return false;
+		}
+		catch ( final IOException e )
+		{
+			errorMessage = "Invalid spot table " + filePath + ":\n" + e.getMessage();
+			return false;
+		}
+		return true;
+	}
+
+	@Override
+	public boolean process()
+	{
+		statistics = new ImportStatistics();
+		errors = new ImportErrors();
+		try (final FileChannel channel = FileChannel.open( Paths.get( filePath ), StandardOpenOption.READ ))
+		{
+			final Header header = Header.read( channel );
+			final int nBatches = ( int ) ( ( header.nSpots + BATCH_SIZE - 1 ) / BATCH_SIZE );
+			final Iterator< Callable< SpotBatch > > tasks = new Iterator< Callable< SpotBatch > >()
+			{
+				private int next = 0;
+
+				@Override
+				public boolean hasNext()
+				{
+					return next < nBatches;
+				}
+
+				@Override
+				public Callable< SpotBatch > next()
+				{
+					final int from = next * BATCH_SIZE;
+					final int to = ( int ) Math.min( header.nSpots, ( long ) from + BATCH_SIZE );
+					next++;
+					return () -> readBatch( channel, header, from, to );
+				}
+			};
+			final SpotBatchInserter inserter = new SpotBatchInserter(
+					model,
+					radius,
+					header.has( QUALITY ),
+					header.has( ID ) ? CSVImporter.IdType.INT : null,
+					header.has( TAG ),
+					new String[ 0 ],
+					commitBatchSize,
+					statistics,
+					errors,
+					true,
+					0,
+					this::startImport,
+					this::finishImport,
+					progressListener,
+					header.rowSize * header.nSpots,
+					header.nSpots,
+					this,
+					null,
+					null,
+					CSVImporter.MergeMode.APPEND,
+					true );
+			inserter.insertAll( new ForkJoinPool( numThreads ), MAX_QUEUED_BATCHES_PER_THREAD * numThreads, tasks );
+		}
+		catch ( final NoSuchFileException e )
+		{
+			errorMessage = "Cannot find file " + filePath;
+			e.printStackTrace();
+			return false;
+		}
+		catch ( final IOException e )
+		{
+			errorMessage = "Error reading file " + filePath + ":\n" + e.getMessage();
+			e.printStackTrace();
+			return false;
+		}
+		finally
+		{
+			statistics.stop();
+		}
+		if ( isCanceled )
+		{
+			errorMessage = "Import canceled after " + statistics.getRowsInserted() + " spots. Reason: " + cancelReason;
+			return false;
+		}
+		errorMessage = errors.isEmpty() ? null : errors.toString();
+		return true;
+	}
+
+	/**
+	 * Copies the rows <code>from</code> (inclusive) to <code>to</code>
+	 * (exclusive) of the columns in a new batch.
+	 */
+	private SpotBatch readBatch( final FileChannel channel, final Header header, final int from, final int to ) throws IOException
+	{
+		final long t0 = System.nanoTime();
+		final SpotBatch batch = new SpotBatch(
+				readDoubles( channel, header.offsets[ COL_X ], from, to ),
+				readDoubles( channel, header.offsets[ COL_Y ], from, to ),
+				readDoubles( channel, header.offsets[ COL_Z ], from, to ),
+				readInts( channel, header.offsets[ COL_FRAME ], from, to ),
+				header.has( RADIUS ) ? readDoubles( channel, header.offsets[ COL_RADIUS ], from, to ) : null,
+				header.has( QUALITY ) ? readDoubles( channel, header.offsets[ COL_QUALITY ], from, to ) : null,
+				header.has( ID ) ? readIds( channel, header.offsets[ COL_ID ], from, to ) : null,
+				header.has( PARENT_ID ) ? readIds( channel, header.offsets[ COL_PARENT_ID ], from, to ) : null,
+				header.has( TAG ) ? readInts( channel, header.offsets[ COL_TAG ], from, to ) : null,
+				header.tagLabels );
+		if ( null != batch.tag )
+		{
+			for ( int i = 0; i < batch.size(); i++ )
+				if ( batch.tag.getQuick( i ) >= header.tagLabels.size() )
+					throw new IOException( "Invalid tag index for spot " + ( from + i ) + ": " + batch.tag.getQuick( i ) + "." );
+		}
+		batch.nBytes = header.rowSize * ( to - from );
+		statistics.addParsed( batch.nBytes, batch.size(), 0, System.nanoTime() - t0 );
+		return batch;
+	}
+
+	private static TDoubleArrayList readDoubles( final FileChannel channel, final long offset, final int from, final int to ) throws IOException
+	{
+		final double[] values = new double[ to - from ];
+		map( channel, offset + ( long ) Double.BYTES * from, ( long ) Double.BYTES * values.length ).asDoubleBuffer().get( values );
+		return TDoubleArrayList.wrap( values );
+	}
+
+	private static TIntArrayList readInts( final FileChannel channel, final long offset, final int from, final int to ) throws IOException
+	{
+		final int[] values = new int[ to - from ];
+		map( channel, offset + ( long ) Integer.BYTES * from, ( long ) Integer.BYTES * values.length ).asIntBuffer().get( values );
+		return TIntArrayList.wrap( values );
+	}
+
+	/**
+	 * Reads 32-bit ids, widened to the 64-bit ids of the batches.
+	 */
+	private static TLongArrayList readIds( final FileChannel channel, final long offset, final int from, final int to ) throws IOException
+	{
+		final IntBuffer buffer = map( channel, offset + ( long ) Integer.BYTES * from, ( long ) Integer.BYTES * ( to - from ) ).asIntBuffer();
+		final long[] values = new long[ to - from ];
+		for ( int i = 0; i < values.length; i++ )
+			values[ i ] = buffer.get( i );
+		return TLongArrayList.wrap( values );
+	}
+
+	private static ByteBuffer map( final FileChannel channel, final long offset, final long size ) throws IOException
+	{
+		final MappedByteBuffer buffer = channel.map( FileChannel.MapMode.READ_ONLY, offset, size );
+		return buffer.order( ByteOrder.LITTLE_ENDIAN );
+	}
+
+	/**
+	 * The content of the header of a spot table, and the offsets of the
+	 * columns.
+	 */
+	private static final class Header
+	{
+
+		private final int flags;
+
+		private final long nSpots;
+
+		private final List< String > tagLabels;
+
+		/**
+		 * Offset in the file of each column, -1 for absent columns.
+		 */
+		private final long[] offsets = new long[ COLUMN_BYTES.length ];
+
+		/**
+		 * Number of bytes per spot, over all columns.
+		 */
+		private final long rowSize;
+
+		private Header( final int flags, final long nSpots, final List< String > tagLabels, final long dataStart )
+		{
+			this.flags = flags;
+			this.nSpots = nSpots;
+			this.tagLabels = tagLabels;
+			long offset = dataStart;
+			long size = 0;
+			for ( int col = 0; col < COLUMN_BYTES.length; col++ )
+			{
+				if ( COLUMN_FLAGS[ col ] != 0 && !has( COLUMN_FLAGS[ col ] ) )
+				{
+					offsets[ col ] = -1;
+					continue;
+				}
+				offsets[ col ] = offset;
+				offset = align( offset + COLUMN_BYTES[ col ] * nSpots );
+				size += COLUMN_BYTES[ col ];
+			}
+			this.rowSize = size;
+		}
+
+		private boolean has( final int flag )
+		{
+			return ( flags & flag ) != 0;
+		}
+
+		/**
+		 * Returns the offset of the byte after the last column.
+		 */
+		private long end()
+		{
+			long end = 0;
+			for ( int col = 0; col < COLUMN_BYTES.length; col++ )
+				if ( offsets[ col ] >= 0 )
+					end = offsets[ col ] + COLUMN_BYTES[ col ] * nSpots;
+			return end;
+		}
+
+		private static long align( final long offset )
+		{
+			return ( offset + 7 ) & ~7L;
+		}
+
+		private static Header read( final FileChannel channel ) throws IOException
+		{
+			final long fileSize = channel.size();
+			final ByteBuffer buffer = channel
+					.map( FileChannel.MapMode.READ_ONLY, 0, Math.min( fileSize, Integer.MAX_VALUE ) )
+					.order( ByteOrder.LITTLE_ENDIAN );
+			final Header header;
+			try
+			{
+				final byte[] magic = new byte[ MAGIC.length() ];
+				buffer.get( magic );
+				if ( !Arrays.equals( magic, MAGIC.getBytes( StandardCharsets.US_ASCII ) ) )
+					throw new IOException( "Not a spot table file." );
+
+				final int version = buffer.getInt();
+				if ( version != VERSION )
+					throw new IOException( "Unsupported spot table version: " + version + ". Expected " + VERSION + "." );
+
+				final int flags = buffer.getInt();
+				if ( ( flags & PARENT_ID ) != 0 && ( flags & ID ) == 0 )
+					throw new IOException( "The parent id column requires the id column." );
+
+				final long nSpots = buffer.getLong();
+				if ( nSpots < 0 || nSpots > Integer.MAX_VALUE )
+					throw new IOException( "Invalid number of spots: " + nSpots + "." );
+
+				final int nTags = buffer.getInt();
+				if ( nTags < 0 )
+					throw new IOException( "Invalid number of tags: " + nTags + "." );
+				final List< String > tagLabels = new ArrayList<>( nTags );
+				for ( int i = 0; i < nTags; i++ )
+				{
+					final byte[] label = new byte[ buffer.getInt() ];
+					buffer.get( label );
+					tagLabels.add( new String( label, StandardCharsets.UTF_8 ) );
+				}
+				header = new Header( flags, nSpots, Collections.unmodifiableList( tagLabels ), align( buffer.position() ) );
+			}
+			catch ( final BufferUnderflowException | NegativeArraySizeException e )
+			{
+				throw new IOException( "Truncated header." );
+			}
+			if ( header.end() > fileSize )
+				throw new IOException( "Truncated file: expected " + header.end() + " bytes, found " + fileSize + "." );
+			return header;
+		}
+	}
+
+	@Override
+	public String getErrorMessage()
+	{
+		return errorMessage;
+	}
+
+	/**
+	 * Returns the errors found in the rows of the last import. The spots of
+	 * the rows with an error are not imported, or imported without link if
+	 * the error is on their parent.
+	 *
+	 * @return the import errors.
+	 */
+	public ImportErrors getErrors()
+	{
+		return errors;
+	}
+
+	/**
+	 * Returns the throughput counters of the last import.
+	 *
+	 * @return the import statistics.
+	 */
+	public ImportStatistics getStatistics()
+	{
+		return statistics;
+	}
+
+	/**
+	 * Cancels the import. The spots imported so far are kept, with their
+	 * links and tags, and {@link #process()} returns <code>false</code>.
+	 *
+	 * @param reason
+	 *            the reason why the import is canceled.
+	 */
+	@Override
+	public void cancel( final String reason )
+	{
+		cancelReason = reason;
+		isCanceled = true;
+	}
+
+	@Override
+	public boolean isCanceled()
+	{
+		return isCanceled;
+	}
+
+	@Override
+	public String getCancelReason()
+	{
+		return cancelReason;
+	}
+
+	@Override
+	public void setNumThreads()
+	{
+		this.numThreads = Runtime.getRuntime().availableProcessors();
+	}
+
+	@Override
+	public void setNumThreads( final int numThreads )
+	{
+		this.numThreads = Math.max( 1, numThreads );
+	}
+
+	@Override
+	public int getNumThreads()
+	{
+		return numThreads;
+	}
+
+	public static class Builder
+	{
+
+		private Model model;
+
+		private String filePath;
+
+		private double radius = Double.NaN;
+
+		private int commitBatchSize = 0;
+
+		private ProgressListener progressListener = ProgressListeners.voidLogger();
+
+		public Builder model( final Model model )
+		{
+			this.model = model;
+			return this;
+		}
+
+		public Builder filePath( final String filePath )
+		{
+			this.filePath = filePath;
+			return this;
+		}
+
+		/**
+		 * Specifies the radius of the spots. Only used if the file has no
+		 * radius column, in which case it is mandatory.
+		 *
+		 * @param radius
+		 *            the spot radius.
+		 * @return this builder.
+		 */
+		public Builder radius( final double radius )
+		{
+			this.radius = radius;
+			return this;
+		}
+
+		/**
+		 * Specifies whether the spots are committed to the model in several
+		 * batches. See {@link CSVImporter.Builder#commitBatchSize(int)}.
+		 *
+		 * @param commitBatchSize
+		 *            the number of spots to add between each release of the
+		 *            lock, or 0 to hold it during the whole import.
+		 * @return this builder.
+		 */
+		public Builder commitBatchSize( final int commitBatchSize )
+		{
+			this.commitBatchSize = commitBatchSize;
+			return this;
+		}
+
+		/**
+		 * Specifies a listener to report the progress of the import to.
+		 *
+		 * @param progressListener
+		 *            the progress listener.
+		 * @return this builder.
+		 */
+		public Builder progressListener( final ProgressListener progressListener )
+		{
+			this.progressListener = progressListener;
+			return this;
+		}
+
+		public SpotTableImporter get()
+		{
+			final StringBuilder errorMessage = new StringBuilder( "Invalid spot table importer definition:\n" );
+			boolean valid = true;
+
+			if ( model == null )
+			{
+				errorMessage.append( " - Missing model.\n" );
+				valid = false;
+			}
+			if ( filePath == null )
+			{
+				errorMessage.append( " - Missing file path.\n" );
+				valid = false;
+			}
+
+			if ( !valid )
+				throw new IllegalArgumentException( errorMessage.toString() );
+
+			return new SpotTableImporter(
+					model,
+					filePath,
+					radius,
+					commitBatchSize,
+					progressListener );
+		}
+	}
+}
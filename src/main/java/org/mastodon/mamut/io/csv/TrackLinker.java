@@ -0,0 +1,394 @@
+/*-
+ * #%L
+ * mastodon-pasteur
+ * %%
+ * Copyright (C) 2019 - 2025 Tobias Pietzsch, Jean-Yves Tinevez
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package org.mastodon.mamut.io.csv;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.mastodon.RefPool;
+import org.mastodon.mamut.model.Link;
+import org.mastodon.mamut.model.ModelGraph;
+import org.mastodon.mamut.model.Spot;
+import org.mastodon.properties.IntPropertyMap;
+
+import gnu.trove.list.array.TIntArrayList;
+import gnu.trove.list.array.TLongArrayList;
+import gnu.trove.map.hash.TLongIntHashMap;
+
+/**
+ * Links the spots that share a track id, for files that give the track of
+ * each row instead of its parent.
+ * <p>
+ * The spots are collected with their track id and frame while they are
+ * inserted, then sorted on (track id, frame) with a primitive sort on
+ * parallel arrays, so that linking is <code>O(n log n)</code> without any
+ * per-track collection. Each spot is then linked to a spot of the same track
+ * in the closest earlier frame that has one, so that gaps in a track are
+ * bridged. When there are several spots of the same track in this earlier
+ * frame, for instance after a division, the spot is linked to the nearest
+ * one.
+ * <p>
+ * Within an import session, the linker also keeps the spots of the last
+ * frame of each track, so that the spots of a track in the next imports are
+ * linked to them. These spots are marked in a property map of the spots,
+ * cleared when a spot is deleted, so that deleted spots are not linked to.
+ */
+final class TrackLinker
+{
+
+	/**
+	 * Ranges smaller than this are sorted by insertion.
+	 */
+	private static final int INSERTION_SORT_THRESHOLD = 16;
+
+	private final TLongArrayList trackIds;
+
+	private final TIntArrayList frames;
+
+	private final TIntArrayList spots;
+
+	/**
+	 * Slot of each track linked so far, indexing the frame and the pool
+	 * indices of the spots of its last frame. The end spots are marked with
+	 * the slot of their track. All <code>null</code> if the ends are not
+	 * kept.
+	 */
+	private final TLongIntHashMap endSlots;
+
+	private final TIntArrayList endFrames;
+
+	private final List< int[] > endSpots;
+
+	private final IntPropertyMap< Spot > endMarks;
+
+	/**
+	 * Creates a linker sized to record the specified number of spots without
+	 * growing, that only links the spots it records.
+	 *
+	 * @param initialCapacity
+	 *            the number of spots expected.
+	 */
+	TrackLinker( final int initialCapacity )
+	{
+		this( initialCapacity, null );
+	}
+
+	/**
+	 * Creates a linker sized to record the specified number of spots without
+	 * growing, that keeps the ends of the tracks if a pool is specified.
+	 *
+	 * @param initialCapacity
+	 *            the number of spots expected.
+	 * @param spotPool
+	 *            the pool of the spots, to mark the ends of the tracks, or
+	 *            <code>null</code> not to keep them.
+	 */
+	TrackLinker( final int initialCapacity, final RefPool< Spot > spotPool )
+	{
+		this.trackIds = new TLongArrayList( initialCapacity );
+		this.frames = new TIntArrayList( initialCapacity );
+		this.spots = new TIntArrayList( initialCapacity );
+		if ( null == spotPool )
+		{
+			this.endSlots = null;
+			this.endFrames = null;
+			this.endSpots = null;
+			this.endMarks = null;
+		}
+		else
+		{
+			this.endSlots = new TLongIntHashMap( 16, 0.5f, Long.MIN_VALUE, -1 );
+			this.endFrames = new TIntArrayList();
+			this.endSpots = new ArrayList<>();
+			this.endMarks = new IntPropertyMap<>( spotPool, -1 );
+		}
+	}
+
+	/**
+	 * Records a spot to link.
+	 *
+	 * @param trackId
+	 *            the id of the track of the spot.
+	 * @param frame
+	 *            the frame of the spot.
+	 * @param spotIndex
+	 *            the pool index of the spot.
+	 */
+	void add( final long trackId, final int frame, final int spotIndex )
+	{
+		trackIds.add( trackId );
+		frames.add( frame );
+		spots.add( spotIndex );
+	}
+
+	/**
+	 * Links the spots recorded so far, and forgets them. If the ends of the
+	 * tracks are kept, the first spots of each track are linked to the end
+	 * of the track if it is in an earlier frame, and the last spots of each
+	 * track become its end. The graph write lock must be held.
+	 *
+	 * @param graph
+	 *            the graph of the spots.
+	 * @param spotPool
+	 *            the pool to get the spots from their index.
+	 * @return the number of links created.
+	 */
+	int link( final ModelGraph graph, final RefPool< Spot > spotPool )
+	{
+		final int n = spots.size();
+		final long[] track = trackIds.toArray();
+		final int[] frame = frames.toArray();
+		final int[] spot = spots.toArray();
+		trackIds.clear();
+		frames.clear();
+		spots.clear();
+		sort( track, frame, spot, 0, n - 1 );
+
+		final Spot parent = graph.vertexRef();
+		final Spot child = graph.vertexRef();
+		final Link edge = graph.edgeRef();
+		int nLinks = 0;
+		try
+		{
+			// Spots of the previous frame of the current track, and of the current frame.
+			int prevStart = 0;
+			int prevEnd = 0;
+			int start = 0;
+			while ( start < n )
+			{
+				int end = start + 1;
+				while ( end < n && track[ end ] == track[ start ] && frame[ end ] == frame[ start ] )
+					end++;
+
+				if ( prevEnd > prevStart && track[ prevStart ] == track[ start ] )
+				{
+					for ( int i = start; i < end; i++ )
+					{
+						spotPool.getObject( spot[ i ], child );
+						spotPool.getObject( spot[ nearest( spot, prevStart, prevEnd, child, spotPool, parent ) ], parent );
+						graph.addEdge( parent, child, edge ).init();
+						nLinks++;
+					}
+				}
+				else if ( null != endSlots )
+				{
+					nLinks += linkToEnd( graph, spotPool, track[ start ], frame[ start ], spot, start, end, parent, child, edge );
+				}
+				if ( null != endSlots && ( end == n || track[ end ] != track[ start ] ) )
+					setEnd( spotPool, track[ start ], frame[ start ], spot, start, end, parent );
+				prevStart = start;
+				prevEnd = end;
+				start = end;
+			}
+		}
+		finally
+		{
+			graph.releaseRef( parent );
+			graph.releaseRef( child );
+			graph.releaseRef( edge );
+		}
+		return nLinks;
+	}
+
+	/**
+	 * Links the spots in <code>[from, to)</code>, the first ones of their
+	 * track, to the end of the track recorded by the previous calls, if it is
+	 * in an earlier frame.
+	 *
+	 * @return the number of links created.
+	 */
+	private int linkToEnd( final ModelGraph graph, final RefPool< Spot > spotPool, final long trackId, final int frame, final int[] spot, final int from, final int to, final Spot parent, final Spot child, final Link edge )
+	{
+		final int slot = endSlots.get( trackId );
+		if ( slot < 0 || endFrames.getQuick( slot ) >= frame )
+			return 0;
+
+		// Skip the end spots deleted since.
+		final int[] ends = endSpots.get( slot );
+		int nEnds = 0;
+		for ( final int end : ends )
+			if ( endMarks.getInt( spotPool.getObject( end, parent ) ) == slot )
+				ends[ nEnds++ ] = end;
+		if ( nEnds < ends.length )
+			endSpots.set( slot, Arrays.copyOf( ends, nEnds ) );
+		if ( nEnds == 0 )
+			return 0;
+
+		for ( int i = from; i < to; i++ )
+		{
+			spotPool.getObject( spot[ i ], child );
+			spotPool.getObject( ends[ nearest( ends, 0, nEnds, child, spotPool, parent ) ], parent );
+			graph.addEdge( parent, child, edge ).init();
+		}
+		return to - from;
+	}
+
+	/**
+	 * Records the spots in <code>[from, to)</code>, the last ones of their
+	 * track, as the end of the track, unless the end recorded before is in a
+	 * later frame.
+	 */
+	private void setEnd( final RefPool< Spot > spotPool, final long trackId, final int frame, final int[] spot, final int from, final int to, final Spot ref )
+	{
+		int slot = endSlots.get( trackId );
+		int[] ends;
+		if ( slot < 0 )
+		{
+			slot = endFrames.size();
+			endSlots.put( trackId, slot );
+			endFrames.add( frame );
+			endSpots.add( null );
+			ends = Arrays.copyOfRange( spot, from, to );
+		}
+		else
+		{
+			final int endFrame = endFrames.getQuick( slot );
+			if ( endFrame > frame )
+				return;
+			final int[] previous = endSpots.get( slot );
+			if ( endFrame == frame )
+			{
+				// More spots in the last frame.
+				ends = Arrays.copyOf( previous, previous.length + to - from );
+				System.arraycopy( spot, from, ends, previous.length, to - from );
+			}
+			else
+			{
+				for ( final int end : previous )
+					if ( endMarks.getInt( spotPool.getObject( end, ref ) ) == slot )
+						endMarks.remove( ref );
+				endFrames.setQuick( slot, frame );
+				ends = Arrays.copyOfRange( spot, from, to );
+			}
+		}
+		for ( int i = from; i < to; i++ )
+			endMarks.set( spotPool.getObject( spot[ i ], ref ), slot );
+		endSpots.set( slot, ends );
+	}
+
+	/**
+	 * Returns the index, in <code>[from, to)</code>, of the spot nearest to
+	 * the specified one.
+	 */
+	private static int nearest( final int[] spot, final int from, final int to, final Spot target, final RefPool< Spot > spotPool, final Spot ref )
+	{
+		if ( to - from == 1 )
+			return from;
+		int best = from;
+		double bestD2 = Double.POSITIVE_INFINITY;
+		for ( int i = from; i < to; i++ )
+		{
+			spotPool.getObject( spot[ i ], ref );
+			double d2 = 0.;
+			for ( int d = 0; d < 3; d++ )
+			{
+				final double dx = ref.getDoublePosition( d ) - target.getDoublePosition( d );
+				d2 += dx * dx;
+			}
+			if ( d2 < bestD2 )
+			{
+				bestD2 = d2;
+				best = i;
+			}
+		}
+		return best;
+	}
+
+	/**
+	 * Sorts the parallel arrays on (track, frame), between the specified
+	 * indices included, with a three-way quicksort.
+	 */
+	static void sort( final long[] track, final int[] frame, final int[] spot, int lo, int hi )
+	{
+		while ( hi - lo >= INSERTION_SORT_THRESHOLD )
+		{
+			// Median of three as pivot. Its value is copied, as elements move.
+			final int mid = ( lo + hi ) >>> 1;
+			if ( compare( track, frame, mid, lo ) < 0 )
+				swap( track, frame, spot, mid, lo );
+			if ( compare( track, frame, hi, lo ) < 0 )
+				swap( track, frame, spot, hi, lo );
+			if ( compare( track, frame, hi, mid ) < 0 )
+				swap( track, frame, spot, hi, mid );
+			final long pt = track[ mid ];
+			final int pf = frame[ mid ];
+
+			// Partition in [lo, lt) < pivot, [lt, i) == pivot, (gt, hi] > pivot.
+			int lt = lo;
+			int gt = hi;
+			int i = lo;
+			while ( i <= gt )
+			{
+				final int c = track[ i ] != pt ? Long.compare( track[ i ], pt ) : Integer.compare( frame[ i ], pf );
+				if ( c < 0 )
+					swap( track, frame, spot, lt++, i++ );
+				else if ( c > 0 )
+					swap( track, frame, spot, i, gt-- );
+				else
+					i++;
+			}
+
+			// Recurse on the smaller side to bound the stack depth.
+			if ( lt - lo < hi - gt )
+			{
+				sort( track, frame, spot, lo, lt - 1 );
+				lo = gt + 1;
+			}
+			else
+			{
+				sort( track, frame, spot, gt + 1, hi );
+				hi = lt - 1;
+			}
+		}
+
+		for ( int i = lo + 1; i <= hi; i++ )
+			for ( int j = i; j > lo && compare( track, frame, j, j - 1 ) < 0; j-- )
+				swap( track, frame, spot, j, j - 1 );
+	}
+
+	private static int compare( final long[] track, final int[] frame, final int i, final int j )
+	{
+		final int c = Long.compare( track[ i ], track[ j ] );
+		return c != 0 ? c : Integer.compare( frame[ i ], frame[ j ] );
+	}
+
+	private static void swap( final long[] track, final int[] frame, final int[] spot, final int i, final int j )
+	{
+		final long t = track[ i ];
+		track[ i ] = track[ j ];
+		track[ j ] = t;
+		final int f = frame[ i ];
+		frame[ i ] = frame[ j ];
+		frame[ j ] = f;
+		final int s = spot[ i ];
+		spot[ i ] = spot[ j ];
+		spot[ j ] = s;
+	}
+}
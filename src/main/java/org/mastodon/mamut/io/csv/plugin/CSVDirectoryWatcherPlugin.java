@@ -0,0 +1,190 @@
+/*-
+ * #%L
+ * mastodon-pasteur
+ * %%
+ * Copyright (C) 2019 - 2025 Tobias Pietzsch, Jean-Yves Tinevez
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package org.mastodon.mamut.io.csv.plugin;
+
+import static org.mastodon.app.ui.ViewMenuBuilder.item;
+import static org.mastodon.app.ui.ViewMenuBuilder.menu;
+
+import java.awt.BorderLayout;
+import java.awt.Frame;
+import java.awt.Image;
+import java.awt.event.ActionEvent;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.swing.JDialog;
+import javax.swing.WindowConstants;
+
+import org.mastodon.app.MastodonIcons;
+import org.mastodon.app.ui.ViewMenuBuilder.MenuItem;
+import org.mastodon.mamut.KeyConfigScopes;
+import org.mastodon.mamut.MamutMenuBuilder;
+import org.mastodon.mamut.ProjectModel;
+import org.mastodon.mamut.io.csv.plugin.ui.CSVImporterUIController;
+import org.mastodon.mamut.model.Model;
+import org.mastodon.mamut.plugin.MamutPlugin;
+import org.mastodon.ui.keymap.KeyConfigContexts;
+import org.scijava.plugin.Plugin;
+import org.scijava.ui.behaviour.io.gui.CommandDescriptionProvider;
+import org.scijava.ui.behaviour.io.gui.CommandDescriptions;
+import org.scijava.ui.behaviour.util.AbstractNamedAction;
+import org.scijava.ui.behaviour.util.Actions;
+
+/**
+ * Imports the CSV files created in a folder while they are written, for
+ * instance by a segmentation running during the acquisition. The column
+ * mapping is defined from a sample file of the folder.
+ */
+@Plugin( type = CSVDirectoryWatcherPlugin.class )
+public class CSVDirectoryWatcherPlugin implements MamutPlugin
+{
+
+	public static final String SHOW_CSV_WATCHER_DIALOG_ACTION = "show csv directory watcher dialog";
+
+	private static final String[] ACTION_1_KEYS = new String[] { "not mapped" };
+
+	private static Map< String, String > menuTexts = new HashMap<>();
+
+	static
+	{
+		menuTexts.put( SHOW_CSV_WATCHER_DIALOG_ACTION, "CSV folder watcher" );
+	}
+
+	private final ToggleCSVWatcherDialogAction toggleWatcherDialog = new ToggleCSVWatcherDialogAction();
+
+	@Override
+	public Map< String, String > getMenuTexts()
+	{
+		return menuTexts;
+	}
+
+	@Override
+	public List< MenuItem > getMenuItems()
+	{
+		return Collections.singletonList(
+				MamutMenuBuilder.fileMenu( menu( "Import", item( SHOW_CSV_WATCHER_DIALOG_ACTION ) ) ) );
+	}
+
+	@Override
+	public void installGlobalActions( final Actions actions )
+	{
+		actions.namedAction( toggleWatcherDialog, ACTION_1_KEYS );
+	}
+
+	@Override
+	public void setAppPluginModel( final ProjectModel appModel )
+	{
+		toggleWatcherDialog.setModel( appModel.getModel() );
+		appModel.projectClosedListeners().add( toggleWatcherDialog::close );
+	}
+
+	/**
+	 * Command descriptions for all provided commands
+	 */
+	@Plugin( type = Descriptions.class )
+	public static class Descriptions extends CommandDescriptionProvider
+	{
+		public Descriptions()
+		{
+			super( KeyConfigScopes.MAMUT, KeyConfigContexts.MASTODON );
+		}
+
+		@Override
+		public void getCommandDescriptions( final CommandDescriptions descriptions )
+		{
+			descriptions.add( SHOW_CSV_WATCHER_DIALOG_ACTION, ACTION_1_KEYS, "Show the dialog to import the CSV files created in a folder." );
+		}
+	}
+
+	public static class ToggleCSVWatcherDialogAction extends AbstractNamedAction
+	{
+
+		private static final long serialVersionUID = 1L;
+
+		private JDialog csvWatcherDialog;
+
+		private CSVImporterUIController controller;
+
+		public ToggleCSVWatcherDialogAction()
+		{
+			super( SHOW_CSV_WATCHER_DIALOG_ACTION );
+		}
+
+		/**
+		 * Sets the model to import into. The folder watched for the previous
+		 * model, if any, is not watched anymore.
+		 *
+		 * @param model
+		 *            the model.
+		 */
+		public void setModel( final Model model )
+		{
+			close();
+			controller = new CSVImporterUIController( model, true );
+			csvWatcherDialog = new JDialog( ( Frame ) null, "CSV Folder Watcher" );
+			csvWatcherDialog.setIconImages( Arrays.asList( new Image[] {
+					MastodonIcons.LOAD_ICON_LARGE.getImage(),
+					MastodonIcons.LOAD_ICON_MEDIUM.getImage(),
+					MastodonIcons.LOAD_ICON_SMALL.getImage() } ) );
+			csvWatcherDialog.getContentPane().add( controller.getView(), BorderLayout.CENTER );
+			csvWatcherDialog.setDefaultCloseOperation( WindowConstants.HIDE_ON_CLOSE );
+			csvWatcherDialog.setLocationRelativeTo( null );
+			csvWatcherDialog.pack();
+		}
+
+		@Override
+		public void actionPerformed( final ActionEvent e )
+		{
+			if ( null == csvWatcherDialog )
+				return;
+			csvWatcherDialog.setVisible( !csvWatcherDialog.isVisible() );
+		}
+
+		/**
+		 * Stops watching the folder and disposes of the dialog.
+		 */
+		public void close()
+		{
+			if ( controller != null )
+				controller.stopWatching();
+			if ( csvWatcherDialog != null )
+				csvWatcherDialog.dispose();
+			controller = null;
+			csvWatcherDialog = null;
+		}
+
+		public CSVImporterUIController getController()
+		{
+			return controller;
+		}
+	}
+}
@@ -0,0 +1,505 @@
+/*-
+ * #%L
+ * mastodon-pasteur
+ * %%
+ * Copyright (C) 2019 - 2025 Tobias Pietzsch, Jean-Yves Tinevez
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package org.mastodon.mamut.io.csv.plugin;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.Locale;
+
+import org.mastodon.mamut.ProjectModel;
+import org.mastodon.mamut.io.ProjectCreator;
+import org.mastodon.mamut.io.ProjectSaver;
+import org.mastodon.mamut.io.csv.CSVImporter;
+import org.mastodon.mamut.io.csv.CSVImporter.IdType;
+import org.mastodon.mamut.io.csv.ImportStatistics;
+import org.scijava.Context;
+import org.scijava.command.Command;
+import org.scijava.plugin.Parameter;
+import org.scijava.plugin.Plugin;
+
+import mpicbg.spim.data.SpimDataException;
+
+/**
+ * Imports a CSV file in a new Mastodon project and saves it, without user
+ * interface.
+ * <p>
+ * It can be run as a SciJava command, for instance from a script, or from the
+ * command line with {@link #main(String[])}, with the options of
+ * {@link CSVImporter.Builder}. It runs with
+ * <code>java.awt.headless=true</code>. The project is written to a
+ * temporary file next to the target one, then moved in place, so that several
+ * imports can run in parallel in the same folder and a project file is never
+ * seen half-written.
+ */
+@Plugin( type = Command.class, name = "Import CSV to Mastodon project", headless = true )
+public class CSVImporterCommand implements Command
+{
+
+	@Parameter
+	private Context context;
+
+	@Parameter( label = "CSV file", description = "The CSV file to import. Compressed files are read transparently." )
+	private File csvFile;
+
+	@Parameter( label = "BDV file", description = "The BigDataViewer XML file of the image data of the project." )
+	private File bdvFile;
+
+	@Parameter( label = "Project file", description = "The Mastodon project file to write. An existing file is replaced." )
+	private File projectFile;
+
+	@Parameter( label = "Separator", description = "The separator of the CSV file. Detected from the file if empty.", required = false )
+	private String separator = "";
+
+	@Parameter( label = "Spot radius", description = "The radius of the spots, if there is no radius column." )
+	private double radius = 1.;
+
+	@Parameter( label = "X column" )
+	private String xColumn = "POSITION_X";
+
+	@Parameter( label = "Y column" )
+	private String yColumn = "POSITION_Y";
+
+	@Parameter( label = "Z column" )
+	private String zColumn = "POSITION_Z";
+
+	@Parameter( label = "Frame column" )
+	private String frameColumn = "FRAME";
+
+	@Parameter( label = "Quality column", required = false )
+	private String qualityColumn = "";
+
+	@Parameter( label = "Radius column", required = false )
+	private String radiusColumn = "";
+
+	@Parameter( label = "ID column", required = false )
+	private String idColumn = "";
+
+	@Parameter( label = "Parent ID column", required = false )
+	private String parentIdColumn = "";
+
+	@Parameter( label = "Label column", required = false )
+	private String labelColumn = "";
+
+	@Parameter( label = "Tag column", required = false )
+	private String tagColumn = "";
+
+	@Parameter( label = "Track column", required = false )
+	private String trackColumn = "";
+
+	@Parameter( label = "ID type", required = false )
+	private IdType idType = IdType.INT;
+
+	@Parameter( label = "X origin", required = false )
+	private double xOrigin = 0.;
+
+	@Parameter( label = "Y origin", required = false )
+	private double yOrigin = 0.;
+
+	@Parameter( label = "Z origin", required = false )
+	private double zOrigin = 0.;
+
+	@Parameter( label = "Import all other columns", description = "Import the other numeric columns as spot features.", required = false )
+	private boolean importAllExtraColumns = false;
+
+	@Parameter( label = "First frame", required = false )
+	private Integer minFrame;
+
+	@Parameter( label = "Last frame", required = false )
+	private Integer maxFrame;
+
+	@Parameter( label = "Frame stride", required = false )
+	private int frameStride = 1;
+
+	@Parameter( label = "Minimal quality", required = false )
+	private Double minQuality;
+
+	@Parameter( label = "Bounding box", description = "The box spots must be in, as 'xmin,ymin,zmin,xmax,ymax,zmax'.", required = false )
+	private String boundingBox = "";
+
+	@Parameter( label = "Subsampling fraction", required = false )
+	private double sampleFraction = 1.;
+
+	@Parameter( label = "Subsampling seed", required = false )
+	private long sampleSeed = 0;
+
+	@Parameter( label = "Use a frame index", required = false )
+	private boolean frameIndex = false;
+
+	@Parameter( label = "Label spots with their id", description = "Store the id of each spot as its label, if there is no label column. Otherwise the labels are only derived from the ids on export.", required = false )
+	private boolean materializeLabels = true;
+
+	@Parameter( label = "Number of threads", description = "The number of parsing threads, 0 for all the cores.", required = false )
+	private int numThreads = 0;
+
+	/**
+	 * Where the statistics of the import are printed.
+	 */
+	private final PrintStream out = System.out;
+
+	@Override
+	public void run()
+	{
+		try
+		{
+			execute();
+		}
+		catch ( final IOException | SpimDataException e )
+		{
+			throw new RuntimeException( e.getMessage(), e );
+		}
+	}
+
+	/**
+	 * Creates the project, imports the CSV file in it and saves it.
+	 *
+	 * @return the statistics of the import.
+	 * @throws IOException
+	 *             if the import fails, or the project cannot be saved.
+	 * @throws SpimDataException
+	 *             if the BDV file cannot be read.
+	 */
+	public ImportStatistics execute() throws IOException, SpimDataException
+	{
+		// Fail before opening the image data.
+		if ( !csvFile.isFile() )
+			throw new NoSuchFileException( csvFile.getPath(), null, "Cannot find the CSV file." );
+
+		final long start = System.nanoTime();
+		final ProjectModel projectModel = ProjectCreator.createProjectFromBdvFile( bdvFile, context );
+		try
+		{
+			final CSVImporter importer = builder().model( projectModel.getModel() ).get();
+			if ( numThreads > 0 )
+				importer.setNumThreads( numThreads );
+			if ( !importer.checkInput() || !importer.process() )
+				throw new IOException( importer.getErrorMessage() );
+			if ( !importer.getErrors().isEmpty() )
+				out.println( importer.getErrors() );
+			final ImportStatistics statistics = importer.getStatistics();
+			out.print( statistics );
+
+			final long saveStart = System.nanoTime();
+			save( projectModel, projectFile.toPath().toAbsolutePath() );
+			out.println( String.format( Locale.ROOT, "Saved %s in %.1f s, %.1f s in total.",
+					projectFile, ( System.nanoTime() - saveStart ) / 1e9, ( System.nanoTime() - start ) / 1e9 ) );
+			return statistics;
+		}
+		finally
+		{
+			// Releases the image data opened with the project.
+			projectModel.close();
+		}
+	}
+
+	private CSVImporter.Builder builder()
+	{
+		final CSVImporter.Builder builder = CSVImporter.create()
+				.csvFilePath( csvFile.getPath() )
+				.radius( radius )
+				.xColumnName( xColumn )
+				.yColumnName( yColumn )
+				.zColumnName( zColumn )
+				.frameColumnName( frameColumn )
+				.qualityColumnName( qualityColumn )
+				.radiusColumnName( radiusColumn )
+				.idColumnName( idColumn )
+				.parentIdColumnName( parentIdColumn )
+				.labelColumnName( labelColumn )
+				.tagColumnName( tagColumn )
+				.trackColumnName( trackColumn )
+				.idType( idType )
+				.xOrigin( xOrigin )
+				.yOrigin( yOrigin )
+				.zOrigin( zOrigin )
+				.importAllExtraColumns( importAllExtraColumns )
+				.frameRange( null == minFrame ? Integer.MIN_VALUE : minFrame, null == maxFrame ? Integer.MAX_VALUE : maxFrame )
+				.frameStride( frameStride )
+				.subsample( sampleFraction, sampleSeed )
+				.frameIndex( frameIndex )
+				.materializeLabels( materializeLabels );
+		if ( null != separator && !separator.isEmpty() )
+			builder.separator( "\\t".equals( separator ) ? '\t' : separator.charAt( 0 ) );
+		if ( null != minQuality )
+			builder.minQuality( minQuality );
+		if ( null != boundingBox && !boundingBox.trim().isEmpty() )
+		{
+			final double[] bounds = Arrays.stream( boundingBox.split( "," ) ).mapToDouble( s -> Double.parseDouble( s.trim() ) ).toArray();
+			if ( bounds.length != 6 )
+				throw new IllegalArgumentException( "The bounding box must have 6 values, not " + bounds.length + ": " + boundingBox );
+			builder.boundingBox( Arrays.copyOfRange( bounds, 0, 3 ), Arrays.copyOfRange( bounds, 3, 6 ) );
+		}
+		return builder;
+	}
+
+	/**
+	 * Saves the project to a temporary file in the folder of the target, so
+	 * that the paths saved relative to the project stay valid, then moves it
+	 * to the target.
+	 */
+	private static void save( final ProjectModel projectModel, final Path target ) throws IOException
+	{
+		final Path tmp = Files.createTempFile( target.getParent(), target.getFileName().toString(), ".tmp" );
+		try
+		{
+			ProjectSaver.saveProject( tmp.toFile(), projectModel );
+			Files.move( tmp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE );
+		}
+		finally
+		{
+			Files.deleteIfExists( tmp );
+		}
+	}
+
+	private static final String USAGE = "Usage: CSVImporterCommand --csv FILE --bdv FILE --project FILE [options]\n"
+			+ "Options, given as '--name value' or '--name=value':\n"
+			+ "  --separator C          the separator, detected if not set ('\\t' for tabs)\n"
+			+ "  --radius R             the spot radius, if there is no radius column (1)\n"
+			+ "  --x, --y, --z NAME     the position columns (POSITION_X, POSITION_Y, POSITION_Z)\n"
+			+ "  --frame NAME           the frame column (FRAME)\n"
+			+ "  --quality NAME, --radius-column NAME, --id NAME, --parent-id NAME,\n"
+			+ "  --label NAME, --tag NAME, --track NAME\n"
+			+ "                         the optional columns\n"
+			+ "  --id-type TYPE         INT, LONG or STRING (INT)\n"
+			+ "  --origin X,Y,Z         added to the positions\n"
+			+ "  --all-columns          import the other numeric columns as features\n"
+			+ "  --frames MIN:MAX       the range of frames to import\n"
+			+ "  --frame-stride N       import one frame every N frames\n"
+			+ "  --min-quality Q        the minimal quality of the spots to import\n"
+			+ "  --box X0,Y0,Z0,X1,Y1,Z1\n"
+			+ "                         the box the spots to import must be in\n"
+			+ "  --subsample F[:SEED]   import a fraction F of the rows\n"
+			+ "  --frame-index          build and use a frame index next to the CSV file\n"
+			+ "  --no-labels            do not store the id of each spot as its label,\n"
+			+ "                         not with string ids\n"
+			+ "  --threads N            the number of parsing threads (all cores)\n";
+
+	/**
+	 * Imports a CSV file in a new project from the command line. Run without
+	 * argument to print the options. Exits with a non-zero status if the
+	 * import fails.
+	 *
+	 * @param args
+	 *            the options.
+	 */
+	public static void main( final String[] args )
+	{
+		System.setProperty( "java.awt.headless", "true" );
+		Locale.setDefault( Locale.ROOT );
+
+		final CSVImporterCommand command;
+		try
+		{
+			command = parse( args );
+		}
+		catch ( final IllegalArgumentException e )
+		{
+			System.err.println( e.getMessage() );
+			System.err.print( USAGE );
+			System.exit( 2 );
+			return;
+		}
+
+		int status = 0;
+		try (final Context context = new Context())
+		{
+			command.context = context;
+			command.execute();
+		}
+		catch ( final IOException | SpimDataException | IllegalArgumentException e )
+		{
+			System.err.println( e.getMessage() );
+			status = 1;
+		}
+		// The image loader may have started non-daemon threads.
+		System.exit( status );
+	}
+
+	/**
+	 * Creates a command from the command line options.
+	 *
+	 * @throws IllegalArgumentException
+	 *             if an option is unknown or invalid, or a required one is
+	 *             missing.
+	 */
+	static CSVImporterCommand parse( final String[] args )
+	{
+		if ( args.length == 0 )
+			throw new IllegalArgumentException( "Missing arguments." );
+
+		final CSVImporterCommand command = new CSVImporterCommand();
+		for ( int i = 0; i < args.length; i++ )
+		{
+			final String arg = args[ i ];
+			if ( !arg.startsWith( "--" ) )
+				throw new IllegalArgumentException( "Unexpected argument: " + arg );
+
+			// Flags.
+			if ( arg.equals( "--all-columns" ) )
+			{
+				command.importAllExtraColumns = true;
+				continue;
+			}
+			if ( arg.equals( "--frame-index" ) )
+			{
+				command.frameIndex = true;
+				continue;
+			}
+			if ( arg.equals( "--no-labels" ) )
+			{
+				command.materializeLabels = false;
+				continue;
+			}
+
+			final int eq = arg.indexOf( '=' );
+			final String name = eq < 0 ? arg.substring( 2 ) : arg.substring( 2, eq );
+			final String value;
+			if ( eq >= 0 )
+				value = arg.substring( eq + 1 );
+			else if ( i + 1 < args.length )
+				value = args[ ++i ];
+			else
+				throw new IllegalArgumentException( "Missing value for " + arg );
+
+			try
+			{
+				switch ( name )
+				{
+				case "csv":
+					command.csvFile = new File( value );
+					break;
+				case "bdv":
+					command.bdvFile = new File( value );
+					break;
+				case "project":
+					command.projectFile = new File( value );
+					break;
+				case "separator":
+					command.separator = value;
+					break;
+				case "radius":
+					command.radius = Double.parseDouble( value );
+					break;
+				case "x":
+					command.xColumn = value;
+					break;
+				case "y":
+					command.yColumn = value;
+					break;
+				case "z":
+					command.zColumn = value;
+					break;
+				case "frame":
+					command.frameColumn = value;
+					break;
+				case "quality":
+					command.qualityColumn = value;
+					break;
+				case "radius-column":
+					command.radiusColumn = value;
+					break;
+				case "id":
+					command.idColumn = value;
+					break;
+				case "parent-id":
+					command.parentIdColumn = value;
+					break;
+				case "label":
+					command.labelColumn = value;
+					break;
+				case "tag":
+					command.tagColumn = value;
+					break;
+				case "track":
+					command.trackColumn = value;
+					break;
+				case "id-type":
+					command.idType = IdType.valueOf( value.toUpperCase( Locale.ROOT ) );
+					break;
+				case "origin":
+				{
+					final String[] origin = value.split( "," );
+					if ( origin.length != 3 )
+						throw new IllegalArgumentException( "The origin must have 3 values: " + value );
+					command.xOrigin = Double.parseDouble( origin[ 0 ].trim() );
+					command.yOrigin = Double.parseDouble( origin[ 1 ].trim() );
+					command.zOrigin = Double.parseDouble( origin[ 2 ].trim() );
+					break;
+				}
+				case "frames":
+				{
+					final int colon = value.indexOf( ':' );
+					if ( colon < 0 )
+						throw new IllegalArgumentException( "The frame range must be given as MIN:MAX: " + value );
+					final String min = value.substring( 0, colon ).trim();
+					final String max = value.substring( colon + 1 ).trim();
+					command.minFrame = min.isEmpty() ? null : Integer.valueOf( min );
+					command.maxFrame = max.isEmpty() ? null : Integer.valueOf( max );
+					break;
+				}
+				case "frame-stride":
+					command.frameStride = Integer.parseInt( value );
+					break;
+				case "min-quality":
+					command.minQuality = Double.valueOf( value );
+					break;
+				case "box":
+					command.boundingBox = value;
+					break;
+				case "subsample":
+				{
+					final int colon = value.indexOf( ':' );
+					command.sampleFraction = Double.parseDouble( colon < 0 ? value : value.substring( 0, colon ) );
+					if ( colon >= 0 )
+						command.sampleSeed = Long.parseLong( value.substring( colon + 1 ) );
+					break;
+				}
+				case "threads":
+					command.numThreads = Integer.parseInt( value );
+					break;
+				default:
+					throw new IllegalArgumentException( "Unknown option: " + arg );
+				}
+			}
+			catch ( final NumberFormatException e )
+			{
+				throw new IllegalArgumentException( "Invalid value for --" + name + ": " + value );
+			}
+		}
+
+		if ( null == command.csvFile || null == command.bdvFile || null == command.projectFile )
+			throw new IllegalArgumentException( "The --csv, --bdv and --project options are required." );
+		return command;
+	}
+}
@@ -49,8 +49,10 @@ import org.mastodon.app.ui.ViewMenuBuilder.MenuItem;
 import org.mastodon.mamut.KeyConfigScopes;
 import org.mastodon.mamut.MamutMenuBuilder;
 import org.mastodon.mamut.ProjectModel;
+import org.mastodon.mamut.io.csv.ImportedLabels;
 import org.mastodon.mamut.io.csv.plugin.ui.CSVImporterUIController;
 import org.mastodon.mamut.model.Model;
+import org.mastodon.mamut.model.ModelGraph;
 import org.mastodon.mamut.plugin.MamutPlugin;
 import org.mastodon.ui.keymap.KeyConfigContexts;
 import org.scijava.plugin.Plugin;
@@ -65,17 +67,24 @@ public class CSVImporterPlugin implements MamutPlugin
 
 	public static final String SHOW_CSV_IMPORTER_DIALOG_ACTION = "show csv importer dialog";
 
+	public static final String LABEL_IMPORTED_SPOTS_ACTION = "label imported spots";
+
 	private static final String[] ACTION_1_KEYS = new String[] { "not mapped" };
 
+	private static final String[] ACTION_2_KEYS = new String[] { "not mapped" };
+
 	private static Map< String, String > menuTexts = new HashMap<>();
 
 	static
 	{
 		menuTexts.put( SHOW_CSV_IMPORTER_DIALOG_ACTION, "CSV importer" );
+		menuTexts.put( LABEL_IMPORTED_SPOTS_ACTION, "Label imported spots with their id" );
 	}
 
 	private final ToggleCSVImporterDialogAction toggleImporterDialog = new ToggleCSVImporterDialogAction();
 
+	private final LabelImportedSpotsAction labelImportedSpots = new LabelImportedSpotsAction();
+
 	@Override
 	public Map< String, String > getMenuTexts()
 	{
@@ -86,19 +95,23 @@ public class CSVImporterPlugin implements MamutPlugin
 	public List< MenuItem > getMenuItems()
 	{
 		return Collections.singletonList(
-				MamutMenuBuilder.fileMenu( menu( "Import", item( SHOW_CSV_IMPORTER_DIALOG_ACTION ) ) ) );
+				MamutMenuBuilder.fileMenu( menu( "Import",
+						item( SHOW_CSV_IMPORTER_DIALOG_ACTION ),
+						item( LABEL_IMPORTED_SPOTS_ACTION ) ) ) );
 	}
 
 	@Override
 	public void installGlobalActions( final Actions actions )
 	{
 		actions.namedAction( toggleImporterDialog, ACTION_1_KEYS );
+		actions.namedAction( labelImportedSpots, ACTION_2_KEYS );
 	}
 
 	@Override
 	public void setAppPluginModel( final ProjectModel appModel )
 	{
 		toggleImporterDialog.setModel( appModel.getModel() );
+		labelImportedSpots.setModel( appModel.getModel() );
 	}
 
 	/**
@@ -116,6 +129,7 @@ public class CSVImporterPlugin implements MamutPlugin
 		public void getCommandDescriptions( final CommandDescriptions descriptions )
 		{
 			descriptions.add( SHOW_CSV_IMPORTER_DIALOG_ACTION, ACTION_1_KEYS, "Show the CSV importer dialog." );
+			descriptions.add( LABEL_IMPORTED_SPOTS_ACTION, ACTION_2_KEYS, "Store the id of the spots imported without label as their label." );
 		}
 	}
 
@@ -160,4 +174,49 @@ public class CSVImporterPlugin implements MamutPlugin
 			return controller;
 		}
 	}
+
+	/**
+	 * Stores the id of the spots imported without label as their label, so
+	 * that the views show them, see {@link ImportedLabels#materialize(ModelGraph)}.
+	 */
+	public static class LabelImportedSpotsAction extends AbstractNamedAction
+	{
+
+		private static final long serialVersionUID = 1L;
+
+		private Model model;
+
+		public LabelImportedSpotsAction()
+		{
+			super( LABEL_IMPORTED_SPOTS_ACTION );
+		}
+
+		public void setModel( final Model model )
+		{
+			this.model = model;
+		}
+
+		@Override
+		public void actionPerformed( final ActionEvent e )
+		{
+			if ( null == model )
+				return;
+			final ModelGraph graph = model.getGraph();
+			final int n;
+			graph.getLock().writeLock().lock();
+			try
+			{
+				n = new ImportedLabels( model.getFeatureModel() ).materialize( graph );
+			}
+			finally
+			{
+				graph.getLock().writeLock().unlock();
+			}
+			if ( n > 0 )
+			{
+				model.setUndoPoint();
+				graph.notifyGraphChanged();
+			}
+		}
+	}
 }
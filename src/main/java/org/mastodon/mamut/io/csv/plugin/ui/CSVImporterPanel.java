@@ -42,12 +42,15 @@ import javax.swing.JComboBox;
 import javax.swing.JFormattedTextField;
 import javax.swing.JLabel;
 import javax.swing.JPanel;
+import javax.swing.JProgressBar;
 import javax.swing.JSeparator;
 import javax.swing.JTextField;
 import javax.swing.SwingConstants;
+import javax.swing.SwingUtilities;
 import javax.swing.border.EmptyBorder;
 
 import org.mastodon.mamut.io.csv.CSVImporter;
+import org.mastodon.ui.ProgressListener;
 
 public class CSVImporterPanel extends JPanel
 {
@@ -59,6 +62,10 @@ public class CSVImporterPanel extends JPanel
 
 	final JButton btnImport;
 
+	final JButton btnCancel;
+
+	private final JProgressBar pbar;
+
 	final JComboBox< String > comboBoxXCol;
 
 	final JComboBox< String > comboBoxYCol;
@@ -87,6 +94,14 @@ public class CSVImporterPanel extends JPanel
 
 	final JFormattedTextField ftfRadius;
 
+	final JFormattedTextField ftfFrameFrom;
+
+	final JFormattedTextField ftfFrameTo;
+
+	final JCheckBox chckbxFrameIndex;
+
+	final JCheckBox chckbxStoreLabels;
+
 	public CSVImporterPanel()
 	{
 		setBorder( new EmptyBorder( 5, 5, 5, 5 ) );
@@ -139,7 +154,6 @@ public class CSVImporterPanel extends JPanel
 		gbc_chckbxImportTracks.gridx = 0;
 		gbc_chckbxImportTracks.gridy = 3;
 		panelControl.add( chckbxImportTracks, gbc_chckbxImportTracks );
-		chckbxImportTracks.setVisible( false ); // TODO
 
 		final JSeparator separator = new JSeparator();
 		final GridBagConstraints gbc_separator = new GridBagConstraints();
@@ -278,7 +292,6 @@ public class CSVImporterPanel extends JPanel
 		gbc_lblTrackColumn.gridx = 0;
 		gbc_lblTrackColumn.gridy = 13;
 		panelControl.add( lblTrackColumn, gbc_lblTrackColumn );
-		lblTrackColumn.setVisible( false ); // TODO
 
 		comboBoxTrackCol = new JComboBox<>();
 		final GridBagConstraints gbc_comboBoxTrackCol = new GridBagConstraints();
@@ -290,7 +303,6 @@ public class CSVImporterPanel extends JPanel
 		panelControl.add( comboBoxTrackCol, gbc_comboBoxTrackCol );
 		chckbxImportTracks.addActionListener( ( e ) -> comboBoxTrackCol.setEnabled( chckbxImportTracks.isSelected() ) );
 		comboBoxTrackCol.setEnabled( chckbxImportTracks.isSelected() );
-		comboBoxTrackCol.setVisible( false ); // TODO
 
 		final JLabel lblQualityColumn = new JLabel( "Quality column:" );
 		final GridBagConstraints gbc_lblQualityColumn = new GridBagConstraints();
@@ -394,13 +406,74 @@ public class CSVImporterPanel extends JPanel
 		gbc_comboBoxTag.gridy = 19;
 		panelControl.add( comboBoxTagCol, gbc_comboBoxTag );
 
+		final JLabel lblFrames = new JLabel( "Frames from:" );
+		final GridBagConstraints gbc_lblFrames = new GridBagConstraints();
+		gbc_lblFrames.anchor = GridBagConstraints.EAST;
+		gbc_lblFrames.insets = new Insets( 5, 5, 5, 5 );
+		gbc_lblFrames.gridx = 0;
+		gbc_lblFrames.gridy = 20;
+		panelControl.add( lblFrames, gbc_lblFrames );
+
+		ftfFrameFrom = new JFormattedTextField( NumberFormat.getIntegerInstance() );
+		ftfFrameFrom.setToolTipText( "First frame to import. Leave empty to start from the first frame." );
+		final GridBagConstraints gbc_ftfFrameFrom = new GridBagConstraints();
+		gbc_ftfFrameFrom.insets = new Insets( 5, 5, 5, 5 );
+		gbc_ftfFrameFrom.fill = GridBagConstraints.HORIZONTAL;
+		gbc_ftfFrameFrom.gridx = 1;
+		gbc_ftfFrameFrom.gridy = 20;
+		panelControl.add( ftfFrameFrom, gbc_ftfFrameFrom );
+
+		final JLabel lblFramesTo = new JLabel( "to:" );
+		final GridBagConstraints gbc_lblFramesTo = new GridBagConstraints();
+		gbc_lblFramesTo.anchor = GridBagConstraints.EAST;
+		gbc_lblFramesTo.insets = new Insets( 5, 5, 5, 5 );
+		gbc_lblFramesTo.gridx = 2;
+		gbc_lblFramesTo.gridy = 20;
+		panelControl.add( lblFramesTo, gbc_lblFramesTo );
+
+		ftfFrameTo = new JFormattedTextField( NumberFormat.getIntegerInstance() );
+		ftfFrameTo.setToolTipText( "Last frame to import. Leave empty to import up to the last frame." );
+		final GridBagConstraints gbc_ftfFrameTo = new GridBagConstraints();
+		gbc_ftfFrameTo.gridwidth = 2;
+		gbc_ftfFrameTo.insets = new Insets( 5, 5, 5, 0 );
+		gbc_ftfFrameTo.fill = GridBagConstraints.HORIZONTAL;
+		gbc_ftfFrameTo.gridx = 3;
+		gbc_ftfFrameTo.gridy = 20;
+		panelControl.add( ftfFrameTo, gbc_ftfFrameTo );
+
+		chckbxFrameIndex = new JCheckBox( "Index frames for fast partial imports" );
+		chckbxFrameIndex.setToolTipText( "<html>Save the position of the frames in a file next to the CSV file,<br>"
+				+ "so that importing a range of frames only reads these frames.</html>" );
+		final GridBagConstraints gbc_chckbxFrameIndex = new GridBagConstraints();
+		gbc_chckbxFrameIndex.anchor = GridBagConstraints.EAST;
+		gbc_chckbxFrameIndex.gridwidth = 5;
+		gbc_chckbxFrameIndex.insets = new Insets( 5, 5, 5, 0 );
+		gbc_chckbxFrameIndex.gridx = 0;
+		gbc_chckbxFrameIndex.gridy = 21;
+		panelControl.add( chckbxFrameIndex, gbc_chckbxFrameIndex );
+
+		chckbxStoreLabels = new JCheckBox( "Label spots with their id" );
+		chckbxStoreLabels.setToolTipText( "<html>Store the id of each spot as its label when there is no label column.<br>"
+				+ "Unchecked, large files import faster and use less memory, but the views<br>"
+				+ "show internal spot indices instead of the ids until the labels are stored<br>"
+				+ "with File &gt; Import &gt; Label imported spots with their id.<br>"
+				+ "Exported CSV files always use the ids.</html>" );
+		chckbxStoreLabels.setSelected( true );
+		final GridBagConstraints gbc_chckbxStoreLabels = new GridBagConstraints();
+		gbc_chckbxStoreLabels.anchor = GridBagConstraints.EAST;
+		gbc_chckbxStoreLabels.gridwidth = 5;
+		gbc_chckbxStoreLabels.insets = new Insets( 5, 5, 5, 0 );
+		gbc_chckbxStoreLabels.gridx = 0;
+		gbc_chckbxStoreLabels.gridy = 22;
+		panelControl.add( chckbxStoreLabels, gbc_chckbxStoreLabels );
+
 		final JSeparator separatorButton = new JSeparator();
 		final GridBagConstraints gbc_separatorButton = new GridBagConstraints();
 		gbc_separatorButton.fill = GridBagConstraints.BOTH;
 		gbc_separatorButton.gridwidth = 5;
 		gbc_separatorButton.insets = new Insets( 5, 5, 5, 5 );
 		gbc_separatorButton.gridx = 0;
-		gbc_separatorButton.gridy = 20;
+		gbc_separatorButton.gridy = 23;
 		panelControl.add( separatorButton, gbc_separatorButton );
 
 		final JPanel panelButtonExport = new JPanel();
@@ -408,14 +481,23 @@ public class CSVImporterPanel extends JPanel
 		gbc_panelButtonExport.anchor = GridBagConstraints.EAST;
 		gbc_panelButtonExport.gridwidth = 5;
 		gbc_panelButtonExport.gridx = 0;
-		gbc_panelButtonExport.gridy = 21;
+		gbc_panelButtonExport.gridy = 24;
 		panelControl.add( panelButtonExport, gbc_panelButtonExport );
 		final FlowLayout flowLayout = ( FlowLayout ) panelButtonExport.getLayout();
 		flowLayout.setAlignment( FlowLayout.RIGHT );
 
+		pbar = new JProgressBar();
+		pbar.setStringPainted( true );
+		pbar.setString( "" );
+		panelButtonExport.add( pbar );
+
 		btnImport = new JButton( "Import" );
 		panelButtonExport.add( btnImport );
 
+		btnCancel = new JButton( "Cancel" );
+		btnCancel.setVisible( false );
+		panelButtonExport.add( btnCancel );
+
 		final JPanel panelTitle = new JPanel();
 		add( panelTitle, BorderLayout.NORTH );
 		panelTitle.setLayout( new BorderLayout( 0, 0 ) );
@@ -428,4 +510,35 @@ public class CSVImporterPanel extends JPanel
 		final JLabel lblVersion = new JLabel( "v" + CSVImporter.PLUGIN_VERSION, JLabel.CENTER  );
 		panelTitle.add( lblVersion, BorderLayout.SOUTH );
 	}
+
+	public ProgressListener getProgressListener()
+	{
+		return new ProgressListener()
+		{
+
+			@Override
+			public void showStatus( final String string )
+			{
+				SwingUtilities.invokeLater( () -> pbar.setString( string ) );
+			}
+
+			@Override
+			public void showProgress( final int current, final int total )
+			{
+				SwingUtilities.invokeLater( () -> {
+					pbar.setMaximum( total );
+					pbar.setValue( current );
+				} );
+			}
+
+			@Override
+			public void clearStatus()
+			{
+				SwingUtilities.invokeLater( () -> {
+					pbar.setValue( 0 );
+					pbar.setString( "" );
+				} );
+			}
+		};
+	}
 }
@@ -30,50 +30,90 @@ package org.mastodon.mamut.io.csv.plugin.ui;
 
 import java.awt.FileDialog;
 import java.io.File;
-import java.io.FileNotFoundException;
-import java.io.FileReader;
+import java.io.IOException;
+import java.nio.file.NoSuchFileException;
 import java.util.ArrayList;
-import java.util.HashMap;
-import java.util.Iterator;
-import java.util.Map;
+import java.util.Arrays;
+import java.util.LinkedHashSet;
 
 import javax.swing.DefaultComboBoxModel;
 import javax.swing.JComboBox;
+import javax.swing.JFormattedTextField;
 import javax.swing.JFrame;
 
+import org.mastodon.mamut.io.csv.CSVDirectoryWatcher;
+import org.mastodon.mamut.io.csv.CSVFileInfo;
 import org.mastodon.mamut.io.csv.CSVImporter;
 import org.mastodon.mamut.model.Model;
 import org.scijava.log.Logger;
 import org.scijava.log.StderrLogService;
 
-import com.opencsv.CSVParser;
-import com.opencsv.CSVParserBuilder;
-import com.opencsv.CSVReader;
-import com.opencsv.CSVReaderBuilder;
-
 public class CSVImporterUIController
 {
 	private static final String NONE_COLUMN = "Don't use";
 
+	private static final String WATCH_TEXT = "Watch folder";
+
+	private static final String STOP_WATCHING_TEXT = "Stop watching";
+
 	private static final FileDialog dialog = new FileDialog( new JFrame(), "Open a CSV file", FileDialog.LOAD );
 
 	private final CSVImporterPanel view;
 
 	private File file;
 
-	private Map< String, Integer > headerMap;
+	/**
+	 * What is known of the selected file, passed to the importer so that it
+	 * does not read it again.
+	 */
+	private CSVFileInfo fileInfo;
 
 	private final Logger logger;
 
 	private final Model model;
 
+	/**
+	 * The importer currently running, if any.
+	 */
+	private volatile CSVImporter runningImporter;
+
+	/**
+	 * The directory watcher currently running, if any.
+	 */
+	private CSVDirectoryWatcher watcher;
+
 	public CSVImporterUIController( final Model model )
+	{
+		this( model, false );
+	}
+
+	/**
+	 * Creates a controller for the CSV importer panel.
+	 *
+	 * @param model
+	 *            the model to import into.
+	 * @param watchDirectory
+	 *            if <code>true</code>, the selected file is only used to
+	 *            define the column mapping, and the import button starts
+	 *            watching its folder for new files with the same extension.
+	 *            Otherwise, the import button imports the selected file.
+	 */
+	public CSVImporterUIController( final Model model, final boolean watchDirectory )
 	{
 		this.model = model;
 		this.view = new CSVImporterPanel();
 		view.btnBrowse.addActionListener( ( e ) -> browse() );
 		view.textFieldFile.addActionListener( ( e ) -> setCSVFile( new File( view.textFieldFile.getText() ) ) );
-		view.btnImport.addActionListener( ( e ) -> export() );
+		if ( watchDirectory )
+		{
+			view.btnImport.setText( WATCH_TEXT );
+			view.btnImport.addActionListener( ( e ) -> toggleWatch() );
+		}
+		else
+		{
+			view.btnImport.addActionListener( ( e ) -> export() );
+		}
+		view.btnCancel.addActionListener( ( e ) -> cancel() );
 		logger = new StderrLogService();
 
 		/*
@@ -89,9 +129,21 @@ public class CSVImporterUIController
 		return view;
 	}
 
+	private void cancel()
+	{
+		final CSVImporter running = runningImporter;
+		if ( running != null )
+		{
+			view.btnCancel.setEnabled( false );
+			running.cancel( "Canceled by the user." );
+		}
+	}
+
 	private void export()
 	{
 		view.btnImport.setEnabled( false );
+		view.btnCancel.setEnabled( true );
+		view.btnCancel.setVisible( true );
 		new Thread( "Mastodon CSV importer thread" )
 		{
 			@Override
@@ -99,25 +151,10 @@ public class CSVImporterUIController
 			{
 				try
 				{
-					final String filePath = view.textFieldFile.getText();
-					final double radius = ( ( Number ) view.ftfRadius.getValue() ).doubleValue();
-
-					final CSVImporter importer = CSVImporter
-							.create()
-							.model( model )
-							.csvFilePath( filePath )
-							.radius( radius )
-							.xColumnName( ( String ) view.comboBoxXCol.getSelectedItem() )
-							.yColumnName( ( String ) view.comboBoxYCol.getSelectedItem() )
-							.zColumnName( ( String ) view.comboBoxZCol.getSelectedItem() )
-							.labelColumnName( ( String ) view.comboBoxNameCol.getSelectedItem() )
-							.frameColumnName( ( String ) view.comboBoxFrameCol.getSelectedItem() )
-							.qualityColumnName( ( String ) view.comboBoxQualityCol.getSelectedItem() )
-							.radiusColumnName( ( String ) view.comboBoxRadiusCol.getSelectedItem() )
-							.idColumnName( ( String ) view.comboBoxIDCol.getSelectedItem() )
-							.parentIdColumnName( ( String ) view.comboBoxParentIdCol.getSelectedItem() )
-							.tagColumnName( ( String ) view.comboBoxTagCol.getSelectedItem() )
+					final CSVImporter importer = importerBuilder()
+							.csvFilePath( view.textFieldFile.getText() )
 							.get();
+					runningImporter = importer;
 
 					if ( !importer.checkInput() || !importer.process() )
 					{
@@ -125,15 +162,125 @@ public class CSVImporterUIController
 						return;
 					}
 					log( "CSV import successful.\n" );
+					log( importer.getStatistics().toString() );
+					if ( !importer.getErrors().isEmpty() )
+						error( "Some rows could not be imported:\n" + importer.getErrors() );
+				}
+				catch ( final IllegalArgumentException e )
+				{
+					error( e.getMessage() );
 				}
 				finally
 				{
+					runningImporter = null;
+					view.btnCancel.setVisible( false );
 					view.btnImport.setEnabled( true );
 				}
 			}
 		}.start();
 	}
 
+	/**
+	 * Returns a builder for an importer with the column mapping and radius
+	 * currently selected. The file path is not set.
+	 */
+	private CSVImporter.Builder importerBuilder()
+	{
+		final double radius = ( ( Number ) view.ftfRadius.getValue() ).doubleValue();
+		return CSVImporter
+				.create()
+				.model( model )
+				.radius( radius )
+				.xColumnName( ( String ) view.comboBoxXCol.getSelectedItem() )
+				.yColumnName( ( String ) view.comboBoxYCol.getSelectedItem() )
+				.zColumnName( ( String ) view.comboBoxZCol.getSelectedItem() )
+				.labelColumnName( ( String ) view.comboBoxNameCol.getSelectedItem() )
+				.frameColumnName( ( String ) view.comboBoxFrameCol.getSelectedItem() )
+				.qualityColumnName( ( String ) view.comboBoxQualityCol.getSelectedItem() )
+				.radiusColumnName( ( String ) view.comboBoxRadiusCol.getSelectedItem() )
+				.idColumnName( ( String ) view.comboBoxIDCol.getSelectedItem() )
+				.parentIdColumnName( ( String ) view.comboBoxParentIdCol.getSelectedItem() )
+				.tagColumnName( ( String ) view.comboBoxTagCol.getSelectedItem() )
+				.trackColumnName( view.chckbxImportTracks.isSelected() ? ( String ) view.comboBoxTrackCol.getSelectedItem() : null )
+				.fileInfo( fileInfo )
+				.frameRange( frameBound( view.ftfFrameFrom, Integer.MIN_VALUE ), frameBound( view.ftfFrameTo, Integer.MAX_VALUE ) )
+				.frameIndex( view.chckbxFrameIndex.isSelected() )
+				.materializeLabels( view.chckbxStoreLabels.isSelected() )
+				.progressListener( view.getProgressListener() );
+	}
+
+	/**
+	 * Returns the frame entered in the specified field, or the specified
+	 * default value if it is empty.
+	 */
+	private static int frameBound( final JFormattedTextField field, final int defaultValue )
+	{
+		final Object value = field.getValue();
+		if ( field.getText().trim().isEmpty() || !( value instanceof Number ) )
+			return defaultValue;
+		return ( ( Number ) value ).intValue();
+	}
+
+	/**
+	 * Starts or stops watching the folder of the selected file for new files
+	 * with the same extension, imported with the current column mapping.
+	 */
+	private void toggleWatch()
+	{
+		if ( watcher != null )
+		{
+			stopWatching();
+			return;
+		}
+
+		final File selected = new File( view.textFieldFile.getText() );
+		final File directory = selected.getAbsoluteFile().getParentFile();
+		final CSVDirectoryWatcher w = new CSVDirectoryWatcher( directory.toPath(), "*" + extension( selected.getName() ), importerBuilder(), logger );
+		try
+		{
+			w.start();
+		}
+		catch ( final IOException e )
+		{
+			error( "Cannot watch folder " + directory + '\n' + e.getMessage() );
+			e.printStackTrace();
+			return;
+		}
+		watcher = w;
+		view.btnImport.setText( STOP_WATCHING_TEXT );
+		view.btnBrowse.setEnabled( false );
+	}
+
+	/**
+	 * Stops watching the folder, if it is watched. The import running, if
+	 * any, is canceled.
+	 */
+	public void stopWatching()
+	{
+		if ( watcher == null )
+			return;
+		watcher.close();
+		watcher = null;
+		view.btnImport.setText( WATCH_TEXT );
+		view.btnBrowse.setEnabled( true );
+	}
+
+	/**
+	 * Returns the extension of the specified file name, including the
+	 * extension of the compression if any, for instance <code>.csv.gz</code>.
+	 */
+	private static String extension( final String fileName )
+	{
+		int dot = fileName.lastIndexOf( '.' );
+		if ( dot > 0 && isCompressedCSVFile( fileName ) )
+		{
+			final int previous = fileName.lastIndexOf( '.', dot - 1 );
+			if ( previous > 0 )
+				dot = previous;
+		}
+		return dot > 0 ? fileName.substring( dot ) : "";
+	}
+
 	private void browse()
 	{
 		final File file = askForCSVfile();
@@ -154,12 +301,17 @@ public class CSVImporterUIController
 		String selectedFile = dialog.getFile();
 		if ( null == selectedFile )
 		{ return null; }
-		if ( !selectedFile.endsWith( ".csv" ) )
+		if ( !selectedFile.endsWith( ".csv" ) && !isCompressedCSVFile( selectedFile ) )
 			selectedFile += ".csv";
 		file = new File( dialog.getDirectory(), selectedFile );
 		return file;
 	}
 
+	private static boolean isCompressedCSVFile( final String fileName )
+	{
+		return fileName.endsWith( ".gz" ) || fileName.endsWith( ".zst" ) || fileName.endsWith( ".xz" );
+	}
+
 	public void setCSVFile( final File file )
 	{
 		this.file = file;
@@ -176,41 +328,23 @@ public class CSVImporterUIController
 		final String filePath = view.textFieldFile.getText();
 
 		/*
-		 * Open and parse file.
+		 * Sample the file once, and read its header.
 		 */
 
-		final CSVParser parser =
-				new CSVParserBuilder()
-						.withIgnoreQuotations( true )
-						.build();
+		fileInfo = null;
 		try
 		{
-			final CSVReader reader = new CSVReaderBuilder( new FileReader( filePath ) )
-					.withCSVParser( parser )
-					.build();
-			final Iterator< String[] > it = reader.iterator();
-
-			/*
-			 * Parse first line and reads it as the header of the file.
-			 */
-
-			if ( !it.hasNext() )
+			final CSVFileInfo info = CSVFileInfo.sniff( filePath );
+			if ( info.getHeaders().length == 0 )
 			{
 				error( "CSV file is empty." );
 				clearComboBoxes();
 				return false;
 			}
-
-			final String[] firstLine = it.next();
-			this.headerMap = new HashMap<>( firstLine.length );
-			for ( int i = 0; i < firstLine.length; i++ )
-			{
-				final String cleanKey = firstLine[ i ].trim().replaceAll( "\\p{C}", "" );
-				headerMap.put( cleanKey, Integer.valueOf( i ) );
-			}
+			log( info.toString() + '\n' );
 
 			// Iterate in column orders.
-			final ArrayList< String > headers = new ArrayList<>( headerMap.keySet() );
+			final ArrayList< String > headers = new ArrayList<>( new LinkedHashSet<>( Arrays.asList( info.getHeaders() ) ) );
 			headers.removeIf( ( e ) -> e.trim().isEmpty() );
 
 			if ( headers.isEmpty() )
@@ -332,13 +466,20 @@ public class CSVImporterUIController
 			view.comboBoxQualityCol.setSelectedIndex( qualitycol );
 			view.comboBoxRadiusCol.setSelectedIndex( radiuscol );
 			view.comboBoxNameCol.setSelectedIndex( namecol );
+			fileInfo = info;
 		}
-		catch ( final FileNotFoundException e )
+		catch ( final NoSuchFileException e )
 		{
 			error( "Cannot find file " + filePath );
 			e.printStackTrace();
 			return false;
 		}
+		catch ( final IOException e )
+		{
+			error( "Error reading file " + filePath + '\n' + e.getMessage() );
+			e.printStackTrace();
+			return false;
+		}
 		return true;
 	}
 
@@ -0,0 +1,129 @@
+/*-
+ * #%L
+ * mastodon-pasteur
+ * %%
+ * Copyright (C) 2019 - 2025 Tobias Pietzsch, Jean-Yves Tinevez
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package org.mastodon.mamut.io.csv;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.junit.Test;
+import org.mastodon.mamut.model.Model;
+import org.mastodon.mamut.model.Spot;
+import org.scijava.log.StderrLogService;
+
+public class CSVDirectoryWatcherTest
+{
+
+	private static final long TIMEOUT_MS = 20_000;
+
+	@Test
+	public void testImportNewFile() throws IOException, InterruptedException
+	{
+		final Path directory = Files.createTempDirectory( "CSVDirectoryWatcherTest" );
+		directory.toFile().deleteOnExit();
+		final Path existing = directory.resolve( "t0.csv" );
+		write( existing, "ID,POSITION_X,POSITION_Y,POSITION_Z,FRAME\n"
+				+ "1,0,0,0,0\n" );
+
+		final Model model = new Model();
+		final CSVImporter.Builder builder = CSVImporter.create()
+				.model( model )
+				.radius( 1. )
+				.xColumnName( "POSITION_X" )
+				.yColumnName( "POSITION_Y" )
+				.zColumnName( "POSITION_Z" )
+				.frameColumnName( "FRAME" )
+				.idColumnName( "ID" )
+				.parentIdColumnName( "PARENT_ID" );
+
+		try (final CSVDirectoryWatcher watcher = new CSVDirectoryWatcher( directory, "*.csv", builder, new StderrLogService() ))
+		{
+			watcher.start();
+			assertTrue( watcher.isRunning() );
+
+			write( directory.resolve( "t1.csv" ), "ID,POSITION_X,POSITION_Y,POSITION_Z,FRAME,PARENT_ID\n"
+					+ "10,0,0,0,1,-1\n"
+					+ "11,1,0,0,1,-1\n" );
+			write( directory.resolve( "t1.txt" ), "Not a CSV file.\n" );
+			waitForSpots( model, 2 );
+
+			write( directory.resolve( "t2.csv" ), "ID,POSITION_X,POSITION_Y,POSITION_Z,FRAME,PARENT_ID\n"
+					+ "20,0,0,0,2,10\n" );
+			waitForSpots( model, 3 );
+
+			watcher.close();
+			assertFalse( watcher.isRunning() );
+		}
+		finally
+		{
+			for ( final String name : new String[] { "t0.csv", "t1.csv", "t1.txt", "t2.csv" } )
+				Files.deleteIfExists( directory.resolve( name ) );
+		}
+
+		final Set< String > labels = new HashSet<>();
+		for ( final Spot spot : model.getGraph().vertices() )
+			labels.add( spot.getLabel() );
+		assertEquals( "The file present before the watch should not be imported.",
+				new HashSet<>( Arrays.asList( "10", "11", "20" ) ), labels );
+		assertEquals( "The parent id should be resolved against the previous file.", 1, model.getGraph().edges().size() );
+	}
+
+	private static void write( final Path file, final String content ) throws IOException
+	{
+		Files.write( file, content.getBytes( StandardCharsets.UTF_8 ) );
+	}
+
+	private static void waitForSpots( final Model model, final int expected ) throws InterruptedException
+	{
+		final long deadline = System.currentTimeMillis() + TIMEOUT_MS;
+		while ( System.currentTimeMillis() < deadline )
+		{
+			model.getGraph().getLock().readLock().lock();
+			try
+			{
+				if ( model.getGraph().vertices().size() >= expected )
+					break;
+			}
+			finally
+			{
+				model.getGraph().getLock().readLock().unlock();
+			}
+			Thread.sleep( 50 );
+		}
+		assertEquals( "The new file was not imported in time.", expected, model.getGraph().vertices().size() );
+	}
+}
@@ -0,0 +1,196 @@
+/*-
+ * #%L
+ * mastodon-pasteur
+ * %%
+ * Copyright (C) 2019 - 2025 Tobias Pietzsch, Jean-Yves Tinevez
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package org.mastodon.mamut.io.csv;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+
+import org.junit.Test;
+import org.mastodon.mamut.ProjectModel;
+import org.mastodon.mamut.io.ProjectCreator;
+import org.mastodon.mamut.io.ProjectLoader;
+import org.mastodon.mamut.io.ProjectSaver;
+import org.mastodon.mamut.model.Model;
+import org.mastodon.mamut.model.ModelGraph;
+import org.mastodon.mamut.model.Spot;
+import org.mastodon.model.tag.TagSetStructure;
+import org.scijava.Context;
+
+import mpicbg.spim.data.SpimDataException;
+
+public class CSVExporterTest
+{
+
+	@Test
+	public void testRoundTrip() throws IOException
+	{
+		final URL urlCSV = CSVExporterTest.class.getResource( "TestCSVImportTagParentIdRadius.csv" );
+		assertNotNull( urlCSV );
+
+		final Model model = importCSV( urlCSV.getPath() );
+		final TagSetStructure.TagSet tagSet = model.getTagSetModel().getTagSetStructure().getTagSets().get( 0 );
+
+		final File exported = File.createTempFile( "CSVExporterTest", ".csv" );
+		exported.deleteOnExit();
+		final CSVExporter exporter = CSVExporter.create()
+				.model( model )
+				.csvFilePath( exported.getAbsolutePath() )
+				.tagSet( tagSet )
+				.get();
+		if ( !exporter.checkInput() || !exporter.process() )
+			fail( exporter.getErrorMessage() );
+
+		final Model reimported = importCSV( exported.getAbsolutePath() );
+		final ModelGraph graph = reimported.getGraph();
+		assertEquals( "Incorrect number of spots imported.", 5, graph.vertices().size() );
+		assertEquals( "Incorrect number of links imported.", 2, graph.edges().size() );
+
+		final Iterator< Spot > it = graph.vertices().iterator();
+		Spot spot4 = null;
+		while ( it.hasNext() )
+		{
+			final Spot spot = it.next();
+			if ( spot.getLabel().equals( "4" ) )
+				spot4 = spot;
+		}
+		assertNotNull( spot4 );
+		assertEquals( 1, spot4.incomingEdges().size() );
+		assertEquals( 4d, spot4.getBoundingSphereRadiusSquared(), 1e-9 );
+		assertArrayEquals( new double[] { 36d, 12d, 9d }, spot4.positionAsDoubleArray(), 0d );
+		assertEquals( 2, spot4.getTimepoint() );
+
+		final TagSetStructure.TagSet reimportedTagSet = reimported.getTagSetModel().getTagSetStructure().getTagSets().get( 0 );
+		final TagSetStructure.Tag tag = reimported.getTagSetModel().getVertexTags().tags( reimportedTagSet ).get( spot4 );
+		assertEquals( "tag2", tag.label() );
+	}
+
+	@Test
+	public void testUnstoredLabelsSurviveSaveAndReload() throws IOException, SpimDataException
+	{
+		final URL urlBdv = CSVExporterTest.class.getResource( "TestMedianCSVImport.xml" );
+		assertNotNull( urlBdv );
+
+		final File csvFile = File.createTempFile( "CSVExporterTest", ".csv" );
+		csvFile.deleteOnExit();
+		Files.write( csvFile.toPath(), ( "ID,POSITION_X,POSITION_Y,POSITION_Z,FRAME\n"
+				+ "100,0,0,0,0\n"
+				+ "200,1,0,0,0\n"
+				+ "300,2,0,0,0\n" ).getBytes( StandardCharsets.UTF_8 ) );
+		final File projectFile = File.createTempFile( "CSVExporterTest", ".mastodon" );
+		projectFile.deleteOnExit();
+		final File exported = File.createTempFile( "CSVExporterTest", ".csv" );
+		exported.deleteOnExit();
+
+		try (final Context context = new Context())
+		{
+			final ProjectModel projectModel = ProjectCreator.createProjectFromBdvFile( new File( urlBdv.getPath() ), context );
+			try
+			{
+				final CSVImporter importer = CSVImporter.create()
+						.model( projectModel.getModel() )
+						.csvFilePath( csvFile.getPath() )
+						.radius( 1. )
+						.xColumnName( "POSITION_X" )
+						.yColumnName( "POSITION_Y" )
+						.zColumnName( "POSITION_Z" )
+						.frameColumnName( "FRAME" )
+						.idColumnName( "ID" )
+						.materializeLabels( false )
+						.get();
+				if ( !importer.checkInput() || !importer.process() )
+					fail( importer.getErrorMessage() );
+				ProjectSaver.saveProject( projectFile, projectModel );
+			}
+			finally
+			{
+				projectModel.close();
+			}
+
+			final ProjectModel reloaded = ProjectLoader.open( projectFile.getAbsolutePath(), context );
+			try
+			{
+				final CSVExporter exporter = CSVExporter.create()
+						.model( reloaded.getModel() )
+						.csvFilePath( exported.getAbsolutePath() )
+						.get();
+				if ( !exporter.checkInput() || !exporter.process() )
+					fail( exporter.getErrorMessage() );
+			}
+			finally
+			{
+				reloaded.close();
+			}
+		}
+
+		final List< String > lines = Files.readAllLines( exported.toPath(), StandardCharsets.UTF_8 );
+		assertEquals( "Incorrect number of exported lines.", 4, lines.size() );
+		final int labelColumn = Arrays.asList( lines.get( 0 ).split( "," ) ).indexOf( "LABEL" );
+		assertTrue( "The export should have a label column.", labelColumn >= 0 );
+		final Set< String > labels = new HashSet<>();
+		for ( final String line : lines.subList( 1, lines.size() ) )
+			labels.add( line.split( "," )[ labelColumn ] );
+		assertEquals( "The labels should be the imported ids after a reload.",
+				new HashSet<>( Arrays.asList( "100", "200", "300" ) ), labels );
+	}
+
+	private static Model importCSV( final String csvFilePath )
+	{
+		final Model model = new Model();
+		final CSVImporter importer = CSVImporter.create()
+				.model( model )
+				.csvFilePath( csvFilePath )
+				.radius( 3. )
+				.xColumnName( "POSITION_X" )
+				.yColumnName( "POSITION_Y" )
+				.zColumnName( "POSITION_Z" )
+				.frameColumnName( "FRAME" )
+				.idColumnName( "ID" )
+				.tagColumnName( "TAG" )
+				.parentIdColumnName( "PARENT_ID" )
+				.radiusColumnName( "RADIUS" )
+				.get();
+		if ( !importer.checkInput() || !importer.process() )
+			fail( importer.getErrorMessage() );
+		return model;
+	}
+}
@@ -0,0 +1,143 @@
+/*-
+ * #%L
+ * mastodon-pasteur
+ * %%
+ * Copyright (C) 2019 - 2025 Tobias Pietzsch, Jean-Yves Tinevez
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package org.mastodon.mamut.io.csv;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Locale;
+import java.util.Random;
+import java.util.zip.GZIPOutputStream;
+
+import org.junit.Test;
+import org.mastodon.mamut.io.csv.CSVFileInfo.ColumnType;
+
+public class CSVFileInfoTest
+{
+
+	@Test
+	public void testSmallFile() throws IOException
+	{
+		final File file = File.createTempFile( "CSVFileInfoTest", ".csv" );
+		file.deleteOnExit();
+		final String content = "ID; x ;y;FRAME;NAME;EMPTY\n"
+				+ "1;1,5;2;0;a;\n"
+				+ "2;3,25;4;0;b;\n"
+				+ "3;5;6;1;c;\n";
+		Files.write( file.toPath(), content.getBytes( StandardCharsets.UTF_8 ) );
+
+		final CSVFileInfo info = CSVFileInfo.sniff( file.getPath() );
+		assertEquals( ';', info.getSeparator() );
+		assertEquals( ',', info.getDecimalMark() );
+		assertEquals( CompressedInput.Compression.NONE, info.getCompression() );
+		assertArrayEquals( new String[] { "ID", "x", "y", "FRAME", "NAME", "EMPTY" }, info.getHeaders() );
+		assertArrayEquals( new ColumnType[] {
+				ColumnType.INTEGER,
+				ColumnType.DECIMAL,
+				ColumnType.INTEGER,
+				ColumnType.INTEGER,
+				ColumnType.TEXT,
+				ColumnType.EMPTY }, info.getColumnTypes() );
+		assertTrue( info.isRowCountExact() );
+		assertEquals( 3, info.getEstimatedRowCount() );
+	}
+
+	@Test
+	public void testDotDecimalMark() throws IOException
+	{
+		final File file = File.createTempFile( "CSVFileInfoTest", ".tsv" );
+		file.deleteOnExit();
+		final String content = "ID\tx\tFRAME\n"
+				+ "1\t1.5\t0\n"
+				+ "2\t1,234\t0\n";
+		Files.write( file.toPath(), content.getBytes( StandardCharsets.UTF_8 ) );
+
+		final CSVFileInfo info = CSVFileInfo.sniff( file.getPath() );
+		assertEquals( '\t', info.getSeparator() );
+		assertEquals( '.', info.getDecimalMark() );
+
+		try (final CSVTokenizer tokenizer = CSVTokenizer.open( file.getPath(), info.getSeparator() ))
+		{
+			tokenizer.setDecimalMark( info.getDecimalMark() );
+			tokenizer.next();
+			tokenizer.next();
+			assertEquals( 1.5, tokenizer.readDouble( 1 ), 0. );
+			assertFalse( tokenizer.hasError() );
+			tokenizer.next();
+			tokenizer.readDouble( 1 );
+			assertTrue( "\"1,234\" should not be read as 1.234.", tokenizer.hasError() );
+		}
+	}
+
+	@Test
+	public void testEstimatedRowCount() throws IOException
+	{
+		final int nRows = 200_000;
+		final File file = File.createTempFile( "CSVFileInfoTest", ".csv" );
+		file.deleteOnExit();
+		final File gzFile = File.createTempFile( "CSVFileInfoTest", ".csv.gz" );
+		gzFile.deleteOnExit();
+		try (final PrintStream csv = new PrintStream( Files.newOutputStream( file.toPath() ), false, "UTF-8" );
+				final OutputStream out = new GZIPOutputStream( Files.newOutputStream( gzFile.toPath() ) );
+				final PrintStream gz = new PrintStream( out, false, "UTF-8" ))
+		{
+			csv.println( "id,x,y,z,t" );
+			gz.println( "id,x,y,z,t" );
+			final Random ran = new Random( 1 );
+			for ( int i = 0; i < nRows; i++ )
+			{
+				final String line = String.format( Locale.ROOT, "%d,%.3f,%.3f,%.3f,%d",
+						1_000_000 + i, 100 + 900 * ran.nextDouble(), 100 + 900 * ran.nextDouble(), 10 + 90 * ran.nextDouble(), i / 1000 );
+				csv.println( line );
+				gz.println( line );
+			}
+		}
+
+		final CSVFileInfo info = CSVFileInfo.sniff( file.getPath() );
+		assertEquals( ',', info.getSeparator() );
+		assertEquals( '.', info.getDecimalMark() );
+		assertFalse( info.isRowCountExact() );
+		assertEquals( nRows, info.getEstimatedRowCount(), 0.2 * nRows );
+
+		final CSVFileInfo gzInfo = CSVFileInfo.sniff( gzFile.getPath() );
+		assertEquals( CompressedInput.Compression.GZIP, gzInfo.getCompression() );
+		assertArrayEquals( info.getHeaders(), gzInfo.getHeaders() );
+		assertArrayEquals( info.getColumnTypes(), gzInfo.getColumnTypes() );
+		assertFalse( gzInfo.isRowCountExact() );
+		assertEquals( nRows, gzInfo.getEstimatedRowCount(), 0.5 * nRows );
+	}
+}
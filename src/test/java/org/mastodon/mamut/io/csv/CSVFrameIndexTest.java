@@ -0,0 +1,78 @@
+/*-
+ * #%L
+ * mastodon-pasteur
+ * %%
+ * Copyright (C) 2019 - 2025 Tobias Pietzsch, Jean-Yves Tinevez
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package org.mastodon.mamut.io.csv;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+
+import org.junit.Test;
+
+public class CSVFrameIndexTest
+{
+
+	@Test
+	public void testWriteAndRead() throws IOException
+	{
+		final File file = File.createTempFile( "CSVFrameIndexTest", ".csv" );
+		file.deleteOnExit();
+		CSVFrameIndex.indexPath( file.getPath() ).toFile().deleteOnExit();
+		Files.write( file.toPath(), new byte[ 300 ] );
+
+		final CSVFrameIndex index = CSVFrameIndex.create( file.getPath(), ',', "FRAME", new long[] { 10, 100, 200, 300 } );
+		index.set( 0, 5, 0, 4 );
+		index.set( 1, 6, 4, 9 );
+		index.set( 2, 7, 10, 12 );
+		index.write( file.getPath(), 1 );
+
+		final CSVFrameIndex read = CSVFrameIndex.read( file.getPath(), ',', "FRAME" );
+		assertNotNull( read );
+		assertArrayEquals( new int[] { 1 }, read.blocks( 5, 9 ) );
+		assertArrayEquals( new int[] { 0, 1 }, read.blocks( 4, 4 ) );
+		assertArrayEquals( new int[] { 1, 2 }, read.blocks( 8, 100 ) );
+		assertArrayEquals( new int[ 0 ], read.blocks( 20, 30 ) );
+		assertEquals( 100, read.start( 1 ) );
+		assertEquals( 200, read.end( 1 ) );
+		assertEquals( 1, read.lineNumber( 0 ) );
+		assertEquals( 12, read.lineNumber( 2 ) );
+
+		assertNull( "The index should not be used with another separator.", CSVFrameIndex.read( file.getPath(), ';', "FRAME" ) );
+		assertNull( "The index should not be used with another frame column.", CSVFrameIndex.read( file.getPath(), ',', "T" ) );
+
+		Files.write( file.toPath(), "1,2,3\n".getBytes( StandardCharsets.UTF_8 ), StandardOpenOption.APPEND );
+		assertNull( "The index should not be used after the file changed.", CSVFrameIndex.read( file.getPath(), ',', "FRAME" ) );
+	}
+}
@@ -30,21 +30,42 @@ package org.mastodon.mamut.io.csv;
 
 import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
 import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.OutputStream;
 import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Iterator;
 import java.util.List;
+import java.util.zip.GZIPOutputStream;
 
 import org.junit.Test;
+import org.mastodon.RefPool;
+import org.mastodon.mamut.io.csv.CSVImporter.OriginalLongIdFeature;
+import org.mastodon.mamut.io.csv.CSVImporter.OriginalLongIdFeatureSerializer;
+import org.mastodon.mamut.model.Link;
 import org.mastodon.mamut.model.Model;
 import org.mastodon.mamut.model.ModelGraph;
 import org.mastodon.mamut.model.Spot;
 import org.mastodon.model.tag.ObjTagMap;
 import org.mastodon.model.tag.ObjTags;
 import org.mastodon.model.tag.TagSetStructure;
+import org.mastodon.spatial.SpatialIndex;
+import org.mastodon.spatial.SpatioTemporalIndex;
 import org.mastodon.tracking.mamut.detection.DetectionQualityFeature;
 
 import mpicbg.spim.data.SpimDataException;
@@ -115,6 +136,7 @@ public class CSVImporterTest
 				.get();
 		if ( !importer.checkInput() || !importer.process() )
 			fail( importer.getErrorMessage() );
+		assertTrue( "No error should be reported.", importer.getErrors().isEmpty() );
 
 		ModelGraph graph = model.getGraph();
 		assertEquals( "Incorrect number of spots imported.", 5, graph.vertices().size() );
@@ -147,4 +169,908 @@ public class CSVImporterTest
 		TagSetStructure.Tag actualTag = spotToTagMap.get( spot4 );
 		assertEquals( tag2.label(), actualTag.label() );
 	}
+
+	@Test
+	public void testImportInCommitBatches() throws IOException
+	{
+		// 10 spots per frame, each linked to the spot of the previous frame.
+		final int nRows = 100;
+		final List< String > lines = new ArrayList<>();
+		lines.add( "ID,PARENT_ID,X,Y,Z,FRAME,TAG" );
+		for ( int i = 0; i < nRows; i++ )
+			lines.add( i + "," + ( i < 10 ? -1 : i - 10 ) + "," + i + ",0,0," + ( i / 10 ) + "," + ( i % 2 == 0 ? "even" : "odd" ) );
+		final File csvFile = File.createTempFile( "TestCSVImportCommitBatches", ".csv" );
+		csvFile.deleteOnExit();
+		Files.write( csvFile.toPath(), lines );
+
+		final Model model = new Model();
+		final CSVImporter importer = CSVImporter.create()
+				.model( model )
+				.csvFilePath( csvFile.getPath() )
+				.radius( 1. )
+				.xColumnName( "X" )
+				.yColumnName( "Y" )
+				.zColumnName( "Z" )
+				.frameColumnName( "FRAME" )
+				.idColumnName( "ID" )
+				.parentIdColumnName( "PARENT_ID" )
+				.tagColumnName( "TAG" )
+				.commitBatchSize( 7 )
+				.get();
+		if ( !importer.checkInput() || !importer.process() )
+			fail( importer.getErrorMessage() );
+		assertTrue( "No error should be reported.", importer.getErrors().isEmpty() );
+
+		final ModelGraph graph = model.getGraph();
+		assertEquals( "Incorrect number of spots imported.", nRows, graph.vertices().size() );
+		assertEquals( "Parents committed in earlier batches should be linked.", nRows - 10, graph.edges().size() );
+		final Spot ref = graph.vertexRef();
+		for ( final Link link : graph.edges() )
+		{
+			final int source = Integer.parseInt( link.getSource( ref ).getLabel() );
+			final int target = Integer.parseInt( link.getTarget( ref ).getLabel() );
+			assertEquals( "Incorrect link.", source + 10, target );
+		}
+		graph.releaseRef( ref );
+
+		final List< TagSetStructure.TagSet > tagSets = model.getTagSetModel().getTagSetStructure().getTagSets();
+		assertEquals( 1, tagSets.size() );
+		final TagSetStructure.TagSet tagSet = tagSets.get( 0 );
+		assertEquals( 2, tagSet.getTags().size() );
+		final ObjTagMap< Spot, TagSetStructure.Tag > spotToTagMap = model.getTagSetModel().getVertexTags().tags( tagSet );
+		for ( final Spot spot : graph.vertices() )
+		{
+			final TagSetStructure.Tag tag = spotToTagMap.get( spot );
+			assertNotNull( "All the spots should be tagged.", tag );
+			assertEquals( Integer.parseInt( spot.getLabel() ) % 2 == 0 ? "even" : "odd", tag.label() );
+		}
+
+		// Each frame of the index should hold the spots of that frame only.
+		final SpatioTemporalIndex< Spot > index = model.getSpatioTemporalIndex();
+		index.readLock().lock();
+		try
+		{
+			for ( int t = 0; t < nRows / 10; t++ )
+			{
+				final SpatialIndex< Spot > spatialIndex = index.getSpatialIndex( t );
+				assertEquals( "Incorrect number of spots indexed in frame " + t + ".", 10, spatialIndex.size() );
+				for ( final Spot spot : spatialIndex )
+					assertEquals( t, Integer.parseInt( spot.getLabel() ) / 10 );
+			}
+		}
+		finally
+		{
+			index.readLock().unlock();
+		}
+	}
+
+	@Test
+	public void testSerializeOriginalLongIds() throws IOException, ClassNotFoundException
+	{
+		final Model model = new Model();
+		final ModelGraph graph = model.getGraph();
+		final long[] ids = new long[] { -5L, ( 1L << 32 ) + 7, Long.MIN_VALUE, Long.MAX_VALUE };
+		final List< Spot > spots = new ArrayList<>();
+		for ( int i = 0; i <= ids.length; i++ )
+			spots.add( graph.addVertex().init( 0, new double[] { i, 0, 0 }, 1. ) );
+
+		final OriginalLongIdFeature feature = OriginalLongIdFeature.getOrRegister( model.getFeatureModel(), graph.vertices() );
+		for ( int i = 0; i < ids.length; i++ )
+			feature.set( spots.get( i ), ids[ i ] );
+
+		final RefPool< Spot > pool = graph.vertices().getRefPool();
+		final OriginalLongIdFeatureSerializer serializer = new OriginalLongIdFeatureSerializer();
+		final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		try (final ObjectOutputStream oos = new ObjectOutputStream( bytes ))
+		{
+			serializer.serialize( feature, pool::getId, oos );
+		}
+		final OriginalLongIdFeature deserialized;
+		try (final ObjectInputStream ois = new ObjectInputStream( new ByteArrayInputStream( bytes.toByteArray() ) ))
+		{
+			deserialized = serializer.deserialize( pool::getObject, graph.vertices(), ois );
+		}
+
+		for ( int i = 0; i < ids.length; i++ )
+		{
+			assertTrue( deserialized.isSet( spots.get( i ) ) );
+			assertEquals( "Incorrect id after deserialization.", ids[ i ], deserialized.value( spots.get( i ) ) );
+		}
+		assertFalse( "The spot without id should stay unset.", deserialized.isSet( spots.get( ids.length ) ) );
+	}
+
+	@Test
+	public void testImportGzipCompressed() throws IOException
+	{
+		final URL urlCSV = CSVImporterTest.class.getResource( "TestCSVImportTagParentIdRadius.csv" );
+		assertNotNull( urlCSV );
+
+		final File gzFile = File.createTempFile( "TestCSVImportTagParentIdRadius", ".csv.gz" );
+		gzFile.deleteOnExit();
+		try (OutputStream out = new GZIPOutputStream( Files.newOutputStream( gzFile.toPath() ) ))
+		{
+			Files.copy( Paths.get( urlCSV.getPath() ), out );
+		}
+		assertEquals( CompressedInput.Compression.GZIP, CompressedInput.detect( gzFile.getPath() ) );
+
+		final Model model = new Model();
+		final CSVImporter importer = CSVImporter.create()
+				.model( model )
+				.csvFilePath( gzFile.getPath() )
+				.radius( 3. )
+				.xColumnName( "POSITION_X" )
+				.yColumnName( "POSITION_Y" )
+				.zColumnName( "POSITION_Z" )
+				.frameColumnName( "FRAME" )
+				.idColumnName( "ID" )
+				.tagColumnName( "TAG" )
+				.parentIdColumnName( "PARENT_ID" )
+				.radiusColumnName( "RADIUS" )
+				.get();
+		if ( !importer.checkInput() || !importer.process() )
+			fail( importer.getErrorMessage() );
+		assertTrue( "No error should be reported.", importer.getErrors().isEmpty() );
+
+		final ModelGraph graph = model.getGraph();
+		assertEquals( "Incorrect number of spots imported.", 5, graph.vertices().size() );
+		assertEquals( "Incorrect number of links imported.", 2, graph.edges().size() );
+		assertEquals( 1, model.getTagSetModel().getTagSetStructure().getTagSets().size() );
+	}
+
+	@Test
+	public void testImportAppendedRows() throws IOException
+	{
+		final URL urlCSV = CSVImporterTest.class.getResource( "TestCSVImportTagParentIdRadius.csv" );
+		assertNotNull( urlCSV );
+		final byte[] content = Files.readAllBytes( Paths.get( urlCSV.getPath() ) );
+
+		// Write the header, 3 rows and the beginning of the 4th one.
+		final File csvFile = File.createTempFile( "TestCSVImportTagParentIdRadius", ".csv" );
+		csvFile.deleteOnExit();
+		int split = 0;
+		for ( int nLines = 0; nLines < 4; split++ )
+			if ( content[ split ] == '\n' )
+				nLines++;
+		split += 10;
+		Files.write( csvFile.toPath(), Arrays.copyOf( content, split ) );
+
+		final Model model = new Model();
+		final CSVTailState tail = new CSVTailState();
+		final CSVImporter.Builder builder = CSVImporter.create()
+				.model( model )
+				.csvFilePath( csvFile.getPath() )
+				.radius( 3. )
+				.xColumnName( "POSITION_X" )
+				.yColumnName( "POSITION_Y" )
+				.zColumnName( "POSITION_Z" )
+				.frameColumnName( "FRAME" )
+				.idColumnName( "ID" )
+				.tagColumnName( "TAG" )
+				.parentIdColumnName( "PARENT_ID" )
+				.radiusColumnName( "RADIUS" )
+				.tail( tail );
+		final CSVImporter first = builder.get();
+		if ( !first.checkInput() || !first.process() )
+			fail( first.getErrorMessage() );
+		assertTrue( "No error should be reported.", first.getErrors().isEmpty() );
+
+		final ModelGraph graph = model.getGraph();
+		assertEquals( "Incomplete line should not be imported.", 3, graph.vertices().size() );
+		assertEquals( 2, tail.getLastId() );
+		assertEquals( 4, tail.getLineNumber() );
+
+		// Append the rest of the file, and import again.
+		Files.write( csvFile.toPath(), Arrays.copyOfRange( content, split, content.length ), StandardOpenOption.APPEND );
+		final CSVImporter second = builder.get();
+		if ( !second.checkInput() || !second.process() )
+			fail( second.getErrorMessage() );
+		assertTrue( "No error should be reported.", second.getErrors().isEmpty() );
+
+		assertEquals( "Incorrect number of spots imported.", 5, graph.vertices().size() );
+		assertEquals( "Incorrect number of links imported.", 2, graph.edges().size() );
+		assertEquals( 4, tail.getLastId() );
+		assertEquals( content.length, tail.getOffset() );
+		assertEquals( "The tag set should be reused.", 1, model.getTagSetModel().getTagSetStructure().getTagSets().size() );
+
+		// Nothing new to import.
+		final CSVImporter third = builder.get();
+		if ( !third.checkInput() || !third.process() )
+			fail( third.getErrorMessage() );
+		assertEquals( 5, graph.vertices().size() );
+	}
+
+	@Test
+	public void testImportAppendedRowsInPopulatedModel() throws IOException
+	{
+		final String header = "ID,POSITION_X,POSITION_Y,POSITION_Z,FRAME,PARENT_ID\n";
+		final File other = File.createTempFile( "TestCSVImportOther", ".csv" );
+		other.deleteOnExit();
+		Files.write( other.toPath(), ( header
+				+ "1,0,0,0,0,\n"
+				+ "2,1,0,0,1,1\n" ).getBytes( StandardCharsets.UTF_8 ) );
+		final File csvFile = File.createTempFile( "TestCSVImportTail", ".csv" );
+		csvFile.deleteOnExit();
+		Files.write( csvFile.toPath(), ( header
+				+ "3,5,0,0,0,\n"
+				+ "4,5,0,0,1,1\n" ).getBytes( StandardCharsets.UTF_8 ) );
+
+		final Model model = new Model();
+		final CSVImporter.Builder builder = CSVImporter.create()
+				.model( model )
+				.radius( 1. )
+				.xColumnName( "POSITION_X" )
+				.yColumnName( "POSITION_Y" )
+				.zColumnName( "POSITION_Z" )
+				.frameColumnName( "FRAME" )
+				.idColumnName( "ID" )
+				.parentIdColumnName( "PARENT_ID" );
+		final CSVImporter first = builder.csvFilePath( other.getPath() ).get();
+		if ( !first.checkInput() || !first.process() )
+			fail( first.getErrorMessage() );
+
+		final CSVImporter tailed = builder.csvFilePath( csvFile.getPath() ).tail( new CSVTailState() ).get();
+		if ( !tailed.checkInput() || !tailed.process() )
+			fail( tailed.getErrorMessage() );
+
+		final ModelGraph graph = model.getGraph();
+		assertEquals( "Incorrect number of spots imported.", 4, graph.vertices().size() );
+		assertEquals( "Rows should not be linked to the spots of another import.", 1, graph.edges().size() );
+		assertEquals( "The unknown parent should be reported.", 1, tailed.getErrors().getCount( ImportErrors.Kind.PARENT_NOT_FOUND ) );
+	}
+
+	@Test
+	public void testImportSeveralFiles() throws IOException
+	{
+		final URL urlCSV = CSVImporterTest.class.getResource( "TestCSVImportTagParentIdRadius.csv" );
+		assertNotNull( urlCSV );
+		final List< String > lines = Files.readAllLines( Paths.get( urlCSV.getPath() ) );
+
+		// One file per frame, the parents being in the previous file. The
+		// names check that t10 is imported after t9.
+		final File dir = Files.createTempDirectory( "TestCSVImportSeveralFiles" ).toFile();
+		dir.deleteOnExit();
+		for ( int frame = 0; frame < 3; frame++ )
+		{
+			final List< String > frameLines = new ArrayList<>();
+			frameLines.add( lines.get( 0 ) );
+			for ( final String line : lines.subList( 1, lines.size() ) )
+				if ( line.split( ";" )[ 5 ].trim().equals( "" + frame ) )
+					frameLines.add( line );
+			final File file = new File( dir, "t" + ( 8 + frame ) + ".csv" );
+			file.deleteOnExit();
+			Files.write( file.toPath(), frameLines );
+			assertTrue( frameLines.size() > 1 );
+		}
+
+		final Model model = new Model();
+		final CSVImporter importer = CSVImporter.create()
+				.model( model )
+				.csvFilePath( new File( dir, "t*.csv" ).getPath() )
+				.radius( 3. )
+				.xColumnName( "POSITION_X" )
+				.yColumnName( "POSITION_Y" )
+				.zColumnName( "POSITION_Z" )
+				.frameColumnName( "FRAME" )
+				.idColumnName( "ID" )
+				.tagColumnName( "TAG" )
+				.parentIdColumnName( "PARENT_ID" )
+				.radiusColumnName( "RADIUS" )
+				.get();
+		if ( !importer.checkInput() || !importer.process() )
+			fail( importer.getErrorMessage() );
+		assertTrue( "No error should be reported.", importer.getErrors().isEmpty() );
+
+		final ModelGraph graph = model.getGraph();
+		assertEquals( "Incorrect number of spots imported.", 5, graph.vertices().size() );
+		assertEquals( "Incorrect number of links imported.", 2, graph.edges().size() );
+		assertEquals( 1, model.getTagSetModel().getTagSetStructure().getTagSets().size() );
+	}
+
+	@Test
+	public void testImportSession() throws IOException
+	{
+		// One file per time-point, as written to a watched directory.
+		final String header = "ID,POSITION_X,POSITION_Y,POSITION_Z,FRAME,PARENT_ID,TAG\n";
+		final File t0 = File.createTempFile( "TestCSVImportSession0", ".csv" );
+		t0.deleteOnExit();
+		Files.write( t0.toPath(), ( header
+				+ "1,0,0,0,0,,a\n"
+				+ "2,5,0,0,0,,b\n" ).getBytes( StandardCharsets.UTF_8 ) );
+		final File t1 = File.createTempFile( "TestCSVImportSession1", ".csv" );
+		t1.deleteOnExit();
+		Files.write( t1.toPath(), ( header
+				+ "3,0,1,0,1,1,a\n"
+				+ "4,5,1,0,1,2,b\n" ).getBytes( StandardCharsets.UTF_8 ) );
+
+		final Model model = new Model();
+		final CSVImporter.Builder builder = CSVImporter.create()
+				.model( model )
+				.radius( 1. )
+				.xColumnName( "POSITION_X" )
+				.yColumnName( "POSITION_Y" )
+				.zColumnName( "POSITION_Z" )
+				.frameColumnName( "FRAME" )
+				.idColumnName( "ID" )
+				.parentIdColumnName( "PARENT_ID" )
+				.tagColumnName( "TAG" )
+				.session( new CSVImportSession() );
+		for ( final File file : Arrays.asList( t0, t1 ) )
+		{
+			final CSVImporter importer = builder.csvFilePath( file.getPath() ).get();
+			if ( !importer.checkInput() || !importer.process() )
+				fail( importer.getErrorMessage() );
+			assertTrue( "Parents in the previous file should be found.", importer.getErrors().isEmpty() );
+		}
+
+		final ModelGraph graph = model.getGraph();
+		assertEquals( "Incorrect number of spots imported.", 4, graph.vertices().size() );
+		assertEquals( "Spots should be linked across files.", 2, graph.edges().size() );
+		assertEquals( "The tag set should be reused.", 1, model.getTagSetModel().getTagSetStructure().getTagSets().size() );
+	}
+
+	@Test
+	public void testImportSessionTrackIds() throws IOException
+	{
+		// Track 1 continues in the second file, track 2 divides between the files.
+		final String header = "TRACK_ID,POSITION_X,POSITION_Y,POSITION_Z,FRAME\n";
+		final File t0 = File.createTempFile( "TestCSVImportSessionTracks0", ".csv" );
+		t0.deleteOnExit();
+		Files.write( t0.toPath(), ( header
+				+ "1,10,0,0,0\n"
+				+ "1,10,0,0,1\n"
+				+ "2,0,0,0,0\n" ).getBytes( StandardCharsets.UTF_8 ) );
+		final File t1 = File.createTempFile( "TestCSVImportSessionTracks1", ".csv" );
+		t1.deleteOnExit();
+		Files.write( t1.toPath(), ( header
+				+ "1,10,0,0,2\n"
+				+ "2,1,0,0,1\n"
+				+ "2,-1,0,0,1\n"
+				+ "3,20,0,0,1\n" ).getBytes( StandardCharsets.UTF_8 ) );
+
+		final Model model = new Model();
+		final CSVImporter.Builder builder = CSVImporter.create()
+				.model( model )
+				.radius( 1. )
+				.xColumnName( "POSITION_X" )
+				.yColumnName( "POSITION_Y" )
+				.zColumnName( "POSITION_Z" )
+				.frameColumnName( "FRAME" )
+				.trackColumnName( "TRACK_ID" )
+				.session( new CSVImportSession() );
+		for ( final File file : Arrays.asList( t0, t1 ) )
+		{
+			final CSVImporter importer = builder.csvFilePath( file.getPath() ).get();
+			if ( !importer.checkInput() || !importer.process() )
+				fail( importer.getErrorMessage() );
+			assertTrue( "No error should be reported.", importer.getErrors().isEmpty() );
+		}
+
+		final ModelGraph graph = model.getGraph();
+		assertEquals( "Incorrect number of spots imported.", 7, graph.vertices().size() );
+		assertEquals( "Tracks should be linked across files.", 4, graph.edges().size() );
+		for ( final Spot spot : graph.vertices() )
+			assertEquals( spot.getTimepoint() == 0 || spot.getDoublePosition( 0 ) == 20. ? 0 : 1, spot.incomingEdges().size() );
+	}
+
+	@Test
+	public void testImportDotDecimalMark() throws IOException
+	{
+		// ';' separator with '.' as decimal mark: "1,234" is not 1.234.
+		final File csvFile = File.createTempFile( "TestCSVImportDotDecimalMark", ".csv" );
+		csvFile.deleteOnExit();
+		Files.write( csvFile.toPath(), Arrays.asList(
+				"X;Y;Z;FRAME",
+				"1.5;2;3;0",
+				"1,234;2;3;0",
+				"2.25;2;3;1" ) );
+
+		final Model model = new Model();
+		final CSVImporter importer = CSVImporter.create()
+				.model( model )
+				.csvFilePath( csvFile.getPath() )
+				.radius( 1. )
+				.xColumnName( "X" )
+				.yColumnName( "Y" )
+				.zColumnName( "Z" )
+				.frameColumnName( "FRAME" )
+				.get();
+		if ( !importer.checkInput() || !importer.process() )
+			fail( importer.getErrorMessage() );
+		assertEquals( "The row with a comma should be rejected.", 1, importer.getErrors().getCount( ImportErrors.Kind.MALFORMED_NUMBER ) );
+
+		final ModelGraph graph = model.getGraph();
+		assertEquals( "Incorrect number of spots imported.", 2, graph.vertices().size() );
+		for ( final Spot spot : graph.vertices() )
+			assertTrue( spot.getDoublePosition( 0 ) == 1.5 || spot.getDoublePosition( 0 ) == 2.25 );
+	}
+
+	@Test
+	public void testImportStringIds() throws IOException
+	{
+		final File csvFile = File.createTempFile( "TestCSVImportStringIds", ".csv" );
+		csvFile.deleteOnExit();
+		Files.write( csvFile.toPath(), Arrays.asList(
+				"ID,PARENT_ID,X,Y,Z,FRAME",
+				"cell-a,,10,10,10,0",
+				"cell-b,,20,20,20,0",
+				"cell-a.1,cell-a,11,10,10,1",
+				"cell-a.2,cell-a,9,10,10,1",
+				"cell-b.1,cell-b,20,21,20,1" ) );
+
+		final Model model = new Model();
+		final CSVImporter importer = CSVImporter.create()
+				.model( model )
+				.csvFilePath( csvFile.getPath() )
+				.radius( 2. )
+				.xColumnName( "X" )
+				.yColumnName( "Y" )
+				.zColumnName( "Z" )
+				.frameColumnName( "FRAME" )
+				.idColumnName( "ID" )
+				.parentIdColumnName( "PARENT_ID" )
+				.idType( CSVImporter.IdType.STRING )
+				.get();
+		if ( !importer.checkInput() || !importer.process() )
+			fail( importer.getErrorMessage() );
+		assertTrue( "No error should be reported.", importer.getErrors().isEmpty() );
+
+		final ModelGraph graph = model.getGraph();
+		assertEquals( "Incorrect number of spots imported.", 5, graph.vertices().size() );
+		assertEquals( "Incorrect number of links imported.", 3, graph.edges().size() );
+		for ( final Spot spot : graph.vertices() )
+		{
+			// The string ids are used as labels.
+			final String label = spot.getLabel();
+			assertTrue( label.startsWith( "cell-" ) );
+			if ( spot.getTimepoint() == 1 )
+			{
+				assertEquals( 1, spot.incomingEdges().size() );
+				final Spot parent = spot.incomingEdges().iterator().next().getSource( graph.vertexRef() );
+				assertTrue( label.startsWith( parent.getLabel() + "." ) );
+			}
+		}
+	}
+
+	@Test
+	public void testImportExtraColumns()
+	{
+		final URL urlCSV = CSVImporterTest.class.getResource( "TestCSVImportTagParentIdRadius.csv" );
+		assertNotNull( urlCSV );
+		final Model model = new Model();
+		final CSVImporter importer = CSVImporter.create()
+				.model( model )
+				.csvFilePath( urlCSV.getPath() )
+				.radius( 3. )
+				.xColumnName( "POSITION_X" )
+				.yColumnName( "POSITION_Y" )
+				.zColumnName( "POSITION_Z" )
+				.frameColumnName( "FRAME" )
+				.idColumnName( "ID" )
+				.tagColumnName( "TAG" )
+				.parentIdColumnName( "PARENT_ID" )
+				.radiusColumnName( "RADIUS" )
+				.importAllExtraColumns( true )
+				.get();
+		if ( !importer.checkInput() || !importer.process() )
+			fail( importer.getErrorMessage() );
+		assertTrue( "No error should be reported.", importer.getErrors().isEmpty() );
+
+		// The unmapped columns are imported, the text column is not.
+		final ImportedColumnsFeature feature = ( ImportedColumnsFeature ) model.getFeatureModel().getFeature( ImportedColumnsFeature.SPEC );
+		assertNotNull( feature );
+		assertEquals( 2, feature.projections().size() );
+		final ImportedColumnsFeature.ColumnProjection intensity = feature.get( "MEDIAN_INTENSITY" );
+		assertNotNull( intensity );
+		assertNotNull( feature.get( "QUALITY" ) );
+
+		final CSVImporter.OriginalIdFeature ids = ( CSVImporter.OriginalIdFeature ) model.getFeatureModel().getFeature( CSVImporter.OriginalIdFeature.SPEC );
+		for ( final Spot spot : model.getGraph().vertices() )
+		{
+			assertTrue( intensity.isSet( spot ) );
+			if ( ids.value( spot ) == 1 )
+				assertEquals( 119., intensity.value( spot ), 0. );
+		}
+	}
+
+	@Test
+	public void testImportMalformedRows() throws IOException
+	{
+		final File csvFile = File.createTempFile( "TestCSVImportMalformedRows", ".csv" );
+		csvFile.deleteOnExit();
+		Files.write( csvFile.toPath(), Arrays.asList(
+				"ID,PARENT_ID,X,Y,Z,FRAME",
+				"0,-1,10,10,10,0",
+				"1,0,abc,10,10,1",
+				"2,0,10,10,,1",
+				"3,x,10,10,10,1",
+				"4,42,10,10,10,1",
+				"5,0,10,10,10,1" ) );
+
+		final Model model = new Model();
+		final CSVImporter importer = CSVImporter.create()
+				.model( model )
+				.csvFilePath( csvFile.getPath() )
+				.radius( 2. )
+				.xColumnName( "X" )
+				.yColumnName( "Y" )
+				.zColumnName( "Z" )
+				.frameColumnName( "FRAME" )
+				.idColumnName( "ID" )
+				.parentIdColumnName( "PARENT_ID" )
+				.get();
+		if ( !importer.checkInput() || !importer.process() )
+			fail( importer.getErrorMessage() );
+
+		// Rows with a parent id error are imported without link.
+		assertEquals( "Incorrect number of spots imported.", 4, model.getGraph().vertices().size() );
+		assertEquals( "Incorrect number of links imported.", 1, model.getGraph().edges().size() );
+
+		final ImportErrors errors = importer.getErrors();
+		assertEquals( 4, errors.getCount() );
+		assertEquals( 2, errors.getRowsSkipped() );
+		assertEquals( 1, errors.getCount( ImportErrors.Kind.MALFORMED_NUMBER ) );
+		assertEquals( 1, errors.getCount( ImportErrors.Kind.MISSING_VALUE ) );
+		assertEquals( 1, errors.getCount( ImportErrors.Kind.INVALID_PARENT_ID ) );
+		assertEquals( 1, errors.getCount( ImportErrors.Kind.PARENT_NOT_FOUND ) );
+		assertEquals( "line 3, column X: malformed number \"abc\"", errors.getExamples().get( 0 ) );
+		assertNotNull( importer.getErrorMessage() );
+	}
+
+	@Test
+	public void testImportSeveralRegions() throws IOException
+	{
+		// Row i has parent i-10. Row 250 is malformed, so row 260 has no parent.
+		final int nRows = 300;
+		final List< String > lines = new ArrayList<>();
+		lines.add( "ID,PARENT_ID,X,Y,Z,FRAME" );
+		for ( int i = 0; i < nRows; i++ )
+			lines.add( i + "," + ( i < 10 ? -1 : i - 10 ) + "," + ( i == 250 ? "abc" : i ) + ",0,0," + ( i / 10 ) );
+		final File csvFile = File.createTempFile( "TestCSVImportSeveralRegions", ".csv" );
+		csvFile.deleteOnExit();
+		Files.write( csvFile.toPath(), lines );
+
+		final Model model = new Model();
+		final CSVImporter importer = CSVImporter.create()
+				.model( model )
+				.csvFilePath( csvFile.getPath() )
+				.radius( 1. )
+				.xColumnName( "X" )
+				.yColumnName( "Y" )
+				.zColumnName( "Z" )
+				.frameColumnName( "FRAME" )
+				.idColumnName( "ID" )
+				.parentIdColumnName( "PARENT_ID" )
+				.get();
+		// About 30 regions of 10 rows.
+		importer.regionSize = 200;
+		importer.setNumThreads( 4 );
+		if ( !importer.checkInput() || !importer.process() )
+			fail( importer.getErrorMessage() );
+
+		final ModelGraph graph = model.getGraph();
+		assertEquals( "Incorrect number of spots imported.", nRows - 1, graph.vertices().size() );
+		assertEquals( "Incorrect number of links imported.", nRows - 10 - 2, graph.edges().size() );
+
+		// Spots are added in file order.
+		int expected = 0;
+		final Spot ref = graph.vertexRef();
+		for ( final Spot spot : graph.vertices() )
+		{
+			if ( expected == 250 )
+				expected++;
+			assertEquals( "Spots should be added in file order.", Integer.toString( expected ), spot.getLabel() );
+			assertEquals( expected, spot.getDoublePosition( 0 ), 0. );
+			if ( expected >= 10 && expected != 260 )
+			{
+				assertEquals( "The parent in an earlier region should be linked.", 1, spot.incomingEdges().size() );
+				final Spot parent = spot.incomingEdges().iterator().next().getSource( ref );
+				assertEquals( Integer.toString( expected - 10 ), parent.getLabel() );
+			}
+			else
+			{
+				assertEquals( 0, spot.incomingEdges().size() );
+			}
+			expected++;
+		}
+		graph.releaseRef( ref );
+
+		final ImportErrors errors = importer.getErrors();
+		assertEquals( 1, errors.getCount( ImportErrors.Kind.MALFORMED_NUMBER ) );
+		assertEquals( 1, errors.getCount( ImportErrors.Kind.PARENT_NOT_FOUND ) );
+		assertEquals( "The line number should count the rows of the previous regions.",
+				"line 252, column X: malformed number \"abc\"", errors.getExamples().get( 0 ) );
+	}
+
+	@Test
+	public void testImportFrameRange() throws IOException
+	{
+		final File csvFile = File.createTempFile( "TestCSVImportFrameRange", ".csv" );
+		csvFile.deleteOnExit();
+		CSVFrameIndex.indexPath( csvFile.getPath() ).toFile().deleteOnExit();
+		final StringBuilder str = new StringBuilder( "ID,POSITION_X,POSITION_Y,POSITION_Z,FRAME,PARENT_ID\n" );
+		for ( int t = 0; t < 10; t++ )
+			str.append( t ).append( ",1,2,3," ).append( t ).append( ',' ).append( t - 1 ).append( '\n' );
+		Files.write( csvFile.toPath(), str.toString().getBytes( StandardCharsets.UTF_8 ) );
+
+		final CSVImporter.Builder builder = CSVImporter.create()
+				.csvFilePath( csvFile.getPath() )
+				.radius( 3. )
+				.xColumnName( "POSITION_X" )
+				.yColumnName( "POSITION_Y" )
+				.zColumnName( "POSITION_Z" )
+				.frameColumnName( "FRAME" )
+				.idColumnName( "ID" )
+				.parentIdColumnName( "PARENT_ID" )
+				.frameIndex( true );
+
+		// The first import reads the whole file and builds the frame index.
+		final Model model = new Model();
+		final CSVImporter first = builder.model( model ).get();
+		if ( !first.checkInput() || !first.process() )
+			fail( first.getErrorMessage() );
+		assertEquals( 10, model.getGraph().vertices().size() );
+		assertTrue( Files.exists( CSVFrameIndex.indexPath( csvFile.getPath() ) ) );
+
+		// The second one only imports a range of frames, using the index.
+		final Model partial = new Model();
+		final CSVImporter second = builder.model( partial ).frameRange( 3, 5 ).get();
+		if ( !second.checkInput() || !second.process() )
+			fail( second.getErrorMessage() );
+		assertEquals( "Incorrect number of spots imported.", 3, partial.getGraph().vertices().size() );
+		assertEquals( "Incorrect number of links imported.", 2, partial.getGraph().edges().size() );
+		assertTrue( "Parents outside of the range should not be reported.", second.getErrors().isEmpty() );
+		for ( final Spot spot : partial.getGraph().vertices() )
+			assertTrue( spot.getTimepoint() >= 3 && spot.getTimepoint() <= 5 );
+	}
+
+	@Test
+	public void testImportTrackIds() throws IOException
+	{
+		final File csvFile = File.createTempFile( "TestCSVImportTrackIds", ".csv" );
+		csvFile.deleteOnExit();
+		// Track 1 is a single lineage, track 2 divides after frame 0. Rows are not sorted.
+		final String content = "TRACK_ID,POSITION_X,POSITION_Y,POSITION_Z,FRAME\n"
+				+ "2,1.1,0,0,2\n"
+				+ "1,10,0,0,3\n"
+				+ "2,-1,0,0,1\n"
+				+ "1,10,0,0,0\n"
+				+ "None,5,5,5,1\n"
+				+ "2,-1.1,0,0,2\n"
+				+ "1,10,0,0,1\n"
+				+ "2,0,0,0,0\n"
+				+ "1,10,0,0,4\n"
+				+ "2,1,0,0,1\n"
+				+ "1,10,0,0,2\n";
+		Files.write( csvFile.toPath(), content.getBytes( StandardCharsets.UTF_8 ) );
+
+		final Model model = new Model();
+		final CSVImporter importer = CSVImporter.create()
+				.model( model )
+				.csvFilePath( csvFile.getPath() )
+				.radius( 1. )
+				.xColumnName( "POSITION_X" )
+				.yColumnName( "POSITION_Y" )
+				.zColumnName( "POSITION_Z" )
+				.frameColumnName( "FRAME" )
+				.trackColumnName( "TRACK_ID" )
+				.get();
+		if ( !importer.checkInput() || !importer.process() )
+			fail( importer.getErrorMessage() );
+		assertTrue( "No error should be reported.", importer.getErrors().isEmpty() );
+
+		final ModelGraph graph = model.getGraph();
+		assertEquals( "Incorrect number of spots imported.", 11, graph.vertices().size() );
+		assertEquals( "Incorrect number of links imported.", 8, graph.edges().size() );
+		final Spot ref = graph.vertexRef();
+		for ( final Spot spot : graph.vertices() )
+		{
+			if ( spot.getDoublePosition( 0 ) == 5. )
+			{
+				assertTrue( "Spots without a track should not be linked.", spot.edges().isEmpty() );
+				continue;
+			}
+			assertEquals( spot.getTimepoint() == 0 ? 0 : 1, spot.incomingEdges().size() );
+			// After the division, each daughter is linked to the nearest spot.
+			for ( final Link link : spot.incomingEdges() )
+				assertEquals( spot.getTimepoint() - 1, link.getSource( ref ).getTimepoint() );
+			if ( spot.getTimepoint() == 2 && Math.abs( spot.getDoublePosition( 0 ) ) < 2. )
+				assertEquals( Math.signum( spot.getDoublePosition( 0 ) ),
+						Math.signum( spot.incomingEdges().iterator().next().getSource( ref ).getDoublePosition( 0 ) ), 0. );
+		}
+		graph.releaseRef( ref );
+	}
+
+	@Test
+	public void testDeferredLabels() throws IOException
+	{
+		final File csvFile = File.createTempFile( "TestCSVImportLabels", ".csv" );
+		csvFile.deleteOnExit();
+		Files.write( csvFile.toPath(), ( "ID,POSITION_X,POSITION_Y,POSITION_Z,FRAME\n"
+				+ "100,0,0,0,0\n"
+				+ "200,1,0,0,1\n" ).getBytes( StandardCharsets.UTF_8 ) );
+
+		final Model model = new Model();
+		final CSVImporter importer = CSVImporter.create()
+				.model( model )
+				.csvFilePath( csvFile.getPath() )
+				.radius( 1. )
+				.xColumnName( "POSITION_X" )
+				.yColumnName( "POSITION_Y" )
+				.zColumnName( "POSITION_Z" )
+				.frameColumnName( "FRAME" )
+				.idColumnName( "ID" )
+				.materializeLabels( false )
+				.get();
+		if ( !importer.checkInput() || !importer.process() )
+			fail( importer.getErrorMessage() );
+		assertTrue( "No error should be reported.", importer.getErrors().isEmpty() );
+
+		final ImportedLabels labels = new ImportedLabels( model.getFeatureModel() );
+		for ( final Spot spot : model.getGraph().vertices() )
+		{
+			assertEquals( "The label should not be stored.", Integer.toString( spot.getInternalPoolIndex() ), spot.getLabel() );
+			assertEquals( "The label should be derived from the id.", spot.getTimepoint() == 0 ? "100" : "200", labels.get( spot ) );
+			if ( spot.getTimepoint() == 0 )
+			{
+				spot.setLabel( "edited" );
+				assertEquals( "An edited label should be used as is.", "edited", labels.get( spot ) );
+			}
+		}
+
+		assertEquals( "Only the unedited label should be stored.", 1, labels.materialize( model.getGraph() ) );
+		for ( final Spot spot : model.getGraph().vertices() )
+			assertEquals( spot.getTimepoint() == 0 ? "edited" : "200", spot.getLabel() );
+	}
+
+	@Test
+	public void testMerge() throws IOException
+	{
+		final File csvFile = File.createTempFile( "TestCSVImportMerge", ".csv" );
+		csvFile.deleteOnExit();
+		Files.write( csvFile.toPath(), ( "ID,POSITION_X,POSITION_Y,POSITION_Z,FRAME,PARENT_ID\n"
+				+ "0,0,0,0,0,\n"
+				+ "1,1,0,0,1,0\n"
+				+ "2,2,0,0,2,1\n"
+				+ "3,3,0,0,3,2\n" ).getBytes( StandardCharsets.UTF_8 ) );
+
+		final CSVImporter.Builder builder = CSVImporter.create()
+				.csvFilePath( csvFile.getPath() )
+				.radius( 1. )
+				.xColumnName( "POSITION_X" )
+				.yColumnName( "POSITION_Y" )
+				.zColumnName( "POSITION_Z" )
+				.frameColumnName( "FRAME" )
+				.idColumnName( "ID" )
+				.parentIdColumnName( "PARENT_ID" );
+		final Model model = new Model();
+		final CSVImporter first = builder.model( model ).get();
+		if ( !first.checkInput() || !first.process() )
+			fail( first.getErrorMessage() );
+		assertTrue( "No error should be reported.", first.getErrors().isEmpty() );
+		final ModelGraph graph = model.getGraph();
+		assertEquals( 4, graph.vertices().size() );
+		final int[] poolIndices = new int[ 4 ];
+		for ( final Spot spot : graph.vertices() )
+			poolIndices[ ( int ) spot.getDoublePosition( 0 ) ] = spot.getInternalPoolIndex();
+
+		// Spot 1 moved, spot 3 is gone, and spot 4 is new.
+		Files.write( csvFile.toPath(), ( "ID,POSITION_X,POSITION_Y,POSITION_Z,FRAME,PARENT_ID\n"
+				+ "0,0,0,0,0,\n"
+				+ "1,1,5,0,1,0\n"
+				+ "2,2,0,0,2,1\n"
+				+ "4,4,0,0,3,2\n" ).getBytes( StandardCharsets.UTF_8 ) );
+		final CSVImporter merge = builder.mergeMode( CSVImporter.MergeMode.MERGE_AND_REMOVE ).get();
+		if ( !merge.checkInput() || !merge.process() )
+			fail( merge.getErrorMessage() );
+		assertTrue( "No error should be reported.", merge.getErrors().isEmpty() );
+
+		assertEquals( "Incorrect number of spots after merging.", 4, graph.vertices().size() );
+		assertEquals( "Incorrect number of links after merging.", 3, graph.edges().size() );
+		assertEquals( 1, merge.getStatistics().getSpotsUpdated() );
+		assertEquals( 1, merge.getStatistics().getSpotsRemoved() );
+		for ( final Spot spot : graph.vertices() )
+		{
+			final int x = ( int ) spot.getDoublePosition( 0 );
+			assertTrue( "Spot 3 should have been removed.", x != 3 );
+			if ( x < 3 )
+				assertEquals( "Matching spots should be updated in place.", poolIndices[ x ], spot.getInternalPoolIndex() );
+			assertEquals( x == 1 ? 5. : 0., spot.getDoublePosition( 1 ), 0. );
+			assertEquals( x == 0 ? 0 : 1, spot.incomingEdges().size() );
+		}
+	}
+
+	@Test
+	public void testMergeFrameChangeAndTags() throws IOException
+	{
+		final File csvFile = File.createTempFile( "TestCSVImportMergeFrame", ".csv" );
+		csvFile.deleteOnExit();
+		Files.write( csvFile.toPath(), ( "ID,POSITION_X,POSITION_Y,POSITION_Z,FRAME,PARENT_ID,TAG\n"
+				+ "0,0,0,0,0,,a\n"
+				+ "1,1,0,0,1,0,b\n"
+				+ "2,2,0,0,3,1,a\n" ).getBytes( StandardCharsets.UTF_8 ) );
+
+		final CSVImporter.Builder builder = CSVImporter.create()
+				.csvFilePath( csvFile.getPath() )
+				.radius( 1. )
+				.xColumnName( "POSITION_X" )
+				.yColumnName( "POSITION_Y" )
+				.zColumnName( "POSITION_Z" )
+				.frameColumnName( "FRAME" )
+				.idColumnName( "ID" )
+				.parentIdColumnName( "PARENT_ID" )
+				.tagColumnName( "TAG" );
+		final Model model = new Model();
+		final CSVImporter first = builder.model( model ).get();
+		if ( !first.checkInput() || !first.process() )
+			fail( first.getErrorMessage() );
+		assertTrue( "No error should be reported.", first.getErrors().isEmpty() );
+
+		// Spot 1 moves to frame 2, without tag column.
+		Files.write( csvFile.toPath(), ( "ID,POSITION_X,POSITION_Y,POSITION_Z,FRAME,PARENT_ID\n"
+				+ "0,0,0,0,0,\n"
+				+ "1,1,0,0,2,0\n"
+				+ "2,2,0,0,3,1\n" ).getBytes( StandardCharsets.UTF_8 ) );
+		final CSVImporter merge = builder.mergeMode( CSVImporter.MergeMode.MERGE ).get();
+		if ( !merge.checkInput() || !merge.process() )
+			fail( merge.getErrorMessage() );
+		assertTrue( "No error should be reported.", merge.getErrors().isEmpty() );
+
+		final ModelGraph graph = model.getGraph();
+		assertEquals( "Incorrect number of spots after merging.", 3, graph.vertices().size() );
+		assertEquals( "Incorrect number of links after merging.", 2, graph.edges().size() );
+		assertEquals( 1, merge.getStatistics().getSpotsUpdated() );
+		final TagSetStructure.TagSet tagSet = model.getTagSetModel().getTagSetStructure().getTagSets().get( 0 );
+		final ObjTagMap< Spot, TagSetStructure.Tag > spotTags = model.getTagSetModel().getVertexTags().tags( tagSet );
+		final ObjTagMap< Link, TagSetStructure.Tag > linkTags = model.getTagSetModel().getEdgeTags().tags( tagSet );
+		for ( final Spot spot : graph.vertices() )
+		{
+			if ( spot.getDoublePosition( 0 ) != 1. )
+				continue;
+			assertEquals( "The frame should be updated.", 2, spot.getTimepoint() );
+			assertEquals( "The links should be moved to the new spot.", 1, spot.incomingEdges().size() );
+			assertEquals( "The links should be moved to the new spot.", 1, spot.outgoingEdges().size() );
+			assertEquals( "The tags should be moved to the new spot.", "b", spotTags.get( spot ).label() );
+			assertEquals( "The links should keep their tags.", "b", linkTags.get( spot.incomingEdges().iterator().next() ).label() );
+		}
+
+		// A new tag is added to the same tag set.
+		Files.write( csvFile.toPath(), ( "ID,POSITION_X,POSITION_Y,POSITION_Z,FRAME,PARENT_ID,TAG\n"
+				+ "0,0,0,0,0,,a\n"
+				+ "1,1,0,0,2,0,c\n"
+				+ "2,2,0,0,3,1,a\n" ).getBytes( StandardCharsets.UTF_8 ) );
+		final CSVImporter retag = builder.get();
+		if ( !retag.checkInput() || !retag.process() )
+			fail( retag.getErrorMessage() );
+		final List< TagSetStructure.TagSet > tagSets = model.getTagSetModel().getTagSetStructure().getTagSets();
+		assertEquals( "The tag set should be reused.", 1, tagSets.size() );
+		assertEquals( 3, tagSets.get( 0 ).getTags().size() );
+		for ( final Spot spot : graph.vertices() )
+			if ( spot.getDoublePosition( 0 ) == 1. )
+				assertEquals( "c", model.getTagSetModel().getVertexTags().tags( tagSets.get( 0 ) ).get( spot ).label() );
+	}
+
+	@Test
+	public void testCancel()
+	{
+		final URL urlCSV = CSVImporterTest.class.getResource( "TestCSVImportTagParentIdRadius.csv" );
+		assertNotNull( urlCSV );
+
+		final Model model = new Model();
+		final CSVImporter importer = CSVImporter.create()
+				.model( model )
+				.csvFilePath( urlCSV.getPath() )
+				.radius( 3. )
+				.xColumnName( "POSITION_X" )
+				.yColumnName( "POSITION_Y" )
+				.zColumnName( "POSITION_Z" )
+				.frameColumnName( "FRAME" )
+				.idColumnName( "ID" )
+				.parentIdColumnName( "PARENT_ID" )
+				.get();
+		importer.cancel( "Test." );
+		assertFalse( importer.process() );
+		assertTrue( importer.isCanceled() );
+		assertEquals( 0, model.getGraph().vertices().size() );
+		assertEquals( 0, model.getGraph().edges().size() );
+	}
 }
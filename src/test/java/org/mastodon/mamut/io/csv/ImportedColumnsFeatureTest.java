@@ -0,0 +1,107 @@
+/*-
+ * #%L
+ * mastodon-pasteur
+ * %%
+ * Copyright (C) 2019 - 2025 Tobias Pietzsch, Jean-Yves Tinevez
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package org.mastodon.mamut.io.csv;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+import org.mastodon.RefPool;
+import org.mastodon.feature.FeatureProjection;
+import org.mastodon.mamut.io.csv.ImportedColumnsFeature.ColumnProjection;
+import org.mastodon.mamut.model.Model;
+import org.mastodon.mamut.model.ModelGraph;
+import org.mastodon.mamut.model.Spot;
+
+public class ImportedColumnsFeatureTest
+{
+
+	@Test
+	public void testSerializeRoundTrip() throws IOException, ClassNotFoundException
+	{
+		final Model model = new Model();
+		final ModelGraph graph = model.getGraph();
+		final List< Spot > spots = new ArrayList<>();
+		for ( int i = 0; i < 4; i++ )
+			spots.add( graph.addVertex().init( i, new double[] { i, 0, 0 }, 1. ) );
+
+		final ImportedColumnsFeature feature = ImportedColumnsFeature.getOrRegister( model.getFeatureModel(), graph.vertices() );
+		final ColumnProjection intensity = feature.getOrAdd( "INTENSITY" );
+		final ColumnProjection area = feature.getOrAdd( "AREA" );
+		intensity.set( spots.get( 0 ), 12.5 );
+		intensity.set( spots.get( 2 ), -3. );
+		area.set( spots.get( 1 ), 1e9 );
+		area.set( spots.get( 3 ), Double.POSITIVE_INFINITY );
+
+		final RefPool< Spot > pool = graph.vertices().getRefPool();
+		final ImportedColumnsFeature.Serializer serializer = new ImportedColumnsFeature.Serializer();
+		final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		try (final ObjectOutputStream oos = new ObjectOutputStream( bytes ))
+		{
+			serializer.serialize( feature, pool::getId, oos );
+		}
+		final ImportedColumnsFeature deserialized;
+		try (final ObjectInputStream ois = new ObjectInputStream( new ByteArrayInputStream( bytes.toByteArray() ) ))
+		{
+			deserialized = serializer.deserialize( pool::getObject, graph.vertices(), ois );
+		}
+
+		assertEquals( "The columns should be kept in order.", 2, deserialized.projections().size() );
+		final List< String > names = new ArrayList<>();
+		for ( final FeatureProjection< Spot > projection : deserialized.projections() )
+			names.add( projection.getKey().getSpec().getKey() );
+		assertEquals( "INTENSITY", names.get( 0 ) );
+		assertEquals( "AREA", names.get( 1 ) );
+
+		for ( final String column : new String[] { "INTENSITY", "AREA" } )
+		{
+			final ColumnProjection expected = feature.get( column );
+			final ColumnProjection actual = deserialized.get( column );
+			assertNotNull( actual );
+			for ( final Spot spot : spots )
+			{
+				assertEquals( column + " set", expected.isSet( spot ), actual.isSet( spot ) );
+				if ( expected.isSet( spot ) )
+					assertEquals( column + " value", expected.value( spot ), actual.value( spot ), 0. );
+			}
+		}
+		assertTrue( deserialized.get( "INTENSITY" ).isSet( spots.get( 2 ) ) );
+		assertFalse( deserialized.get( "INTENSITY" ).isSet( spots.get( 1 ) ) );
+	}
+}
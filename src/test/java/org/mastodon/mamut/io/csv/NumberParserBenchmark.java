@@ -0,0 +1,98 @@
+/*-
+ * #%L
+ * mastodon-pasteur
+ * %%
+ * Copyright (C) 2019 - 2025 Tobias Pietzsch, Jean-Yves Tinevez
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package org.mastodon.mamut.io.csv;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Locale;
+import java.util.Random;
+
+/**
+ * Compares the speed of {@link NumberParser} to creating a string and
+ * calling {@link Double#parseDouble(String)}, on numbers formatted like the
+ * coordinates, radii and qualities of a CSV file: with a fixed number of
+ * decimals, in scientific notation, and with all the digits of
+ * {@link Double#toString(double)}. The latter are mostly delegated to
+ * {@link Double#parseDouble(String)}.
+ */
+public class NumberParserBenchmark
+{
+
+	private static final int N_NUMBERS = 1_000_000;
+
+	private static final int N_ROUNDS = 10;
+
+	private static final String[] FORMATS = new String[] { "%.3f", "%.4e", "full" };
+
+	public static void main( final String[] args )
+	{
+		Locale.setDefault( Locale.ROOT );
+		for ( final String format : FORMATS )
+			run( format );
+	}
+
+	private static void run( final String format )
+	{
+		final Random random = new Random( 1l );
+		final StringBuilder str = new StringBuilder();
+		final int[] starts = new int[ N_NUMBERS + 1 ];
+		for ( int i = 0; i < N_NUMBERS; i++ )
+		{
+			starts[ i ] = str.length();
+			final double val = random.nextDouble() * 1000.;
+			str.append( format.equals( "full" ) ? Double.toString( val ) : String.format( format, val ) );
+		}
+		starts[ N_NUMBERS ] = str.length();
+		final byte[] bytes = str.toString().getBytes( StandardCharsets.US_ASCII );
+		final ByteBuffer buffer = ByteBuffer.allocateDirect( bytes.length );
+		buffer.put( bytes );
+		final NumberParser parser = new NumberParser( true );
+
+		System.out.println( String.format( "Parsing %d numbers formatted with %s, %.1f MB.", N_NUMBERS, format, bytes.length / 1e6 ) );
+		for ( int round = 0; round < N_ROUNDS; round++ )
+		{
+			long t0 = System.nanoTime();
+			double sum1 = 0.;
+			for ( int i = 0; i < N_NUMBERS; i++ )
+				sum1 += parser.parseDouble( buffer, starts[ i ], starts[ i + 1 ] );
+			final long t1 = System.nanoTime() - t0;
+
+			t0 = System.nanoTime();
+			double sum2 = 0.;
+			for ( int i = 0; i < N_NUMBERS; i++ )
+				sum2 += Double.parseDouble( new String( bytes, starts[ i ], starts[ i + 1 ] - starts[ i ], StandardCharsets.US_ASCII ) );
+			final long t2 = System.nanoTime() - t0;
+
+			if ( sum1 != sum2 )
+				throw new AssertionError( "Different results: " + sum1 + " vs " + sum2 );
+			System.out.println( String.format( " - round %d - NumberParser: %5.1f ns/number, Double.parseDouble: %5.1f ns/number, speedup %.1fx.",
+					round, ( double ) t1 / N_NUMBERS, ( double ) t2 / N_NUMBERS, ( double ) t2 / t1 ) );
+		}
+	}
+}
@@ -0,0 +1,141 @@
+/*-
+ * #%L
+ * mastodon-pasteur
+ * %%
+ * Copyright (C) 2019 - 2025 Tobias Pietzsch, Jean-Yves Tinevez
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package org.mastodon.mamut.io.csv;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.nio.ByteBuffer;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class NumberParserTest
+{
+
+	private static final String[] VALID = new String[] {
+			"0", "-0", "+0", "0.0", "-0.0", "1", "-1", "+1.5", ".5", "5.", "1e5", "1E-5", "1.5e+10", "-2.5E-3",
+			"0.1", "0.3", "123.456", "3.141592653589793", "2.718281828459045",
+			"9007199254740991", "9007199254740993", "123456789012345678901234567890",
+			"0.000000000000000000000000000001", "1e22", "1e23", "1e-22", "1e-23",
+			"4.9e-324", "2.2250738585072014E-308", "1.7976931348623157E308",
+			"1e400", "-1e400", "1e-400",
+			"NaN", "Infinity", "-Infinity", "0x1p3", "1.0f", "2d", "00012.50" };
+
+	private static final String[] INVALID = new String[] {
+			"-", "+", ".", "e5", "1e", "1e+", "1.2.3", "abc", "N/A", "1 2", "--1", "1,5,3", "12a" };
+
+	@Test
+	public void testValid()
+	{
+		final NumberParser parser = new NumberParser( false );
+		for ( final String str : VALID )
+		{
+			final double val = parser.parseDouble( str );
+			assertNull( str, parser.getError() );
+			assertEquals( str, Double.doubleToRawLongBits( Double.parseDouble( str ) ), Double.doubleToRawLongBits( val ) );
+		}
+	}
+
+	@Test
+	public void testInvalid()
+	{
+		final NumberParser parser = new NumberParser( false );
+		for ( final String str : INVALID )
+		{
+			parser.parseDouble( str );
+			assertEquals( str, ImportErrors.Kind.MALFORMED_NUMBER, parser.getError() );
+		}
+		parser.parseDouble( "" );
+		assertEquals( ImportErrors.Kind.MISSING_VALUE, parser.getError() );
+	}
+
+	@Test
+	public void testCommaDecimalMark()
+	{
+		final NumberParser parser = new NumberParser( true );
+		for ( final String str : VALID )
+		{
+			final String comma = str.replace( '.', ',' );
+			final double val = parser.parseDouble( comma );
+			assertNull( comma, parser.getError() );
+			assertEquals( comma, Double.doubleToRawLongBits( Double.parseDouble( str ) ), Double.doubleToRawLongBits( val ) );
+		}
+
+		// Without comma decimal marks.
+		final NumberParser strict = new NumberParser( false );
+		strict.parseDouble( "1,5" );
+		assertEquals( ImportErrors.Kind.MALFORMED_NUMBER, strict.getError() );
+	}
+
+	@Test
+	public void testRoundTrip()
+	{
+		final NumberParser parser = new NumberParser( true );
+		final Random random = new Random( 1l );
+		for ( int i = 0; i < 1_000_000; i++ )
+		{
+			final double expected;
+			switch ( i % 4 )
+			{
+			case 0:
+				expected = random.nextDouble() * 1000.;
+				break;
+			case 1:
+				expected = Double.longBitsToDouble( random.nextLong() );
+				break;
+			case 2:
+				// Values with few digits, as written by most tools.
+				expected = Math.round( random.nextGaussian() * 1e6 ) / 1e3;
+				break;
+			default:
+				expected = random.nextInt() * Math.pow( 10, random.nextInt( 40 ) - 20 );
+				break;
+			}
+			final String str = Double.toString( expected );
+			final double val = parser.parseDouble( str );
+			assertEquals( str, Double.doubleToRawLongBits( Double.parseDouble( str ) ), Double.doubleToRawLongBits( val ) );
+		}
+	}
+
+	@Test
+	public void testLong()
+	{
+		final NumberParser parser = new NumberParser( false );
+		final ByteBuffer buffer = ByteBuffer.wrap( "9223372036854775807;-9223372036854775808;9223372036854775808;12a".getBytes() );
+		assertEquals( Long.MAX_VALUE, parser.parseLong( buffer, 0, 19 ) );
+		assertNull( parser.getError() );
+		assertEquals( Long.MIN_VALUE, parser.parseLong( buffer, 20, 40 ) );
+		assertNull( parser.getError() );
+		parser.parseLong( buffer, 41, 60 );
+		assertEquals( ImportErrors.Kind.NUMBER_OUT_OF_RANGE, parser.getError() );
+		parser.parseLong( buffer, 61, 64 );
+		assertEquals( ImportErrors.Kind.MALFORMED_NUMBER, parser.getError() );
+	}
+}
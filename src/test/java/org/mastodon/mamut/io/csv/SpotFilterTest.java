@@ -0,0 +1,78 @@
+/*-
+ * #%L
+ * mastodon-pasteur
+ * %%
+ * Copyright (C) 2019 - 2025 Tobias Pietzsch, Jean-Yves Tinevez
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package org.mastodon.mamut.io.csv;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class SpotFilterTest
+{
+
+	@Test
+	public void testAll()
+	{
+		assertFalse( SpotFilter.ALL.isSelective() );
+		assertTrue( SpotFilter.ALL.accept( -1e9, 0., 1e9, Integer.MIN_VALUE, Double.NaN, SpotBatch.NO_ID ) );
+	}
+
+	@Test
+	public void testFramesQualityAndBox()
+	{
+		final SpotFilter filter = new SpotFilter( 2, 10, 3, 0.5,
+				new double[] { 0., 0., 0. }, new double[] { 10., 10., 1. }, 1., 0 );
+		assertTrue( filter.isSelective() );
+		assertTrue( filter.accept( 5., 5., 0., 2, 0.5, 1 ) );
+		assertTrue( filter.accept( 5., 5., 0., 8, 0.5, 1 ) );
+		assertFalse( "Outside of the frame range.", filter.accept( 5., 5., 0., 11, 0.5, 1 ) );
+		assertFalse( "Not on the frame stride.", filter.accept( 5., 5., 0., 3, 0.5, 1 ) );
+		assertFalse( "Quality too low.", filter.accept( 5., 5., 0., 2, 0.4, 1 ) );
+		assertTrue( "No quality column.", filter.accept( 5., 5., 0., 2, Double.NaN, 1 ) );
+		assertFalse( "Outside of the box.", filter.accept( 5., 5., 1.5, 2, 0.5, 1 ) );
+	}
+
+	@Test
+	public void testSubsample()
+	{
+		final int n = 100_000;
+		final SpotFilter filter = new SpotFilter( Integer.MIN_VALUE, Integer.MAX_VALUE, 1, Double.NEGATIVE_INFINITY, null, null, 0.25, 42 );
+		final SpotFilter same = new SpotFilter( Integer.MIN_VALUE, Integer.MAX_VALUE, 1, Double.NEGATIVE_INFINITY, null, null, 0.25, 42 );
+		int nAccepted = 0;
+		for ( int id = 0; id < n; id++ )
+		{
+			final boolean accepted = filter.accept( 0., 0., 0., 0, 1., id );
+			assertEquals( "The same seed should select the same rows.", accepted, same.accept( 1., 2., 3., 4, 1., id ) );
+			if ( accepted )
+				nAccepted++;
+		}
+		assertEquals( 0.25 * n, nAccepted, 0.01 * n );
+	}
+}
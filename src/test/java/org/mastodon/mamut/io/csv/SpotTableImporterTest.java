@@ -0,0 +1,198 @@
+/*-
+ * #%L
+ * mastodon-pasteur
+ * %%
+ * Copyright (C) 2019 - 2025 Tobias Pietzsch, Jean-Yves Tinevez
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package org.mastodon.mamut.io.csv;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+import org.junit.Test;
+import org.mastodon.mamut.io.csv.CSVImporter.OriginalIdFeature;
+import org.mastodon.mamut.model.Model;
+import org.mastodon.mamut.model.ModelGraph;
+import org.mastodon.mamut.model.Spot;
+import org.mastodon.model.tag.ObjTagMap;
+import org.mastodon.model.tag.TagSetStructure;
+import org.mastodon.tracking.mamut.detection.DetectionQualityFeature;
+
+public class SpotTableImporterTest
+{
+
+	private static final double[] X = new double[] { 11., 30., 36., 30., 36. };
+
+	private static final double[] Y = new double[] { 11., 31., 12., 31., 12. };
+
+	private static final double[] Z = new double[] { 5., 6., 7., 8., 9. };
+
+	private static final int[] FRAME = new int[] { 0, 0, 0, 1, 2 };
+
+	private static final double[] RADIUS = new double[] { 5.73, 4., 2., 4., 2. };
+
+	private static final double[] QUALITY = new double[] { 50.943, 206.877, 130.664, 206.877, 130.664 };
+
+	private static final int[] ID = new int[] { 10, 11, 12, 13, 14 };
+
+	private static final int[] PARENT_ID = new int[] { -1, -1, -1, 12, 13 };
+
+	private static final int[] TAG = new int[] { 0, 0, 1, -1, 1 };
+
+	private static final String[] TAG_LABELS = new String[] { "tag1", "tag2" };
+
+	@Test
+	public void testImport() throws IOException
+	{
+		final File file = File.createTempFile( "SpotTableImporterTest", ".spots" );
+		file.deleteOnExit();
+		writeSpotTable( file, SpotTableImporter.RADIUS | SpotTableImporter.QUALITY | SpotTableImporter.ID
+				| SpotTableImporter.PARENT_ID | SpotTableImporter.TAG );
+
+		final Model model = new Model();
+		final SpotTableImporter importer = SpotTableImporter.create()
+				.model( model )
+				.filePath( file.getAbsolutePath() )
+				.get();
+		if ( !importer.checkInput() || !importer.process() )
+			fail( importer.getErrorMessage() );
+
+		final ModelGraph graph = model.getGraph();
+		assertEquals( "Incorrect number of spots imported.", 5, graph.vertices().size() );
+		assertEquals( "Incorrect number of links imported.", 2, graph.edges().size() );
+
+		final DetectionQualityFeature quality = DetectionQualityFeature.getOrRegister( model.getFeatureModel(), graph.vertices().getRefPool() );
+		final OriginalIdFeature originalId = OriginalIdFeature.getOrRegister( model.getFeatureModel(), graph.vertices().getRefPool() );
+		final TagSetStructure.TagSet tagSet = model.getTagSetModel().getTagSetStructure().getTagSets().get( 0 );
+		final ObjTagMap< Spot, TagSetStructure.Tag > spotToTagMap = model.getTagSetModel().getVertexTags().tags( tagSet );
+		assertEquals( "Imported Tags", tagSet.getName() );
+		assertEquals( 2, tagSet.getTags().size() );
+
+		for ( final Spot spot : graph.vertices() )
+		{
+			final int i = spot.getInternalPoolIndex();
+			assertArrayEquals( new double[] { X[ i ], Y[ i ], Z[ i ] }, spot.positionAsDoubleArray(), 0. );
+			assertEquals( FRAME[ i ], spot.getTimepoint() );
+			assertEquals( RADIUS[ i ] * RADIUS[ i ], spot.getBoundingSphereRadiusSquared(), 1e-9 );
+			assertEquals( QUALITY[ i ], quality.value( spot ), 0. );
+			assertEquals( ID[ i ], originalId.value( spot ), 0. );
+			assertEquals( "" + ID[ i ], spot.getLabel() );
+			assertEquals( PARENT_ID[ i ] < 0 ? 0 : 1, spot.incomingEdges().size() );
+			final TagSetStructure.Tag tag = spotToTagMap.get( spot );
+			if ( TAG[ i ] < 0 )
+				assertNull( tag );
+			else
+				assertEquals( TAG_LABELS[ TAG[ i ] ], tag.label() );
+		}
+	}
+
+	@Test
+	public void testMissingRadius() throws IOException
+	{
+		final File file = File.createTempFile( "SpotTableImporterTest", ".spots" );
+		file.deleteOnExit();
+		writeSpotTable( file, 0 );
+
+		final SpotTableImporter importer = SpotTableImporter.create()
+				.model( new Model() )
+				.filePath( file.getAbsolutePath() )
+				.get();
+		assertFalse( importer.checkInput() );
+	}
+
+	/**
+	 * Writes the test data with the specified optional columns.
+	 */
+	private static void writeSpotTable( final File file, final int flags ) throws IOException
+	{
+		final int n = X.length;
+		final ByteBuffer buffer = ByteBuffer.allocate( 1024 ).order( ByteOrder.LITTLE_ENDIAN );
+		buffer.put( SpotTableImporter.MAGIC.getBytes( StandardCharsets.US_ASCII ) );
+		buffer.putInt( SpotTableImporter.VERSION );
+		buffer.putInt( flags );
+		buffer.putLong( n );
+		final boolean hasTags = ( flags & SpotTableImporter.TAG ) != 0;
+		buffer.putInt( hasTags ? TAG_LABELS.length : 0 );
+		if ( hasTags )
+		{
+			for ( final String label : TAG_LABELS )
+			{
+				final byte[] bytes = label.getBytes( StandardCharsets.UTF_8 );
+				buffer.putInt( bytes.length );
+				buffer.put( bytes );
+			}
+		}
+		pad( buffer );
+
+		for ( final double[] column : new double[][] { X, Y, Z } )
+			putDoubles( buffer, column );
+		putInts( buffer, FRAME );
+		if ( ( flags & SpotTableImporter.RADIUS ) != 0 )
+			putDoubles( buffer, RADIUS );
+		if ( ( flags & SpotTableImporter.QUALITY ) != 0 )
+			putDoubles( buffer, QUALITY );
+		if ( ( flags & SpotTableImporter.ID ) != 0 )
+			putInts( buffer, ID );
+		if ( ( flags & SpotTableImporter.PARENT_ID ) != 0 )
+			putInts( buffer, PARENT_ID );
+		if ( hasTags )
+			putInts( buffer, TAG );
+
+		buffer.flip();
+		final byte[] bytes = new byte[ buffer.remaining() ];
+		buffer.get( bytes );
+		Files.write( file.toPath(), bytes );
+	}
+
+	private static void putDoubles( final ByteBuffer buffer, final double[] values )
+	{
+		for ( final double v : values )
+			buffer.putDouble( v );
+		pad( buffer );
+	}
+
+	private static void putInts( final ByteBuffer buffer, final int[] values )
+	{
+		for ( final int v : values )
+			buffer.putInt( v );
+		pad( buffer );
+	}
+
+	private static void pad( final ByteBuffer buffer )
+	{
+		while ( buffer.position() % 8 != 0 )
+			buffer.put( ( byte ) 0 );
+	}
+}
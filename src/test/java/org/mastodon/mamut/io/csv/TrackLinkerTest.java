@@ -0,0 +1,70 @@
+/*-
+ * #%L
+ * mastodon-pasteur
+ * %%
+ * Copyright (C) 2019 - 2025 Tobias Pietzsch, Jean-Yves Tinevez
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package org.mastodon.mamut.io.csv;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+public class TrackLinkerTest
+{
+
+	@Test
+	public void testSort()
+	{
+		final int n = 100_000;
+		final Random ran = new Random( 1 );
+		final long[] track = new long[ n ];
+		final int[] frame = new int[ n ];
+		final int[] spot = new int[ n ];
+		for ( int i = 0; i < n; i++ )
+		{
+			// Few tracks and frames, so that there are many equal keys.
+			track[ i ] = ran.nextInt( 100 ) - 50;
+			frame[ i ] = ran.nextInt( 50 );
+			spot[ i ] = i;
+		}
+		final long[] track0 = track.clone();
+		final int[] frame0 = frame.clone();
+
+		TrackLinker.sort( track, frame, spot, 0, n - 1 );
+
+		for ( int i = 0; i < n; i++ )
+		{
+			// Rows move together.
+			assertEquals( track0[ spot[ i ] ], track[ i ] );
+			assertEquals( frame0[ spot[ i ] ], frame[ i ] );
+			if ( i > 0 )
+				assertTrue( track[ i - 1 ] < track[ i ] || ( track[ i - 1 ] == track[ i ] && frame[ i - 1 ] <= frame[ i ] ) );
+		}
+	}
+}
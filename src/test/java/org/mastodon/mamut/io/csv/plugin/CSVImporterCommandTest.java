@@ -0,0 +1,168 @@
+/*-
+ * #%L
+ * mastodon-pasteur
+ * %%
+ * Copyright (C) 2019 - 2025 Tobias Pietzsch, Jean-Yves Tinevez
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package org.mastodon.mamut.io.csv.plugin;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.lang.reflect.Field;
+
+import org.junit.Test;
+import org.mastodon.mamut.io.csv.CSVImporter.IdType;
+
+public class CSVImporterCommandTest
+{
+
+	private static final String[] REQUIRED = new String[] { "--csv", "spots.csv", "--bdv", "image.xml", "--project", "out.mastodon" };
+
+	@Test
+	public void testRequiredOptions()
+	{
+		final CSVImporterCommand command = parse();
+		assertEquals( new File( "spots.csv" ), get( command, "csvFile" ) );
+		assertEquals( new File( "image.xml" ), get( command, "bdvFile" ) );
+		assertEquals( new File( "out.mastodon" ), get( command, "projectFile" ) );
+		// Defaults.
+		assertEquals( "POSITION_X", get( command, "xColumn" ) );
+		assertEquals( false, get( command, "importAllExtraColumns" ) );
+		assertEquals( true, get( command, "materializeLabels" ) );
+		assertNull( get( command, "minFrame" ) );
+	}
+
+	@Test
+	public void testFlags()
+	{
+		final CSVImporterCommand command = parse( "--all-columns", "--frame-index", "--no-labels" );
+		assertEquals( true, get( command, "importAllExtraColumns" ) );
+		assertEquals( true, get( command, "frameIndex" ) );
+		assertEquals( false, get( command, "materializeLabels" ) );
+	}
+
+	@Test
+	public void testNameEqualsValue()
+	{
+		final CSVImporterCommand command = parse( "--x=X", "--radius=2.5", "--id-type=long", "--separator=;", "--origin=1,2,3" );
+		assertEquals( "X", get( command, "xColumn" ) );
+		assertEquals( 2.5, ( double ) get( command, "radius" ), 0. );
+		assertEquals( IdType.LONG, get( command, "idType" ) );
+		assertEquals( ";", get( command, "separator" ) );
+		assertEquals( 3., ( double ) get( command, "zOrigin" ), 0. );
+	}
+
+	@Test
+	public void testFrameRange()
+	{
+		CSVImporterCommand command = parse( "--frames", "5:" );
+		assertEquals( 5, get( command, "minFrame" ) );
+		assertNull( "An empty bound should not limit the range.", get( command, "maxFrame" ) );
+
+		command = parse( "--frames=:7" );
+		assertNull( get( command, "minFrame" ) );
+		assertEquals( 7, get( command, "maxFrame" ) );
+
+		command = parse( "--frames", "2:4" );
+		assertEquals( 2, get( command, "minFrame" ) );
+		assertEquals( 4, get( command, "maxFrame" ) );
+	}
+
+	@Test
+	public void testSubsample()
+	{
+		CSVImporterCommand command = parse( "--subsample", "0.25:42" );
+		assertEquals( 0.25, ( double ) get( command, "sampleFraction" ), 0. );
+		assertEquals( 42L, get( command, "sampleSeed" ) );
+
+		command = parse( "--subsample=0.5" );
+		assertEquals( 0.5, ( double ) get( command, "sampleFraction" ), 0. );
+		assertEquals( "The seed should keep its default.", 0L, get( command, "sampleSeed" ) );
+	}
+
+	@Test
+	public void testErrors()
+	{
+		assertInvalid( "Missing arguments." );
+		assertInvalid( "The --csv, --bdv and --project options are required.", "--csv", "spots.csv" );
+		assertInvalid( "Unexpected argument: spots.csv", "spots.csv" );
+		assertInvalid( "Unknown option: --foo", concat( "--foo", "bar" ) );
+		assertInvalid( "Missing value for --radius", concat( "--radius" ) );
+		assertInvalid( "Invalid value for --radius: abc", concat( "--radius", "abc" ) );
+		assertInvalid( "Invalid value for --frames: a:b", concat( "--frames=a:b" ) );
+		assertInvalid( "The frame range must be given as MIN:MAX: 5", concat( "--frames", "5" ) );
+		assertInvalid( "Invalid value for --subsample: 0.5:x", concat( "--subsample", "0.5:x" ) );
+		assertInvalid( "The origin must have 3 values: 1,2", concat( "--origin", "1,2" ) );
+	}
+
+	private static void assertInvalid( final String expectedMessage, final String... args )
+	{
+		try
+		{
+			CSVImporterCommand.parse( args );
+			fail( "Parsing should fail: " + String.join( " ", args ) );
+		}
+		catch ( final IllegalArgumentException e )
+		{
+			assertEquals( expectedMessage, e.getMessage() );
+		}
+	}
+
+	/**
+	 * Appends the specified options to the required ones.
+	 */
+	private static String[] concat( final String... args )
+	{
+		final String[] all = new String[ REQUIRED.length + args.length ];
+		System.arraycopy( REQUIRED, 0, all, 0, REQUIRED.length );
+		System.arraycopy( args, 0, all, REQUIRED.length, args.length );
+		return all;
+	}
+
+	private static CSVImporterCommand parse( final String... args )
+	{
+		return CSVImporterCommand.parse( concat( args ) );
+	}
+
+	/**
+	 * Returns the value of a parameter of the command, set by the parser.
+	 */
+	private static Object get( final CSVImporterCommand command, final String fieldName )
+	{
+		try
+		{
+			final Field field = CSVImporterCommand.class.getDeclaredField( fieldName );
+			field.setAccessible( true );
+			return field.get( command );
+		}
+		catch ( final ReflectiveOperationException e )
+		{
+			throw new AssertionError( e );
+		}
+	}
+}